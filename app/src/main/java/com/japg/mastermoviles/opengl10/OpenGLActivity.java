@@ -8,6 +8,7 @@ import android.content.pm.ConfigurationInfo;
 import android.opengl.GLSurfaceView;
 import android.os.Build;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -19,11 +20,19 @@ import android.widget.FrameLayout;
 import android.widget.ImageButton;
 
 import androidx.appcompat.app.AppCompatActivity;
+
+import com.japg.mastermoviles.opengl10.input.TouchChannel;
+import com.japg.mastermoviles.opengl10.perf.FrameStats;
+import com.japg.mastermoviles.opengl10.render.FrameScheduler;
+import com.japg.mastermoviles.opengl10.util.LoggerConfig;
+
+import java.io.File;
+import java.io.IOException;
+
 public class OpenGLActivity extends AppCompatActivity {
+    private static final String TAG = "OpenGLActivity";
     private GLSurfaceView glSurfaceView;
     private boolean rendererSet = false;
-    private float dstX = 1f;
-    private float dstY = 1f;
     private ImageButton leftButton;
     private ImageButton rightButton;
     private OpenGLRenderer openGLRenderer;
@@ -44,7 +53,8 @@ public class OpenGLActivity extends AppCompatActivity {
     private void initUI(){
         //Surface View
         glSurfaceView = new GLSurfaceView(this);
-        openGLRenderer = new OpenGLRenderer(this);
+        openGLRenderer = new OpenGLRenderer(this, glSurfaceView::requestRender);
+        openGLRenderer.getScheduler().setRefreshRate(getWindowManager().getDefaultDisplay().getRefreshRate());
         final ActivityManager activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
         final ConfigurationInfo configurationInfo = activityManager.getDeviceConfigurationInfo();
 
@@ -65,6 +75,8 @@ public class OpenGLActivity extends AppCompatActivity {
             // -----------------------
             glSurfaceView.setRenderer(openGLRenderer);
             // -----------------------
+            // Frames only when the renderer (or input) asks for them, not at the refresh rate forever
+            glSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
             rendererSet = true;
             makeText(this, "OpenGL ES 2.0 supported", LENGTH_LONG).show();
         } else {
@@ -72,6 +84,9 @@ public class OpenGLActivity extends AppCompatActivity {
             return;
         }
 
+        // Touches go to the renderer's TouchChannel, which keeps the latest state for the next frame:
+        // nothing is allocated or queued per event, however fast the panel reports them
+        final TouchChannel touch = openGLRenderer.getTouchChannel();
         glSurfaceView.setOnTouchListener((v, event) -> {
             if (event != null) {
                 // Android's Y coordinates are inverted --> normalization
@@ -79,33 +94,19 @@ public class OpenGLActivity extends AppCompatActivity {
                 final float normalizedY = -((event.getY() / (float) v.getHeight()) * 2 - 1);
 
                 if (event.getAction() == MotionEvent.ACTION_DOWN) {
-                    glSurfaceView.queueEvent(() -> openGLRenderer.handleTouchPress(normalizedX, normalizedY));
-                    //old distances
-                    dstX = normalizedX;
-                    dstY = normalizedY;
+                    touch.press(normalizedX, normalizedY);
+                    glSurfaceView.requestRender();
 
                 } else if (event.getAction() == MotionEvent.ACTION_MOVE) {
-                    glSurfaceView.queueEvent(() -> openGLRenderer.handleTouchDrag(normalizedX, normalizedY));
-                    //Flinch event detected
+                    //Flinch event detected: both fingers of the same event make the pinch distance
                     if (event.getPointerCount() == 2) {
                         float secondFingerX = (event.getX(1) / (float) v.getWidth()) * 2 - 1;
                         float secondFingerY = -((event.getY(1) / (float) v.getHeight()) * 2 - 1);
-                        float distanceNew = calculateDistance(normalizedX, normalizedY, secondFingerX, secondFingerY);
-                        float distanceOld = calculateDistance(dstX, dstY, secondFingerX, secondFingerY);
-                        // Check for zoom out (absolute value of old distance is less than new distance)
-                        if (Math.abs(distanceOld) < Math.abs(distanceNew)) {
-                            float zoomFactor = (distanceNew - distanceOld) * 10; // Adjust sensitivity as needed
-                            glSurfaceView.queueEvent(() -> openGLRenderer.handleZoomOut(zoomFactor));
-                        }
-
-                        if (Math.abs(distanceOld) > Math.abs(distanceNew)) {
-                            float zoomFactor = (distanceOld - distanceNew) * 10; // Adjust sensitivity as needed
-                            glSurfaceView.queueEvent(() -> openGLRenderer.handleZoomIn(zoomFactor));
-                        }
-                        dstX = normalizedX;
-                        dstY = normalizedY;
-
+                        touch.pinch(normalizedX, normalizedY, secondFingerX, secondFingerY);
+                    } else {
+                        touch.move(normalizedX, normalizedY);
                     }
+                    glSurfaceView.requestRender();
                 }
                 return true;
 
@@ -135,19 +136,35 @@ public class OpenGLActivity extends AppCompatActivity {
 
 
 
-    //Distance for the zoom in and the zoom out
-    private float calculateDistance(float x1, float y1, float x2, float y2) {
-        return (float) Math.sqrt((x2 - x1) * (x2 - x1) + (y2 - y1) * (y2 - y1));
-    }
-
     //Activities lifecycle
     @Override
     protected void onPause() {
         super.onPause();
         if (rendererSet) {
             glSurfaceView.onPause();
+            if (LoggerConfig.ON) {
+                dumpFrameStats();
+            }
         }
     }
+
+    // Logs the frame percentiles and the frames skipped while idle, and writes the recorded frames to frame_stats.csv in the app's files dir.
+    // Done off the UI thread: reading the stats never blocks the renderer.
+    private void dumpFrameStats() {
+        final FrameStats stats = openGLRenderer.getFrameStats();
+        final FrameScheduler scheduler = openGLRenderer.getScheduler();
+        final File file = new File(getFilesDir(), "frame_stats.csv");
+        new Thread(() -> {
+            Log.w(TAG, stats.snapshot().toString());
+            Log.w(TAG, "Frames rendered " + scheduler.getFramesRendered() + ", refresh intervals skipped "
+                    + scheduler.getFramesSkipped(System.nanoTime()));
+            try {
+                stats.dump(file);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not write " + file, e);
+            }
+        }, "FrameStatsDump").start();
+    }
     @Override
     protected void onResume() {
         super.onResume();
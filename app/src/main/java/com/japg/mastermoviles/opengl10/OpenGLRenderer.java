@@ -1,92 +1,227 @@
 package com.japg.mastermoviles.opengl10;
+import android.app.ActivityManager;
 import android.content.Context;
 import android.opengl.GLSurfaceView.Renderer;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.japg.mastermoviles.opengl10.input.TouchChannel;
+import com.japg.mastermoviles.opengl10.math.Mat4;
+import com.japg.mastermoviles.opengl10.perf.FrameStats;
+import com.japg.mastermoviles.opengl10.render.AndroidGl;
+import com.japg.mastermoviles.opengl10.render.DrawQueue;
+import com.japg.mastermoviles.opengl10.render.FrameScheduler;
+import com.japg.mastermoviles.opengl10.render.GLES20Backend;
+import com.japg.mastermoviles.opengl10.render.GLState;
+import com.japg.mastermoviles.opengl10.render.GLTextureSource;
+import com.japg.mastermoviles.opengl10.render.ProgramCache;
+import com.japg.mastermoviles.opengl10.render.SpecularPrograms;
+import com.japg.mastermoviles.opengl10.util.LoggerConfig;
+import com.japg.mastermoviles.opengl10.util.ModelLoader;
+
+import java.io.File;
+
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
-import static android.opengl.GLES20.GL_COLOR_BUFFER_BIT;
-import static android.opengl.GLES20.GL_CULL_FACE;
-import static android.opengl.GLES20.GL_DEPTH_BUFFER_BIT;
-import static android.opengl.GLES20.GL_DEPTH_TEST;
-import static android.opengl.GLES20.GL_TEXTURE0;
-import static android.opengl.GLES20.glActiveTexture;
-import static android.opengl.GLES20.glClear;
-import static android.opengl.GLES20.glEnable;
-import static android.opengl.GLES20.glLineWidth;
-import static android.opengl.GLES20.glViewport;
 
 public class OpenGLRenderer implements Renderer {
+	private static final String TAG = "OpenGLRenderer";
+	// Max bytes of vertex/index data sent to the GPU per frame while models are arriving
+	private static final int UPLOAD_BUDGET_BYTES = 512 * 1024;
+	// GPU memory kept for textures no model is using any more
+	private static final long TEXTURE_BUDGET_BYTES = 32L * 1024 * 1024;
+	// Frames kept by frameStats (about 17 s at 60 fps)
+	private static final int STATS_FRAMES = 1024;
+	// Zoom per unit of change in the distance between two fingers (normalized device coordinates)
+	private static final float PINCH_ZOOM = 10f;
+
 	private Context context;
 	private final float[] projectionMatrix = new float[16];
+	private final ModelLoader modelLoader;
+	private final GLES20Backend backend;
+	// Where the backend gets its textures; its decode buffers are freed once everything is loaded
+	private final GLTextureSource textureSource;
+	// What the models draw through: their draws are sorted by state before reaching the backend
+	private final DrawQueue drawQueue;
+	private final FrameStats frameStats = new FrameStats(STATS_FRAMES);
+	// Frames are drawn only while something moves or uploads (the view renders when dirty)
+	private final FrameScheduler scheduler;
+	// Touches from the UI thread, applied once per frame
+	private final TouchChannel touch = new TouchChannel();
 	private final ModelObject headModel;
 	private final ModelObject bodyModel;
+	private final long createdAt;
+	private boolean firstFrameLogged;
 	//------------------------------------------
-	public OpenGLRenderer(Context context) {
+	// requestRender: asks the view for one more frame (GLSurfaceView.requestRender)
+	public OpenGLRenderer(Context context, Runnable requestRender) {
 		this.context = context;
-		headModel = new ModelObject(context, R.raw.cabeza_mario_3, R.drawable.cara_2, 0, 0, -5);
-		bodyModel = new ModelObject(context, R.raw.cuerpo_mario_6, R.drawable.cuerpo_2, 0, 0, -5);
+		this.createdAt = System.nanoTime();
+		scheduler = new FrameScheduler(requestRender);
+		// Linked shader binaries are kept in the cache dir, so later starts skip compilation
+		final GLState state = new GLState(AndroidGl.INSTANCE);
+		textureSource = new GLTextureSource(context.getApplicationContext(), textureQuality(context), state);
+		backend = new GLES20Backend(state, new SpecularPrograms(context, new ProgramCache(new File(context.getCacheDir(), "programs"))),
+				textureSource, TEXTURE_BUDGET_BYTES);
+		drawQueue = new DrawQueue(backend);
+		// Models are parsed in the background, so the UI thread is not blocked
+		modelLoader = new ModelLoader();
+		// Half the vertex memory, with errors far below a pixel at any zoom (see PackedVertices)
+		modelLoader.setPackVertices(true);
+		// The first run leaves each processed model in a .m3d; later starts, and lost contexts, only map it
+		modelLoader.setCacheDir(meshCacheDir(context));
+		// No frames while the models are read: the loader asks for the one that starts uploading them
+		modelLoader.setOnLoaded(scheduler::requestFrame);
+		// Indexed, so that they get levels of detail for when they are zoomed out
+		final ModelLoader.RawResources resources = context.getResources()::openRawResource;
+		headModel = new ModelObject(resources, modelLoader, R.raw.cabeza_mario_3, R.drawable.cara_2, 0, 0, -5, true);
+		bodyModel = new ModelObject(resources, modelLoader, R.raw.cuerpo_mario_6, R.drawable.cuerpo_2, 0, 0, -5, true);
 	}
 	//------------------------------------------
 	@Override
 	public void onSurfaceCreated(GL10 glUnused, EGLConfig config) {
-		headModel.loadTexture();
-		bodyModel.loadTexture();
+		drawQueue.init();
+		drawQueue.setFrameStats(frameStats);
+		headModel.loadTexture(drawQueue);
+		bodyModel.loadTexture(drawQueue);
 	}
 	//------------------------------------------
 	@Override
 	public void onDrawFrame(GL10 glUnused) {
-		// Clear the rendering surface.
-		glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
-		glEnable(GL_DEPTH_TEST);
-		glEnable(GL_CULL_FACE);
-		glLineWidth(2.0f);
-		// TEXTURE ACTIVATION
-		glActiveTexture(GL_TEXTURE0);
+		// Animation advances by wall-clock time, so it runs at the same speed at any frame rate
+		final float deltaSeconds = scheduler.beginFrame(System.nanoTime());
+		frameStats.beginFrame();
+
+		// Upload whatever finished loading, without going over the per-frame budget
+		frameStats.beginPhase(FrameStats.UPLOAD);
+		int uploadBudget = UPLOAD_BUDGET_BYTES;
+		uploadBudget -= headModel.uploadMeshes(uploadBudget);
+		bodyModel.uploadMeshes(uploadBudget);
+		frameStats.endPhase(FrameStats.UPLOAD);
+
+		frameStats.beginPhase(FrameStats.UPDATE);
+		applyTouch();
+		headModel.updatePosition(deltaSeconds);
+		bodyModel.updatePosition(deltaSeconds);
+		frameStats.endPhase(FrameStats.UPDATE);
+
+		frameStats.beginPhase(FrameStats.MATRICES);
+		headModel.updateMatrices(projectionMatrix);
+		bodyModel.updateMatrices(projectionMatrix);
+		frameStats.endPhase(FrameStats.MATRICES);
+
+		frameStats.beginPhase(FrameStats.DRAW);
+		drawQueue.beginFrame();
+		headModel.drawObject();
+		bodyModel.drawObject();
+		drawQueue.endFrame();
+		frameStats.endPhase(FrameStats.DRAW);
+		frameStats.count(FrameStats.CLUSTERS_DRAWN, headModel.getDrawnClusters() + bodyModel.getDrawnClusters());
+		frameStats.count(FrameStats.CLUSTERS_CULLED, headModel.getCulledClusters() + bodyModel.getCulledClusters());
+
+		frameStats.endFrame();
+
+		if (!firstFrameLogged && headModel.isLoaded() && bodyModel.isLoaded()) {
+			firstFrameLogged = true;
+			// Everything is on the GPU: the texture decode buffers are not needed any more
+			textureSource.releaseBuffers();
+			if (LoggerConfig.ON) {
+				Log.w(TAG, "First complete frame " + (System.nanoTime() - createdAt) / 1000000 + " ms after startup");
+			}
+		}
+		// Next frame only while something is still uploading or easing towards its target
+		scheduler.endFrame(headModel.isUploading() || bodyModel.isUploading()
+				|| scheduler.isMoving(headModel.getRemainingRotation()) || scheduler.isMoving(bodyModel.getRemainingRotation()));
+	}
+
 
-		headModel.drawObject(projectionMatrix);
-		bodyModel.drawObject(projectionMatrix);
 
-		headModel.updatePosition(0.06f);
-		bodyModel.updatePosition(0.06f);
-	}
 
 
 
 
 
+	// A dir per build of the app, so an update never maps the models of the previous one. Android
+	// clears the cache dir when it needs the space, and with it the dirs of older builds
+	private static File meshCacheDir(Context context) {
+		return new File(context.getCacheDir(), "meshes-" + new File(context.getPackageCodePath()).lastModified());
+	}
+
+	// Smaller textures on devices with little memory
+	private static int textureQuality(Context context) {
+		final ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+		if (activityManager.isLowRamDevice()) {
+			return GLTextureSource.QUALITY_LOW;
+		}
+		return activityManager.getMemoryClass() < 256 ? GLTextureSource.QUALITY_MEDIUM : GLTextureSource.QUALITY_HIGH;
+	}
+
+	// Timings and counters of the last frames; safe to read from any thread
+	public FrameStats getFrameStats() {
+		return frameStats;
+	}
 
+	// Frames rendered and skipped; safe to read from any thread
+	public FrameScheduler getScheduler() {
+		return scheduler;
+	}
 
+	// Where the UI thread writes touch events (then asks for a frame); the render thread reads them
+	public TouchChannel getTouchChannel() {
+		return touch;
+	}
 
 	//-------------------HANDLERS-----------------------
-	public void handleTouchPress(float normalizedX, float normalizedY) {
+	// The touches since the last frame, coalesced by the channel: the last drag (and a press after
+	// it), and the pinch over the whole time
+	private void applyTouch() {
+		if (!touch.poll()) {
+			return;
+		}
+		if (touch.hasDrag()) {
+			handleTouchDrag(touch.getDragX(), touch.getDragY());
+		}
+		if (touch.hasPress()) {
+			handleTouchPress(touch.getPressX(), touch.getPressY());
+		}
+		final float zoom = touch.getPinchChange() * PINCH_ZOOM;
+		if (zoom > 0f) {
+			handleZoomOut(zoom);
+		} else if (zoom < 0f) {
+			handleZoomIn(-zoom);
+		}
+	}
+
+	private void handleTouchPress(float normalizedX, float normalizedY) {
 		headModel.setdst(-normalizedY * 20f, normalizedX * 20f);
 		//bodyModel.setdst(-normalizedY, normalizedX);
 	}
 
-	public void handleTouchDrag(float normalizedX, float normalizedY) {
+	private void handleTouchDrag(float normalizedX, float normalizedY) {
 		headModel.setdst(-normalizedY * 180f, normalizedX * 180f);
 		bodyModel.setdst(-normalizedY * 180f, normalizedX * 180f);
 	}
 
-	public void handleZoomIn(float normalizedZ) {
+	private void handleZoomIn(float normalizedZ) {
 		headModel.zoom(-normalizedZ);
 		bodyModel.zoom(-normalizedZ);
 	}
 
-	public void handleZoomOut(float normalizedZ){
+	private void handleZoomOut(float normalizedZ){
 		headModel.zoom(normalizedZ);
 		bodyModel.zoom(normalizedZ);
 	}
 
 
+	// Called on the render thread (queueEvent); each one asks for the frame that shows the change
 	public void rotateHeadLeft(){
 		headModel.rotateY(-20);
+		scheduler.requestFrame();
 	}
 
 	public void rotateHeadRight(){
 		headModel.rotateY(20);
+		scheduler.requestFrame();
 	}
 
 
@@ -98,47 +233,22 @@ public class OpenGLRenderer implements Renderer {
 
 
 
-	//------------------------------------------
-	//Perspectives
-	void perspective(float[] m, int offset, float fovy, float aspect, float n, float f){
-		final float d = f-n;
-		final float angleInRadians = (float) (fovy * Math.PI / 180.0);
-		final float a = (float) (1.0 / Math.tan(angleInRadians / 2.0));
-
-		m[0] = a/aspect;
-		m[1] = 0f;
-		m[2] = 0f;
-		m[3] = 0f;
-
-		m[4] = 0f;
-		m[5] = a;
-		m[6] = 0f;
-		m[7] = 0f;
-
-		m[8] = 0;
-		m[9] = 0;
-		m[10] = (n - f) / d;
-		m[11] = -1f;
-
-		m[12] = 0f;
-		m[13] = 0f;
-		m[14] = -2*f*n/d;
-		m[15] = 0f;
-	}
 	//To adopt different orientation
 	@Override
 	public void onSurfaceChanged(GL10 glUnused, int width, int height) {
 		// Stablish viewport for all screen
-		glViewport(0, 0, width, height);
+		backend.setViewport(width, height);
+		headModel.setViewportHeight(height);
+		bodyModel.setViewportHeight(height);
 		final float aspectRatio = width > height ?
 				(float) width / (float) height :
 				(float) height / (float) width;
 		if (width > height) {
 			//Landscape
-			perspective(projectionMatrix, 0, 45f, aspectRatio, 0.01f, 1000f);
+			Mat4.perspective(projectionMatrix, 0, 45f, aspectRatio, 0.01f, 1000f);
 		} else {
 			// Portrait or square
-			perspective(projectionMatrix, 0, 45f, 1f/aspectRatio, 0.01f, 1000f);
+			Mat4.perspective(projectionMatrix, 0, 45f, 1f/aspectRatio, 0.01f, 1000f);
 		}
 	}
 }
\ No newline at end of file
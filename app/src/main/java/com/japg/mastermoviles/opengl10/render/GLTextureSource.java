@@ -0,0 +1,372 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import static android.opengl.GLES20.GL_CLAMP_TO_EDGE;
+import static android.opengl.GLES20.GL_COMPRESSED_TEXTURE_FORMATS;
+import static android.opengl.GLES20.GL_LINEAR;
+import static android.opengl.GLES20.GL_LINEAR_MIPMAP_LINEAR;
+import static android.opengl.GLES20.GL_MAX_TEXTURE_SIZE;
+import static android.opengl.GLES20.GL_NEAREST;
+import static android.opengl.GLES20.GL_NUM_COMPRESSED_TEXTURE_FORMATS;
+import static android.opengl.GLES20.GL_REPEAT;
+import static android.opengl.GLES20.GL_RGB;
+import static android.opengl.GLES20.GL_RGBA;
+import static android.opengl.GLES20.GL_TEXTURE_2D;
+import static android.opengl.GLES20.GL_TEXTURE_MAG_FILTER;
+import static android.opengl.GLES20.GL_TEXTURE_MIN_FILTER;
+import static android.opengl.GLES20.GL_TEXTURE_WRAP_S;
+import static android.opengl.GLES20.GL_TEXTURE_WRAP_T;
+import static android.opengl.GLES20.GL_UNPACK_ALIGNMENT;
+import static android.opengl.GLES20.GL_UNSIGNED_BYTE;
+import static android.opengl.GLES20.GL_UNSIGNED_SHORT_5_6_5;
+import static android.opengl.GLES20.glCompressedTexImage2D;
+import static android.opengl.GLES20.glDeleteTextures;
+import static android.opengl.GLES20.glGenTextures;
+import static android.opengl.GLES20.glGenerateMipmap;
+import static android.opengl.GLES20.glGetIntegerv;
+import static android.opengl.GLES20.glPixelStorei;
+import static android.opengl.GLES20.glTexImage2D;
+import static android.opengl.GLES20.glTexParameteri;
+import static android.opengl.GLUtils.texImage2D;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.japg.mastermoviles.opengl10.texture.Etc1;
+import com.japg.mastermoviles.opengl10.texture.KtxFile;
+import com.japg.mastermoviles.opengl10.texture.PixelPacker;
+import com.japg.mastermoviles.opengl10.texture.TextureConverter;
+import com.japg.mastermoviles.opengl10.util.LoggerConfig;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/* TextureCache.Source for GLES 2.0. A drawable is taken from assets/textures/<name>.ktx when the
+*  converter produced one (see TextureConverter): compressed levels go straight to the GPU if the device
+*  lists their format, ETC1 falls back to GL_COMPRESSED_RGB8_ETC2 (a superset) and then to RGB565
+*  decoded on the CPU.
+*
+*  Without a .ktx the drawable is decoded with BitmapFactory, already downsampled (inSampleSize) to the
+*  size the device and quality tier allow, into the pixels of the previous bitmap when they fit, and
+*  uploaded from a pooled direct buffer. Transient memory per texture is thus one bitmap plus one
+*  buffer of the largest texture loaded so far, until releaseBuffers().
+*
+*  As a KtxFile.Source it hands the same .ktx files to SoftwareRasterizer.
+*/
+public class GLTextureSource implements TextureCache.Source, KtxFile.Source {
+	private static final String TAG = "GLTextureSource";
+	private static final String KTX_DIR = "textures/";
+
+	// Quality tiers: longest texture side loaded, never above GL_MAX_TEXTURE_SIZE
+	public static final int QUALITY_HIGH = 0;	// whatever the device takes
+	public static final int QUALITY_MEDIUM = 1;	// 1024
+	public static final int QUALITY_LOW = 2;	// 512
+	private static final int[] TIER_MAX_SIZE = { Integer.MAX_VALUE, 1024, 512 };
+
+	private final Context context;
+	private final int quality;
+	// Textures are bound through it, so it stays in step with what the backend binds
+	private final GLState state;
+	private final int[] names = new int[1];
+	// Device limits, read on first use
+	private int[] compressedFormats;
+	private int maxTextureSize;
+	// Reused from one load to the next: the last decoded bitmap (as inBitmap) and the upload buffer
+	private Bitmap pooledBitmap;
+	private ByteBuffer pooledPixels;
+	private int lastSampleSize;
+	private long peakTransientBytes;
+
+	public GLTextureSource(Context context, GLState state) {
+		this(context, QUALITY_HIGH, state);
+	}
+
+	public GLTextureSource(Context context, int quality, GLState state) {
+		this.context = context;
+		this.quality = quality;
+		this.state = state;
+	}
+
+	@Override
+	public int create(int resourceId, int sampler, long[] bytes) {
+		final KtxFile ktx = open(resourceId);
+		if (ktx != null) {
+			final int name = upload(ktx, sampler, bytes);
+			if (name != 0) {
+				return name;
+			}
+		}
+
+		final Bitmap bitmap = decode(resourceId);
+		if (bitmap == null) {
+			if (LoggerConfig.ON) {
+				Log.w(TAG, "Could not decode resource " + resourceId);
+			}
+			return 0;
+		}
+
+		glGenTextures(1, names, 0);
+		final int name = names[0];
+		if (name == 0) {
+			if (LoggerConfig.ON) {
+				Log.w(TAG, "Could not create an OpenGL texture");
+			}
+			return 0;
+		}
+		final int width = bitmap.getWidth();
+		final int height = bitmap.getHeight();
+		final boolean mipmaps = sampler == TextureCache.TRILINEAR;
+		state.bindTexture(name);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER,
+				mipmaps ? GL_LINEAR_MIPMAP_LINEAR : sampler == TextureCache.NEAREST ? GL_NEAREST : GL_LINEAR);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, sampler == TextureCache.NEAREST ? GL_NEAREST : GL_LINEAR);
+		if (!mipmaps) {
+			// ES 2.0 only allows GL_REPEAT with power-of-two sizes when mipmaps are off
+			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, isPowerOfTwo(width, height) ? GL_REPEAT : GL_CLAMP_TO_EDGE);
+			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, isPowerOfTwo(width, height) ? GL_REPEAT : GL_CLAMP_TO_EDGE);
+		}
+		if (bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+			// Bitmap memory is RGBA byte order, just what GL_RGBA / GL_UNSIGNED_BYTE expects
+			final int size = bitmap.getByteCount();
+			if (pooledPixels == null || pooledPixels.capacity() < size) {
+				pooledPixels = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+			}
+			pooledPixels.clear();
+			bitmap.copyPixelsToBuffer(pooledPixels);
+			pooledPixels.position(0);
+			glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, pooledPixels);
+		} else {
+			texImage2D(GL_TEXTURE_2D, 0, bitmap, 0);
+		}
+
+		final long transientBytes = bitmap.getAllocationByteCount() + (pooledPixels != null ? pooledPixels.capacity() : 0);
+		peakTransientBytes = Math.max(peakTransientBytes, transientBytes);
+		if (LoggerConfig.ON) {
+			Log.w(TAG, context.getResources().getResourceEntryName(resourceId) + ": " + width + "x" + height
+					+ " (1/" + lastSampleSize + "), " + transientBytes / 1024 + " KB transient");
+		}
+
+		// RGBA8 on the GPU, plus a third more for the mipmap chain
+		final long level0 = (long) width * height * 4;
+		bytes[0] = mipmaps ? level0 * 4 / 3 : level0;
+
+		if (mipmaps) {
+			glGenerateMipmap(GL_TEXTURE_2D);
+		}
+		return name;
+	}
+
+	// Largest of the decode bitmap and upload buffer kept between loads, in bytes
+	public long getPeakTransientBytes() {
+		return peakTransientBytes;
+	}
+
+	// Drops the pooled decode bitmap and upload buffer; the next load allocates them again
+	public void releaseBuffers() {
+		releaseBitmap();
+		pooledPixels = null;
+	}
+
+	// Longest texture side the device and the quality tier allow (a GL context must be current)
+	private int maxSize() {
+		if (maxTextureSize == 0) {
+			final int[] size = new int[1];
+			glGetIntegerv(GL_MAX_TEXTURE_SIZE, size, 0);
+			maxTextureSize = size[0] > 0 ? size[0] : 2048;
+		}
+		return Math.min(maxTextureSize, TIER_MAX_SIZE[quality]);
+	}
+
+	// Decodes straight to a size that fits maxSize() (halving with inSampleSize), reusing the pixels
+	// of the previous bitmap when they are large enough. The result is the new pooled bitmap.
+	private Bitmap decode(int resourceId) {
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inScaled = false;
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeResource(context.getResources(), resourceId, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			return null;
+		}
+		final int limit = maxSize();
+		int sampleSize = 1;
+		while (options.outWidth / sampleSize > limit || options.outHeight / sampleSize > limit) {
+			sampleSize *= 2;
+		}
+		final long needed = (long) ((options.outWidth + sampleSize - 1) / sampleSize)
+				* ((options.outHeight + sampleSize - 1) / sampleSize) * 4;
+
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = sampleSize;
+		options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+		// Only mutable bitmaps can be decoded into later
+		options.inMutable = true;
+		options.inBitmap = pooledBitmap != null && pooledBitmap.getAllocationByteCount() >= needed ? pooledBitmap : null;
+		Bitmap bitmap;
+		try {
+			bitmap = BitmapFactory.decodeResource(context.getResources(), resourceId, options);
+		} catch (IllegalArgumentException e) {
+			// The pooled bitmap could not be reused after all
+			options.inBitmap = null;
+			bitmap = BitmapFactory.decodeResource(context.getResources(), resourceId, options);
+		}
+		if (bitmap != null && bitmap != pooledBitmap) {
+			releaseBitmap();
+			pooledBitmap = bitmap;
+		}
+		lastSampleSize = sampleSize;
+		return bitmap;
+	}
+
+	private void releaseBitmap() {
+		if (pooledBitmap != null) {
+			pooledBitmap.recycle();
+			pooledBitmap = null;
+		}
+	}
+
+	@Override
+	public void delete(int name) {
+		names[0] = name;
+		glDeleteTextures(1, names, 0);
+		state.textureDeleted(name);
+	}
+
+	//------------------------------------------
+	// null when there is no (usable) .ktx for the resource. Needs no GL context.
+	@Override
+	public KtxFile open(int resourceId) {
+		final String path = KTX_DIR + context.getResources().getResourceEntryName(resourceId) + TextureConverter.EXTENSION;
+		try (InputStream in = context.getAssets().open(path)) {
+			ByteBuffer file = ByteBuffer.allocateDirect(Math.max(in.available(), 64 * 1024)).order(ByteOrder.nativeOrder());
+			final byte[] chunk = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(chunk)) > 0) {
+				if (file.remaining() < n) {
+					final ByteBuffer bigger = ByteBuffer.allocateDirect(file.capacity() * 2 + n).order(ByteOrder.nativeOrder());
+					file.flip();
+					bigger.put(file);
+					file = bigger;
+				}
+				file.put(chunk, 0, n);
+			}
+			file.flip();
+			return KtxFile.read(file);
+		} catch (FileNotFoundException e) {
+			return null;
+		} catch (IOException | IllegalArgumentException e) {
+			if (LoggerConfig.ON) {
+				Log.w(TAG, "Could not read " + path, e);
+			}
+			return null;
+		}
+	}
+
+	// 0 if the device cannot take the texture in any form we know
+	private int upload(KtxFile ktx, int sampler, long[] bytes) {
+		int format = 0;
+		if (ktx.isCompressed()) {
+			format = compressedFormat(ktx.glInternalFormat);
+			if (format == 0 && ktx.glInternalFormat != Etc1.GL_ETC1_RGB8_OES) {
+				if (LoggerConfig.ON) {
+					Log.w(TAG, "Compressed format 0x" + Integer.toHexString(ktx.glInternalFormat) + " not supported");
+				}
+				return 0;
+			}
+		}
+
+		glGenTextures(1, names, 0);
+		final int name = names[0];
+		if (name == 0) {
+			return 0;
+		}
+		final boolean mipmaps = sampler == TextureCache.TRILINEAR;
+		// Stored levels larger than maxSize() are skipped: level `base` of the file is level 0 of the texture
+		int base = 0;
+		while (base + 1 < ktx.getLevelCount() && Math.max(ktx.getLevelWidth(base), ktx.getLevelHeight(base)) > maxSize()) {
+			base++;
+		}
+		// Without mipmaps the smaller levels are not uploaded at all. A single stored level gets its chain
+		// generated, which only works for uncompressed data.
+		final int levels = mipmaps ? ktx.getLevelCount() - base : 1;
+		final boolean generate = mipmaps && levels == 1 && !ktx.isCompressed();
+		state.bindTexture(name);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER,
+				mipmaps && (levels > 1 || generate) ? GL_LINEAR_MIPMAP_LINEAR : sampler == TextureCache.NEAREST ? GL_NEAREST : GL_LINEAR);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, sampler == TextureCache.NEAREST ? GL_NEAREST : GL_LINEAR);
+		if (!mipmaps) {
+			final boolean pot = isPowerOfTwo(ktx.getLevelWidth(base), ktx.getLevelHeight(base));
+			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, pot ? GL_REPEAT : GL_CLAMP_TO_EDGE);
+			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, pot ? GL_REPEAT : GL_CLAMP_TO_EDGE);
+		}
+		// Rows of the small levels are not 4-byte aligned
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+
+		long size = 0;
+		if (format != 0) {
+			for (int level=0; level<levels; level++) {
+				final ByteBuffer data = ktx.getLevel(base + level);
+				glCompressedTexImage2D(GL_TEXTURE_2D, level, format, ktx.getLevelWidth(base + level), ktx.getLevelHeight(base + level),
+						0, data.remaining(), data);
+				size += data.remaining();
+			}
+		} else if (ktx.isCompressed()) {
+			// ETC1 the device cannot sample: unpack it to RGB565, half the size of ARGB_8888
+			final int[] argb = new int[ktx.getLevelWidth(base) * ktx.getLevelHeight(base)];
+			final ByteBuffer packed = ByteBuffer.allocateDirect(argb.length * 2).order(ByteOrder.nativeOrder());
+			for (int level=0; level<levels; level++) {
+				final int w = ktx.getLevelWidth(base + level);
+				final int h = ktx.getLevelHeight(base + level);
+				Etc1.decode(ktx.getLevel(base + level), w, h, argb);
+				packed.clear();
+				PixelPacker.packRgb565(argb, w * h, packed);
+				packed.flip();
+				glTexImage2D(GL_TEXTURE_2D, level, GL_RGB, w, h, 0, GL_RGB, GL_UNSIGNED_SHORT_5_6_5, packed);
+				size += w * h * 2;
+			}
+		} else {
+			// Already packed by the converter (RGBA4444 for textures with alpha)
+			for (int level=0; level<levels; level++) {
+				final ByteBuffer data = ktx.getLevel(base + level);
+				glTexImage2D(GL_TEXTURE_2D, level, ktx.glFormat, ktx.getLevelWidth(base + level), ktx.getLevelHeight(base + level),
+						0, ktx.glFormat, ktx.glType, data);
+				size += data.remaining();
+			}
+			if (generate) {
+				glGenerateMipmap(GL_TEXTURE_2D);
+				size = size * 4 / 3;
+			}
+		}
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+		bytes[0] = size;
+		return name;
+	}
+
+	// The format to upload data in internalFormat with, 0 if the device has none that fits
+	private int compressedFormat(int internalFormat) {
+		if (compressedFormats == null) {
+			final int[] count = new int[1];
+			glGetIntegerv(GL_NUM_COMPRESSED_TEXTURE_FORMATS, count, 0);
+			compressedFormats = new int[count[0]];
+			if (count[0] > 0) {
+				glGetIntegerv(GL_COMPRESSED_TEXTURE_FORMATS, compressedFormats, 0);
+			}
+			Arrays.sort(compressedFormats);
+		}
+		if (Arrays.binarySearch(compressedFormats, internalFormat) >= 0) {
+			return internalFormat;
+		}
+		if (internalFormat == Etc1.GL_ETC1_RGB8_OES && Arrays.binarySearch(compressedFormats, Etc1.GL_COMPRESSED_RGB8_ETC2) >= 0) {
+			return Etc1.GL_COMPRESSED_RGB8_ETC2;
+		}
+		return 0;
+	}
+
+	private static boolean isPowerOfTwo(int w, int h) {
+		return (w & (w - 1)) == 0 && (h & (h - 1)) == 0;
+	}
+}
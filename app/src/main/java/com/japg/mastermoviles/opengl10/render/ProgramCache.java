@@ -0,0 +1,202 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import static android.opengl.GLES20.GL_LINK_STATUS;
+import static android.opengl.GLES20.GL_RENDERER;
+import static android.opengl.GLES20.GL_VERSION;
+import static android.opengl.GLES20.glCreateProgram;
+import static android.opengl.GLES20.glDeleteProgram;
+import static android.opengl.GLES20.glDeleteShader;
+import static android.opengl.GLES20.glGetIntegerv;
+import static android.opengl.GLES20.glGetProgramiv;
+import static android.opengl.GLES20.glGetString;
+
+import android.content.Context;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import com.japg.mastermoviles.opengl10.util.LoggerConfig;
+import com.japg.mastermoviles.opengl10.util.ShaderHelper;
+import com.japg.mastermoviles.opengl10.util.TextResourceReader;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+
+/* Linked shader programs keyed by (vertex shader resource, fragment shader resource, defines).
+*  Each variant is compiled and linked once per EGL context and shared by everyone that asks for it.
+*
+*  With a binary directory, linked programs are also saved with glGetProgramBinary and reloaded on
+*  later starts, skipping compilation. Android only exposes that call through GLES30, so it is used
+*  when the context is ES 3.0 or newer (what most drivers give even when 2.0 is requested); on ES 2.0
+*  contexts, or if the driver rejects a saved binary (e.g. after a driver update), the program is
+*  simply compiled from source.
+*/
+public class ProgramCache {
+	private static final String TAG = "ProgramCache";
+	private static final int BINARY_MAGIC = 0x50524731; // "PRG1"
+
+	private final File binaryDir;
+	private final HashMap<String, ShaderProgram> programs = new HashMap<>();
+	private int compiled;
+	private int loadedBinaries;
+	// Decided on first use in each context
+	private Boolean binariesSupported;
+	private String driver;
+
+	// binaryDir: where to keep linked binaries, or null to always compile
+	public ProgramCache(File binaryDir) {
+		this.binaryDir = binaryDir;
+	}
+
+	// Forgets every program: to be called when a new EGL context replaced the old one (and its programs)
+	public void invalidate() {
+		programs.clear();
+		binariesSupported = null;
+	}
+
+	// Programs compiled from source / restored from a saved binary since creation
+	public int getCompileCount() {
+		return compiled;
+	}
+
+	public int getBinaryLoadCount() {
+		return loadedBinaries;
+	}
+
+	// defines: "NAME" or "NAME VALUE" entries, emitted as #define lines ahead of both sources (may be empty)
+	public ShaderProgram get(Context context, int vertexResource, int fragmentResource, String... defines) {
+		final StringBuilder header = new StringBuilder();
+		for (String define : defines) {
+			header.append("#define ").append(define).append('\n');
+		}
+		final String key = vertexResource + "/" + fragmentResource + "/" + header;
+		ShaderProgram program = programs.get(key);
+		if (program == null) {
+			final String vertexSource = header + TextResourceReader.readTextFileFromResource(context, vertexResource);
+			final String fragmentSource = header + TextResourceReader.readTextFileFromResource(context, fragmentResource);
+			program = new ShaderProgram(AndroidGl.INSTANCE, link(key, vertexSource, fragmentSource));
+			programs.put(key, program);
+		}
+		return program;
+	}
+
+	//------------------------------------------
+	private int link(String key, String vertexSource, String fragmentSource) {
+		final boolean binaries = binaryDir != null && supportsBinaries();
+		// Same key but edited shaders must not pick up the old binary
+		final long sourceHash = 31L * vertexSource.hashCode() + fragmentSource.hashCode();
+		final File file = binaries ? new File(binaryDir, "program_" + Integer.toHexString(key.hashCode()) + ".bin") : null;
+
+		if (binaries) {
+			final int program = loadBinary(file, sourceHash);
+			if (program != 0) {
+				loadedBinaries++;
+				return program;
+			}
+		}
+
+		final int vertexShader = ShaderHelper.compileVertexShader(vertexSource);
+		final int fragmentShader = ShaderHelper.compileFragmentShader(fragmentSource);
+		final int program = ShaderHelper.linkProgram(vertexShader, fragmentShader);
+		// Once linked the program keeps what it needs; the shader objects go when it is deleted
+		glDeleteShader(vertexShader);
+		glDeleteShader(fragmentShader);
+		if (LoggerConfig.ON) {
+			ShaderHelper.validateProgram(program);
+		}
+		compiled++;
+
+		if (binaries && program != 0) {
+			saveBinary(file, program, sourceHash);
+		}
+		return program;
+	}
+
+	private boolean supportsBinaries() {
+		if (binariesSupported == null) {
+			final String version = glGetString(GL_VERSION);
+			boolean supported = false;
+			if (GLES20Backend.isGles3(version)) {
+				final int[] formats = new int[1];
+				glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+				supported = formats[0] > 0;
+			}
+			binariesSupported = supported;
+			driver = glGetString(GL_RENDERER) + " | " + version;
+		}
+		return binariesSupported;
+	}
+
+	// 0 if there is no usable binary
+	private int loadBinary(File file, long sourceHash) {
+		if (!file.isFile()) {
+			return 0;
+		}
+		final int format;
+		final ByteBuffer binary;
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			if (in.readInt() != BINARY_MAGIC || !driver.equals(in.readUTF()) || in.readLong() != sourceHash) {
+				return 0;
+			}
+			format = in.readInt();
+			final byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			binary = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.nativeOrder());
+			binary.put(bytes).position(0);
+		} catch (IOException e) {
+			if (LoggerConfig.ON) {
+				Log.w(TAG, "Could not read " + file, e);
+			}
+			return 0;
+		}
+
+		final int program = glCreateProgram();
+		GLES30.glProgramBinary(program, format, binary, binary.capacity());
+		final int[] linkStatus = new int[1];
+		glGetProgramiv(program, GL_LINK_STATUS, linkStatus, 0);
+		if (linkStatus[0] == 0) {
+			// The driver no longer accepts it: compile again and overwrite the file
+			glDeleteProgram(program);
+			if (LoggerConfig.ON) {
+				Log.w(TAG, "Saved program binary rejected: " + file);
+			}
+			return 0;
+		}
+		return program;
+	}
+
+	private void saveBinary(File file, int program, long sourceHash) {
+		final int[] length = new int[1];
+		glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+		if (length[0] <= 0) {
+			return;
+		}
+		final ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+		final int[] format = new int[1];
+		GLES30.glGetProgramBinary(program, length[0], length, 0, format, 0, binary);
+		final byte[] bytes = new byte[length[0]];
+		binary.position(0);
+		binary.get(bytes);
+
+		binaryDir.mkdirs();
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+			out.writeInt(BINARY_MAGIC);
+			out.writeUTF(driver);
+			out.writeLong(sourceHash);
+			out.writeInt(format[0]);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		} catch (IOException e) {
+			if (LoggerConfig.ON) {
+				Log.w(TAG, "Could not write " + file, e);
+			}
+			file.delete();
+		}
+	}
+}
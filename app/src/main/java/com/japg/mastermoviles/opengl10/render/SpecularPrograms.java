@@ -0,0 +1,33 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import android.content.Context;
+
+import com.japg.mastermoviles.opengl10.R;
+
+/* The programs of GLES20Backend: the specular shaders in res/raw, linked through a ProgramCache.
+*  Devices whose vertex shaders cannot sample textures get the second version of both shaders.
+*/
+public final class SpecularPrograms implements GLES20Backend.Programs {
+	private final Context context;
+	private final ProgramCache cache;
+
+	public SpecularPrograms(Context context, ProgramCache cache) {
+		this.context = context.getApplicationContext();
+		this.cache = cache;
+	}
+
+	@Override
+	public ShaderProgram get(boolean vertexTextures, String... defines) {
+		if (vertexTextures) {
+			// texture support
+			return cache.get(context, R.raw.specular_vertex_shader, R.raw.specular_fragment_shader, defines);
+		}
+		// texture no support
+		return cache.get(context, R.raw.specular_vertex_shader2, R.raw.specular_fragment_shader2, defines);
+	}
+
+	@Override
+	public void invalidate() {
+		cache.invalidate();
+	}
+}
@@ -1,11 +1,30 @@
+#if defined(INSTANCE_BATCH)
+uniform mat4 u_ProjectionMatrix;	// in: Matriz Projection
+uniform mat4 u_ModelMatrices[INSTANCE_BATCH];	// in: Matriz ModelView de cada instancia del lote
+attribute float a_Instance;			// in: Instancia (copia de la malla) a la que pertenece el vértice
+#elif defined(INSTANCED_ARRAYS)
+uniform mat4 u_ProjectionMatrix;	// in: Matriz Projection
+attribute mat4 a_ModelMatrix;		// in: Matriz ModelView de la instancia (glVertexAttribDivisor 1)
+#else
 uniform mat4 u_MVPMatrix;   		// in: Matriz Projection*ModelView
 uniform mat4 u_MVMatrix;			// in: Matriz ModelView
+#endif
 uniform vec4 u_Color;				// in: color del objeto
 uniform sampler2D u_TextureUnit;	// in: Unidad de Textura
 
+#if defined(PACKED_VERTICES)
+uniform vec3 u_PositionScale;		// in: Tamaño de la caja de la malla (posiciones cuantizadas a [0, 1])
+uniform vec3 u_PositionOffset;		// in: Esquina mínima de la caja de la malla
+uniform vec4 u_UVTransform;			// in: Escala (xy) y desplazamiento (zw) de las UVs cuantizadas
+
+attribute vec3 a_PackedPosition;	// in: Posición cuantizada (unorm16) de cada vértice
+attribute vec2 a_PackedNormal;		// in: Normal en codificación octaédrica (snorm16)
+attribute vec2 a_PackedUV;			// in: UVs cuantizadas (unorm16)
+#else
 attribute vec4 a_Position;			// in: Posición de cada vértice
 attribute vec3 a_Normal;			// in: Normal de cada vértice
 attribute vec2 a_UV;				// in: Coordenadas UV de mapeado de textura
+#endif
 
 varying vec4 v_Color;				// out: Color de salida al fragment shader
 
@@ -13,6 +32,25 @@ varying vec4 v_Color;				// out: Color de salida al fragment shader
 
 void main()
 {
+	// Con instancias, las matrices toman los nombres de los uniforms del caso normal
+#if defined(INSTANCE_BATCH)
+	mat4 u_MVMatrix = u_ModelMatrices[int(a_Instance)];
+	mat4 u_MVPMatrix = u_ProjectionMatrix * u_MVMatrix;
+#elif defined(INSTANCED_ARRAYS)
+	mat4 u_MVMatrix = a_ModelMatrix;
+	mat4 u_MVPMatrix = u_ProjectionMatrix * u_MVMatrix;
+#endif
+#if defined(PACKED_VERTICES)
+	// Vértices empaquetados: se reconstruyen con los nombres de los atributos del caso normal
+	vec4 a_Position = vec4(a_PackedPosition * u_PositionScale + u_PositionOffset, 1.0);
+	vec3 a_Normal = vec3(a_PackedNormal, 1.0 - abs(a_PackedNormal.x) - abs(a_PackedNormal.y));
+	if (a_Normal.z < 0.0) {
+		// Hemisferio inferior: deshace el plegado de la codificación octaédrica
+		a_Normal.xy = (1.0 - abs(a_Normal.yx)) * vec2(a_Normal.x >= 0.0 ? 1.0 : -1.0, a_Normal.y >= 0.0 ? 1.0 : -1.0);
+	}
+	a_Normal = normalize(a_Normal);
+	vec2 a_UV = a_PackedUV * u_UVTransform.xy + u_UVTransform.zw;
+#endif
 	float ambient  = 0.15;									// 15% de intensidad ambiente
 	vec4  specularColor = vec4(1, 1, 1, 1);					// Color especular (brillos blancos)
 	
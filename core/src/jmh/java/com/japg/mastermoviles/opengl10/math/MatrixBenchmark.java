@@ -0,0 +1,91 @@
+package com.japg.mastermoviles.opengl10.math;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/* Per-model matrix work of one frame (model matrix + MVP), old android.opengl.Matrix path against
+*  the math package. With the gc profiler, gc.alloc.rate.norm should read 0 B/op for everything
+*  except referenceMatrix.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatrixBenchmark {
+	private final float[] projection = new float[16];
+	private final float[] model = new float[16];
+	private final float[] mvp = new float[16];
+	private final float[] normal = new float[9];
+	private final float[] pitch = new float[4];
+	private final float[] orientation = new float[4];
+	private final Orientation easing = new Orientation(0f, 0f);
+	private float angle;
+	private float target = 120f;
+
+	@Setup
+	public void setup() {
+		Mat4.perspective(projection, 0, 45f, 9f / 16f, 0.01f, 1000f);
+		easing.setTarget(-target / 2f, target);
+		composeTRS();
+	}
+
+	@Benchmark
+	public float[] referenceMatrix() {
+		angle += 0.5f;
+		ReferenceMatrix.setIdentityM(model, 0);
+		ReferenceMatrix.translateM(model, 0, 0f, 0f, -5f);
+		ReferenceMatrix.rotateM(model, 0, angle, 0f, 1f, 0f);
+		ReferenceMatrix.rotateM(model, 0, -angle, 1f, 0f, 0f);
+		ReferenceMatrix.multiplyMM(mvp, 0, projection, 0, model, 0);
+		return mvp;
+	}
+
+	// Same transform through quaternions and composeTRS
+	@Benchmark
+	public float[] composeTRS() {
+		angle += 0.5f;
+		Quat.setAxisAngle(orientation, 0, angle, 0f, 1f, 0f);
+		Quat.setAxisAngle(pitch, 0, -angle, 1f, 0f, 0f);
+		Quat.multiply(orientation, 0, orientation, 0, pitch, 0);
+		Mat4.composeTRS(model, 0, 0f, 0f, -5f, orientation, 0, 1f, 1f, 1f);
+		Mat4.multiply(mvp, 0, projection, 0, model, 0);
+		return mvp;
+	}
+
+	// What ModelObject does per frame: ease the orientation, then build model and MVP
+	@Benchmark
+	public float[] orientationFrame() {
+		if (easing.isSettled()) {
+			target = -target;
+			easing.setTarget(-target / 2f, target);
+		}
+		easing.update(1f / 60f);
+		easing.writeMatrix(model, 0, 0f, 0f, -5f);
+		Mat4.multiply(mvp, 0, projection, 0, model, 0);
+		return mvp;
+	}
+
+	@Benchmark
+	public float[] invert() {
+		Mat4.invert(model, 0, mvp, 0);
+		return model;
+	}
+
+	@Benchmark
+	public float[] normalMatrix() {
+		Mat4.normalMatrix(normal, 0, model, 0);
+		return normal;
+	}
+}
@@ -0,0 +1,73 @@
+package com.japg.mastermoviles.opengl10.math;
+
+/* Baseline for MatrixBenchmark: what ModelObject did with android.opengl.Matrix before the
+*  math package (setIdentityM, translateM, two rotateM and multiplyMM), reimplemented with the same
+*  semantics so it runs on the JVM. rotateM builds the rotation in a temporary array, as
+*  android.opengl.Matrix.rotateM does.
+*/
+final class ReferenceMatrix {
+
+	private ReferenceMatrix() {
+	}
+
+	static void setIdentityM(float[] m, int offset) {
+		for (int i=0; i<16; i++) {
+			m[offset + i] = 0f;
+		}
+		for (int i=0; i<16; i+=5) {
+			m[offset + i] = 1f;
+		}
+	}
+
+	static void translateM(float[] m, int offset, float x, float y, float z) {
+		for (int i=0; i<4; i++) {
+			m[offset + 12 + i] += m[offset + i] * x + m[offset + 4 + i] * y + m[offset + 8 + i] * z;
+		}
+	}
+
+	static void setRotateM(float[] r, int offset, float a, float x, float y, float z) {
+		final float rad = (float) Math.toRadians(a);
+		final float s = (float) Math.sin(rad);
+		final float c = (float) Math.cos(rad);
+		final float len = (float) Math.sqrt(x * x + y * y + z * z);
+		x /= len;
+		y /= len;
+		z /= len;
+		final float nc = 1f - c;
+		r[offset]      = x * x * nc + c;
+		r[offset + 1]  = y * x * nc + z * s;
+		r[offset + 2]  = x * z * nc - y * s;
+		r[offset + 3]  = 0f;
+		r[offset + 4]  = x * y * nc - z * s;
+		r[offset + 5]  = y * y * nc + c;
+		r[offset + 6]  = y * z * nc + x * s;
+		r[offset + 7]  = 0f;
+		r[offset + 8]  = x * z * nc + y * s;
+		r[offset + 9]  = y * z * nc - x * s;
+		r[offset + 10] = z * z * nc + c;
+		r[offset + 11] = 0f;
+		r[offset + 12] = 0f;
+		r[offset + 13] = 0f;
+		r[offset + 14] = 0f;
+		r[offset + 15] = 1f;
+	}
+
+	static void rotateM(float[] m, int offset, float a, float x, float y, float z) {
+		final float[] temp = new float[32];
+		setRotateM(temp, 0, a, x, y, z);
+		multiplyMM(temp, 16, m, offset, temp, 0);
+		System.arraycopy(temp, 16, m, offset, 16);
+	}
+
+	static void multiplyMM(float[] r, int ro, float[] a, int ao, float[] b, int bo) {
+		for (int c=0; c<4; c++) {
+			for (int row=0; row<4; row++) {
+				float sum = 0f;
+				for (int k=0; k<4; k++) {
+					sum += a[ao + k * 4 + row] * b[bo + c * 4 + k];
+				}
+				r[ro + c * 4 + row] = sum;
+			}
+		}
+	}
+}
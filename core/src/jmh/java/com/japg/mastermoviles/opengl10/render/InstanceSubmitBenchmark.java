@@ -0,0 +1,101 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import com.japg.mastermoviles.opengl10.math.Mat4;
+import com.japg.mastermoviles.opengl10.math.Quat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/* CPU side of submitting N copies of a mesh per frame, the way GLES20Backend does it: one drawMesh
+*  per copy (MVP computed on the CPU, two matrices and the color sent as uniforms), the ES 3.0
+*  instanced path (every model matrix copied once into the stream buffer) and the ES 2.0 batches
+*  (one uniform array of GLES20Backend's largest batch per draw). The uniform and buffer uploads are
+*  stood in for by the copies into direct buffers that the GL bindings make; the driver work behind
+*  each draw call, which is what instancing mostly saves, only shows on a device, in the DRAW phase
+*  of FrameStats.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstanceSubmitBenchmark {
+	private static final int BATCH = 64;
+
+	@Param({"1", "10", "100", "1000", "10000"})
+	public int instances;
+
+	private final float[] projection = new float[16];
+	private final float[] mvp = new float[16];
+	private float[] modelMatrices;
+	private FloatBuffer uniforms;
+	private FloatBuffer stream;
+
+	@Setup
+	public void setup() {
+		Mat4.perspective(projection, 0, 45f, 9f / 16f, 0.01f, 1000f);
+		// A grid of rotated copies in front of the camera
+		final float[] rotation = new float[4];
+		modelMatrices = new float[instances * 16];
+		final int side = (int) Math.ceil(Math.sqrt(instances));
+		for (int i=0; i<instances; i++) {
+			Quat.setAxisAngle(rotation, 0, i * 7f, 0f, 1f, 0f);
+			Mat4.composeTRS(modelMatrices, i * 16, (i % side) * 2f - side, (i / side) * 2f - side, -side * 2f,
+					rotation, 0, 1f, 1f, 1f);
+		}
+		uniforms = ByteBuffer.allocateDirect(BATCH * 16 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		stream = ByteBuffer.allocateDirect(instances * 16 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	// drawMesh per copy: MVP on the CPU, then u_MVPMatrix, u_MVMatrix and u_Color
+	@Benchmark
+	public FloatBuffer perInstance() {
+		for (int i=0; i<instances; i++) {
+			Mat4.multiply(mvp, 0, projection, 0, modelMatrices, i * 16);
+			uniforms.position(0);
+			uniforms.put(mvp, 0, 16);
+			uniforms.put(modelMatrices, i * 16, 16);
+			uniforms.put(1f).put(1f).put(1f).put(1f);
+		}
+		return uniforms;
+	}
+
+	// drawMeshInstances on ES 3.0: u_ProjectionMatrix and u_Color once, every matrix into the stream buffer
+	@Benchmark
+	public FloatBuffer instancedArrays() {
+		uniforms.position(0);
+		uniforms.put(projection, 0, 16);
+		uniforms.put(1f).put(1f).put(1f).put(1f);
+		stream.position(0);
+		stream.put(modelMatrices, 0, instances * 16);
+		return stream;
+	}
+
+	// drawMeshInstances on ES 2.0: the shared uniforms once, then u_ModelMatrices per batch
+	@Benchmark
+	public FloatBuffer uniformBatches() {
+		uniforms.position(0);
+		uniforms.put(projection, 0, 16);
+		uniforms.put(1f).put(1f).put(1f).put(1f);
+		for (int first=0; first<instances; first+=BATCH) {
+			uniforms.position(0);
+			uniforms.put(modelMatrices, first * 16, Math.min(BATCH, instances - first) * 16);
+		}
+		return uniforms;
+	}
+}
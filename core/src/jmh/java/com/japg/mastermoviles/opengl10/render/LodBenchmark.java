@@ -0,0 +1,102 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import com.japg.mastermoviles.opengl10.util.Resource3DSReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/* Level of detail generation (MeshLods.generate, i.e. the whole simplification chain) per model, and
+*  the per-frame level selection as ModelObject does it on a 1080 pixel high viewport with the
+*  renderer's 45 degree projection. MeshLodsTest checks the levels picked along a zoom sweep.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class LodBenchmark {
+	private static final float VIEWPORT_HEIGHT = 1080f;
+	// projection[5] of Mat4.perspective with a 45 degree fovy
+	private static final float PROJECTION_SCALE = (float) (1.0 / Math.tan(Math.toRadians(22.5)));
+
+	@Param({"esfera2.3ds", "tierra.3ds", "cabeza_mario_6.3ds", "mono.3ds", "batmobile.3ds", "mono_hd.3ds"})
+	public String model;
+
+	private Resource3DSReader reader;
+	private MeshLods[] lods;
+	private int[] levels;
+
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		reader = new Resource3DSReader(true);
+		reader.setVerbose(false);
+		reader.read3DSFromBuffer(readModel(model));
+		reader.computeBounds();
+		lods = new MeshLods[reader.numMeshes];
+		for (int i=0; i<reader.numMeshes; i++) {
+			lods[i] = generate(i);
+		}
+		levels = new int[reader.numMeshes];
+	}
+
+	private static ByteBuffer readModel(String name) throws IOException {
+		final File dir = new File(System.getProperty("models.dir", "../app/src/main/res/raw"));
+		RandomAccessFile raf = new RandomAccessFile(new File(dir, name), "r");
+		try {
+			byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+			return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private MeshLods generate(int mesh) {
+		return MeshLods.generate(reader.dataBuffer[mesh], reader.numVertices[mesh], reader.indexBuffer[mesh], reader.numIndices[mesh]);
+	}
+
+	// Every mesh of the model, as ModelLoader does on the loading thread
+	@Benchmark
+	public MeshLods generateLods() {
+		MeshLods last = null;
+		for (int i=0; i<reader.numMeshes; i++) {
+			last = generate(i);
+		}
+		return last;
+	}
+
+	// One frame of level selection at 5 units, the renderer's starting distance
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public int selectLevels() {
+		return triangles(5f);
+	}
+
+	private int triangles(float distance) {
+		final float pixelsPerUnit = VIEWPORT_HEIGHT * 0.5f * PROJECTION_SCALE / distance;
+		int triangles = 0;
+		for (int i=0; i<lods.length; i++) {
+			levels[i] = lods[i].select(levels[i], pixelsPerUnit);
+			triangles += lods[i].getCount(levels[i]) / 3;
+		}
+		return triangles;
+	}
+}
@@ -0,0 +1,134 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import com.japg.mastermoviles.opengl10.math.Mat4;
+import com.japg.mastermoviles.opengl10.math.Quat;
+import com.japg.mastermoviles.opengl10.util.Resource3DSReader;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/* Frames of SoftwareRasterizer with a whole model in view (540x960, 45 degree projection, a 256x256
+*  checkerboard texture), turning a little every frame. Besides frames per second, the triangles
+*  counter gives the triangles per second that survived clipping and culling and were rasterized.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class RasterizerBenchmark {
+	private static final int WIDTH = 540;
+	private static final int HEIGHT = 960;
+
+	@Param({"esfera.3ds", "cabeza_mario_6.3ds", "mono_hd.3ds"})
+	public String model;
+
+	@Param({"1", "2", "4", "8"})
+	public int threads;
+
+	// Triangles drawn, reported per second next to the frames
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Triangles {
+		public long triangles;
+	}
+
+	private SoftwareRasterizer rasterizer;
+	private int[] meshes;
+	private int texture;
+	private final float[] projection = new float[16];
+	private final float[] centered = new float[16];
+	private final float[] rotation = new float[4];
+	private final float[] turned = new float[16];
+	private final float[] mv = new float[16];
+	private final float[] mvp = new float[16];
+	private float radius;
+	private int frame;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		final File dir = new File(System.getProperty("models.dir", "../app/src/main/res/raw"));
+		final ByteBuffer file;
+		RandomAccessFile raf = new RandomAccessFile(new File(dir, model), "r");
+		try {
+			byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+			file = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			raf.close();
+		}
+		final Resource3DSReader reader = new Resource3DSReader(true);
+		reader.setVerbose(false);
+		reader.read3DSFromBuffer(file);
+
+		rasterizer = new SoftwareRasterizer(threads);
+		rasterizer.init();
+		rasterizer.setViewport(WIDTH, HEIGHT);
+		final int[] checker = new int[256 * 256];
+		for (int i=0; i<checker.length; i++) {
+			checker[i] = (((i >> 4) ^ (i >> 12)) & 1) != 0 ? 0xFFFFFFFF : 0xFF808080;
+		}
+		texture = rasterizer.createTexture(256, 256, checker);
+
+		final float[] box = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		meshes = new int[reader.numMeshes];
+		for (int i=0; i<reader.numMeshes; i++) {
+			meshes[i] = rasterizer.createMesh(reader.dataBuffer[i], reader.numVertices[i], reader.indexBuffer[i],
+					reader.numIndices[i]);
+			for (int v=0; v<reader.numVertices[i]; v++) {
+				for (int c=0; c<3; c++) {
+					final float value = reader.dataBuffer[i].get(v * 8 + c);
+					box[c] = Math.min(box[c], value);
+					box[3 + c] = Math.max(box[3 + c], value);
+				}
+			}
+		}
+		radius = 0f;
+		for (int c=0; c<3; c++) {
+			radius = Math.max(radius, (box[3 + c] - box[c]) * 0.5f);
+		}
+		Mat4.perspective(projection, 0, 45f, (float) WIDTH / HEIGHT, 0.01f, 1000f);
+		Mat4.composeTRS(centered, 0, -(box[0] + box[3]) * 0.5f, -(box[1] + box[4]) * 0.5f, -(box[2] + box[5]) * 0.5f,
+				new float[] { 0f, 0f, 0f, 1f }, 0, 1f, 1f, 1f);
+	}
+
+	@TearDown(Level.Trial)
+	public void shutdown() {
+		rasterizer.shutdown();
+	}
+
+	@Benchmark
+	public int[] frame(Triangles counter) {
+		Quat.setAxisAngle(rotation, 0, (frame++ % 360), 0f, 1f, 0f);
+		Mat4.composeTRS(turned, 0, 0f, 0f, -3f * radius, rotation, 0, 1f, 1f, 1f);
+		Mat4.multiply(mv, 0, turned, 0, centered, 0);
+		Mat4.multiply(mvp, 0, projection, 0, mv, 0);
+		rasterizer.beginFrame();
+		for (int mesh : meshes) {
+			rasterizer.drawMesh(mesh, texture, mvp, mv, 1f, 1f, 1f, 1f);
+		}
+		rasterizer.endFrame();
+		counter.triangles += rasterizer.getTriangleCount();
+		return rasterizer.getColorBuffer();
+	}
+}
@@ -0,0 +1,71 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import com.japg.mastermoviles.opengl10.util.Resource3DSReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/* The vertex cache pass of the loader (Resource3DSReader.optimizeVertexCache, after computeBounds and
+*  generateLods) per model. VertexCacheOptimizerTest checks the ACMR it gets.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class VertexCacheBenchmark {
+	@Param({"cubo.3ds", "esfera.3ds", "esfera2.3ds", "tierra.3ds", "torus.3ds", "t90a.3ds", "cabeza_mario_6.3ds",
+			"mono.3ds", "batmobile.3ds", "mono_hd.3ds"})
+	public String model;
+
+	private ByteBuffer file;
+	private Resource3DSReader reader;
+
+	@Setup(Level.Trial)
+	public void readFile() throws IOException {
+		final File dir = new File(System.getProperty("models.dir", "../app/src/main/res/raw"));
+		RandomAccessFile raf = new RandomAccessFile(new File(dir, model), "r");
+		try {
+			byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+			file = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			raf.close();
+		}
+	}
+
+	// A fresh, not yet optimized model for every call
+	@Setup(Level.Invocation)
+	public void load() {
+		file.position(0);
+		reader = new Resource3DSReader(true);
+		reader.setVerbose(false);
+		reader.read3DSFromBuffer(file);
+		reader.computeBounds();
+		reader.generateLods();
+	}
+
+	@Benchmark
+	public Resource3DSReader optimizeVertexCache() {
+		reader.optimizeVertexCache();
+		return reader;
+	}
+}
@@ -0,0 +1,103 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import com.japg.mastermoviles.opengl10.util.Resource3DSReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/* Vertex packing (PackedVertices.pack, done by ModelLoader on its threads) on the largest
+*  models, and the copy of the vertex data that glBufferData makes, with floats and packed. The GPU
+*  side of the upload only shows on a device, in the UPLOAD phase of FrameStats. PackedVerticesTest
+*  checks the errors of the packed layout.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class VertexPackBenchmark {
+	private static final int FLOATS_PER_VERTEX = 8;
+
+	@Param({"mono.3ds", "torus.3ds", "batmobile.3ds", "mono_hd.3ds"})
+	public String model;
+
+	private Resource3DSReader reader;
+	private PackedVertices[] packed;
+	private ByteBuffer floatCopy;
+	private ByteBuffer packedCopy;
+
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		reader = new Resource3DSReader(true);
+		reader.setVerbose(false);
+		reader.read3DSFromBuffer(readModel(model));
+		packed = new PackedVertices[reader.numMeshes];
+		int largest = 0;
+		for (int i=0; i<reader.numMeshes; i++) {
+			packed[i] = PackedVertices.pack(reader.dataBuffer[i], reader.numVertices[i]);
+			largest = Math.max(largest, reader.numVertices[i]);
+		}
+		floatCopy = ByteBuffer.allocateDirect(largest * FLOATS_PER_VERTEX * 4).order(ByteOrder.nativeOrder());
+		packedCopy = ByteBuffer.allocateDirect(largest * PackedVertices.STRIDE).order(ByteOrder.nativeOrder());
+	}
+
+	private static ByteBuffer readModel(String name) throws IOException {
+		final File dir = new File(System.getProperty("models.dir", "../app/src/main/res/raw"));
+		RandomAccessFile raf = new RandomAccessFile(new File(dir, name), "r");
+		try {
+			byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+			return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			raf.close();
+		}
+	}
+
+	// Every mesh of the model
+	@Benchmark
+	public PackedVertices pack() {
+		PackedVertices last = null;
+		for (int i=0; i<reader.numMeshes; i++) {
+			last = PackedVertices.pack(reader.dataBuffer[i], reader.numVertices[i]);
+		}
+		return last;
+	}
+
+	// The client-side copy of glBufferData with 32-byte float vertices
+	@Benchmark
+	public ByteBuffer uploadFloats() {
+		for (int i=0; i<reader.numMeshes; i++) {
+			floatCopy.clear();
+			floatCopy.asFloatBuffer().put(reader.dataBuffer[i].duplicate());
+		}
+		return floatCopy;
+	}
+
+	// Same with the 16-byte packed vertices
+	@Benchmark
+	public ByteBuffer uploadPacked() {
+		for (int i=0; i<reader.numMeshes; i++) {
+			packedCopy.clear();
+			packedCopy.put(packed[i].getData().duplicate());
+		}
+		return packedCopy;
+	}
+}
@@ -0,0 +1,98 @@
+package com.japg.mastermoviles.opengl10.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/* Load time of the old two-pass, byte-at-a-time reader (LegacyResource3DSReader) against the current
+*  one, both reading from a stream over the file bytes in memory. That is the cheapest stream there
+*  is: on a device every read() of the old reader also crosses into the asset manager. "current" reads
+*  the same output as the old reader (flat normals, triangle soup, one thread), which load() checks
+*  float for float; "currentDefault" is the reader as ModelLoader configures it, with smoothing-group
+*  normals on the fork-join pool.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LegacyReaderBenchmark {
+
+	@Param({"cubo.3ds", "cabeza_mario_6.3ds", "t90a.3ds", "torus.3ds", "batmobile.3ds", "mono_hd.3ds"})
+	public String model;
+
+	private byte[] file;
+
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		final File dir = new File(System.getProperty("models.dir", "../app/src/main/res/raw"));
+		RandomAccessFile raf = new RandomAccessFile(new File(dir, model), "r");
+		try {
+			file = new byte[(int) raf.length()];
+			raf.readFully(file);
+		} finally {
+			raf.close();
+		}
+
+		// Timing two readers only means something while they read the same meshes
+		final LegacyResource3DSReader legacy = legacy();
+		final Resource3DSReader reader = current();
+		if (legacy.numMeshes != reader.numMeshes) {
+			throw new IllegalStateException(model + ": " + legacy.numMeshes + " meshes, now " + reader.numMeshes);
+		}
+		for (int i=0; i<reader.numMeshes; i++) {
+			final FloatBuffer expected = legacy.dataBuffer[i];
+			final FloatBuffer actual = reader.dataBuffer[i];
+			if (legacy.numVertices[i] != reader.numVertices[i]) {
+				throw new IllegalStateException(model + ": mesh " + i + " has " + reader.numVertices[i] + " vertices");
+			}
+			for (int f=0; f<reader.numVertices[i] * 8; f++) {
+				if (Float.floatToRawIntBits(expected.get(f)) != Float.floatToRawIntBits(actual.get(f))) {
+					throw new IllegalStateException(model + ": mesh " + i + " differs at float " + f);
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public LegacyResource3DSReader legacy() {
+		final LegacyResource3DSReader reader = new LegacyResource3DSReader();
+		reader.read3DSFromResource(file);
+		return reader;
+	}
+
+	@Benchmark
+	public Resource3DSReader current() {
+		final Resource3DSReader reader = new Resource3DSReader();
+		reader.setVerbose(false);
+		reader.setSmoothNormals(false);
+		reader.setParallel(false);
+		reader.read3DSFromStream(new ByteArrayInputStream(file));
+		return reader;
+	}
+
+	@Benchmark
+	public Resource3DSReader currentDefault() {
+		final Resource3DSReader reader = new Resource3DSReader();
+		reader.setVerbose(false);
+		reader.read3DSFromStream(new ByteArrayInputStream(file));
+		return reader;
+	}
+}
@@ -3,43 +3,30 @@ package com.japg.mastermoviles.opengl10.util;
 /* Copyright (C) 2014 Juan Antonio Puchol García
  * Depto. Ciencia de la Computación e Inteligencia Artificial
  * Universidad de Alicante
- * 
+ *
  * Máster Universitario en Desarrollo de Software para Dispositivos Móviles
  */
 
-import android.content.Context;
-import android.content.res.Resources;
-import android.util.Log;
-
-import java.io.EOFException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 
-/* Versión 2.5 de Resource3DSReader
-*  Changelog:
-*    Cambios desde la versión 2.0:
-*    	Lee grupos de suavizado
-*    Cambios desde la versión 1.5:
-*       Lee múltiples mallas del recurso 3DS
-*    Cambios desde la versión 1.0:
-*       Se añade el cálculo de la normal y las coordenadas de texturas
-*       Cada vértice tiene 8 floats (x, y, z, A, B, C, u, v)
+/* Versión 2.5 de Resource3DSReader, la anterior al lector de una sola pasada, para comparar tiempos
+*  de carga (ver LegacyReaderBenchmark). Es el mismo código sin Android: el recurso se abre dos veces
+*  como un stream sobre los bytes del fichero en memoria y no se escribe en el log.
 */
-
-public class Resource3DSReader {
-	private static final String TAG = "Resource3DSReader";
-	
+class LegacyResource3DSReader {
 	// Constantes
 	private static final int BYTES_PER_FLOAT = 4;
 	private static final int BYTES_PER_SHORT = 2;
 	private static final int TRIMESH_SIZE    = 8*3;
-	
+
 	// Número máximo de mallas de triángulos a leer
 	private static final int MAX_MESHES      = 500;
-	
+
 	// Identificadores de los trozos (chunks) del archivo que vamos a leer
 	// Descripción del formato en: http://es.wikipedia.org/wiki/.3ds
 	private static final int CHUNK_MAIN		= 0x4d4d;
@@ -50,29 +37,29 @@ public class Resource3DSReader {
 	private static final int CHUNK_FACELIST	= 0x4120;
 	private static final int CHUNK_MAPLIST	= 0x4140;
 	private static final int CHUNK_SMOOLIST	= 0x4150;
-	
+
 	int[] numVer;
 	int[] numPol;
 	int[] numUv;
-	
+
 	int maxVer;
 	int maxPol;
 	int maxUv;
-		
+
 	// Vectores temporales
 	float[] vertexBuffer;
 	int[]	polBuffer;
 	float[]	uvBuffer;
 	int[]	smoothBuffer;
-	
-	// [Salida] Vectores (JNI) con la mallas de triángulos resultante, y su número de vértices 
-	public FloatBuffer[]	dataBuffer;
-	public int[]			numVertices;	
-	
+
+	// [Salida] Vectores (JNI) con la mallas de triángulos resultante, y su número de vértices
+	FloatBuffer[]	dataBuffer;
+	int[]			numVertices;
+
 	// Número de mallas
-	public int numMeshes;
-	
-	public Resource3DSReader() {
+	int numMeshes;
+
+	LegacyResource3DSReader() {
 		numMeshes = -1;
 		numVer = new int[MAX_MESHES];
 		numPol = new int[MAX_MESHES];
@@ -81,7 +68,7 @@ public class Resource3DSReader {
 		maxPol = 0;
 		maxUv  = 0;
 	}
-	
+
 	private void vector_cross(float[] N, float[] va, float[] vb) {
 		N[0] = va[1] * vb[2] - va[2] * vb[1];
 		N[1] = va[2] * vb[0] - va[0] * vb[2];
@@ -94,65 +81,59 @@ public class Resource3DSReader {
 			N[0] /= m;
 			N[1] /= m;
 			N[2] /= m;
-		}	
+		}
 	}
-	
+
 	private int readUnsignedShort(InputStream is) {
-		
-		int a, b; 
-		
+
+		int a, b;
+
 		try {
 			a = is.read();
 			b = is.read();
-		
+
 		} catch (IOException e) {
 			throw new RuntimeException("No se pudo abrir el recurso", e);
-		} catch (Resources.NotFoundException nfe) {
-			throw new RuntimeException("Recurso no encontrado", nfe);
 		}
 		return a + (b << 8);
 	}
 
 	private int readUnsignedInt(InputStream is) {
-		
-		int a, b, c, d; 
-		
+
+		int a, b, c, d;
+
 		try {
 			a = is.read();
 			b = is.read();
 			c = is.read();
 			d = is.read();
-			
+
 		} catch (IOException e) {
 			throw new RuntimeException("No se pudo abrir el recurso", e);
-		} catch (Resources.NotFoundException nfe) {
-			throw new RuntimeException("Recurso no encontrado", nfe);
 		}
 		return a + (b << 8) + (c << 16) + (d <<24);
 	}
-	
+
 	private float readFloat(InputStream is) {
 		return Float.intBitsToFloat(readUnsignedInt(is));
 	}
-	
-	public void analize3DSFromResource(Context context, int resourceId) {
+
+	void analize3DSFromResource(byte[] resource) {
 		int 	l_chunk_id;
 		int 	l_chunk_length;
 		int 	l_byte;
 		int		i;
 		StringBuilder name;
-		int		totalPol;
-		
+
 		numMeshes=-1;
-		totalPol=0;
 
 		try {
-			InputStream inputStream = context.getResources().openRawResource(resourceId);
-	
+			InputStream inputStream = new ByteArrayInputStream(resource);
+
 			// Bucle para leer los trozos (chunks) de archivo mientras queden bytes por leer
 			while (inputStream.available() > 0) {
-				
-				// Lee la cabecera, id y longitud								
+
+				// Lee la cabecera, id y longitud
 				l_chunk_id = readUnsignedShort(inputStream);
 				l_chunk_length = readUnsignedInt(inputStream);
 				switch (l_chunk_id)
@@ -175,45 +156,37 @@ public class Resource3DSReader {
 			            	i++;
 			            } while(l_byte != 0 && i<20);
 			            numMeshes++;
-			            if (LoggerConfig.ON) {
-			        		Log.w(TAG, "[A] CHUNK_OBJBLOCK [" + numMeshes + "]: " + name);
-						}
 			            break;
 
 					case CHUNK_VERTLIST:
 			        	numVer[numMeshes] = readUnsignedShort(inputStream);
 			            inputStream.skip(numVer[numMeshes]*3*BYTES_PER_FLOAT);
 			            break;
-			            
+
 			        case CHUNK_FACELIST:
 			        	numPol[numMeshes] = readUnsignedShort(inputStream);
 			            inputStream.skip(numPol[numMeshes]*4*BYTES_PER_SHORT);
-			            totalPol+=numPol[numMeshes];
 			            break;
-			            
+
 			        case CHUNK_MAPLIST:
 			        	numUv[numMeshes] = readUnsignedShort(inputStream);
 			            inputStream.skip(numUv[numMeshes]*2*BYTES_PER_FLOAT);
 			            break;
-			            
+
 			        default:
 			            inputStream.skip(l_chunk_length-6);
 			        	break;
-			    }	
+			    }
 			}
 			inputStream.close();
-		} catch (EOFException e) {
-			throw new RuntimeException("Fin de fichero EOF: " + resourceId, e);
 		} catch (IOException e) {
-			throw new RuntimeException("No se pudo abrir el recurso: " + resourceId, e);
-		} catch (Resources.NotFoundException nfe) {
-			throw new RuntimeException("Recurso no encontrado: " + resourceId, nfe);
+			throw new RuntimeException("No se pudo abrir el recurso", e);
 		}
-		numMeshes++;		
-		
+		numMeshes++;
+
 		dataBuffer = new FloatBuffer[numMeshes];
 		numVertices = new int[numMeshes];
-		
+
 		maxVer=0;
 		maxPol=0;
 		maxUv=0;
@@ -223,39 +196,33 @@ public class Resource3DSReader {
 			if (maxUv<numUv[i]) maxUv=numUv[i];
 			numVertices[i] = numPol[i]*3;
 		}
-		if (LoggerConfig.ON) {
-			if (numMeshes==1)
-				Log.w(TAG, "[A] Recurso 3DS analizado correctamente, con " + numMeshes + " malla y " + totalPol + " polígonos");
-			else
-				Log.w(TAG, "[A] Recurso 3DS analizado correctamente, con " + numMeshes + " mallas y " + totalPol + " polígonos");
-		}
 	}
 
 	private void expandVertices(int nM) {
 		int i, j, pos;
-		
+
 		float[]	va = new float[3];
 		float[] vb = new float[3];
 		float[] N  = new float[3];
-		
+
 		// Crea un buffer en JNI (Java Native Interface)
 		dataBuffer[nM] = ByteBuffer
 					.allocateDirect(numPol[nM] * TRIMESH_SIZE * BYTES_PER_FLOAT)
 					.order(ByteOrder.nativeOrder())
 					.asFloatBuffer();
-				
+
 		// Crea la malla de triángulos
 		for (i=0; i<numPol[nM]; i++) {
-					
+
 			// Para cada vértice
 			for(j=0;j<3;j++) {
 				pos = polBuffer[i*3+j];
-						
+
 				// Añadimos (x, y, z)
 				dataBuffer[nM].put(i*24+j*8, vertexBuffer[pos*3]);
 				dataBuffer[nM].put(i*24+j*8+1, vertexBuffer[pos*3+1]);
 				dataBuffer[nM].put(i*24+j*8+2, vertexBuffer[pos*3+2]);
-						
+
 				// Añadimos las coordenadas de textura (u,v)
 				if (numUv[nM]>0) {
 					dataBuffer[nM].put(24*i+j*8+6, uvBuffer[pos*2]);
@@ -272,44 +239,41 @@ public class Resource3DSReader {
 			}
 			vector_cross(N, va, vb);
 			vector_normalize(N);
-					
+
 			// Añadimos las normal N(A, B, C)
 			for(j=0;j<3;j++) {
 				dataBuffer[nM].put(i*24+j*8+3, N[0]);
 				dataBuffer[nM].put(i*24+j*8+4, N[1]);
 				dataBuffer[nM].put(i*24+j*8+5, N[2]);
 			}
-					
+
 		}
 	}
-	
-	public int read3DSFromResource(Context context, int resourceId) {
+
+	int read3DSFromResource(byte[] resource) {
 		int 	l_chunk_id;
 		int 	l_chunk_length;
 		int 	l_byte;
 		int		i;
 		String name;
-		
-		
-		analize3DSFromResource(context, resourceId);
+
+
+		analize3DSFromResource(resource);
 		numMeshes=-1;
-		
+
 		// Crea los bufferes temporales
 		vertexBuffer=new float[maxVer*3];
 		polBuffer=new int[maxPol*3];
 		uvBuffer=new float[maxUv*2];
 		smoothBuffer=new int[maxPol];
-		
-		if (LoggerConfig.ON) {
-			Log.w(TAG, "[R] Leyendo 3DS...");
-		}
+
 		try {
-			InputStream inputStream = context.getResources().openRawResource(resourceId);
-	
+			InputStream inputStream = new ByteArrayInputStream(resource);
+
 			// Bucle para leer los trozos (chuks) de archivo mientras queden bytes por leer
 			while (inputStream.available() > 0) {
-				
-				// Lee la cabecera, id y longitud								
+
+				// Lee la cabecera, id y longitud
 				l_chunk_id = readUnsignedShort(inputStream);
 				l_chunk_length = readUnsignedInt(inputStream);
 				switch (l_chunk_id)
@@ -322,7 +286,7 @@ public class Resource3DSReader {
 						break;
 
 					case CHUNK_OBJBLOCK:
-			        	
+
 			        	if (numMeshes>-1) expandVertices(numMeshes);
 			        	name="";
 			        	i=0;
@@ -331,9 +295,6 @@ public class Resource3DSReader {
 			            	if (l_byte>0) name=name+(char)l_byte;
 			            	i++;
 			            } while(l_byte != 0 && i<20);
-			            //if (LoggerConfig.ON) {
-			        		Log.w(TAG, "[R] CHUNK_OBJBLOCK: " + name);
-						//}
 			            numMeshes++;
 			            break;
 
@@ -346,7 +307,7 @@ public class Resource3DSReader {
 			            	vertexBuffer[i*3+2] = readFloat(inputStream);
 			            }
 			            break;
-			            
+
 			        case CHUNK_FACELIST:
 			        	numPol[numMeshes] = readUnsignedShort(inputStream);
 			        	for (i=0; i<numPol[numMeshes]; i++)
@@ -357,25 +318,17 @@ public class Resource3DSReader {
 			        		l_byte = readUnsignedShort(inputStream);
 			            }
 			            break;
-			            
+
 			        case CHUNK_MAPLIST:
 			        	numUv[numMeshes] = readUnsignedShort(inputStream);
-			        
-			        	if (LoggerConfig.ON) {
-							Log.w(TAG, "[R] Número de uv's: " + numUv[numMeshes]);
-						}
-			        				        	
 			        	for (i=0; i<numUv[numMeshes]; i++)
 			            {
 			            	uvBuffer[i*2]   = readFloat(inputStream);
 			            	uvBuffer[i*2+1] = 1.0f - readFloat(inputStream);
 			            }
 			            break;
-			         
+
 			        case CHUNK_SMOOLIST:
-			        	if (LoggerConfig.ON) {
-							Log.w(TAG, "[R] Leyendo smoothgroup... ");
-			        	}
 			        	for(i = 0; i < numPol[numMeshes]; i++) {
 			    			smoothBuffer[i] = readUnsignedInt(inputStream);
 			    		}
@@ -386,25 +339,18 @@ public class Resource3DSReader {
 			    }
 			}
 			inputStream.close();
-		} catch (EOFException e) {
-			throw new RuntimeException("Fin de fichero EOF: " + resourceId, e);
 		} catch (IOException e) {
-			throw new RuntimeException("No se pudo abrir el recurso: " + resourceId, e);
-		} catch (Resources.NotFoundException nfe) {
-			throw new RuntimeException("Recurso no encontrado: " + resourceId, nfe);
+			throw new RuntimeException("No se pudo abrir el recurso", e);
 		}
-		
+
 		expandVertices(numMeshes);
 		numMeshes++;
-		
+
 		// Liberamos la memoria (buffers) temporal
 		vertexBuffer=null;
 		polBuffer=null;
 		uvBuffer=null;
-		
-		if (LoggerConfig.ON) {
-			Log.w(TAG, "[R] Recurso 3DS leído correctamente, con " + numMeshes + " malla(s).");
-		}
+
 		return numMeshes;
 	}
-}
\ No newline at end of file
+}
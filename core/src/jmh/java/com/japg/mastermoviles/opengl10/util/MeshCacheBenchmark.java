@@ -0,0 +1,93 @@
+package com.japg.mastermoviles.opengl10.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/* Time to first buffer: from the model file to the vertex data of its first mesh copied out the way
+*  glBufferData copies it, through ModelLoader with a .3ds resource and with the .m3d that
+*  MeshCacheConverter makes of it. The .m3d is written once per trial and stays in the page cache, so
+*  this is a warm start; a cold one adds the disk reads of the mapped pages on top.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class MeshCacheBenchmark {
+	private static final int STRIDE = 32;
+
+	@Param({"cabeza_mario_6.3ds", "t90a.3ds", "torus.3ds", "batmobile.3ds", "mono_hd.3ds"})
+	public String model;
+
+	private File resource;
+	private File meshFile;
+	private ByteBuffer upload;
+
+	@Setup(Level.Trial)
+	public void convert() throws IOException {
+		resource = new File(System.getProperty("models.dir", "../app/src/main/res/raw"), model);
+		// As MeshCacheConverter --indexed, so both sides draw the same meshes
+		final Resource3DSReader reader = new Resource3DSReader(true);
+		reader.setVerbose(false);
+		reader.read3DSFromStream(new FileInputStream(resource));
+		reader.computeBounds();
+		reader.generateLods();
+		reader.optimizeVertexCache();
+		meshFile = new File(Files.createTempDirectory("m3d").toFile(), model.replace(".3ds", MeshCache.EXTENSION));
+		MeshCache.write(reader, meshFile);
+
+		int largest = 0;
+		for (int i=0; i<reader.numMeshes; i++) {
+			largest = Math.max(largest, reader.numVertices[i]);
+		}
+		upload = ByteBuffer.allocateDirect(largest * STRIDE).order(ByteOrder.nativeOrder());
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() {
+		meshFile.delete();
+		meshFile.getParentFile().delete();
+	}
+
+	// Parse, normals, bounds, detail levels, vertex cache order and batches, as the app loads a resource
+	@Benchmark
+	public ByteBuffer resource3DS() {
+		return firstBuffer(ModelLoader.read(resourceId -> new FileInputStream(resource), 0, true));
+	}
+
+	// Map, bounds and one batch per mesh; the detail levels come from the file
+	@Benchmark
+	public ByteBuffer meshCache() {
+		return firstBuffer(ModelLoader.read(meshFile));
+	}
+
+	// The client-side copy of the first glBufferData; for the .m3d it is also the first read of the pages
+	private ByteBuffer firstBuffer(Resource3DSReader reader) {
+		final FloatBuffer vertices = reader.dataBuffer[0].duplicate();
+		vertices.position(0);
+		upload.clear();
+		upload.asFloatBuffer().put(vertices);
+		return upload;
+	}
+}
@@ -0,0 +1,88 @@
+package com.japg.mastermoviles.opengl10.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/* NormalGenerator.smoothNormals on generated grids of about 0.1, 1 and 4 million triangles, so the
+*  1000000 row reads as the time per million triangles and the others show that it stays linear.
+*  The grid is a wavy sheet with shared vertices, like an indexed 3DS mesh; "smooth" puts every face in
+*  one smoothing group and "creased" alternates two groups by row, so half of the adjacent faces are
+*  left out of each average. Read3DSBenchmark.smoothNormals covers the real models.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NormalBenchmark {
+
+	@Param({"100000", "1000000", "4000000"})
+	public int triangles;
+
+	private float[] vertices;
+	private int[] faces;
+	private int numVer;
+	private int numPol;
+	private int[] oneGroup;
+	private int[] twoGroups;
+
+	@Setup(Level.Trial)
+	public void generate() {
+		final int quads = triangles / 2;
+		final int rows = (int) Math.round(Math.sqrt(quads / 2.0));
+		final int columns = quads / rows;
+		numVer = (rows + 1) * (columns + 1);
+		numPol = rows * columns * 2;
+		vertices = new float[numVer * 3];
+		for (int r=0; r<=rows; r++) {
+			for (int c=0; c<=columns; c++) {
+				final int v = (r * (columns + 1) + c) * 3;
+				vertices[v] = c;
+				vertices[v+1] = r;
+				vertices[v+2] = (float) (Math.sin(c * 0.1) * Math.cos(r * 0.1));
+			}
+		}
+		faces = new int[numPol * 3];
+		twoGroups = new int[numPol];
+		int f = 0;
+		for (int r=0; r<rows; r++) {
+			for (int c=0; c<columns; c++) {
+				final int a = r * (columns + 1) + c;
+				final int b = a + columns + 1;
+				twoGroups[f / 3] = twoGroups[f / 3 + 1] = 1 << (r & 1);
+				faces[f++] = a;
+				faces[f++] = a + 1;
+				faces[f++] = b;
+				faces[f++] = a + 1;
+				faces[f++] = b + 1;
+				faces[f++] = b;
+			}
+		}
+		oneGroup = new int[numPol];
+		Arrays.fill(oneGroup, 1);
+	}
+
+	@Benchmark
+	public float[] smooth() {
+		return NormalGenerator.smoothNormals(vertices, numVer, faces, numPol, oneGroup);
+	}
+
+	@Benchmark
+	public float[] creased() {
+		return NormalGenerator.smoothNormals(vertices, numVer, faces, numPol, twoGroups);
+	}
+}
@@ -0,0 +1,186 @@
+package com.japg.mastermoviles.opengl10.util;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/* Each phase of Resource3DSReader over every model in app/src/main/res/raw.
+*  Besides ops/s, the "bytes" counter gives the .3ds bytes processed per second (MB/s once divided
+*  by 2^20) and the gc profiler adds the allocation rate, so regressions show up as numbers.
+*  read3DSParallel runs on pools of 1 to 8 threads, to show how decoding scales with the meshes of
+*  each model (models with a single mesh do not go parallel at all).
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Read3DSBenchmark {
+
+	@Param({"cubo.3ds", "esfera.3ds", "cabeza_mario_6.3ds", "tierra.3ds", "esfera2.3ds",
+			"t90a.3ds", "mono.3ds", "torus.3ds", "batmobile.3ds", "mono_hd.3ds"})
+	public String model;
+
+	private ByteBuffer file;
+	private Resource3DSReader reader;
+	private Resource3DSReader.MeshScratch[] lists;
+	// Smoothing groups per mesh; models without SMOOLIST get a single group, so every model
+	// goes through the full normal generation
+	private int[][] smoothGroups;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Throughput {
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytes = 0;
+		}
+	}
+
+	// Fork-join pool for the parallel reader, one per thread count
+	@State(Scope.Benchmark)
+	public static class Pool {
+		@Param({"1", "2", "4", "8"})
+		public int threads;
+
+		ForkJoinPool pool;
+
+		@Setup(Level.Trial)
+		public void start() {
+			pool = new ForkJoinPool(threads);
+		}
+
+		@TearDown(Level.Trial)
+		public void shutdown() {
+			pool.shutdown();
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		file = readModel(model);
+		reader = newReader(false);
+		reader.scanChunks(file.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+		lists = new Resource3DSReader.MeshScratch[reader.numMeshes];
+		smoothGroups = new int[reader.numMeshes][];
+		for (int i=0; i<reader.numMeshes; i++) {
+			lists[i] = reader.readLists(file, i);
+			if (lists[i].smoothBuffer != null) {
+				smoothGroups[i] = lists[i].smoothBuffer;
+			} else {
+				smoothGroups[i] = new int[reader.numPol[i]];
+				Arrays.fill(smoothGroups[i], 1);
+			}
+		}
+	}
+
+	private static ByteBuffer readModel(String name) throws IOException {
+		final File dir = new File(System.getProperty("models.dir", "../app/src/main/res/raw"));
+		RandomAccessFile raf = new RandomAccessFile(new File(dir, name), "r");
+		try {
+			byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+			return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static Resource3DSReader newReader(boolean parallel) {
+		Resource3DSReader reader = new Resource3DSReader();
+		reader.setVerbose(false);
+		reader.setParallel(parallel);
+		return reader;
+	}
+
+	// Chunk headers only: offsets of every list
+	@Benchmark
+	public int parseChunks(Throughput t) throws IOException {
+		t.bytes += file.capacity();
+		return reader.scanChunks(file.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+	}
+
+	// Bulk decode of the vertex, face, uv and smoothing lists
+	@Benchmark
+	public Object readLists(Throughput t) {
+		t.bytes += file.capacity();
+		Object last = null;
+		for (int i=0; i<reader.numMeshes; i++) {
+			last = reader.readLists(file, i);
+		}
+		return last;
+	}
+
+	// Triangle soup with flat normals into a direct FloatBuffer
+	@Benchmark
+	public FloatBuffer expandVertices(Throughput t) {
+		t.bytes += file.capacity();
+		reader.setSmoothNormals(false);
+		for (int i=0; i<reader.numMeshes; i++) {
+			reader.expandVertices(i, lists[i]);
+		}
+		return reader.dataBuffer[reader.numMeshes - 1];
+	}
+
+	@Benchmark
+	public float[] smoothNormals(Throughput t) {
+		t.bytes += file.capacity();
+		float[] normals = null;
+		for (int i=0; i<reader.numMeshes; i++) {
+			final Resource3DSReader.MeshScratch s = lists[i];
+			normals = NormalGenerator.smoothNormals(s.vertexBuffer, reader.numVer[i], s.polBuffer, reader.numPol[i], smoothGroups[i]);
+		}
+		return normals;
+	}
+
+	// End to end, as ModelLoader does it
+	@Benchmark
+	public Resource3DSReader read3DS(Throughput t) {
+		t.bytes += file.capacity();
+		Resource3DSReader r = newReader(false);
+		r.read3DSFromBuffer(file);
+		return r;
+	}
+
+	@Benchmark
+	public Resource3DSReader read3DSParallel(Throughput t, Pool p) {
+		t.bytes += file.capacity();
+		Resource3DSReader r = newReader(true);
+		r.setPool(p.pool);
+		r.read3DSFromBuffer(file);
+		return r;
+	}
+
+	@Benchmark
+	public Resource3DSReader read3DSIndexed(Throughput t) {
+		t.bytes += file.capacity();
+		Resource3DSReader r = new Resource3DSReader(true);
+		r.setVerbose(false);
+		r.read3DSFromBuffer(file);
+		return r;
+	}
+}
@@ -0,0 +1,388 @@
+package com.japg.mastermoviles.opengl10;
+
+import com.japg.mastermoviles.opengl10.math.Frustum;
+import com.japg.mastermoviles.opengl10.math.Mat4;
+import com.japg.mastermoviles.opengl10.math.Orientation;
+import com.japg.mastermoviles.opengl10.render.MeshBounds;
+import com.japg.mastermoviles.opengl10.render.MeshLods;
+import com.japg.mastermoviles.opengl10.render.PackedVertices;
+import com.japg.mastermoviles.opengl10.render.RenderBackend;
+import com.japg.mastermoviles.opengl10.render.StaticBatch;
+import com.japg.mastermoviles.opengl10.util.ModelLoader;
+import com.japg.mastermoviles.opengl10.util.Resource3DSReader;
+
+import java.io.File;
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Future;
+
+public class ModelObject {
+
+    // Where the 3DS resources are read from
+    private final ModelLoader.RawResources resources;
+
+    private final float[] MVP = new float[16];
+    private static final int BYTES_PER_FLOAT = 4;
+    private static final int BYTES_PER_SHORT = 2;
+    private static final int BYTES_PER_INT = 4;
+
+    // null until the (possibly asynchronous) load finishes
+    private Resource3DSReader object;
+    private Future<Resource3DSReader> pendingObject;
+    private final ModelLoader loader;
+    private final int objectResource;
+    private final File meshFile;
+    private final boolean indexed;
+    // Backend mesh handles, one per batch of meshes (see StaticBatch)
+    private RenderBackend backend;
+    private int[] meshes;
+    private int uploadedMeshes;
+    private boolean clientBuffersReleased;
+    private int texture;
+    private final int textureResource;
+
+    // Rotation eases towards the touch target by elapsed time (see updatePosition)
+    private final Orientation orientation;
+    private float rZ;
+
+    private final float[] modelMatrix = new float[16];
+
+    // View frustum in model space, the visible element ranges of the batch being drawn and those of
+    // one of its parts
+    private final Frustum frustum = new Frustum();
+    private int[] ranges = new int[2];
+    private int[] partRanges = new int[2];
+    private int drawnClusters;
+    private int culledClusters;
+    private int drawCalls;
+
+    // Level of detail drawn for each part (indexed models only, see MeshLods), and what is needed to
+    // project their errors on the screen
+    private int[] lodLevels;
+    private int viewportHeight;
+    private float projectionScale;
+    private final float[] center = new float[3];
+
+    // Uploaded for drawInstances (see setInstanced)
+    private boolean instanced;
+
+    public ModelObject(ModelLoader.RawResources resources, int objectResource, int textureResource, float rXinit, float rYinit, float rZinit){
+        this(resources, objectResource, textureResource, rXinit, rYinit, rZinit, false);
+    }
+
+    // indexed: deduplicated vertices + index buffer, drawn with glDrawElements
+    public ModelObject(ModelLoader.RawResources resources, int objectResource, int textureResource, float rXinit, float rYinit, float rZinit, boolean indexed){
+        this(resources, null, objectResource, null, textureResource, indexed, rXinit, rYinit, rZinit);
+    }
+
+    // meshFile: pre-baked .m3d file (see MeshCacheConverter), memory-mapped and uploaded without copies
+    public ModelObject(ModelLoader.RawResources resources, File meshFile, int textureResource, float rXinit, float rYinit, float rZinit){
+        this(resources, null, 0, meshFile, textureResource, false, rXinit, rYinit, rZinit);
+    }
+
+    // Asynchronous variants: the model is parsed by the loader and uploaded later from uploadMeshes().
+    // A new surface reads it again on the loader, which only maps it if it has a cache dir (see
+    // ModelLoader.setCacheDir); models without a loader keep their client-side copies instead
+    public ModelObject(ModelLoader.RawResources resources, ModelLoader loader, int objectResource, int textureResource, float rXinit, float rYinit, float rZinit, boolean indexed){
+        this(resources, loader, objectResource, null, textureResource, indexed, rXinit, rYinit, rZinit);
+    }
+
+    public ModelObject(ModelLoader.RawResources resources, ModelLoader loader, File meshFile, int textureResource, float rXinit, float rYinit, float rZinit){
+        this(resources, loader, 0, meshFile, textureResource, false, rXinit, rYinit, rZinit);
+    }
+
+    private ModelObject(ModelLoader.RawResources resources, ModelLoader loader, int objectResource, File meshFile, int textureResource, boolean indexed, float rXinit, float rYinit, float rZinit){
+        this.resources = resources;
+        this.loader = loader;
+        this.textureResource = textureResource;
+        this.objectResource = objectResource;
+        this.meshFile = meshFile;
+        this.indexed = indexed;
+        requestObject();
+
+        this.orientation = new Orientation(rXinit, rYinit);
+        this.rZ = rZinit;
+    }
+    //------------------------------------------
+    // Reads the model right away, or queues it on the loader when there is one
+    private void requestObject() {
+        if (loader == null) {
+            object = meshFile != null ? ModelLoader.read(meshFile) : ModelLoader.read(resources, objectResource, indexed);
+        } else {
+            object = null;
+            pendingObject = meshFile != null ? loader.load(meshFile) : loader.load(resources, objectResource, indexed);
+        }
+        clientBuffersReleased = false;
+    }
+    //------------------------------------------
+    // Called once the backend is ready for a (new) surface. The texture handle survives new surfaces,
+    // so it is only requested again when switching backends (or if it could not be loaded).
+    public void loadTexture(RenderBackend backend){
+        if (this.backend != backend || texture == 0) {
+            releaseTexture();
+            this.texture = backend.loadTexture(this.textureResource);
+        }
+        this.backend = backend;
+
+        // New surface: previous mesh handles are gone, and the meshes have to be read again (on the
+        // loader, never here) if their client-side copies were already released
+        meshes = null;
+        uploadedMeshes = 0;
+        if (clientBuffersReleased) {
+            requestObject();
+        }
+        if (loader == null) {
+            uploadMeshes(Integer.MAX_VALUE);
+        }
+    }
+    //------------------------------------------
+    // Hands meshes to the backend (GPU buffer objects on GLES) until about budgetBytes have been
+    // sent (at least one mesh when the budget is positive). Once every mesh is resident the client-side
+    // copies of loader models are dropped; models read on this thread keep them for the next surface.
+    // Returns the bytes uploaded, so callers can share one budget per frame between models.
+    public int uploadMeshes(int budgetBytes) {
+        if (object == null) {
+            if (pendingObject == null || !pendingObject.isDone()) {
+                return 0;
+            }
+            object = ModelLoader.get(pendingObject);
+            pendingObject = null;
+        }
+        if (clientBuffersReleased || budgetBytes <= 0) {
+            return 0;
+        }
+        final int numMeshes = object.numMeshes;
+        if (meshes == null) {
+            meshes = new int[numMeshes];
+        }
+
+        int uploaded = 0;
+        while (uploadedMeshes < numMeshes && uploaded < budgetBytes) {
+            final int i = uploadedMeshes++;
+            if (object.packedVertices != null) {
+                uploaded += uploadPacked(i);
+                continue;
+            }
+            final FloatBuffer vertices = object.dataBuffer[i];
+            uploaded += vertices.capacity() * BYTES_PER_FLOAT;
+            if (object.isIndexed()) {
+                final Buffer indices = object.indexBuffer[i];
+                uploaded += indices.capacity() * (indices instanceof IntBuffer ? BYTES_PER_INT : BYTES_PER_SHORT);
+                if (instanced) {
+                    // Level 0 only: copies are drawn whole, at full detail
+                    meshes[i] = backend.createInstancedMesh(vertices, object.numVertices[i], indices, object.batches[i].getLevel0Count());
+                } else {
+                    meshes[i] = backend.createMesh(vertices, object.numVertices[i], indices, object.numIndices[i]);
+                }
+            } else if (instanced) {
+                meshes[i] = backend.createInstancedMesh(vertices, object.numVertices[i], null, 0);
+            } else {
+                meshes[i] = backend.createMesh(vertices, object.numVertices[i], null, 0);
+            }
+        }
+
+        if (uploadedMeshes == numMeshes && loader != null) {
+            object.releaseBuffers();
+            clientBuffersReleased = true;
+        }
+        return uploaded;
+    }
+
+    // Mesh i as packed by the loader (see ModelLoader.setPackVertices); returns the bytes uploaded
+    private int uploadPacked(int i) {
+        // The floats are gone, and instanced meshes need them
+        if (instanced) {
+            throw new IllegalStateException("Instanced models cannot use packed vertices");
+        }
+        final PackedVertices packed = object.packedVertices[i];
+        int bytes = packed.getData().capacity();
+        if (object.isIndexed()) {
+            final Buffer indices = object.indexBuffer[i];
+            bytes += indices.capacity() * (indices instanceof IntBuffer ? BYTES_PER_INT : BYTES_PER_SHORT);
+            meshes[i] = backend.createPackedMesh(packed, indices, object.numIndices[i]);
+        } else {
+            meshes[i] = backend.createPackedMesh(packed, null, 0);
+        }
+        return bytes;
+    }
+
+    // True once every mesh of the model is resident on the GPU
+    public boolean isLoaded() {
+        return object != null && uploadedMeshes == object.numMeshes;
+    }
+
+    // True while the model has been read but some of its meshes are not resident yet: more frames are
+    // needed to upload them. While it is still being read there is nothing to do on the GL thread (the
+    // loader says when it is done, see ModelLoader.setOnLoaded)
+    public boolean isUploading() {
+        return object != null && uploadedMeshes < object.numMeshes;
+    }
+    // Gives the texture back to the backend, which may evict it once nobody else uses it
+    public void releaseTexture() {
+        if (backend != null && texture != 0) {
+            backend.releaseTexture(texture);
+        }
+        texture = 0;
+    }
+    //------------------------------------------
+    public void drawObject(float[] projectionMatrix) {
+        updateMatrices(projectionMatrix);
+        drawObject();
+    }
+
+    // Builds the model and MVP matrices used by the next drawObject()
+    public void updateMatrices(float[] projectionMatrix) {
+        orientation.writeMatrix(modelMatrix, 0, 0f, 0f, rZ);
+
+        // Column-major matrices compose right to left: projection * model
+        Mat4.multiply(MVP, 0, projectionMatrix, 0, modelMatrix, 0);
+        frustum.set(MVP, 0);
+        projectionScale = projectionMatrix[5];
+    }
+
+    // Needed to pick levels of detail by their size in pixels
+    public void setViewportHeight(int height) {
+        viewportHeight = height;
+    }
+
+    // Draws the parts of the uploaded meshes that are inside the frustum of the last updateMatrices(),
+    // with one drawMeshRanges per batch for the visible ranges of all its parts
+    public void drawObject() {
+        drawnClusters = 0;
+        culledClusters = 0;
+        drawCalls = 0;
+        // Nothing uploaded yet: the model is still loading
+        if (uploadedMeshes == 0) {
+            return;
+        }
+        if (lodLevels == null) {
+            lodLevels = new int[object.bounds.length];
+        }
+        for (int i=0; i<uploadedMeshes; i++) {
+            final StaticBatch batch = object.batches[i];
+            int rangeCount = 0;
+            for (int part=batch.getFirstPart(); part<batch.getFirstPart() + batch.getPartCount(); part++) {
+                rangeCount = addPart(batch, part, rangeCount);
+            }
+            if (rangeCount > 0) {
+                backend.drawMeshRanges(meshes[i], ranges, rangeCount, texture, MVP, modelMatrix, 1.0f, 1.0f, 1.0f, 1.0f);
+                drawCalls += rangeCount;
+            }
+        }
+    }
+
+    // Adds the visible ranges of a part to the rangeCount ranges of its batch; returns the new count
+    private int addPart(StaticBatch batch, int part, int rangeCount) {
+        final MeshBounds bounds = object.bounds[part];
+        final int level = selectLevel(part, bounds);
+        if (level > 0) {
+            // Coarser levels are small: the part is drawn whole or not at all
+            if (!bounds.isVisible(frustum)) {
+                culledClusters++;
+                return rangeCount;
+            }
+            drawnClusters++;
+            return addRange(rangeCount, batch.getFirst(part, level), object.lods[part].getCount(level));
+        }
+        if (partRanges.length < bounds.getMaxRanges()) {
+            partRanges = new int[bounds.getMaxRanges()];
+        }
+        final int partCount = bounds.cull(frustum, partRanges);
+        culledClusters += bounds.getCulledClusters();
+        drawnClusters += bounds.getClusterCount() - bounds.getCulledClusters();
+        final int first = batch.getFirst(part, 0);
+        for (int r=0; r<partCount; r++) {
+            rangeCount = addRange(rangeCount, first + partRanges[r * 2], partRanges[r * 2 + 1]);
+        }
+        return rangeCount;
+    }
+
+    // Ranges that touch the previous one (the next part, or the rest of a cluster) extend it instead
+    private int addRange(int rangeCount, int first, int count) {
+        if (rangeCount > 0 && ranges[rangeCount * 2 - 2] + ranges[rangeCount * 2 - 1] == first) {
+            ranges[rangeCount * 2 - 1] += count;
+            return rangeCount;
+        }
+        if (ranges.length < rangeCount * 2 + 2) {
+            ranges = Arrays.copyOf(ranges, ranges.length * 2);
+        }
+        ranges[rangeCount * 2] = first;
+        ranges[rangeCount * 2 + 1] = count;
+        return rangeCount + 1;
+    }
+
+    // Draws count copies of the model in as few draw calls as the backend can, copy i placed by the
+    // model-view matrix at modelMatrices[i * 16]. No culling or levels of detail: callers that need
+    // them pick the copies to pass. Needs setInstanced(true).
+    public void drawInstances(float[] projectionMatrix, float[] modelMatrices, int count) {
+        if (!instanced) {
+            throw new IllegalStateException("Model not uploaded for instancing: call setInstanced(true) first");
+        }
+        for (int i=0; i<uploadedMeshes; i++) {
+            backend.drawMeshInstances(meshes[i], texture, projectionMatrix, modelMatrices, count, 1.0f, 1.0f, 1.0f, 1.0f);
+        }
+    }
+
+    // Uploads the meshes for drawInstances (they can still be drawn by drawObject, at level 0).
+    // Takes effect with the next upload, so it is meant to be called before loadTexture().
+    public void setInstanced(boolean instanced) {
+        this.instanced = instanced;
+    }
+
+    // Level for part i from the eye-space depth of its bounding sphere
+    private int selectLevel(int i, MeshBounds bounds) {
+        // Instanced meshes only have level 0 on the backend
+        if (object.lods == null || viewportHeight == 0 || instanced) {
+            return 0;
+        }
+        bounds.getCenter(center, 0);
+        final float depth = -(modelMatrix[2] * center[0] + modelMatrix[6] * center[1] + modelMatrix[10] * center[2] + modelMatrix[14]);
+        // Closer than the sphere radius (or behind the eye): full detail
+        if (depth <= bounds.getRadius()) {
+            lodLevels[i] = 0;
+        } else {
+            lodLevels[i] = object.lods[i].select(lodLevels[i], viewportHeight * 0.5f * projectionScale / depth);
+        }
+        return lodLevels[i];
+    }
+
+    // Clusters (see MeshBounds) drawn and skipped by the last drawObject()
+    public int getDrawnClusters() {
+        return drawnClusters;
+    }
+
+    public int getCulledClusters() {
+        return culledClusters;
+    }
+
+    // Ranges drawn by the last drawObject(), each a draw call on GLES20Backend
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+    //------------------------------------------
+    //------------------------------------------
+
+    public void setdst(float dstrX, float dstrY){
+        orientation.setTarget(dstrX, dstrY);
+    }
+
+    // Eases the rotation towards the target; deltaSeconds is the time since the previous call
+    public void updatePosition(float deltaSeconds){
+        orientation.update(deltaSeconds);
+    }
+
+    // Degrees the rotation still has to ease through (0 once it has reached the target)
+    public float getRemainingRotation(){
+        return orientation.getRemainingAngle();
+    }
+
+    public void rotateY(float rY){
+        orientation.addTargetYaw(rY);
+    }
+
+    public void zoom(float rZ){
+        this.rZ += rZ;
+    }
+}
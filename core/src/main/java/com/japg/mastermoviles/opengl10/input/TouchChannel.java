@@ -0,0 +1,169 @@
+package com.japg.mastermoviles.opengl10.input;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Touch state from the UI thread to the render thread, without locks and without allocating.
+*
+*  The UI thread (the only writer) reports each touch event with press(), move() or pinch(). The render
+*  thread (the only reader) calls poll() once per frame and gets what the events since the previous
+*  poll add up to: the last drag position, the last press when no drag came after it, and how much the
+*  distance between the two fingers of a pinch changed. Drags overwrite each other, so a 240 Hz panel
+*  costs the render thread the same as a 60 Hz one.
+*
+*  Triple buffer: the writer fills its back snapshot and swaps it with the middle one, poll() swaps the
+*  middle one with its front one when there is a newer one there. Snapshots are complete states (event
+*  counters included), so the reader never sees half an event and nothing is lost by skipping one.
+*/
+public final class TouchChannel {
+	private static final int INDEX_MASK = 3;
+	private static final int DIRTY = 4;
+
+	private static final class Snapshot {
+		// Counters of the events written so far; each kind remembers the event it came with
+		long events;
+		long pressEvent;
+		long dragEvent;
+		long pinchEvent;
+		float pressX;
+		float pressY;
+		float dragX;
+		float dragY;
+		// Pinches so far (a new one starts whenever two fingers start moving) and the finger distance
+		int pinch;
+		float pinchDistance;
+
+		void set(Snapshot s) {
+			events = s.events;
+			pressEvent = s.pressEvent;
+			dragEvent = s.dragEvent;
+			pinchEvent = s.pinchEvent;
+			pressX = s.pressX;
+			pressY = s.pressY;
+			dragX = s.dragX;
+			dragY = s.dragY;
+			pinch = s.pinch;
+			pinchDistance = s.pinchDistance;
+		}
+	}
+
+	private final Snapshot[] snapshots = { new Snapshot(), new Snapshot(), new Snapshot() };
+	// Index of the middle snapshot, | DIRTY when the writer left one there the reader has not taken
+	private final AtomicInteger middle = new AtomicInteger(1);
+
+	// Writer side: the whole state, and the snapshot it publishes next
+	private final Snapshot state = new Snapshot();
+	private int back = 2;
+	private boolean pinching;
+
+	// Reader side: the snapshot taken, what was seen of it, and the results of the last poll()
+	private int front = 0;
+	private long seenPress;
+	private long seenDrag;
+	private long seenPinch;
+	private int lastPinch;
+	private float lastPinchDistance;
+	private boolean press;
+	private boolean drag;
+	private float pinchChange;
+
+	//------------------------------------------
+	// Writer (UI thread). Coordinates are whatever the reader expects, e.g. normalized device ones.
+	public void press(float x, float y) {
+		pinching = false;
+		state.pressEvent = ++state.events;
+		state.pressX = x;
+		state.pressY = y;
+		publish();
+	}
+
+	// A drag with one finger (or more than two)
+	public void move(float x, float y) {
+		pinching = false;
+		drag(x, y);
+		publish();
+	}
+
+	// A drag with two fingers: the first one drags, the distance between both pinches
+	public void pinch(float x0, float y0, float x1, float y1) {
+		drag(x0, y0);
+		if (!pinching) {
+			pinching = true;
+			state.pinch++;
+		}
+		state.pinchEvent = state.events;
+		state.pinchDistance = (float) Math.sqrt((x1 - x0) * (x1 - x0) + (y1 - y0) * (y1 - y0));
+		publish();
+	}
+
+	private void drag(float x, float y) {
+		state.dragEvent = ++state.events;
+		state.dragX = x;
+		state.dragY = y;
+	}
+
+	private void publish() {
+		snapshots[back].set(state);
+		back = middle.getAndSet(back | DIRTY) & INDEX_MASK;
+	}
+
+	//------------------------------------------
+	// Reader (render thread), once per frame. Returns false when nothing was written since the last
+	// poll; the getters then report no press, no drag and no pinch change.
+	public boolean poll() {
+		press = false;
+		drag = false;
+		pinchChange = 0f;
+		if ((middle.get() & DIRTY) == 0) {
+			return false;
+		}
+		front = middle.getAndSet(front) & INDEX_MASK;
+		final Snapshot s = snapshots[front];
+
+		drag = s.dragEvent > seenDrag;
+		// A press followed by a drag only moved what the drag moves again
+		press = s.pressEvent > seenPress && s.pressEvent > s.dragEvent;
+		seenDrag = s.dragEvent;
+		seenPress = s.pressEvent;
+		if (s.pinchEvent > seenPinch) {
+			// Changes in between add up to the one from the last distance seen
+			if (s.pinch == lastPinch) {
+				pinchChange = s.pinchDistance - lastPinchDistance;
+			}
+			lastPinch = s.pinch;
+			lastPinchDistance = s.pinchDistance;
+			seenPinch = s.pinchEvent;
+		}
+		return true;
+	}
+
+	// A press newer than the last drag
+	public boolean hasPress() {
+		return press;
+	}
+
+	public float getPressX() {
+		return snapshots[front].pressX;
+	}
+
+	public float getPressY() {
+		return snapshots[front].pressY;
+	}
+
+	public boolean hasDrag() {
+		return drag;
+	}
+
+	public float getDragX() {
+		return snapshots[front].dragX;
+	}
+
+	public float getDragY() {
+		return snapshots[front].dragY;
+	}
+
+	// Change of the distance between the two fingers since the previous poll, positive when they move
+	// apart; 0 when there was no pinch, or it just started
+	public float getPinchChange() {
+		return pinchChange;
+	}
+}
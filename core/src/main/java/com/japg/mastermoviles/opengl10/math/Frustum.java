@@ -0,0 +1,72 @@
+package com.japg.mastermoviles.opengl10.math;
+
+/* The six planes of a view frustum, extracted from a clip matrix (Gribb & Hartmann). Given
+*  projection * modelMatrix, the planes are in the model's own space, so bounds computed once at load
+*  time can be tested without transforming them. Planes point inwards and are normalized, so sphere
+*  tests work with distances in model units.
+*
+*  Nothing here allocates; one instance can be reused every frame.
+*/
+public final class Frustum {
+	public static final int OUTSIDE = 0;
+	public static final int INTERSECTING = 1;
+	public static final int INSIDE = 2;
+
+	// Left, right, bottom, top, near, far: a, b, c, d with a*x + b*y + c*z + d >= 0 inside
+	private final float[] planes = new float[24];
+
+	// m: column-major clip matrix (same layout as Mat4)
+	public void set(float[] m, int offset) {
+		for (int p=0; p<6; p++) {
+			final int row = p >> 1;
+			final float sign = (p & 1) == 0 ? 1f : -1f;
+			final float a = m[offset + 3] + sign * m[offset + row];
+			final float b = m[offset + 7] + sign * m[offset + 4 + row];
+			final float c = m[offset + 11] + sign * m[offset + 8 + row];
+			final float d = m[offset + 15] + sign * m[offset + 12 + row];
+			final float length = (float) Math.sqrt(a * a + b * b + c * c);
+			final float scale = length > 0f ? 1f / length : 0f;
+			planes[p * 4] = a * scale;
+			planes[p * 4 + 1] = b * scale;
+			planes[p * 4 + 2] = c * scale;
+			planes[p * 4 + 3] = d * scale;
+		}
+	}
+
+	public int testSphere(float x, float y, float z, float radius) {
+		int result = INSIDE;
+		for (int p=0; p<24; p+=4) {
+			final float distance = planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3];
+			if (distance < -radius) {
+				return OUTSIDE;
+			}
+			if (distance < radius) {
+				result = INTERSECTING;
+			}
+		}
+		return result;
+	}
+
+	// Conservative: a box near a frustum corner may be reported as intersecting while being outside
+	public int testBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		int result = INSIDE;
+		for (int p=0; p<24; p+=4) {
+			final float a = planes[p], b = planes[p + 1], c = planes[p + 2], d = planes[p + 3];
+			// Corner furthest along the plane normal, then the nearest one
+			final float far = a * (a > 0f ? maxX : minX) + b * (b > 0f ? maxY : minY) + c * (c > 0f ? maxZ : minZ) + d;
+			if (far < 0f) {
+				return OUTSIDE;
+			}
+			final float near = a * (a > 0f ? minX : maxX) + b * (b > 0f ? minY : maxY) + c * (c > 0f ? minZ : maxZ) + d;
+			if (near < 0f) {
+				result = INTERSECTING;
+			}
+		}
+		return result;
+	}
+
+	// box: minX, minY, minZ, maxX, maxY, maxZ at offset
+	public int testBox(float[] box, int offset) {
+		return testBox(box[offset], box[offset + 1], box[offset + 2], box[offset + 3], box[offset + 4], box[offset + 5]);
+	}
+}
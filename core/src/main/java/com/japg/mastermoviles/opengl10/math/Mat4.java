@@ -0,0 +1,172 @@
+package com.japg.mastermoviles.opengl10.math;
+
+/* 4x4 float matrices stored column-major in caller-owned arrays (same layout as
+*  android.opengl.Matrix: element (row, col) lives at m[offset + col*4 + row]).
+*  Nothing in this class allocates, so it is safe to call from the render loop.
+*/
+public final class Mat4 {
+
+	private Mat4() {
+	}
+
+	public static void setIdentity(float[] m, int offset) {
+		for (int i = 0; i < 16; i++) {
+			m[offset + i] = 0f;
+		}
+		m[offset] = 1f;
+		m[offset + 5] = 1f;
+		m[offset + 10] = 1f;
+		m[offset + 15] = 1f;
+	}
+
+	public static void set(float[] r, int ro, float[] m, int mo) {
+		System.arraycopy(m, mo, r, ro, 16);
+	}
+
+	// r = a * b. r must not alias a (it may alias b).
+	public static void multiply(float[] r, int ro, float[] a, int ao, float[] b, int bo) {
+		final float a00 = a[ao],     a10 = a[ao + 1],  a20 = a[ao + 2],  a30 = a[ao + 3];
+		final float a01 = a[ao + 4], a11 = a[ao + 5],  a21 = a[ao + 6],  a31 = a[ao + 7];
+		final float a02 = a[ao + 8], a12 = a[ao + 9],  a22 = a[ao + 10], a32 = a[ao + 11];
+		final float a03 = a[ao + 12], a13 = a[ao + 13], a23 = a[ao + 14], a33 = a[ao + 15];
+		for (int c = 0; c < 4; c++) {
+			final int bc = bo + c * 4;
+			final float b0 = b[bc], b1 = b[bc + 1], b2 = b[bc + 2], b3 = b[bc + 3];
+			final int rc = ro + c * 4;
+			r[rc]     = a00 * b0 + a01 * b1 + a02 * b2 + a03 * b3;
+			r[rc + 1] = a10 * b0 + a11 * b1 + a12 * b2 + a13 * b3;
+			r[rc + 2] = a20 * b0 + a21 * b1 + a22 * b2 + a23 * b3;
+			r[rc + 3] = a30 * b0 + a31 * b1 + a32 * b2 + a33 * b3;
+		}
+	}
+
+	// m = T(tx, ty, tz) * R(q) * S(sx, sy, sz), q being a unit quaternion (x, y, z, w)
+	public static void composeTRS(float[] m, int offset, float tx, float ty, float tz,
+								  float[] q, int qo, float sx, float sy, float sz) {
+		final float x = q[qo], y = q[qo + 1], z = q[qo + 2], w = q[qo + 3];
+		final float xx = x * x, yy = y * y, zz = z * z;
+		final float xy = x * y, xz = x * z, yz = y * z;
+		final float wx = w * x, wy = w * y, wz = w * z;
+
+		m[offset]      = (1f - 2f * (yy + zz)) * sx;
+		m[offset + 1]  = 2f * (xy + wz) * sx;
+		m[offset + 2]  = 2f * (xz - wy) * sx;
+		m[offset + 3]  = 0f;
+
+		m[offset + 4]  = 2f * (xy - wz) * sy;
+		m[offset + 5]  = (1f - 2f * (xx + zz)) * sy;
+		m[offset + 6]  = 2f * (yz + wx) * sy;
+		m[offset + 7]  = 0f;
+
+		m[offset + 8]  = 2f * (xz + wy) * sz;
+		m[offset + 9]  = 2f * (yz - wx) * sz;
+		m[offset + 10] = (1f - 2f * (xx + yy)) * sz;
+		m[offset + 11] = 0f;
+
+		m[offset + 12] = tx;
+		m[offset + 13] = ty;
+		m[offset + 14] = tz;
+		m[offset + 15] = 1f;
+	}
+
+	// Right-handed perspective projection (OpenGL clip space), fovy in degrees
+	public static void perspective(float[] m, int offset, float fovy, float aspect, float n, float f) {
+		final float a = (float) (1.0 / Math.tan(fovy * Math.PI / 360.0));
+		final float d = f - n;
+
+		m[offset]      = a / aspect;
+		m[offset + 1]  = 0f;
+		m[offset + 2]  = 0f;
+		m[offset + 3]  = 0f;
+
+		m[offset + 4]  = 0f;
+		m[offset + 5]  = a;
+		m[offset + 6]  = 0f;
+		m[offset + 7]  = 0f;
+
+		m[offset + 8]  = 0f;
+		m[offset + 9]  = 0f;
+		m[offset + 10] = -(f + n) / d;
+		m[offset + 11] = -1f;
+
+		m[offset + 12] = 0f;
+		m[offset + 13] = 0f;
+		m[offset + 14] = -2f * f * n / d;
+		m[offset + 15] = 0f;
+	}
+
+	// r = m^-1. Returns false (leaving r untouched) when m is singular. r may alias m.
+	public static boolean invert(float[] r, int ro, float[] m, int mo) {
+		final float m0 = m[mo],      m1 = m[mo + 1],   m2 = m[mo + 2],   m3 = m[mo + 3];
+		final float m4 = m[mo + 4],  m5 = m[mo + 5],   m6 = m[mo + 6],   m7 = m[mo + 7];
+		final float m8 = m[mo + 8],  m9 = m[mo + 9],   m10 = m[mo + 10], m11 = m[mo + 11];
+		final float m12 = m[mo + 12], m13 = m[mo + 13], m14 = m[mo + 14], m15 = m[mo + 15];
+
+		final float i0 = m5 * m10 * m15 - m5 * m11 * m14 - m9 * m6 * m15 + m9 * m7 * m14 + m13 * m6 * m11 - m13 * m7 * m10;
+		final float i4 = -m4 * m10 * m15 + m4 * m11 * m14 + m8 * m6 * m15 - m8 * m7 * m14 - m12 * m6 * m11 + m12 * m7 * m10;
+		final float i8 = m4 * m9 * m15 - m4 * m11 * m13 - m8 * m5 * m15 + m8 * m7 * m13 + m12 * m5 * m11 - m12 * m7 * m9;
+		final float i12 = -m4 * m9 * m14 + m4 * m10 * m13 + m8 * m5 * m14 - m8 * m6 * m13 - m12 * m5 * m10 + m12 * m6 * m9;
+
+		final float det = m0 * i0 + m1 * i4 + m2 * i8 + m3 * i12;
+		if (det == 0f) {
+			return false;
+		}
+
+		final float i1 = -m1 * m10 * m15 + m1 * m11 * m14 + m9 * m2 * m15 - m9 * m3 * m14 - m13 * m2 * m11 + m13 * m3 * m10;
+		final float i5 = m0 * m10 * m15 - m0 * m11 * m14 - m8 * m2 * m15 + m8 * m3 * m14 + m12 * m2 * m11 - m12 * m3 * m10;
+		final float i9 = -m0 * m9 * m15 + m0 * m11 * m13 + m8 * m1 * m15 - m8 * m3 * m13 - m12 * m1 * m11 + m12 * m3 * m9;
+		final float i13 = m0 * m9 * m14 - m0 * m10 * m13 - m8 * m1 * m14 + m8 * m2 * m13 + m12 * m1 * m10 - m12 * m2 * m9;
+		final float i2 = m1 * m6 * m15 - m1 * m7 * m14 - m5 * m2 * m15 + m5 * m3 * m14 + m13 * m2 * m7 - m13 * m3 * m6;
+		final float i6 = -m0 * m6 * m15 + m0 * m7 * m14 + m4 * m2 * m15 - m4 * m3 * m14 - m12 * m2 * m7 + m12 * m3 * m6;
+		final float i10 = m0 * m5 * m15 - m0 * m7 * m13 - m4 * m1 * m15 + m4 * m3 * m13 + m12 * m1 * m7 - m12 * m3 * m5;
+		final float i14 = -m0 * m5 * m14 + m0 * m6 * m13 + m4 * m1 * m14 - m4 * m2 * m13 - m12 * m1 * m6 + m12 * m2 * m5;
+		final float i3 = -m1 * m6 * m11 + m1 * m7 * m10 + m5 * m2 * m11 - m5 * m3 * m10 - m9 * m2 * m7 + m9 * m3 * m6;
+		final float i7 = m0 * m6 * m11 - m0 * m7 * m10 - m4 * m2 * m11 + m4 * m3 * m10 + m8 * m2 * m7 - m8 * m3 * m6;
+		final float i11 = -m0 * m5 * m11 + m0 * m7 * m9 + m4 * m1 * m11 - m4 * m3 * m9 - m8 * m1 * m7 + m8 * m3 * m5;
+		final float i15 = m0 * m5 * m10 - m0 * m6 * m9 - m4 * m1 * m10 + m4 * m2 * m9 + m8 * m1 * m6 - m8 * m2 * m5;
+
+		final float s = 1f / det;
+		r[ro]      = i0 * s;  r[ro + 1]  = i1 * s;  r[ro + 2]  = i2 * s;  r[ro + 3]  = i3 * s;
+		r[ro + 4]  = i4 * s;  r[ro + 5]  = i5 * s;  r[ro + 6]  = i6 * s;  r[ro + 7]  = i7 * s;
+		r[ro + 8]  = i8 * s;  r[ro + 9]  = i9 * s;  r[ro + 10] = i10 * s; r[ro + 11] = i11 * s;
+		r[ro + 12] = i12 * s; r[ro + 13] = i13 * s; r[ro + 14] = i14 * s; r[ro + 15] = i15 * s;
+		return true;
+	}
+
+	// r (3x3, column-major, 9 floats) = inverse transpose of the upper-left 3x3 of m.
+	// Returns false (leaving r untouched) when that block is singular.
+	public static boolean normalMatrix(float[] r, int ro, float[] m, int mo) {
+		final float a00 = m[mo],     a10 = m[mo + 1], a20 = m[mo + 2];
+		final float a01 = m[mo + 4], a11 = m[mo + 5], a21 = m[mo + 6];
+		final float a02 = m[mo + 8], a12 = m[mo + 9], a22 = m[mo + 10];
+
+		final float c00 = a11 * a22 - a12 * a21;
+		final float c01 = a12 * a20 - a10 * a22;
+		final float c02 = a10 * a21 - a11 * a20;
+		final float det = a00 * c00 + a01 * c01 + a02 * c02;
+		if (det == 0f) {
+			return false;
+		}
+		final float s = 1f / det;
+
+		r[ro]     = c00 * s;
+		r[ro + 1] = (a02 * a21 - a01 * a22) * s;
+		r[ro + 2] = (a01 * a12 - a02 * a11) * s;
+		r[ro + 3] = c01 * s;
+		r[ro + 4] = (a00 * a22 - a02 * a20) * s;
+		r[ro + 5] = (a02 * a10 - a00 * a12) * s;
+		r[ro + 6] = c02 * s;
+		r[ro + 7] = (a01 * a20 - a00 * a21) * s;
+		r[ro + 8] = (a00 * a11 - a01 * a10) * s;
+		return true;
+	}
+
+	// r (vec4) = m * v (vec4). r must not alias v.
+	public static void multiplyVec4(float[] r, int ro, float[] m, int mo, float[] v, int vo) {
+		final float x = v[vo], y = v[vo + 1], z = v[vo + 2], w = v[vo + 3];
+		r[ro]     = m[mo]     * x + m[mo + 4] * y + m[mo + 8]  * z + m[mo + 12] * w;
+		r[ro + 1] = m[mo + 1] * x + m[mo + 5] * y + m[mo + 9]  * z + m[mo + 13] * w;
+		r[ro + 2] = m[mo + 2] * x + m[mo + 6] * y + m[mo + 10] * z + m[mo + 14] * w;
+		r[ro + 3] = m[mo + 3] * x + m[mo + 7] * y + m[mo + 11] * z + m[mo + 15] * w;
+	}
+}
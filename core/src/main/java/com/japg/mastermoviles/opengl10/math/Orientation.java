@@ -0,0 +1,104 @@
+package com.japg.mastermoviles.opengl10.math;
+
+/* Orientation of a model as a quaternion that eases towards a target one.
+*  The target is given as pitch (around X) and yaw (around Y) in degrees, applied as Ry * Rx.
+*  The easing depends only on the elapsed time passed to update(), so it looks the same at any
+*  frame rate, and a given sequence of time steps always produces the same orientation.
+*/
+public final class Orientation {
+	// Fraction of the remaining rotation covered every 1/60 s (what the old per-frame lerp did at 60 fps)
+	public static final float DEFAULT_RESPONSE = 0.06f;
+	private static final float REFERENCE_STEP = 1f / 60f;
+	// Longer gaps (app paused, debugger...) are clamped so the model does not jump
+	private static final float MAX_STEP = 0.25f;
+	// Below this angle between current and target we just snap to the target
+	private static final float SETTLED_DOT = 0.9999999f;
+
+	private final float[] current = new float[4];
+	private final float[] target = new float[4];
+	private final float[] scratch = new float[4];
+	private final float decayPerSecond;
+	private float targetPitch;
+	private float targetYaw;
+
+	public Orientation(float pitch, float yaw) {
+		this(pitch, yaw, DEFAULT_RESPONSE);
+	}
+
+	// response: fraction in (0, 1] of the remaining rotation covered every 1/60 s
+	public Orientation(float pitch, float yaw, float response) {
+		if (response <= 0f || response > 1f) {
+			throw new IllegalArgumentException("response must be in (0, 1]: " + response);
+		}
+		decayPerSecond = response == 1f ? Float.POSITIVE_INFINITY
+				: (float) (-Math.log(1.0 - response) / REFERENCE_STEP);
+		set(pitch, yaw);
+	}
+
+	// Jumps straight to the given orientation
+	public void set(float pitch, float yaw) {
+		setTarget(pitch, yaw);
+		System.arraycopy(target, 0, current, 0, 4);
+	}
+
+	public void setTarget(float pitch, float yaw) {
+		targetPitch = pitch;
+		targetYaw = yaw;
+		Quat.setAxisAngle(target, 0, yaw, 0f, 1f, 0f);
+		Quat.setAxisAngle(scratch, 0, pitch, 1f, 0f, 0f);
+		Quat.multiply(target, 0, target, 0, scratch, 0);
+	}
+
+	public void addTargetYaw(float degrees) {
+		setTarget(targetPitch, targetYaw + degrees);
+	}
+
+	public float getTargetPitch() {
+		return targetPitch;
+	}
+
+	public float getTargetYaw() {
+		return targetYaw;
+	}
+
+	// Advances the easing by deltaSeconds of wall-clock time
+	public void update(float deltaSeconds) {
+		if (!(deltaSeconds > 0f)) {
+			return;
+		}
+		final float dt = Math.min(deltaSeconds, MAX_STEP);
+		final float t = (float) (1.0 - Math.exp(-decayPerSecond * dt));
+		if (t >= 1f || isSettled()) {
+			System.arraycopy(target, 0, current, 0, 4);
+		} else {
+			Quat.slerp(current, 0, current, 0, target, 0, t);
+			Quat.normalize(current, 0);
+		}
+	}
+
+	public boolean isSettled() {
+		return Math.abs(Quat.dot(current, 0, target, 0)) >= SETTLED_DOT;
+	}
+
+	// Degrees of rotation left to the target. From the vector part of conj(current) * target, which
+	// keeps small angles exact where acos of the dot product does not.
+	public float getRemainingAngle() {
+		final float cx = current[0], cy = current[1], cz = current[2], cw = current[3];
+		final float tx = target[0], ty = target[1], tz = target[2], tw = target[3];
+		final float x = cw * tx - tw * cx - (cy * tz - cz * ty);
+		final float y = cw * ty - tw * cy - (cz * tx - cx * tz);
+		final float z = cw * tz - tw * cz - (cx * ty - cy * tx);
+		final float w = Math.abs(Quat.dot(current, 0, target, 0));
+		return (float) Math.toDegrees(2.0 * Math.atan2(Math.sqrt(x * x + y * y + z * z), w));
+	}
+
+	// Copies the current orientation (x, y, z, w) into q
+	public void get(float[] q, int qo) {
+		System.arraycopy(current, 0, q, qo, 4);
+	}
+
+	// m = T(tx, ty, tz) * R(current)
+	public void writeMatrix(float[] m, int offset, float tx, float ty, float tz) {
+		Mat4.composeTRS(m, offset, tx, ty, tz, current, 0, 1f, 1f, 1f);
+	}
+}
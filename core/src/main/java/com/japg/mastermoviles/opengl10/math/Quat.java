@@ -0,0 +1,91 @@
+package com.japg.mastermoviles.opengl10.math;
+
+/* Quaternions stored as (x, y, z, w) in caller-owned arrays. Nothing here allocates. */
+public final class Quat {
+
+	private Quat() {
+	}
+
+	public static void setIdentity(float[] q, int qo) {
+		q[qo] = 0f;
+		q[qo + 1] = 0f;
+		q[qo + 2] = 0f;
+		q[qo + 3] = 1f;
+	}
+
+	// Rotation of angle degrees around the axis (x, y, z); the axis does not need to be unit length
+	public static void setAxisAngle(float[] q, int qo, float angle, float x, float y, float z) {
+		final float len = (float) Math.sqrt(x * x + y * y + z * z);
+		if (len == 0f) {
+			setIdentity(q, qo);
+			return;
+		}
+		final double half = angle * Math.PI / 360.0;
+		final float s = (float) Math.sin(half) / len;
+		q[qo]     = x * s;
+		q[qo + 1] = y * s;
+		q[qo + 2] = z * s;
+		q[qo + 3] = (float) Math.cos(half);
+	}
+
+	// r = a * b (apply b, then a). r may alias a or b.
+	public static void multiply(float[] r, int ro, float[] a, int ao, float[] b, int bo) {
+		final float ax = a[ao], ay = a[ao + 1], az = a[ao + 2], aw = a[ao + 3];
+		final float bx = b[bo], by = b[bo + 1], bz = b[bo + 2], bw = b[bo + 3];
+		r[ro]     = aw * bx + ax * bw + ay * bz - az * by;
+		r[ro + 1] = aw * by - ax * bz + ay * bw + az * bx;
+		r[ro + 2] = aw * bz + ax * by - ay * bx + az * bw;
+		r[ro + 3] = aw * bw - ax * bx - ay * by - az * bz;
+	}
+
+	public static void normalize(float[] q, int qo) {
+		final float len = (float) Math.sqrt(q[qo] * q[qo] + q[qo + 1] * q[qo + 1] + q[qo + 2] * q[qo + 2] + q[qo + 3] * q[qo + 3]);
+		if (len > 0f) {
+			final float s = 1f / len;
+			q[qo] *= s;
+			q[qo + 1] *= s;
+			q[qo + 2] *= s;
+			q[qo + 3] *= s;
+		}
+	}
+
+	// r = normalized lerp from a to b along the shortest arc. r may alias a or b.
+	public static void nlerp(float[] r, int ro, float[] a, int ao, float[] b, int bo, float t) {
+		final float sign = dot(a, ao, b, bo) < 0f ? -1f : 1f;
+		final float s = 1f - t, u = t * sign;
+		r[ro]     = a[ao]     * s + b[bo]     * u;
+		r[ro + 1] = a[ao + 1] * s + b[bo + 1] * u;
+		r[ro + 2] = a[ao + 2] * s + b[bo + 2] * u;
+		r[ro + 3] = a[ao + 3] * s + b[bo + 3] * u;
+		normalize(r, ro);
+	}
+
+	// r = spherical interpolation from a to b along the shortest arc. r may alias a or b.
+	// Falls back to nlerp when the quaternions are almost parallel.
+	public static void slerp(float[] r, int ro, float[] a, int ao, float[] b, int bo, float t) {
+		float cos = dot(a, ao, b, bo);
+		final float sign = cos < 0f ? -1f : 1f;
+		cos *= sign;
+		if (cos > 0.9995f) {
+			nlerp(r, ro, a, ao, b, bo, t);
+			return;
+		}
+		final double theta = Math.acos(cos);
+		final double sin = Math.sin(theta);
+		final float s = (float) (Math.sin((1.0 - t) * theta) / sin);
+		final float u = (float) (Math.sin(t * theta) / sin) * sign;
+		r[ro]     = a[ao]     * s + b[bo]     * u;
+		r[ro + 1] = a[ao + 1] * s + b[bo + 1] * u;
+		r[ro + 2] = a[ao + 2] * s + b[bo + 2] * u;
+		r[ro + 3] = a[ao + 3] * s + b[bo + 3] * u;
+	}
+
+	public static float dot(float[] a, int ao, float[] b, int bo) {
+		return a[ao] * b[bo] + a[ao + 1] * b[bo + 1] + a[ao + 2] * b[bo + 2] + a[ao + 3] * b[bo + 3];
+	}
+
+	// Writes the rotation of unit quaternion q into mat4 m (no translation or scale)
+	public static void toMatrix(float[] m, int mo, float[] q, int qo) {
+		Mat4.composeTRS(m, mo, 0f, 0f, 0f, q, qo, 1f, 1f, 1f);
+	}
+}
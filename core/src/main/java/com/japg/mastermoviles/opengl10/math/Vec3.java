@@ -0,0 +1,70 @@
+package com.japg.mastermoviles.opengl10.math;
+
+/* 3-component float vectors stored in caller-owned arrays. Nothing here allocates. */
+public final class Vec3 {
+
+	private Vec3() {
+	}
+
+	public static void set(float[] r, int ro, float x, float y, float z) {
+		r[ro] = x;
+		r[ro + 1] = y;
+		r[ro + 2] = z;
+	}
+
+	public static void add(float[] r, int ro, float[] a, int ao, float[] b, int bo) {
+		r[ro]     = a[ao]     + b[bo];
+		r[ro + 1] = a[ao + 1] + b[bo + 1];
+		r[ro + 2] = a[ao + 2] + b[bo + 2];
+	}
+
+	public static void sub(float[] r, int ro, float[] a, int ao, float[] b, int bo) {
+		r[ro]     = a[ao]     - b[bo];
+		r[ro + 1] = a[ao + 1] - b[bo + 1];
+		r[ro + 2] = a[ao + 2] - b[bo + 2];
+	}
+
+	public static float dot(float[] a, int ao, float[] b, int bo) {
+		return a[ao] * b[bo] + a[ao + 1] * b[bo + 1] + a[ao + 2] * b[bo + 2];
+	}
+
+	// r = a x b. r may alias a or b.
+	public static void cross(float[] r, int ro, float[] a, int ao, float[] b, int bo) {
+		final float ax = a[ao], ay = a[ao + 1], az = a[ao + 2];
+		final float bx = b[bo], by = b[bo + 1], bz = b[bo + 2];
+		r[ro]     = ay * bz - az * by;
+		r[ro + 1] = az * bx - ax * bz;
+		r[ro + 2] = ax * by - ay * bx;
+	}
+
+	public static float length(float[] v, int vo) {
+		return (float) Math.sqrt(dot(v, vo, v, vo));
+	}
+
+	// Leaves zero-length vectors untouched
+	public static void normalize(float[] v, int vo) {
+		final float len = length(v, vo);
+		if (len > 0f) {
+			final float s = 1f / len;
+			v[vo] *= s;
+			v[vo + 1] *= s;
+			v[vo + 2] *= s;
+		}
+	}
+
+	// r = m * (v, 1), m being a column-major mat4. r may alias v.
+	public static void transformPoint(float[] r, int ro, float[] m, int mo, float[] v, int vo) {
+		final float x = v[vo], y = v[vo + 1], z = v[vo + 2];
+		r[ro]     = m[mo]     * x + m[mo + 4] * y + m[mo + 8]  * z + m[mo + 12];
+		r[ro + 1] = m[mo + 1] * x + m[mo + 5] * y + m[mo + 9]  * z + m[mo + 13];
+		r[ro + 2] = m[mo + 2] * x + m[mo + 6] * y + m[mo + 10] * z + m[mo + 14];
+	}
+
+	// r = m * (v, 0), m being a column-major mat4. r may alias v.
+	public static void transformDirection(float[] r, int ro, float[] m, int mo, float[] v, int vo) {
+		final float x = v[vo], y = v[vo + 1], z = v[vo + 2];
+		r[ro]     = m[mo]     * x + m[mo + 4] * y + m[mo + 8]  * z;
+		r[ro + 1] = m[mo + 1] * x + m[mo + 5] * y + m[mo + 9]  * z;
+		r[ro + 2] = m[mo + 2] * x + m[mo + 6] * y + m[mo + 10] * z;
+	}
+}
@@ -0,0 +1,244 @@
+package com.japg.mastermoviles.opengl10.perf;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Per-frame timings and counters, kept for the last `capacity` frames.
+*
+*  The render thread is the only writer: beginFrame(), then beginPhase/endPhase around each part of
+*  the frame and count() from wherever draws are issued, then endFrame(). None of these allocate or
+*  lock. Any other thread can call snapshot() (or dump()) at any time to get a consistent copy of the
+*  recorded frames; frames the writer overwrote while they were being copied are simply left out.
+*/
+public final class FrameStats {
+	// Phases (CPU time of each part of the frame, in ns)
+	public static final int UPLOAD = 0;
+	public static final int UPDATE = 1;
+	public static final int MATRICES = 2;
+	public static final int DRAW = 3;
+	public static final int PHASES = 4;
+	// Counters (summed over the frame)
+	public static final int DRAW_CALLS = 0;
+	public static final int VERTICES = 1;
+	public static final int STATE_CHANGES = 2;
+	// Frustum culling, in clusters (see MeshBounds; a mesh without hierarchy, or drawn at a coarser
+	// level of detail, counts as one)
+	public static final int CLUSTERS_DRAWN = 3;
+	public static final int CLUSTERS_CULLED = 4;
+	// GL calls dropped because they would not have changed any state (see GLState)
+	public static final int REDUNDANT_CALLS = 5;
+	public static final int COUNTERS = 6;
+
+	private static final String[] PHASE_NAMES = { "upload", "update", "matrices", "draw" };
+	private static final String[] COUNTER_NAMES = { "draw_calls", "vertices", "state_changes", "clusters_drawn", "clusters_culled", "redundant_calls" };
+
+	// Record layout: whole frame time, then the phases, then the counters
+	private static final int FRAME_TIME = 0;
+	private static final int FIRST_PHASE = 1;
+	private static final int FIRST_COUNTER = FIRST_PHASE + PHASES;
+	private static final int FIELDS = FIRST_COUNTER + COUNTERS;
+
+	private final int capacity;
+	private final AtomicLongArray records;
+	// Frames completed so far; frame f lives in slot f % capacity
+	private final AtomicLong published = new AtomicLong();
+
+	// Writer-only state
+	private final long[] current = new long[FIELDS];
+	private final long[] phaseStart = new long[PHASES];
+	private long frameStart;
+
+	public FrameStats(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		this.records = new AtomicLongArray(capacity * FIELDS);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	// Frames recorded since creation (not only the ones still held)
+	public long getFrameCount() {
+		return published.get();
+	}
+
+	//------------------------------------------
+	// Writer side (render thread only)
+	public void beginFrame() {
+		for (int i=0; i<FIELDS; i++) {
+			current[i] = 0;
+		}
+		frameStart = System.nanoTime();
+	}
+
+	public void beginPhase(int phase) {
+		phaseStart[phase] = System.nanoTime();
+	}
+
+	// A phase may be entered several times per frame; the times add up
+	public void endPhase(int phase) {
+		current[FIRST_PHASE + phase] += System.nanoTime() - phaseStart[phase];
+	}
+
+	public void count(int counter, long amount) {
+		current[FIRST_COUNTER + counter] += amount;
+	}
+
+	public void endFrame() {
+		current[FRAME_TIME] = System.nanoTime() - frameStart;
+		final long frame = published.get();
+		final int base = (int) (frame % capacity) * FIELDS;
+		for (int i=0; i<FIELDS; i++) {
+			records.lazySet(base + i, current[i]);
+		}
+		// Ordered after the record stores: a reader that sees this count sees the whole frame
+		published.lazySet(frame + 1);
+	}
+
+	//------------------------------------------
+	// Reader side (any thread)
+	public Snapshot snapshot() {
+		final long before = published.get();
+		final long first = Math.max(0, before - capacity);
+		final int n = (int) (before - first);
+		final long[] rows = new long[n * FIELDS];
+		for (int f=0; f<n; f++) {
+			final int base = (int) ((first + f) % capacity) * FIELDS;
+			for (int i=0; i<FIELDS; i++) {
+				rows[f * FIELDS + i] = records.get(base + i);
+			}
+		}
+		// The writer may have completed frames meanwhile, and may be halfway through the next one:
+		// the slots of those frames no longer hold what we were copying
+		final long after = published.get();
+		final long valid = Math.max(first, after + 1 - capacity);
+		final int skip = (int) Math.min(n, valid - first);
+		return new Snapshot(rows, skip, n - skip, first + skip);
+	}
+
+	// CSV with one row per held frame (times in ns), followed by a percentile summary as comments
+	public void dump(File file) throws IOException {
+		final Snapshot snapshot = snapshot();
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			snapshot.writeCsv(out);
+		}
+	}
+
+	//------------------------------------------
+	public static final class Snapshot {
+		private final long[] rows;
+		private final int offset;
+		private final int frames;
+		private final long firstFrame;
+		private final Histogram[] histograms = new Histogram[FIRST_COUNTER];
+
+		Snapshot(long[] rows, int offset, int frames, long firstFrame) {
+			this.rows = rows;
+			this.offset = offset;
+			this.frames = frames;
+			this.firstFrame = firstFrame;
+		}
+
+		public int getFrames() {
+			return frames;
+		}
+
+		// Frame time percentile in ns (percentile in [0, 100])
+		public long framePercentile(double percentile) {
+			return histogram(FRAME_TIME).getValueAtPercentile(percentile);
+		}
+
+		public long phasePercentile(int phase, double percentile) {
+			return histogram(FIRST_PHASE + phase).getValueAtPercentile(percentile);
+		}
+
+		public double counterMean(int counter) {
+			if (frames == 0) {
+				return 0.0;
+			}
+			long sum = 0;
+			for (int f=0; f<frames; f++) {
+				sum += value(f, FIRST_COUNTER + counter);
+			}
+			return (double) sum / frames;
+		}
+
+		public long counterMax(int counter) {
+			long max = 0;
+			for (int f=0; f<frames; f++) {
+				max = Math.max(max, value(f, FIRST_COUNTER + counter));
+			}
+			return max;
+		}
+
+		public void writeCsv(Writer out) throws IOException {
+			out.write("frame,frame_ns");
+			for (String name : PHASE_NAMES) {
+				out.write("," + name + "_ns");
+			}
+			for (String name : COUNTER_NAMES) {
+				out.write("," + name);
+			}
+			out.write("\n");
+			for (int f=0; f<frames; f++) {
+				out.write(Long.toString(firstFrame + f));
+				for (int i=0; i<FIELDS; i++) {
+					out.write("," + value(f, i));
+				}
+				out.write("\n");
+			}
+			out.write("# " + toString().replace("\n", "\n# ") + "\n");
+		}
+
+		// p50/p95/p99 of the frame and of every phase in ms, and the mean/max of the counters
+		@Override
+		public String toString() {
+			final StringBuilder sb = new StringBuilder();
+			sb.append(frames).append(" frames, p50/p95/p99 ms: frame ");
+			appendPercentiles(sb, FRAME_TIME);
+			for (int p=0; p<PHASES; p++) {
+				sb.append(", ").append(PHASE_NAMES[p]).append(' ');
+				appendPercentiles(sb, FIRST_PHASE + p);
+			}
+			sb.append("\nmean/max per frame:");
+			for (int c=0; c<COUNTERS; c++) {
+				sb.append(' ').append(COUNTER_NAMES[c]).append(' ')
+						.append(String.format(Locale.ROOT, "%.1f", counterMean(c)))
+						.append('/').append(counterMax(c));
+			}
+			return sb.toString();
+		}
+
+		private void appendPercentiles(StringBuilder sb, int field) {
+			final Histogram h = histogram(field);
+			sb.append(String.format(Locale.ROOT, "%.2f/%.2f/%.2f",
+					h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(95) / 1e6, h.getValueAtPercentile(99) / 1e6));
+		}
+
+		private long value(int frame, int field) {
+			return rows[(offset + frame) * FIELDS + field];
+		}
+
+		private Histogram histogram(int field) {
+			if (histograms[field] == null) {
+				final Histogram h = new Histogram();
+				for (int f=0; f<frames; f++) {
+					h.record(value(f, field));
+				}
+				histograms[field] = h;
+			}
+			return histograms[field];
+		}
+	}
+}
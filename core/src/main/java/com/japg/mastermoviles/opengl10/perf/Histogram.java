@@ -0,0 +1,94 @@
+package com.japg.mastermoviles.opengl10.perf;
+
+import java.util.Arrays;
+
+/* Log-linear histogram of non-negative longs, laid out like HdrHistogram: values below SUB_BUCKETS
+*  get one bucket each, and every power of two above that is split into SUB_BUCKETS / 2 equal buckets.
+*  That keeps the relative error of any percentile under 1 / (SUB_BUCKETS / 2) (~3%) for the whole
+*  range of long, with a fixed number of buckets and no allocation in record().
+*/
+public final class Histogram {
+	private static final int SUB_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	// Highest index is reached by Long.MAX_VALUE (msb 62)
+	private static final int BUCKETS = (62 - SUB_BITS + 1) * (SUB_BUCKETS / 2) + SUB_BUCKETS;
+
+	private final long[] counts = new long[BUCKETS];
+	private long totalCount;
+	private long min = Long.MAX_VALUE;
+	private long max = Long.MIN_VALUE;
+	private long sum;
+
+	public void reset() {
+		Arrays.fill(counts, 0);
+		totalCount = 0;
+		min = Long.MAX_VALUE;
+		max = Long.MIN_VALUE;
+		sum = 0;
+	}
+
+	// Negative values are recorded as 0
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts[indexOf(value)]++;
+		totalCount++;
+		sum += value;
+		if (value < min) min = value;
+		if (value > max) max = value;
+	}
+
+	public long getTotalCount() {
+		return totalCount;
+	}
+
+	public long getMin() {
+		return totalCount == 0 ? 0 : min;
+	}
+
+	public long getMax() {
+		return totalCount == 0 ? 0 : max;
+	}
+
+	public double getMean() {
+		return totalCount == 0 ? 0.0 : (double) sum / totalCount;
+	}
+
+	// Smallest recorded value v such that percentile % of the values are <= v, rounded up to the top
+	// of its bucket (and never above the real maximum). 0 when empty.
+	public long getValueAtPercentile(double percentile) {
+		if (totalCount == 0) {
+			return 0;
+		}
+		final double p = Math.min(Math.max(percentile, 0.0), 100.0);
+		final long rank = Math.max(1, (long) Math.ceil(p / 100.0 * totalCount));
+		long seen = 0;
+		for (int i=0; i<BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestEquivalentValue(i), max);
+			}
+		}
+		return max;
+	}
+
+	//------------------------------------------
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		// value >>> shift lands in [SUB_BUCKETS/2, SUB_BUCKETS)
+		final int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+		return shift * (SUB_BUCKETS / 2) + (int) (value >>> shift);
+	}
+
+	static long highestEquivalentValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		final int shift = (index - SUB_BUCKETS / 2) / (SUB_BUCKETS / 2);
+		final long top = index - shift * (SUB_BUCKETS / 2);
+		return ((top + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,257 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import com.japg.mastermoviles.opengl10.perf.FrameStats;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/* A RenderBackend in front of another one that holds the draws of a frame and issues them at
+*  endFrame() sorted by program, then texture, then mesh, so that consecutive draws share as much state
+*  as possible and GLState can drop the calls that would set it again. Draws with the same key keep
+*  their submission order.
+*
+*  The program is the variant of the shaders GLES20Backend draws with, told apart by how the mesh was
+*  created and drawn: plain meshes, packed ones (createPackedMesh, PACKED_VERTICES), instanced draws of
+*  plain meshes (INSTANCED_ARRAYS on ES 3.0, one by one on ES 2.0) and instanced draws of meshes from
+*  createInstancedMesh (which on ES 2.0 draw from their INSTANCE_BATCH copies).
+*
+*  Everything is opaque and depth tested, so the order does not change the image. Matrices, ranges
+*  and colors are copied when submitted; the modelMatrices of drawMeshInstances are not, and must be
+*  left alone until endFrame(). Nothing is allocated once the arrays have grown to the largest frame.
+*/
+public class DrawQueue implements RenderBackend {
+	// Program variants, in the order they are drawn
+	private static final int PLAIN = 0;
+	private static final int PACKED = 1;
+	private static final int INSTANCED = 2;
+	private static final int INSTANCE_BATCH = 3;
+	// Sort key: program (2 bits), texture and mesh handles (20 bits each), then submission order (21
+	// bits), all under the sign bit
+	private static final int ORDER_BITS = 21;
+	private static final int HANDLE_BITS = 20;
+	private static final long HANDLE_MASK = (1L << HANDLE_BITS) - 1;
+
+	private final RenderBackend backend;
+	// By mesh handle: PACKED for createPackedMesh, INSTANCE_BATCH for createInstancedMesh, PLAIN otherwise
+	private byte[] meshPrograms = new byte[64];
+
+	private int size;
+	private long[] keys = new long[64];
+	private int[] programs = new int[64];
+	private int[] meshes = new int[64];
+	private int[] textures = new int[64];
+	private int[] instanceCounts = new int[64];
+	// mvp + mv (or the projection of instanced draws) and the color of each draw
+	private float[] matrices = new float[64 * 32];
+	private float[] colors = new float[64 * 4];
+	private float[][] instanceMatrices = new float[64][];
+	// (first, count) pairs of every draw, one after the other
+	private int[] rangeStart = new int[64];
+	private int[] rangeCount = new int[64];
+	private int[] rangePool = new int[256];
+	private int rangePoolSize;
+	// Scratch copies handed to the backend
+	private final float[] mvp = new float[16];
+	private final float[] mv = new float[16];
+	private int[] ranges = new int[2];
+
+	public DrawQueue(RenderBackend backend) {
+		this.backend = backend;
+	}
+
+	public RenderBackend getBackend() {
+		return backend;
+	}
+
+	// Draws waiting for endFrame()
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void init() {
+		// Mesh handles of the old context are gone, and so are the draws that use them
+		clear();
+		Arrays.fill(meshPrograms, (byte) PLAIN);
+		backend.init();
+	}
+
+	@Override
+	public void setViewport(int width, int height) {
+		backend.setViewport(width, height);
+	}
+
+	@Override
+	public void setFrameStats(FrameStats stats) {
+		backend.setFrameStats(stats);
+	}
+
+	@Override
+	public void beginFrame() {
+		clear();
+		backend.beginFrame();
+	}
+
+	@Override
+	public void endFrame() {
+		flush();
+		backend.endFrame();
+	}
+
+	@Override
+	public int loadTexture(int resourceId) {
+		return backend.loadTexture(resourceId);
+	}
+
+	@Override
+	public int createTexture(int width, int height, int[] argb) {
+		return backend.createTexture(width, height, argb);
+	}
+
+	@Override
+	public void releaseTexture(int texture) {
+		backend.releaseTexture(texture);
+	}
+
+	@Override
+	public int createMesh(FloatBuffer vertices, int vertexCount, Buffer indices, int indexCount) {
+		return setMeshProgram(backend.createMesh(vertices, vertexCount, indices, indexCount), PLAIN);
+	}
+
+	@Override
+	public int createInstancedMesh(FloatBuffer vertices, int vertexCount, Buffer indices, int indexCount) {
+		return setMeshProgram(backend.createInstancedMesh(vertices, vertexCount, indices, indexCount), INSTANCE_BATCH);
+	}
+
+	@Override
+	public int createPackedMesh(PackedVertices vertices, Buffer indices, int indexCount) {
+		return setMeshProgram(backend.createPackedMesh(vertices, indices, indexCount), PACKED);
+	}
+
+	// Handles may be reused by the backend once a new context starts, so every handle is (re)set here
+	private int setMeshProgram(int mesh, int program) {
+		if (mesh >= meshPrograms.length) {
+			meshPrograms = Arrays.copyOf(meshPrograms, Math.max(mesh + 1, meshPrograms.length * 2));
+		}
+		if (mesh > 0) {
+			meshPrograms[mesh] = (byte) program;
+		}
+		return mesh;
+	}
+
+	@Override
+	public void drawMesh(int mesh, int texture, float[] mvpMatrix, float[] mvMatrix, float r, float g, float b, float a) {
+		final int i = add(program(mesh, false), mesh, texture, r, g, b, a);
+		System.arraycopy(mvpMatrix, 0, matrices, i * 32, 16);
+		System.arraycopy(mvMatrix, 0, matrices, i * 32 + 16, 16);
+		// No ranges: the whole mesh
+		rangeStart[i] = rangePoolSize;
+		rangeCount[i] = -1;
+	}
+
+	@Override
+	public void drawMeshRanges(int mesh, int[] ranges, int rangeCount, int texture, float[] mvpMatrix, float[] mvMatrix,
+			float r, float g, float b, float a) {
+		final int i = add(program(mesh, false), mesh, texture, r, g, b, a);
+		System.arraycopy(mvpMatrix, 0, matrices, i * 32, 16);
+		System.arraycopy(mvMatrix, 0, matrices, i * 32 + 16, 16);
+		if (rangePoolSize + rangeCount * 2 > rangePool.length) {
+			rangePool = Arrays.copyOf(rangePool, Math.max(rangePool.length * 2, rangePoolSize + rangeCount * 2));
+		}
+		System.arraycopy(ranges, 0, rangePool, rangePoolSize, rangeCount * 2);
+		rangeStart[i] = rangePoolSize;
+		this.rangeCount[i] = rangeCount;
+		rangePoolSize += rangeCount * 2;
+	}
+
+	@Override
+	public void drawMeshInstances(int mesh, int texture, float[] projectionMatrix, float[] modelMatrices, int instanceCount,
+			float r, float g, float b, float a) {
+		final int i = add(program(mesh, true), mesh, texture, r, g, b, a);
+		System.arraycopy(projectionMatrix, 0, matrices, i * 32, 16);
+		instanceMatrices[i] = modelMatrices;
+		instanceCounts[i] = instanceCount;
+	}
+
+	//------------------------------------------
+	// Issues the held draws in key order
+	public void flush() {
+		Arrays.sort(keys, 0, size);
+		for (int k=0; k<size; k++) {
+			final int i = (int) (keys[k] & ((1L << ORDER_BITS) - 1));
+			final float r = colors[i * 4], g = colors[i * 4 + 1], b = colors[i * 4 + 2], a = colors[i * 4 + 3];
+			if (programs[i] >= INSTANCED) {
+				System.arraycopy(matrices, i * 32, mvp, 0, 16);
+				backend.drawMeshInstances(meshes[i], textures[i], mvp, instanceMatrices[i], instanceCounts[i], r, g, b, a);
+				continue;
+			}
+			System.arraycopy(matrices, i * 32, mvp, 0, 16);
+			System.arraycopy(matrices, i * 32 + 16, mv, 0, 16);
+			if (rangeCount[i] < 0) {
+				backend.drawMesh(meshes[i], textures[i], mvp, mv, r, g, b, a);
+			} else {
+				if (ranges.length < rangeCount[i] * 2) {
+					ranges = new int[rangeCount[i] * 2];
+				}
+				System.arraycopy(rangePool, rangeStart[i], ranges, 0, rangeCount[i] * 2);
+				backend.drawMeshRanges(meshes[i], ranges, rangeCount[i], textures[i], mvp, mv, r, g, b, a);
+			}
+		}
+		clear();
+	}
+
+	private void clear() {
+		// Do not keep the callers' matrices alive
+		Arrays.fill(instanceMatrices, 0, size, null);
+		size = 0;
+		rangePoolSize = 0;
+	}
+
+	// Program variant a draw of mesh is made with
+	private int program(int mesh, boolean instanced) {
+		final int created = mesh > 0 && mesh < meshPrograms.length ? meshPrograms[mesh] : PLAIN;
+		if (instanced) {
+			return created == INSTANCE_BATCH ? INSTANCE_BATCH : INSTANCED;
+		}
+		// Instanced meshes drawn one at a time use their plain buffers
+		return created == PACKED ? PACKED : PLAIN;
+	}
+
+	// Index of a new draw, with its key, handles and color set
+	private int add(int program, int mesh, int texture, float r, float g, float b, float a) {
+		if (size == programs.length) {
+			grow();
+		}
+		if (size == 1 << ORDER_BITS) {
+			throw new IllegalStateException("Too many draws in one frame: " + size);
+		}
+		final int i = size++;
+		programs[i] = program;
+		meshes[i] = mesh;
+		textures[i] = texture;
+		keys[i] = (long) program << (2 * HANDLE_BITS + ORDER_BITS)
+				| (texture & HANDLE_MASK) << (HANDLE_BITS + ORDER_BITS)
+				| (mesh & HANDLE_MASK) << ORDER_BITS
+				| i;
+		colors[i * 4] = r;
+		colors[i * 4 + 1] = g;
+		colors[i * 4 + 2] = b;
+		colors[i * 4 + 3] = a;
+		return i;
+	}
+
+	private void grow() {
+		final int capacity = programs.length * 2;
+		keys = Arrays.copyOf(keys, capacity);
+		programs = Arrays.copyOf(programs, capacity);
+		meshes = Arrays.copyOf(meshes, capacity);
+		textures = Arrays.copyOf(textures, capacity);
+		instanceCounts = Arrays.copyOf(instanceCounts, capacity);
+		matrices = Arrays.copyOf(matrices, capacity * 32);
+		colors = Arrays.copyOf(colors, capacity * 4);
+		instanceMatrices = Arrays.copyOf(instanceMatrices, capacity);
+		rangeStart = Arrays.copyOf(rangeStart, capacity);
+		rangeCount = Arrays.copyOf(rangeCount, capacity);
+	}
+}
@@ -0,0 +1,112 @@
+package com.japg.mastermoviles.opengl10.render;
+
+/* Frames on demand, for a GLSurfaceView in RENDERMODE_WHEN_DIRTY: the renderer asks for the next frame
+*  only while the scene is busy (a model still easing towards its target, or with meshes left to upload),
+*  and input, or a model loader that finished, asks for one from any thread. Once the scene settles
+*  nothing is drawn until something changes: a model being parsed does not keep frames coming.
+*
+*  The render thread calls beginFrame() first thing in every frame, for the time to animate, and
+*  endFrame() last, saying whether the scene is still busy. requestRender is GLSurfaceView.requestRender
+*  (or anything else that gets onDrawFrame called once more).
+*
+*  Frames rendered and refresh intervals skipped (while idle, or missed) are counted; they can be read
+*  from any thread.
+*/
+public final class FrameScheduler {
+	// Rotation left (degrees) under which a model counts as settled: about half a pixel at the edge of
+	// a model 1080 pixels across
+	public static final float DEFAULT_EPSILON_DEGREES = 0.05f;
+	public static final float DEFAULT_REFRESH_RATE = 60f;
+
+	private final Runnable requestRender;
+	private final float epsilonDegrees;
+	private volatile long refreshNanos;
+
+	// Render thread state, volatile for the readers of the counters
+	private volatile long lastFrame;
+	private volatile boolean idle = true;
+	private volatile long framesRendered;
+	private volatile long framesSkipped;
+
+	public FrameScheduler(Runnable requestRender) {
+		this(requestRender, DEFAULT_EPSILON_DEGREES);
+	}
+
+	public FrameScheduler(Runnable requestRender, float epsilonDegrees) {
+		if (!(epsilonDegrees >= 0f)) {
+			throw new IllegalArgumentException("epsilonDegrees must not be negative: " + epsilonDegrees);
+		}
+		this.requestRender = requestRender;
+		this.epsilonDegrees = epsilonDegrees;
+		setRefreshRate(DEFAULT_REFRESH_RATE);
+	}
+
+	// Of the display the surface is on (Display.getRefreshRate)
+	public void setRefreshRate(float hz) {
+		if (!(hz > 0f)) {
+			throw new IllegalArgumentException("hz must be positive: " + hz);
+		}
+		refreshNanos = (long) (1e9 / hz);
+	}
+
+	public float getEpsilonDegrees() {
+		return epsilonDegrees;
+	}
+
+	// Something changed (input, a new model to load...): draw at least one more frame. Any thread.
+	public void requestFrame() {
+		requestRender.run();
+	}
+
+	//------------------------------------------
+	// Render thread. Returns the seconds to advance the animation by: the time since the last frame,
+	// or a single refresh interval after an idle stretch, when nothing was moving to catch up on.
+	public float beginFrame(long nowNanos) {
+		final long last = lastFrame;
+		float deltaSeconds = 0f;
+		if (last != 0) {
+			final long elapsed = nowNanos - last;
+			framesSkipped += skippedBetween(elapsed);
+			deltaSeconds = (idle ? Math.min(elapsed, refreshNanos) : elapsed) / 1e9f;
+		}
+		lastFrame = nowNanos;
+		framesRendered++;
+		return deltaSeconds;
+	}
+
+	// Render thread. busy: something is still moving or uploading, so another frame is requested.
+	public void endFrame(boolean busy) {
+		idle = !busy;
+		if (busy) {
+			requestRender.run();
+		}
+	}
+
+	// True once the last frame found nothing to do; no frame follows until requestFrame()
+	public boolean isIdle() {
+		return idle;
+	}
+
+	// Rotation left to a model's target, in degrees: still worth drawing?
+	public boolean isMoving(float remainingDegrees) {
+		return remainingDegrees > epsilonDegrees;
+	}
+
+	//------------------------------------------
+	public long getFramesRendered() {
+		return framesRendered;
+	}
+
+	// Refresh intervals without a frame up to nowNanos (same clock as beginFrame), the current idle
+	// stretch included
+	public long getFramesSkipped(long nowNanos) {
+		final long last = lastFrame;
+		return framesSkipped + (last != 0 ? skippedBetween(nowNanos - last) : 0);
+	}
+
+	// Refresh intervals in elapsed, rounded, less the one that ends with the frame
+	private long skippedBetween(long elapsed) {
+		final long period = refreshNanos;
+		return Math.max(0, (elapsed + period / 2) / period - 1);
+	}
+}
@@ -0,0 +1,677 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_ARRAY_BUFFER;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_COLOR_BUFFER_BIT;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_CULL_FACE;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_DEPTH_BUFFER_BIT;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_DEPTH_TEST;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_ELEMENT_ARRAY_BUFFER;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_EXTENSIONS;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_FLOAT;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_LINEAR;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_LINEAR_MIPMAP_LINEAR;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_MAX_VERTEX_TEXTURE_IMAGE_UNITS;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_MAX_VERTEX_UNIFORM_VECTORS;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_RGBA;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_SHORT;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_STATIC_DRAW;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_STREAM_DRAW;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_TEXTURE_2D;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_TEXTURE_MAG_FILTER;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_TEXTURE_MIN_FILTER;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_TRIANGLES;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_UNSIGNED_BYTE;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_UNSIGNED_INT;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_UNSIGNED_SHORT;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_VERSION;
+
+import com.japg.mastermoviles.opengl10.perf.FrameStats;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/* OpenGL ES 2.0 backend: one VBO (and IBO when indexed) per mesh, drawn with the specular shaders.
+*
+*  drawMeshInstances uses the same shaders compiled with an instancing define. On ES 3.0 contexts the
+*  model matrices go in a per-instance attribute (glVertexAttribDivisor) and every copy is one
+*  glDrawElementsInstanced. ES 2.0 has no instancing, so createInstancedMesh also builds a buffer with
+*  INSTANCE_BATCH copies of the mesh, each vertex tagged with its copy, and the matrices of a batch go
+*  in a uniform array: one draw call per batch.
+*
+*  Meshes from createPackedMesh keep the 16-byte vertices of PackedVertices in their VBO and are drawn
+*  with the PACKED_VERTICES variant of the shaders, which turns them back into floats with the scale
+*  and offset of each mesh.
+*
+*  32-bit indices need ES 3.0 or OES_element_index_uint. Without them, meshes with int indices (over
+*  65536 vertices) go to their VBO as one vertex per index and are drawn with glDrawArrays: index range
+*  (first, count) is then the same vertex range, so levels of detail and clusters still work.
+*/
+public class GLES20Backend implements RenderBackend {
+	private static final int BYTES_PER_FLOAT = 4;
+	private static final int BYTES_PER_SHORT = 2;
+	private static final int BYTES_PER_INT = 4;
+	private static final int POSITION_COMPONENT_COUNT = 3;
+	private static final int NORMAL_COMPONENT_COUNT = 3;
+	private static final int UV_COMPONENT_COUNT = 2;
+	private static final int STRIDE = (POSITION_COMPONENT_COUNT + NORMAL_COMPONENT_COUNT + UV_COMPONENT_COUNT) * BYTES_PER_FLOAT; // (8 * 4) => 32
+	private static final int NORMAL_OFFSET = POSITION_COMPONENT_COUNT * BYTES_PER_FLOAT;
+	private static final int UV_OFFSET = (POSITION_COMPONENT_COUNT + NORMAL_COMPONENT_COUNT) * BYTES_PER_FLOAT;
+	private static final int FLOATS_PER_VERTEX = 8;
+	private static final int FLOATS_PER_MATRIX = 16;
+	private static final int MATRIX_BYTES = FLOATS_PER_MATRIX * BYTES_PER_FLOAT;
+	// Batched copies: the 8 floats of the vertex and the copy it belongs to
+	private static final int BATCH_STRIDE = (FLOATS_PER_VERTEX + 1) * BYTES_PER_FLOAT;
+	private static final int INSTANCE_OFFSET = FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+	// Uniform vectors left for everything but the matrix array, and the largest array asked for
+	private static final int RESERVED_UNIFORM_VECTORS = 16;
+	private static final int MAX_BATCH = 64;
+	private static final int DEQUANTIZE_FLOATS = 10;
+
+	private int uMVPMatrixLocation;
+	private int uMVMatrixLocation;
+	private int uColorLocation;
+	private int uTextureUnitLocation;
+	private int aPositionLocation;
+	private int aNormalLocation;
+	private int aUVLocation;
+	// Attribute arrays of the plain and the instanced program (see GLState.arrayBit)
+	private int attributes;
+	private int instancedAttributes;
+
+	// Instancing: decided per context, the program is only built if something is drawn with it
+	private boolean vertexTextures;
+	private boolean instancedArrays;
+	// GL_UNSIGNED_INT indices: ES 3.0 or OES_element_index_uint
+	private boolean uintIndices;
+	private int batchSize;
+	private ShaderProgram instancedProgram;
+	private int uProjectionMatrixLocation;
+	private int uModelMatricesLocation;
+	private int uInstanceColorLocation;
+	private int uInstanceTextureUnitLocation;
+	private int aInstancePositionLocation;
+	private int aInstanceNormalLocation;
+	private int aInstanceUVLocation;
+	// a_ModelMatrix takes 4 consecutive locations (one per column) with instanced arrays, a_Instance
+	// is the copy index of the batched vertices otherwise
+	private int aModelMatrixLocation;
+	private int aInstanceLocation;
+	// ES 3.0: stream buffer the matrices are copied into on each instanced draw
+	private int matrixBuffer;
+	private FloatBuffer matrixData;
+
+	// Packed vertices: the program is built the first time a packed mesh is drawn
+	private ShaderProgram packedProgram;
+	private int uPackedMVPMatrixLocation;
+	private int uPackedMVMatrixLocation;
+	private int uPackedColorLocation;
+	private int uPackedTextureUnitLocation;
+	private int uPositionScaleLocation;
+	private int uPositionOffsetLocation;
+	private int uUVTransformLocation;
+	private int aPackedPositionLocation;
+	private int aPackedNormalLocation;
+	private int aPackedUVLocation;
+	private int packedAttributes;
+
+	// Mesh handle h lives at index h - 1
+	private int[] vertexBuffers = new int[16];
+	private int[] indexBuffers = new int[16];
+	private int[] indexTypes = new int[16];
+	private int[] counts = new int[16];
+	// ES 2.0 instanced meshes: buffers with batchCopies[m] copies of the mesh (0 if not built)
+	private int[] batchVertexBuffers = new int[16];
+	private int[] batchIndexBuffers = new int[16];
+	private int[] batchCopies = new int[16];
+	// Packed meshes: position scale and offset, uv scale and offset (all 0 for float meshes)
+	private float[] dequantize = new float[16 * DEQUANTIZE_FLOATS];
+	private int numMeshes;
+	// (first, count) of drawMesh, which draws the whole mesh as a single range
+	private final int[] fullRange = new int[2];
+	private FrameStats stats;
+	// Every state change goes through it, so calls that would not change anything are dropped
+	private final GLState state;
+	private final Gl gl;
+
+	// Programs are shared through the cache and, when it has a binary directory, kept across starts
+	private final Programs programs;
+	private ShaderProgram program;
+
+	// Textures are shared and ref-counted, and kept across surfaces
+	private final TextureCache textures;
+
+	/* The specular shaders, linked in the current EGL context with some #define lines ahead of both
+	*  sources (see ProgramCache), for the backend to build its program variants.
+	*/
+	public interface Programs {
+		// vertexTextures: whether vertex shaders can sample textures (GL_MAX_VERTEX_TEXTURE_IMAGE_UNITS)
+		// defines: "NAME" or "NAME VALUE" entries (may be empty)
+		ShaderProgram get(boolean vertexTextures, String... defines);
+
+		// A new EGL context replaced the old one, and its programs
+		void invalidate();
+	}
+
+	// state: what every GL call goes through; textureSource makes its textures with the same state
+	// (GLTextureSource on Android)
+	public GLES20Backend(GLState state, Programs programs, TextureCache.Source textureSource, long textureBudgetBytes) {
+		this.state = state;
+		this.gl = state.getGl();
+		this.programs = programs;
+		this.textures = new TextureCache(textureSource, textureBudgetBytes);
+	}
+
+	public GLState getState() {
+		return state;
+	}
+
+	public TextureCache getTextureCache() {
+		return textures;
+	}
+
+	@Override
+	public void init() {
+		// New EGL context: programs, textures and state of the old one are gone
+		programs.invalidate();
+		state.invalidate();
+		textures.invalidate();
+
+		gl.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+		int[]	maxVertexTextureImageUnits = new int[1];
+		// Check if vertex shader support texture
+		gl.glGetIntegerv(GL_MAX_VERTEX_TEXTURE_IMAGE_UNITS, maxVertexTextureImageUnits, 0);
+		vertexTextures = maxVertexTextureImageUnits[0]>0;
+		program = programs.get(vertexTextures);
+
+		// Instancing support: ES 3.0, or batches as large as the uniform vectors allow (4 per matrix)
+		instancedArrays = isGles3(gl.glGetString(GL_VERSION));
+		uintIndices = instancedArrays || hasExtension(gl.glGetString(GL_EXTENSIONS), "GL_OES_element_index_uint");
+		final int[] maxVertexUniformVectors = new int[1];
+		gl.glGetIntegerv(GL_MAX_VERTEX_UNIFORM_VECTORS, maxVertexUniformVectors, 0);
+		batchSize = Math.max(1, Math.min(MAX_BATCH, (maxVertexUniformVectors[0] - RESERVED_UNIFORM_VECTORS) / 4));
+		instancedProgram = null;
+		packedProgram = null;
+		matrixBuffer = 0;
+
+		// OpenGL activation
+		state.useProgram(program);
+
+		// Capture uniforms
+		uMVPMatrixLocation = program.getUniformLocation("u_MVPMatrix");
+		uMVMatrixLocation = program.getUniformLocation("u_MVMatrix");
+		uColorLocation = program.getUniformLocation("u_Color");
+		uTextureUnitLocation = program.getUniformLocation("u_TextureUnit");
+
+		// Capture attributes
+		aPositionLocation = program.getAttribLocation("a_Position");
+		aNormalLocation = program.getAttribLocation("a_Normal");
+		aUVLocation = program.getAttribLocation("a_UV");
+		attributes = GLState.arrayBit(aPositionLocation) | GLState.arrayBit(aNormalLocation) | GLState.arrayBit(aUVLocation);
+		state.setVertexAttribArrays(attributes);
+
+		// New EGL context: the old buffer names are gone with the old one
+		numMeshes = 0;
+	}
+
+	@Override
+	public void setViewport(int width, int height) {
+		gl.glViewport(0, 0, width, height);
+	}
+
+	@Override
+	public void setFrameStats(FrameStats stats) {
+		this.stats = stats;
+		state.setFrameStats(stats);
+	}
+
+	@Override
+	public void beginFrame() {
+		// Clear the rendering surface.
+		gl.glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+		// Only reach GL on the first frame of a context
+		state.enable(GL_DEPTH_TEST);
+		state.enable(GL_CULL_FACE);
+		state.lineWidth(2.0f);
+		// TEXTURE ACTIVATION
+		state.activeTexture(0);
+	}
+
+	@Override
+	public void endFrame() {
+	}
+
+	@Override
+	public int loadTexture(int resourceId) {
+		return textures.acquire(resourceId, TextureCache.TRILINEAR);
+	}
+
+	@Override
+	public int createTexture(int width, int height, int[] argb) {
+		final ByteBuffer rgba = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+		for (int i=0; i<width*height; i++) {
+			final int p = argb[i];
+			rgba.put((byte) (p >> 16)).put((byte) (p >> 8)).put((byte) p).put((byte) (p >>> 24));
+		}
+		rgba.position(0);
+
+		final int[] textureObjectIds = new int[1];
+		gl.glGenTextures(1, textureObjectIds, 0);
+		state.bindTexture(textureObjectIds[0]);
+		gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+		gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+		gl.glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, rgba);
+		gl.glGenerateMipmap(GL_TEXTURE_2D);
+		return textures.add(textureObjectIds[0], (long) width * height * 4 * 4 / 3);
+	}
+
+	@Override
+	public void releaseTexture(int texture) {
+		textures.release(texture);
+	}
+
+	@Override
+	public int createMesh(FloatBuffer vertices, int vertexCount, Buffer indices, int indexCount) {
+		return addMesh(vertices, vertexCount, vertexCount * STRIDE, indices, indexCount);
+	}
+
+	@Override
+	public int createPackedMesh(PackedVertices vertices, Buffer indices, int indexCount) {
+		final int mesh = addMesh(vertices.getData(), vertices.getVertexCount(), vertices.getVertexCount() * PackedVertices.STRIDE,
+				indices, indexCount);
+		final int d = (mesh - 1) * DEQUANTIZE_FLOATS;
+		for (int c=0; c<3; c++) {
+			dequantize[d + c] = vertices.getPositionScale(c);
+			dequantize[d + 3 + c] = vertices.getPositionOffset(c);
+		}
+		for (int c=0; c<2; c++) {
+			dequantize[d + 6 + c] = vertices.getUVScale(c);
+			dequantize[d + 8 + c] = vertices.getUVOffset(c);
+		}
+		return mesh;
+	}
+
+	private int addMesh(Buffer vertices, int vertexCount, int vertexBytes, Buffer indices, int indexCount) {
+		if (numMeshes == vertexBuffers.length) {
+			vertexBuffers = Arrays.copyOf(vertexBuffers, numMeshes * 2);
+			indexBuffers = Arrays.copyOf(indexBuffers, numMeshes * 2);
+			indexTypes = Arrays.copyOf(indexTypes, numMeshes * 2);
+			counts = Arrays.copyOf(counts, numMeshes * 2);
+			batchVertexBuffers = Arrays.copyOf(batchVertexBuffers, numMeshes * 2);
+			batchIndexBuffers = Arrays.copyOf(batchIndexBuffers, numMeshes * 2);
+			batchCopies = Arrays.copyOf(batchCopies, numMeshes * 2);
+			dequantize = Arrays.copyOf(dequantize, numMeshes * 2 * DEQUANTIZE_FLOATS);
+		}
+		if (indices instanceof IntBuffer && !uintIndices) {
+			vertices = expandVertices(vertices, vertexBytes / Math.max(1, vertexCount), (IntBuffer) indices, indexCount);
+			vertexBytes = vertices.capacity();
+			vertexCount = indexCount;
+			indices = null;
+		}
+		final int m = numMeshes++;
+		final int[] names = new int[indices != null ? 2 : 1];
+		gl.glGenBuffers(names.length, names, 0);
+
+		vertices.position(0);
+		vertexBuffers[m] = names[0];
+		state.bindBuffer(GL_ARRAY_BUFFER, names[0]);
+		gl.glBufferData(GL_ARRAY_BUFFER, vertexBytes, vertices, GL_STATIC_DRAW);
+
+		if (indices != null) {
+			final boolean wide = indices instanceof IntBuffer;
+			indices.position(0);
+			indexBuffers[m] = names[1];
+			indexTypes[m] = wide ? GL_UNSIGNED_INT : GL_UNSIGNED_SHORT;
+			counts[m] = indexCount;
+			state.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, names[1]);
+			gl.glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexCount * (wide ? BYTES_PER_INT : BYTES_PER_SHORT), indices, GL_STATIC_DRAW);
+		} else {
+			indexBuffers[m] = 0;
+			counts[m] = vertexCount;
+		}
+		batchCopies[m] = 0;
+		Arrays.fill(dequantize, m * DEQUANTIZE_FLOATS, (m + 1) * DEQUANTIZE_FLOATS, 0f);
+		return m + 1;
+	}
+
+	@Override
+	public int createInstancedMesh(FloatBuffer vertices, int vertexCount, Buffer indices, int indexCount) {
+		final int mesh = createMesh(vertices, vertexCount, indices, indexCount);
+		// As many copies as fit in a batch with 16-bit indices; with less than 2 there is nothing to win
+		final int copies = Math.min(batchSize, 65536 / Math.max(1, vertexCount));
+		if (instancedArrays || copies < 2) {
+			return mesh;
+		}
+		final int m = mesh - 1;
+		final float[] vertex = new float[FLOATS_PER_VERTEX];
+		final FloatBuffer batch = ByteBuffer.allocateDirect(copies * vertexCount * BATCH_STRIDE).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		for (int c=0; c<copies; c++) {
+			vertices.position(0);
+			for (int v=0; v<vertexCount; v++) {
+				vertices.get(vertex);
+				batch.put(vertex).put(c);
+			}
+		}
+		vertices.position(0);
+		batch.position(0);
+
+		final int[] names = new int[2];
+		gl.glGenBuffers(indices != null ? 2 : 1, names, 0);
+		batchVertexBuffers[m] = names[0];
+		state.bindBuffer(GL_ARRAY_BUFFER, names[0]);
+		gl.glBufferData(GL_ARRAY_BUFFER, copies * vertexCount * BATCH_STRIDE, batch, GL_STATIC_DRAW);
+
+		// Copy c of index i is i + c * vertexCount, always under 65536
+		if (indices != null) {
+			final ByteBuffer batchIndices = ByteBuffer.allocateDirect(copies * indexCount * BYTES_PER_SHORT).order(ByteOrder.nativeOrder());
+			for (int c=0; c<copies; c++) {
+				for (int i=0; i<indexCount; i++) {
+					final int index = indices instanceof IntBuffer ? ((IntBuffer) indices).get(i) : ((ShortBuffer) indices).get(i) & 0xFFFF;
+					batchIndices.putShort((short) (index + c * vertexCount));
+				}
+			}
+			batchIndices.position(0);
+			batchIndexBuffers[m] = names[1];
+			state.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, names[1]);
+			gl.glBufferData(GL_ELEMENT_ARRAY_BUFFER, copies * indexCount * BYTES_PER_SHORT, batchIndices, GL_STATIC_DRAW);
+		} else {
+			batchIndexBuffers[m] = 0;
+		}
+		batchCopies[m] = copies;
+		return mesh;
+	}
+
+	@Override
+	public void drawMesh(int mesh, int texture, float[] mvpMatrix, float[] mvMatrix, float r, float g, float b, float a) {
+		fullRange[1] = counts[mesh - 1];
+		drawMeshRanges(mesh, fullRange, 1, texture, mvpMatrix, mvMatrix, r, g, b, a);
+	}
+
+	@Override
+	public void drawMeshRanges(int mesh, int[] ranges, int rangeCount, int texture, float[] mvpMatrix, float[] mvMatrix,
+			float r, float g, float b, float a) {
+		final int m = mesh - 1;
+		if (isPacked(m)) {
+			useProgram(getPackedProgram(), packedAttributes);
+			setDrawUniforms(uPackedMVPMatrixLocation, uPackedMVMatrixLocation, uPackedColorLocation, uPackedTextureUnitLocation,
+					texture, mvpMatrix, mvMatrix, r, g, b, a);
+			final int d = m * DEQUANTIZE_FLOATS;
+			state.uniform3f(uPositionScaleLocation, dequantize[d], dequantize[d + 1], dequantize[d + 2]);
+			state.uniform3f(uPositionOffsetLocation, dequantize[d + 3], dequantize[d + 4], dequantize[d + 5]);
+			state.uniform4f(uUVTransformLocation, dequantize[d + 6], dequantize[d + 7], dequantize[d + 8], dequantize[d + 9]);
+			bindPackedVertices(vertexBuffers[m]);
+		} else {
+			useProgram(program, attributes);
+			setDrawUniforms(uMVPMatrixLocation, uMVMatrixLocation, uColorLocation, uTextureUnitLocation,
+					texture, mvpMatrix, mvMatrix, r, g, b, a);
+			// Positions, normals and UVs at their offsets within the VBO
+			bindVertices(vertexBuffers[m], STRIDE, aPositionLocation, aNormalLocation, aUVLocation);
+		}
+		int elements = 0;
+		if (indexBuffers[m] != 0) {
+			// Only GL_UNSIGNED_INT when the context has it (see addMesh)
+			final int indexBytes = indexTypes[m] == GL_UNSIGNED_INT ? BYTES_PER_INT : BYTES_PER_SHORT;
+			state.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexBuffers[m]);
+			for (int i=0; i<rangeCount; i++) {
+				gl.glDrawElements(GL_TRIANGLES, ranges[i * 2 + 1], indexTypes[m], ranges[i * 2] * indexBytes);
+				elements += ranges[i * 2 + 1];
+			}
+		} else {
+			for (int i=0; i<rangeCount; i++) {
+				gl.glDrawArrays(GL_TRIANGLES, ranges[i * 2], ranges[i * 2 + 1]);
+				elements += ranges[i * 2 + 1];
+			}
+		}
+
+		if (stats != null) {
+			// State changes are counted by GLState
+			stats.count(FrameStats.DRAW_CALLS, rangeCount);
+			stats.count(FrameStats.VERTICES, elements);
+		}
+	}
+
+	@Override
+	public void drawMeshInstances(int mesh, int texture, float[] projectionMatrix, float[] modelMatrices, int instanceCount,
+			float r, float g, float b, float a) {
+		if (instanceCount <= 0) {
+			return;
+		}
+		final int m = mesh - 1;
+		if (isPacked(m)) {
+			throw new IllegalArgumentException("Packed meshes cannot be drawn instanced: " + mesh);
+		}
+		final ShaderProgram instanced = getInstancedProgram();
+		useProgram(instanced, instancedAttributes);
+		// Everything but the model matrices is shared by the copies and set once
+		state.uniformMatrix4fv(uProjectionMatrixLocation, projectionMatrix, 0);
+		state.uniform4f(uInstanceColorLocation, r, g, b, a);
+		state.bindTexture(textures.resolve(texture));
+		state.uniform1i(uInstanceTextureUnitLocation, 0);
+
+		final int drawCalls;
+		if (instancedArrays) {
+			drawCalls = drawInstancedArrays(m, modelMatrices, instanceCount);
+		} else if (batchCopies[m] > 0) {
+			drawCalls = drawBatches(m, modelMatrices, instanceCount);
+		} else {
+			drawCalls = drawOneByOne(m, modelMatrices, instanceCount);
+		}
+
+		if (stats != null) {
+			stats.count(FrameStats.DRAW_CALLS, drawCalls);
+			stats.count(FrameStats.VERTICES, counts[m] * instanceCount);
+		}
+	}
+
+	// One glDraw*Instanced, the matrices streamed into an instanced attribute. Returns the draw calls.
+	private int drawInstancedArrays(int m, float[] modelMatrices, int instanceCount) {
+		final int floats = instanceCount * FLOATS_PER_MATRIX;
+		if (matrixData == null || matrixData.capacity() < floats) {
+			matrixData = ByteBuffer.allocateDirect(floats * BYTES_PER_FLOAT).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		}
+		matrixData.position(0);
+		matrixData.put(modelMatrices, 0, floats);
+		matrixData.position(0);
+		if (matrixBuffer == 0) {
+			final int[] names = new int[1];
+			gl.glGenBuffers(1, names, 0);
+			matrixBuffer = names[0];
+		}
+		// New storage on every draw, so the driver does not wait for the previous frame to read the old one
+		state.bindBuffer(GL_ARRAY_BUFFER, matrixBuffer);
+		gl.glBufferData(GL_ARRAY_BUFFER, floats * BYTES_PER_FLOAT, matrixData, GL_STREAM_DRAW);
+		for (int c=0; c<4 && aModelMatrixLocation>=0; c++) {
+			state.vertexAttribPointer(aModelMatrixLocation + c, 4, GL_FLOAT, false, MATRIX_BYTES, c * 4 * BYTES_PER_FLOAT);
+			state.vertexAttribDivisor(aModelMatrixLocation + c, 1);
+		}
+		bindVertices(vertexBuffers[m], STRIDE, aInstancePositionLocation, aInstanceNormalLocation, aInstanceUVLocation);
+		if (indexBuffers[m] != 0) {
+			state.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexBuffers[m]);
+			gl.glDrawElementsInstanced(GL_TRIANGLES, counts[m], indexTypes[m], 0, instanceCount);
+		} else {
+			gl.glDrawArraysInstanced(GL_TRIANGLES, 0, counts[m], instanceCount);
+		}
+		return 1;
+	}
+
+	// One draw call per batchCopies[m] copies, with their matrices in u_ModelMatrices
+	private int drawBatches(int m, float[] modelMatrices, int instanceCount) {
+		final int copies = batchCopies[m];
+		bindVertices(batchVertexBuffers[m], BATCH_STRIDE, aInstancePositionLocation, aInstanceNormalLocation, aInstanceUVLocation);
+		state.vertexAttribPointer(aInstanceLocation, 1, GL_FLOAT, false, BATCH_STRIDE, INSTANCE_OFFSET);
+		if (batchIndexBuffers[m] != 0) {
+			state.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, batchIndexBuffers[m]);
+		}
+		int drawCalls = 0;
+		for (int first=0; first<instanceCount; first+=copies) {
+			final int n = Math.min(copies, instanceCount - first);
+			state.uniformMatrix4fv(uModelMatricesLocation, n, modelMatrices, first * FLOATS_PER_MATRIX);
+			if (batchIndexBuffers[m] != 0) {
+				gl.glDrawElements(GL_TRIANGLES, n * counts[m], GL_UNSIGNED_SHORT, 0);
+			} else {
+				gl.glDrawArrays(GL_TRIANGLES, 0, n * counts[m]);
+			}
+			drawCalls++;
+		}
+		return drawCalls;
+	}
+
+	// Meshes too large to batch: the plain buffers and a constant a_Instance of 0, still with the
+	// shared state set only once
+	private int drawOneByOne(int m, float[] modelMatrices, int instanceCount) {
+		state.setVertexAttribArrays(instancedAttributes & ~GLState.arrayBit(aInstanceLocation));
+		gl.glVertexAttrib1f(aInstanceLocation, 0f);
+		bindVertices(vertexBuffers[m], STRIDE, aInstancePositionLocation, aInstanceNormalLocation, aInstanceUVLocation);
+		if (indexBuffers[m] != 0) {
+			state.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexBuffers[m]);
+		}
+		for (int i=0; i<instanceCount; i++) {
+			state.uniformMatrix4fv(uModelMatricesLocation, modelMatrices, i * FLOATS_PER_MATRIX);
+			if (indexBuffers[m] != 0) {
+				gl.glDrawElements(GL_TRIANGLES, counts[m], indexTypes[m], 0);
+			} else {
+				gl.glDrawArrays(GL_TRIANGLES, 0, counts[m]);
+			}
+		}
+		return instanceCount;
+	}
+
+	// Matrices, color and texture of drawMesh(Ranges), at the locations of the program in use
+	private void setDrawUniforms(int mvpLocation, int mvLocation, int colorLocation, int textureUnitLocation, int texture,
+			float[] mvpMatrix, float[] mvMatrix, float r, float g, float b, float a) {
+		// Projection times model matrix
+		state.uniformMatrix4fv(mvpLocation, mvpMatrix, 0);
+		// Model-view matrix, for the lighting
+		state.uniformMatrix4fv(mvLocation, mvMatrix, 0);
+		// Update color
+		state.uniform4f(colorLocation, r, g, b, a);
+
+		state.bindTexture(textures.resolve(texture));
+		state.uniform1i(textureUnitLocation, 0);
+	}
+
+	private void bindVertices(int buffer, int stride, int position, int normal, int uv) {
+		state.bindBuffer(GL_ARRAY_BUFFER, buffer);
+		state.vertexAttribPointer(position, POSITION_COMPONENT_COUNT, GL_FLOAT, false, stride, 0);
+		state.vertexAttribPointer(normal, NORMAL_COMPONENT_COUNT, GL_FLOAT, false, stride, NORMAL_OFFSET);
+		state.vertexAttribPointer(uv, UV_COMPONENT_COUNT, GL_FLOAT, false, stride, UV_OFFSET);
+		resetDivisors(position, normal, uv);
+	}
+
+	// Normalized shorts, read as floats in [0, 1] (or [-1, 1] for the normal) by the shader
+	private void bindPackedVertices(int buffer) {
+		state.bindBuffer(GL_ARRAY_BUFFER, buffer);
+		state.vertexAttribPointer(aPackedPositionLocation, 3, GL_UNSIGNED_SHORT, true, PackedVertices.STRIDE, PackedVertices.POSITION_OFFSET);
+		state.vertexAttribPointer(aPackedNormalLocation, 2, GL_SHORT, true, PackedVertices.STRIDE, PackedVertices.NORMAL_OFFSET);
+		state.vertexAttribPointer(aPackedUVLocation, 2, GL_UNSIGNED_SHORT, true, PackedVertices.STRIDE, PackedVertices.UV_OFFSET);
+		resetDivisors(aPackedPositionLocation, aPackedNormalLocation, aPackedUVLocation);
+	}
+
+	private void resetDivisors(int position, int normal, int uv) {
+		if (instancedArrays) {
+			// These locations may have been per-instance matrix columns of another program
+			state.vertexAttribDivisor(position, 0);
+			state.vertexAttribDivisor(normal, 0);
+			state.vertexAttribDivisor(uv, 0);
+		}
+	}
+
+	// Float meshes have no scale (see createPackedMesh, which never leaves one at 0)
+	private boolean isPacked(int m) {
+		return dequantize[m * DEQUANTIZE_FLOATS] != 0f;
+	}
+
+	private ShaderProgram getPackedProgram() {
+		if (packedProgram == null) {
+			final ShaderProgram packed = programs.get(vertexTextures, "PACKED_VERTICES");
+			uPackedMVPMatrixLocation = packed.getUniformLocation("u_MVPMatrix");
+			uPackedMVMatrixLocation = packed.getUniformLocation("u_MVMatrix");
+			uPackedColorLocation = packed.getUniformLocation("u_Color");
+			uPackedTextureUnitLocation = packed.getUniformLocation("u_TextureUnit");
+			uPositionScaleLocation = packed.getUniformLocation("u_PositionScale");
+			uPositionOffsetLocation = packed.getUniformLocation("u_PositionOffset");
+			uUVTransformLocation = packed.getUniformLocation("u_UVTransform");
+			aPackedPositionLocation = packed.getAttribLocation("a_PackedPosition");
+			aPackedNormalLocation = packed.getAttribLocation("a_PackedNormal");
+			aPackedUVLocation = packed.getAttribLocation("a_PackedUV");
+			packedAttributes = GLState.arrayBit(aPackedPositionLocation) | GLState.arrayBit(aPackedNormalLocation)
+					| GLState.arrayBit(aPackedUVLocation);
+			packedProgram = packed;
+		}
+		return packedProgram;
+	}
+
+	private ShaderProgram getInstancedProgram() {
+		if (instancedProgram == null) {
+			final ShaderProgram instanced = instancedArrays
+					? programs.get(vertexTextures, "INSTANCED_ARRAYS")
+					: programs.get(vertexTextures, "INSTANCE_BATCH " + batchSize);
+			uProjectionMatrixLocation = instanced.getUniformLocation("u_ProjectionMatrix");
+			uModelMatricesLocation = instanced.getUniformLocation("u_ModelMatrices");
+			uInstanceColorLocation = instanced.getUniformLocation("u_Color");
+			uInstanceTextureUnitLocation = instanced.getUniformLocation("u_TextureUnit");
+			aInstancePositionLocation = instanced.getAttribLocation("a_Position");
+			aInstanceNormalLocation = instanced.getAttribLocation("a_Normal");
+			aInstanceUVLocation = instanced.getAttribLocation("a_UV");
+			instancedAttributes = GLState.arrayBit(aInstancePositionLocation) | GLState.arrayBit(aInstanceNormalLocation)
+					| GLState.arrayBit(aInstanceUVLocation);
+			if (instancedArrays) {
+				aModelMatrixLocation = instanced.getAttribLocation("a_ModelMatrix");
+				for (int c=0; c<4 && aModelMatrixLocation>=0; c++) {
+					instancedAttributes |= GLState.arrayBit(aModelMatrixLocation + c);
+				}
+			} else {
+				aInstanceLocation = instanced.getAttribLocation("a_Instance");
+				instancedAttributes |= GLState.arrayBit(aInstanceLocation);
+			}
+			instancedProgram = instanced;
+		}
+		return instancedProgram;
+	}
+
+	// A vertex per index, in index order, for contexts without 32-bit indices. Returns the bytes.
+	private static ByteBuffer expandVertices(Buffer vertices, int stride, IntBuffer indices, int indexCount) {
+		final ByteBuffer expanded = ByteBuffer.allocateDirect(indexCount * stride).order(ByteOrder.nativeOrder());
+		if (vertices instanceof FloatBuffer) {
+			final int floats = stride / BYTES_PER_FLOAT;
+			final FloatBuffer source = ((FloatBuffer) vertices).duplicate();
+			final FloatBuffer target = expanded.asFloatBuffer();
+			for (int i=0; i<indexCount; i++) {
+				final int first = indices.get(i) * floats;
+				source.limit(first + floats).position(first);
+				target.put(source);
+				source.limit(source.capacity());
+			}
+		} else {
+			final ByteBuffer source = ((ByteBuffer) vertices).duplicate();
+			for (int i=0; i<indexCount; i++) {
+				final int first = indices.get(i) * stride;
+				source.limit(first + stride).position(first);
+				expanded.put(source);
+				source.limit(source.capacity());
+			}
+			expanded.position(0);
+		}
+		return expanded;
+	}
+
+	// Whether the space-separated GL_EXTENSIONS string lists the extension
+	static boolean hasExtension(String extensions, String extension) {
+		return extensions != null && (" " + extensions + " ").contains(" " + extension + " ");
+	}
+
+	// GL_VERSION of an ES 3.0 or later context: "OpenGL ES 3.x ..."
+	static boolean isGles3(String version) {
+		return version != null && version.startsWith("OpenGL ES ") && version.length() > 10 && version.charAt(10) >= '3';
+	}
+
+	// Makes the program current with exactly the given attribute arrays enabled
+	private void useProgram(ShaderProgram use, int arrays) {
+		state.useProgram(use);
+		state.setVertexAttribArrays(arrays);
+	}
+}
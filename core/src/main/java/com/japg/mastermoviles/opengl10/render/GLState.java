@@ -0,0 +1,361 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_ARRAY_BUFFER;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_BLEND;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_CULL_FACE;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_DEPTH_TEST;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_ELEMENT_ARRAY_BUFFER;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_SCISSOR_TEST;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_TEXTURE0;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_TEXTURE_2D;
+
+import com.japg.mastermoviles.opengl10.perf.FrameStats;
+
+import java.util.Arrays;
+
+/* Shadow copy of the GL state the backend sets: program, active texture unit and 2D texture of each
+*  unit, buffer bindings, capabilities, line width, vertex attribute arrays and pointers, and the
+*  uniform values of each program. A call that would leave GL as it already is returns without
+*  reaching the driver.
+*
+*  Everything that changes this state has to go through here (or call invalidate()), or the copy
+*  stops matching GL. Issued calls count as STATE_CHANGES and skipped ones as REDUNDANT_CALLS in the
+*  frame stats. Render thread only.
+*/
+public final class GLState {
+	private static final int TEXTURE_UNITS = 8;
+	private static final int ATTRIBUTES = 16;
+	private static final int UNKNOWN = -1;
+
+	private int program = UNKNOWN;
+	private ShaderProgram current;
+	private int activeUnit = UNKNOWN;
+	private final int[] textures = new int[TEXTURE_UNITS];
+	private int arrayBuffer = UNKNOWN;
+	private int elementBuffer = UNKNOWN;
+	// Bit per capability of capBit(): whether its state is known, and whether it is enabled
+	private int knownCaps;
+	private int enabledCaps;
+	private float lineWidth = Float.NaN;
+	// Bit per attribute location of the enabled arrays (all disabled in a new context)
+	private int enabledArrays;
+	// Per attribute location: buffer, size, type, stride, offset, divisor (UNKNOWN when not known)
+	private final int[] pointers = new int[ATTRIBUTES * 6];
+
+	private final Gl gl;
+	private FrameStats stats;
+	private int issued;
+	private int skipped;
+
+	public GLState(Gl gl) {
+		this.gl = gl;
+		invalidate();
+	}
+
+	// For the calls that do not touch the tracked state
+	Gl getGl() {
+		return gl;
+	}
+
+	// Forgets everything: to be called with a new EGL context, or after GL calls made elsewhere
+	public void invalidate() {
+		program = UNKNOWN;
+		current = null;
+		activeUnit = UNKNOWN;
+		Arrays.fill(textures, UNKNOWN);
+		arrayBuffer = UNKNOWN;
+		elementBuffer = UNKNOWN;
+		knownCaps = 0;
+		enabledCaps = 0;
+		lineWidth = Float.NaN;
+		enabledArrays = 0;
+		Arrays.fill(pointers, UNKNOWN);
+	}
+
+	public void setFrameStats(FrameStats stats) {
+		this.stats = stats;
+	}
+
+	// Calls issued / skipped since creation
+	public int getIssuedCount() {
+		return issued;
+	}
+
+	public int getSkippedCount() {
+		return skipped;
+	}
+
+	//------------------------------------------
+	public void useProgram(ShaderProgram use) {
+		if (use.getId() == program) {
+			skip();
+			return;
+		}
+		gl.glUseProgram(use.getId());
+		program = use.getId();
+		current = use;
+		issue();
+	}
+
+	// unit: 0 for GL_TEXTURE0 and so on
+	public void activeTexture(int unit) {
+		if (unit == activeUnit) {
+			skip();
+			return;
+		}
+		gl.glActiveTexture(GL_TEXTURE0 + unit);
+		activeUnit = unit;
+		issue();
+	}
+
+	// GL_TEXTURE_2D of the active unit
+	public void bindTexture(int name) {
+		if (activeUnit == UNKNOWN) {
+			activeTexture(0);
+		}
+		if (textures[activeUnit] == name) {
+			skip();
+			return;
+		}
+		gl.glBindTexture(GL_TEXTURE_2D, name);
+		textures[activeUnit] = name;
+		issue();
+	}
+
+	// To be called once the texture is deleted: GL unbinds it from every unit, and may reuse its name
+	public void textureDeleted(int name) {
+		for (int unit=0; unit<TEXTURE_UNITS; unit++) {
+			if (textures[unit] == name) {
+				textures[unit] = 0;
+			}
+		}
+	}
+
+	// target: GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER
+	public void bindBuffer(int target, int name) {
+		final boolean array = target == GL_ARRAY_BUFFER;
+		if ((array ? arrayBuffer : elementBuffer) == name) {
+			skip();
+			return;
+		}
+		gl.glBindBuffer(target, name);
+		if (array) {
+			arrayBuffer = name;
+		} else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+			elementBuffer = name;
+		}
+		issue();
+	}
+
+	public void enable(int cap) {
+		final int bit = capBit(cap);
+		if ((knownCaps & enabledCaps & bit) != 0) {
+			skip();
+			return;
+		}
+		gl.glEnable(cap);
+		knownCaps |= bit;
+		enabledCaps |= bit;
+		issue();
+	}
+
+	public void disable(int cap) {
+		final int bit = capBit(cap);
+		if ((knownCaps & ~enabledCaps & bit) != 0) {
+			skip();
+			return;
+		}
+		gl.glDisable(cap);
+		knownCaps |= bit;
+		enabledCaps &= ~bit;
+		issue();
+	}
+
+	public void lineWidth(float width) {
+		if (width == lineWidth) {
+			skip();
+			return;
+		}
+		gl.glLineWidth(width);
+		lineWidth = width;
+		issue();
+	}
+
+	//------------------------------------------
+	// Makes exactly the given attribute arrays the enabled ones (see arrayBit)
+	public void setVertexAttribArrays(int arrays) {
+		if (arrays == enabledArrays) {
+			skip();
+			return;
+		}
+		for (int location=0; location<ATTRIBUTES; location++) {
+			final int bit = 1 << location;
+			if ((arrays & bit) != 0 && (enabledArrays & bit) == 0) {
+				gl.glEnableVertexAttribArray(location);
+				issue();
+			} else if ((arrays & bit) == 0 && (enabledArrays & bit) != 0) {
+				gl.glDisableVertexAttribArray(location);
+				issue();
+			}
+		}
+		enabledArrays = arrays;
+	}
+
+	// Bit of an attribute location for setVertexAttribArrays; none for -1 (not in the program)
+	public static int arrayBit(int location) {
+		return location >= 0 && location < ATTRIBUTES ? 1 << location : 0;
+	}
+
+	// For the buffer bound to GL_ARRAY_BUFFER. location -1 (attribute not in the program) is ignored.
+	public void vertexAttribPointer(int location, int size, int type, boolean normalized, int stride, int offset) {
+		if (location < 0 || location >= ATTRIBUTES) {
+			return;
+		}
+		final int p = location * 6;
+		// normalized rides in the sign of the size, which is 1 to 4
+		final int sizeKey = normalized ? -size : size;
+		if (arrayBuffer != UNKNOWN && pointers[p] == arrayBuffer && pointers[p + 1] == sizeKey && pointers[p + 2] == type
+				&& pointers[p + 3] == stride && pointers[p + 4] == offset) {
+			skip();
+			return;
+		}
+		gl.glVertexAttribPointer(location, size, type, normalized, stride, offset);
+		pointers[p] = arrayBuffer;
+		pointers[p + 1] = sizeKey;
+		pointers[p + 2] = type;
+		pointers[p + 3] = stride;
+		pointers[p + 4] = offset;
+		issue();
+	}
+
+	// ES 3.0 only
+	public void vertexAttribDivisor(int location, int divisor) {
+		if (location < 0 || location >= ATTRIBUTES) {
+			return;
+		}
+		final int p = location * 6 + 5;
+		// Locations never given a divisor are at the default of 0
+		final int known = pointers[p] == UNKNOWN ? 0 : pointers[p];
+		if (known == divisor) {
+			skip();
+			return;
+		}
+		gl.glVertexAttribDivisor(location, divisor);
+		pointers[p] = divisor;
+		issue();
+	}
+
+	//------------------------------------------
+	// Uniforms of the current program; location -1 (not in the program) is ignored
+	public void uniform1i(int location, int value) {
+		if (location < 0) {
+			return;
+		}
+		final float[] cached = current.getUniformValue(location, 1);
+		if (cached[0] == value && cached[1] == 1f) {
+			skip();
+			return;
+		}
+		gl.glUniform1i(location, value);
+		cached[0] = value;
+		cached[1] = 1f;
+		issue();
+	}
+
+	public void uniform3f(int location, float x, float y, float z) {
+		if (location < 0) {
+			return;
+		}
+		final float[] cached = current.getUniformValue(location, 3);
+		if (cached[3] == 1f && cached[0] == x && cached[1] == y && cached[2] == z) {
+			skip();
+			return;
+		}
+		gl.glUniform3f(location, x, y, z);
+		cached[0] = x;
+		cached[1] = y;
+		cached[2] = z;
+		cached[3] = 1f;
+		issue();
+	}
+
+	public void uniform4f(int location, float x, float y, float z, float w) {
+		if (location < 0) {
+			return;
+		}
+		final float[] cached = current.getUniformValue(location, 4);
+		if (cached[4] == 1f && cached[0] == x && cached[1] == y && cached[2] == z && cached[3] == w) {
+			skip();
+			return;
+		}
+		gl.glUniform4f(location, x, y, z, w);
+		cached[0] = x;
+		cached[1] = y;
+		cached[2] = z;
+		cached[3] = w;
+		cached[4] = 1f;
+		issue();
+	}
+
+	// A single matrix: comparing 16 floats is far cheaper than the call
+	public void uniformMatrix4fv(int location, float[] m, int offset) {
+		if (location < 0) {
+			return;
+		}
+		final float[] cached = current.getUniformValue(location, 16);
+		boolean same = cached[16] == 1f;
+		for (int i=0; same && i<16; i++) {
+			same = cached[i] == m[offset + i];
+		}
+		if (same) {
+			skip();
+			return;
+		}
+		gl.glUniformMatrix4fv(location, 1, false, m, offset);
+		System.arraycopy(m, offset, cached, 0, 16);
+		cached[16] = 1f;
+		issue();
+	}
+
+	// Matrix arrays change with every use: always issued, and the first matrix is forgotten so that a
+	// later single-matrix set of the same location is not skipped
+	public void uniformMatrix4fv(int location, int count, float[] m, int offset) {
+		if (location < 0) {
+			return;
+		}
+		current.getUniformValue(location, 16)[16] = 0f;
+		gl.glUniformMatrix4fv(location, count, false, m, offset);
+		issue();
+	}
+
+	//------------------------------------------
+	private void issue() {
+		issued++;
+		if (stats != null) {
+			stats.count(FrameStats.STATE_CHANGES, 1);
+		}
+	}
+
+	private void skip() {
+		skipped++;
+		if (stats != null) {
+			stats.count(FrameStats.REDUNDANT_CALLS, 1);
+		}
+	}
+
+	// 0 for capabilities that are not tracked: those are always issued
+	private static int capBit(int cap) {
+		switch (cap) {
+			case GL_DEPTH_TEST:
+				return 1;
+			case GL_CULL_FACE:
+				return 2;
+			case GL_BLEND:
+				return 4;
+			case GL_SCISSOR_TEST:
+				return 8;
+			default:
+				return 0;
+		}
+	}
+}
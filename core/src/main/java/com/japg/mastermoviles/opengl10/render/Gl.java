@@ -0,0 +1,85 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import java.nio.Buffer;
+
+/* The OpenGL ES calls GLState, ShaderProgram and GLES20Backend make, so that they do not depend on
+*  android.opengl. On a device it is AndroidGl, which forwards each call to GLES20 (or GLES30 for the
+*  instancing ones); tests can record the calls instead.
+*
+*  Same names, arguments and constants as GLES20, for the calls and values used here only.
+*/
+public interface Gl {
+	int GL_TRIANGLES = 0x0004;
+	int GL_DEPTH_BUFFER_BIT = 0x0100;
+	int GL_COLOR_BUFFER_BIT = 0x4000;
+	int GL_CULL_FACE = 0x0B44;
+	int GL_DEPTH_TEST = 0x0B71;
+	int GL_SCISSOR_TEST = 0x0C11;
+	int GL_BLEND = 0x0BE2;
+	int GL_TEXTURE_2D = 0x0DE1;
+	int GL_VERSION = 0x1F02;
+	int GL_EXTENSIONS = 0x1F03;
+	int GL_UNSIGNED_BYTE = 0x1401;
+	int GL_SHORT = 0x1402;
+	int GL_UNSIGNED_SHORT = 0x1403;
+	int GL_UNSIGNED_INT = 0x1405;
+	int GL_FLOAT = 0x1406;
+	int GL_RGBA = 0x1908;
+	int GL_LINEAR = 0x2601;
+	int GL_LINEAR_MIPMAP_LINEAR = 0x2703;
+	int GL_TEXTURE_MAG_FILTER = 0x2800;
+	int GL_TEXTURE_MIN_FILTER = 0x2801;
+	int GL_TEXTURE0 = 0x84C0;
+	int GL_ARRAY_BUFFER = 0x8892;
+	int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+	int GL_STREAM_DRAW = 0x88E0;
+	int GL_STATIC_DRAW = 0x88E4;
+	int GL_MAX_VERTEX_TEXTURE_IMAGE_UNITS = 0x8B4C;
+	int GL_MAX_VERTEX_UNIFORM_VECTORS = 0x8DFB;
+
+	// State
+	void glClearColor(float red, float green, float blue, float alpha);
+	void glClear(int mask);
+	void glViewport(int x, int y, int width, int height);
+	void glEnable(int cap);
+	void glDisable(int cap);
+	void glLineWidth(float width);
+	void glGetIntegerv(int pname, int[] params, int offset);
+	String glGetString(int name);
+
+	// Programs and uniforms
+	void glUseProgram(int program);
+	int glGetUniformLocation(int program, String name);
+	int glGetAttribLocation(int program, String name);
+	void glUniform1i(int location, int x);
+	void glUniform3f(int location, float x, float y, float z);
+	void glUniform4f(int location, float x, float y, float z, float w);
+	void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+
+	// Textures
+	void glGenTextures(int n, int[] textures, int offset);
+	void glActiveTexture(int texture);
+	void glBindTexture(int target, int texture);
+	void glTexParameteri(int target, int pname, int param);
+	void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type,
+			Buffer pixels);
+	void glGenerateMipmap(int target);
+
+	// Buffers and vertex attributes
+	void glGenBuffers(int n, int[] buffers, int offset);
+	void glBindBuffer(int target, int buffer);
+	void glBufferData(int target, int size, Buffer data, int usage);
+	void glEnableVertexAttribArray(int index);
+	void glDisableVertexAttribArray(int index);
+	void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset);
+	void glVertexAttrib1f(int index, float x);
+
+	// Drawing
+	void glDrawArrays(int mode, int first, int count);
+	void glDrawElements(int mode, int count, int type, int offset);
+
+	// ES 3.0 only
+	void glVertexAttribDivisor(int index, int divisor);
+	void glDrawArraysInstanced(int mode, int first, int count, int instanceCount);
+	void glDrawElementsInstanced(int mode, int count, int type, int offset, int instanceCount);
+}
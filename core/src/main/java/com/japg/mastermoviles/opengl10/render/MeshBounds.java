@@ -0,0 +1,346 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import com.japg.mastermoviles.opengl10.math.Frustum;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/* Bounding volumes of one mesh, in model space: an axis-aligned box, a sphere and, for meshes of more
+*  than two clusters, a bounding volume hierarchy over clusters of up to TRIANGLES_PER_CLUSTER triangles.
+*
+*  The hierarchy is built by splitting the triangles in halves along the longest axis of their
+*  centroids. When the mesh buffers are writable the triangles are reordered (index triplets, or
+*  vertex triplets when not indexed) so that every node covers a contiguous range of triangles, which
+*  can then be drawn or skipped with a single draw call. Read-only buffers (memory-mapped .m3d files)
+*  are split in their stored order instead; MeshCacheConverter bakes the reordered triangles, so both
+*  give the same clusters.
+*
+*  cull() is called every frame from the render thread and does not allocate.
+*/
+public final class MeshBounds {
+	public static final int TRIANGLES_PER_CLUSTER = 256;
+	private static final int FLOATS_PER_VERTEX = 8;
+
+	// minX, minY, minZ, maxX, maxY, maxZ
+	private final float[] box = new float[6];
+	private float centerX;
+	private float centerY;
+	private float centerZ;
+	private float radius;
+	private final int triangleCount;
+
+	// Hierarchy in depth-first order: node i + 1 is the first child of i, skip[i] the node after its
+	// subtree. null when the mesh is a single cluster.
+	private float[] nodeBoxes;
+	private int[] nodeFirst;
+	private int[] nodeCount;
+	private int[] nodeSkip;
+	private int nodes;
+	private int clusters;
+	private int culledClusters;
+
+	private MeshBounds(int triangleCount) {
+		this.triangleCount = triangleCount;
+	}
+
+	// vertices: interleaved x, y, z, A, B, C, u, v. indices: ShortBuffer, IntBuffer or null.
+	public static MeshBounds build(FloatBuffer vertices, int vertexCount, Buffer indices, int indexCount) {
+		final int elements = indices != null ? indexCount : vertexCount;
+		final MeshBounds bounds = new MeshBounds(elements / 3);
+
+		final float[] positions = new float[vertexCount * 3];
+		for (int v=0; v<vertexCount; v++) {
+			positions[v * 3] = vertices.get(v * FLOATS_PER_VERTEX);
+			positions[v * 3 + 1] = vertices.get(v * FLOATS_PER_VERTEX + 1);
+			positions[v * 3 + 2] = vertices.get(v * FLOATS_PER_VERTEX + 2);
+		}
+		final int[] corners = new int[elements];
+		for (int i=0; i<elements; i++) {
+			corners[i] = indices == null ? i
+					: indices instanceof IntBuffer ? ((IntBuffer) indices).get(i) : ((ShortBuffer) indices).get(i) & 0xFFFF;
+		}
+
+		computeBox(positions, corners, null, 0, bounds.triangleCount, bounds.box, 0);
+		bounds.centerX = (bounds.box[0] + bounds.box[3]) * 0.5f;
+		bounds.centerY = (bounds.box[1] + bounds.box[4]) * 0.5f;
+		bounds.centerZ = (bounds.box[2] + bounds.box[5]) * 0.5f;
+		float radius2 = 0f;
+		for (int corner : corners) {
+			final float dx = positions[corner * 3] - bounds.centerX;
+			final float dy = positions[corner * 3 + 1] - bounds.centerY;
+			final float dz = positions[corner * 3 + 2] - bounds.centerZ;
+			radius2 = Math.max(radius2, dx * dx + dy * dy + dz * dz);
+		}
+		bounds.radius = (float) Math.sqrt(radius2);
+
+		if (bounds.triangleCount > 2 * TRIANGLES_PER_CLUSTER) {
+			final boolean reorder = !vertices.isReadOnly() && (indices == null || !indices.isReadOnly());
+			final int[] order = new int[bounds.triangleCount];
+			for (int t=0; t<order.length; t++) {
+				order[t] = t;
+			}
+			final float[] centroids = reorder ? centroids(positions, corners) : null;
+			bounds.nodeBoxes = new float[6 * 16];
+			bounds.nodeFirst = new int[16];
+			bounds.nodeCount = new int[16];
+			bounds.nodeSkip = new int[16];
+			bounds.buildNode(positions, corners, centroids, order, 0, bounds.triangleCount);
+			if (reorder) {
+				reorderTriangles(vertices, indices, order);
+			}
+		}
+		return bounds;
+	}
+
+	//------------------------------------------
+	public int getTriangleCount() {
+		return triangleCount;
+	}
+
+	// Clusters of the hierarchy, 1 when there is none
+	public int getClusterCount() {
+		return nodeBoxes != null ? clusters : 1;
+	}
+
+	// Size of the ranges array cull() needs
+	public int getMaxRanges() {
+		return 2 * getClusterCount();
+	}
+
+	// Writes the (first, count) elements of every cluster into ranges (getMaxRanges() entries), in
+	// buffer order, and returns the number of clusters
+	public int getClusterRanges(int[] ranges) {
+		if (nodeBoxes == null) {
+			ranges[0] = 0;
+			ranges[1] = triangleCount * 3;
+			return 1;
+		}
+		int count = 0;
+		for (int node=0; node<nodes; node++) {
+			if (node + 1 == nodeSkip[node]) {
+				ranges[count * 2] = nodeFirst[node] * 3;
+				ranges[count * 2 + 1] = nodeCount[node] * 3;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	// Clusters found outside by the last cull()
+	public int getCulledClusters() {
+		return culledClusters;
+	}
+
+	public float getRadius() {
+		return radius;
+	}
+
+	// xyz: center of the bounding sphere
+	public void getCenter(float[] xyz, int offset) {
+		xyz[offset] = centerX;
+		xyz[offset + 1] = centerY;
+		xyz[offset + 2] = centerZ;
+	}
+
+	// box: minX, minY, minZ, maxX, maxY, maxZ
+	public void getBox(float[] box, int offset) {
+		System.arraycopy(this.box, 0, box, offset, 6);
+	}
+
+	// Whole-mesh test against the sphere and the box, without going down the hierarchy
+	public boolean isVisible(Frustum frustum) {
+		final int sphere = frustum.testSphere(centerX, centerY, centerZ, radius);
+		return sphere == Frustum.INSIDE || (sphere == Frustum.INTERSECTING && frustum.testBox(box, 0) != Frustum.OUTSIDE);
+	}
+
+	// frustum: planes from projection * modelMatrix. Writes the visible parts of the mesh as
+	// (first, count) pairs of elements (indices, or vertices when not indexed) into ranges, adjacent
+	// ones merged, and returns the number of pairs: 0 when the whole mesh is outside.
+	public int cull(Frustum frustum, int[] ranges) {
+		culledClusters = 0;
+		final int sphere = frustum.testSphere(centerX, centerY, centerZ, radius);
+		if (sphere == Frustum.OUTSIDE || (nodeBoxes == null && sphere == Frustum.INTERSECTING
+				&& frustum.testBox(box, 0) == Frustum.OUTSIDE)) {
+			culledClusters = getClusterCount();
+			return 0;
+		}
+		if (sphere == Frustum.INSIDE || nodeBoxes == null) {
+			ranges[0] = 0;
+			ranges[1] = triangleCount * 3;
+			return 1;
+		}
+		int count = 0;
+		int node = 0;
+		while (node < nodes) {
+			final int result = frustum.testBox(nodeBoxes, node * 6);
+			final boolean leaf = node + 1 == nodeSkip[node];
+			if (result == Frustum.OUTSIDE) {
+				culledClusters += leafCount(node);
+			} else if (result == Frustum.INSIDE || leaf) {
+				final int first = nodeFirst[node] * 3;
+				if (count > 0 && ranges[count * 2 - 2] + ranges[count * 2 - 1] == first) {
+					ranges[count * 2 - 1] += nodeCount[node] * 3;
+				} else {
+					ranges[count * 2] = first;
+					ranges[count * 2 + 1] = nodeCount[node] * 3;
+					count++;
+				}
+			} else {
+				node++;
+				continue;
+			}
+			node = nodeSkip[node];
+		}
+		return count;
+	}
+
+	//------------------------------------------
+	// Leaves under node: nodes of a binary tree in depth-first order, (n + 1) / 2 of them leaves
+	private int leafCount(int node) {
+		return (nodeSkip[node] - node + 1) / 2;
+	}
+
+	private int buildNode(float[] positions, int[] corners, float[] centroids, int[] order, int first, int count) {
+		if (nodes == nodeFirst.length) {
+			nodeBoxes = Arrays.copyOf(nodeBoxes, nodes * 12);
+			nodeFirst = Arrays.copyOf(nodeFirst, nodes * 2);
+			nodeCount = Arrays.copyOf(nodeCount, nodes * 2);
+			nodeSkip = Arrays.copyOf(nodeSkip, nodes * 2);
+		}
+		final int node = nodes++;
+		nodeFirst[node] = first;
+		nodeCount[node] = count;
+		if (count <= TRIANGLES_PER_CLUSTER) {
+			computeBox(positions, corners, order, first, count, nodeBoxes, node * 6);
+			clusters++;
+		} else {
+			final int half = count / 2;
+			if (centroids != null) {
+				partition(centroids, order, first, count, half);
+			}
+			final int left = buildNode(positions, corners, centroids, order, first, half);
+			final int right = buildNode(positions, corners, centroids, order, first + half, count - half);
+			for (int c=0; c<3; c++) {
+				nodeBoxes[node * 6 + c] = Math.min(nodeBoxes[left * 6 + c], nodeBoxes[right * 6 + c]);
+				nodeBoxes[node * 6 + 3 + c] = Math.max(nodeBoxes[left * 6 + 3 + c], nodeBoxes[right * 6 + 3 + c]);
+			}
+		}
+		nodeSkip[node] = nodes;
+		return node;
+	}
+
+	// Box of triangles order[first .. first + count) (or first .. first + count when order is null)
+	private static void computeBox(float[] positions, int[] corners, int[] order, int first, int count, float[] out, int offset) {
+		out[offset] = out[offset + 1] = out[offset + 2] = Float.POSITIVE_INFINITY;
+		out[offset + 3] = out[offset + 4] = out[offset + 5] = Float.NEGATIVE_INFINITY;
+		for (int t=first; t<first + count; t++) {
+			final int triangle = order != null ? order[t] : t;
+			for (int k=0; k<3; k++) {
+				final int p = corners[triangle * 3 + k] * 3;
+				for (int c=0; c<3; c++) {
+					out[offset + c] = Math.min(out[offset + c], positions[p + c]);
+					out[offset + 3 + c] = Math.max(out[offset + 3 + c], positions[p + c]);
+				}
+			}
+		}
+	}
+
+	private static float[] centroids(float[] positions, int[] corners) {
+		final float[] centroids = new float[corners.length];
+		for (int i=0; i<corners.length; i+=3) {
+			for (int c=0; c<3; c++) {
+				centroids[i + c] = (positions[corners[i] * 3 + c] + positions[corners[i + 1] * 3 + c]
+						+ positions[corners[i + 2] * 3 + c]) / 3f;
+			}
+		}
+		return centroids;
+	}
+
+	// Reorders order[first .. first + count) so that the first k triangles have the smallest centroids
+	// along the longest axis of the range (quickselect)
+	private static void partition(float[] centroids, int[] order, int first, int count, int k) {
+		float min0 = Float.POSITIVE_INFINITY, min1 = min0, min2 = min0;
+		float max0 = Float.NEGATIVE_INFINITY, max1 = max0, max2 = max0;
+		for (int t=first; t<first + count; t++) {
+			final int c = order[t] * 3;
+			min0 = Math.min(min0, centroids[c]);
+			max0 = Math.max(max0, centroids[c]);
+			min1 = Math.min(min1, centroids[c + 1]);
+			max1 = Math.max(max1, centroids[c + 1]);
+			min2 = Math.min(min2, centroids[c + 2]);
+			max2 = Math.max(max2, centroids[c + 2]);
+		}
+		final float e0 = max0 - min0, e1 = max1 - min1, e2 = max2 - min2;
+		final int axis = e0 >= e1 && e0 >= e2 ? 0 : e1 >= e2 ? 1 : 2;
+
+		int lo = first;
+		int hi = first + count - 1;
+		final int target = first + k;
+		while (lo < hi) {
+			final float pivot = centroids[order[(lo + hi) >>> 1] * 3 + axis];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (centroids[order[i] * 3 + axis] < pivot) {
+					i++;
+				}
+				while (centroids[order[j] * 3 + axis] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					final int swap = order[i];
+					order[i++] = order[j];
+					order[j--] = swap;
+				}
+			}
+			if (target <= j) {
+				hi = j;
+			} else if (target >= i) {
+				lo = i;
+			} else {
+				break;
+			}
+		}
+	}
+
+	// Triangle t of the mesh becomes triangle order[t]
+	private static void reorderTriangles(FloatBuffer vertices, Buffer indices, int[] order) {
+		if (indices instanceof IntBuffer) {
+			final IntBuffer ints = (IntBuffer) indices;
+			final int[] copy = new int[order.length * 3];
+			for (int i=0; i<copy.length; i++) {
+				copy[i] = ints.get(i);
+			}
+			for (int t=0; t<order.length; t++) {
+				for (int k=0; k<3; k++) {
+					ints.put(t * 3 + k, copy[order[t] * 3 + k]);
+				}
+			}
+		} else if (indices != null) {
+			final ShortBuffer shorts = (ShortBuffer) indices;
+			final short[] copy = new short[order.length * 3];
+			for (int i=0; i<copy.length; i++) {
+				copy[i] = shorts.get(i);
+			}
+			for (int t=0; t<order.length; t++) {
+				for (int k=0; k<3; k++) {
+					shorts.put(t * 3 + k, copy[order[t] * 3 + k]);
+				}
+			}
+		} else {
+			final int triangleFloats = 3 * FLOATS_PER_VERTEX;
+			final float[] copy = new float[order.length * triangleFloats];
+			for (int i=0; i<copy.length; i++) {
+				copy[i] = vertices.get(i);
+			}
+			for (int t=0; t<order.length; t++) {
+				for (int f=0; f<triangleFloats; f++) {
+					vertices.put(t * triangleFloats + f, copy[order[t] * triangleFloats + f]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/* Levels of detail of an indexed mesh. Every level is a list of triangles over the same vertices
+*  (see MeshSimplifier), so the levels are stored one after the other in a single index buffer,
+*  level 0 (the original triangles) first, and a level is drawn as a range of that buffer.
+*
+*  select() picks a level from the geometric error of each level projected on the screen, with
+*  some hysteresis so that a model sitting at a threshold does not switch level every frame.
+*/
+public final class MeshLods {
+	public static final int MAX_LEVELS = 4;
+	private static final int FLOATS_PER_VERTEX = 8;
+	// Each level aims at this fraction of the triangles of the previous one
+	private static final float REDUCTION = 0.5f;
+	// Levels that save less than this fraction of the previous one are not kept
+	private static final float MIN_SAVING = 0.25f;
+	// Meshes with fewer triangles keep level 0 only
+	private static final int MIN_TRIANGLES = 256;
+	// A level is chosen once its error is under PIXEL_ERROR * (1 - HYSTERESIS) and left when it goes
+	// over PIXEL_ERROR * (1 + HYSTERESIS)
+	public static final float PIXEL_ERROR = 1f;
+	private static final float HYSTERESIS = 0.25f;
+
+	private final int levels;
+	private final int[] first;
+	private final int[] count;
+	private final float[] error;
+	private final Buffer indices;
+	private final int indexCount;
+
+	private MeshLods(int levels, int[] first, int[] count, float[] error, Buffer indices, int indexCount) {
+		this.levels = levels;
+		this.first = first;
+		this.count = count;
+		this.error = error;
+		this.indices = indices;
+		this.indexCount = indexCount;
+	}
+
+	// vertices: interleaved x, y, z, A, B, C, u, v. indices: ShortBuffer or IntBuffer, level 0.
+	// The indices are copied into a new direct buffer with every level (see getIndices).
+	public static MeshLods generate(FloatBuffer vertices, int vertexCount, Buffer indices, int indexCount) {
+		final int[] level0 = new int[indexCount];
+		for (int i=0; i<indexCount; i++) {
+			level0[i] = indices instanceof IntBuffer ? ((IntBuffer) indices).get(i) : ((ShortBuffer) indices).get(i) & 0xFFFF;
+		}
+		final int[][] lists = new int[MAX_LEVELS][];
+		final float[] error = new float[MAX_LEVELS];
+		lists[0] = level0;
+		int levels = 1;
+		if (indexCount / 3 >= MIN_TRIANGLES) {
+			final float[] data = new float[vertexCount * FLOATS_PER_VERTEX];
+			vertices.duplicate().get(data);
+			final MeshSimplifier simplifier = new MeshSimplifier(data, vertexCount, level0, indexCount);
+			while (levels < MAX_LEVELS) {
+				final int previous = lists[levels - 1].length / 3;
+				final int[] list = simplifier.simplify((int) (previous * REDUCTION));
+				if (list.length / 3 > previous * (1f - MIN_SAVING)) {
+					break;
+				}
+				error[levels] = simplifier.getError();
+				lists[levels++] = list;
+			}
+		}
+
+		final int[] first = new int[levels];
+		final int[] count = new int[levels];
+		int total = 0;
+		for (int l=0; l<levels; l++) {
+			first[l] = total;
+			count[l] = lists[l].length;
+			total += count[l];
+		}
+		final Buffer all;
+		if (indices instanceof IntBuffer) {
+			final IntBuffer ints = ByteBuffer.allocateDirect(total * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+			for (int l=0; l<levels; l++) {
+				ints.put(lists[l]);
+			}
+			all = ints.position(0);
+		} else {
+			final ShortBuffer shorts = ByteBuffer.allocateDirect(total * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+			for (int l=0; l<levels; l++) {
+				for (int index : lists[l]) {
+					shorts.put((short) index);
+				}
+			}
+			all = shorts.position(0);
+		}
+		return new MeshLods(levels, first, count, error, all, total);
+	}
+
+	// Levels generated earlier and stored elsewhere (see MeshCache): range and error of each level over
+	// indices, which is kept as it is (e.g. a read-only view of a mapped file)
+	public static MeshLods of(int levels, int[] first, int[] count, float[] error, Buffer indices, int indexCount) {
+		if (levels < 1 || levels > MAX_LEVELS) {
+			throw new IllegalArgumentException("Level count out of range: " + levels);
+		}
+		for (int l=0; l<levels; l++) {
+			if (first[l] < 0 || count[l] < 0 || first[l] + count[l] > indexCount) {
+				throw new IllegalArgumentException("Level " + l + " outside the indices: " + first[l] + "+" + count[l]);
+			}
+		}
+		return new MeshLods(levels, Arrays.copyOf(first, levels), Arrays.copyOf(count, levels), Arrays.copyOf(error, levels),
+				indices, indexCount);
+	}
+
+	public int getLevelCount() {
+		return levels;
+	}
+
+	// Range of the level in the index buffer, in indices
+	public int getFirst(int level) {
+		return first[level];
+	}
+
+	public int getCount(int level) {
+		return count[level];
+	}
+
+	// Geometric error of the level in model units (0 for level 0)
+	public float getError(int level) {
+		return error[level];
+	}
+
+	// Every level, level 0 first, positioned at 0
+	public Buffer getIndices() {
+		return indices;
+	}
+
+	public int getIndexCount() {
+		return indexCount;
+	}
+
+	// current: level drawn last frame. pixelsPerUnit: screen pixels covered by one model unit at the
+	// distance of the mesh (viewport height / 2 * projection[5] / distance).
+	public int select(int current, float pixelsPerUnit) {
+		// Coarser while the next level is comfortably under the threshold
+		int level = Math.min(current, levels - 1);
+		while (level + 1 < levels && error[level + 1] * pixelsPerUnit < PIXEL_ERROR * (1f - HYSTERESIS)) {
+			level++;
+		}
+		// Finer while the current one is clearly over it
+		while (level > 0 && error[level] * pixelsPerUnit > PIXEL_ERROR * (1f + HYSTERESIS)) {
+			level--;
+		}
+		return level;
+	}
+}
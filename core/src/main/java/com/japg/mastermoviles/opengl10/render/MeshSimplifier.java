@@ -0,0 +1,483 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import java.util.Arrays;
+
+/* Quadric error metric simplification (Garland & Heckbert) of an indexed triangle mesh by half-edge
+*  collapses: a point u is merged into a neighbour v, so the result only references vertices of the
+*  input and every level of detail can share the original vertex buffer.
+*
+*  Topology works on points, i.e. vertices welded by position: the meshes of Resource3DSReader have
+*  a vertex per corner almost everywhere (normals differ slightly), so collapsing vertices alone would
+*  open cracks. When u moves to v, each corner of u takes the vertex of v with the closest normal
+*  and texture coordinates. Points on open borders never move, which keeps the outline of open meshes
+*  in place, and a collapse is rejected when it would flip a triangle or make the mesh non-manifold.
+*
+*  simplify() can be called repeatedly with decreasing targets; each call continues from the
+*  previous result, so a whole LOD chain costs a single simplification.
+*/
+public final class MeshSimplifier {
+	private static final int FLOATS_PER_VERTEX = 8;
+	// Quadric: the 10 coefficients of a symmetric 4x4 matrix, then the summed area
+	private static final int Q = 11;
+	// Normals of the triangles around a collapse must not turn by more than ~80 degrees
+	private static final double MIN_NORMAL_DOT = 0.2;
+
+	private final float[] vertices;
+	// Welded positions: point of each vertex, and the vertices of each point (pointVertices from
+	// pointStart[p] to pointStart[p + 1])
+	private final int[] pointOf;
+	private float[] positions;
+	private int[] pointStart;
+	private int[] pointVertices;
+	private int pointCount;
+
+	// Per corner: vertex and point
+	private final int[] indices;
+	private final int[] corners;
+	private int triangles;
+	private final boolean[] removedTriangle;
+
+	// Per point
+	private boolean[] locked;
+	private boolean[] removedPoint;
+	private int[] version;
+	private double[] quadrics;
+	// Triangles around each point (may include removed ones)
+	private int[][] pointTriangles;
+	private int[] pointTriangleCount;
+	private double maxCost;
+	private double maxError;
+
+	// Candidate collapses, a binary min-heap on cost. Entries are checked against version when popped.
+	private float[] heapCost = new float[1024];
+	private int[] heapFrom = new int[1024];
+	private int[] heapTo = new int[1024];
+	private int[] heapVersion = new int[1024 * 2];
+	private int heapSize;
+
+	// Scratch marks for the manifold test
+	private int[] mark;
+	private int markStamp;
+
+	// vertices: interleaved x, y, z, A, B, C, u, v (not modified). indices: indexCount / 3 triangles.
+	public MeshSimplifier(float[] vertices, int vertexCount, int[] indices, int indexCount) {
+		this.vertices = vertices;
+		this.indices = Arrays.copyOf(indices, indexCount);
+		pointOf = new int[vertexCount];
+		weld(vertexCount);
+
+		corners = new int[indexCount];
+		triangles = indexCount / 3;
+		removedTriangle = new boolean[triangles];
+		for (int t=0; t<removedTriangle.length; t++) {
+			for (int k=0; k<3; k++) {
+				corners[t * 3 + k] = pointOf[indices[t * 3 + k]];
+			}
+			if (corners[t * 3] == corners[t * 3 + 1] || corners[t * 3 + 1] == corners[t * 3 + 2]
+					|| corners[t * 3] == corners[t * 3 + 2]) {
+				removedTriangle[t] = true;
+				triangles--;
+			}
+		}
+		locked = new boolean[pointCount];
+		removedPoint = new boolean[pointCount];
+		version = new int[pointCount];
+		quadrics = new double[pointCount * Q];
+		mark = new int[pointCount];
+
+		buildAdjacency();
+		lockBorders();
+		for (int t=0; t<removedTriangle.length; t++) {
+			if (!removedTriangle[t]) {
+				addTriangleQuadric(t);
+			}
+		}
+		for (int t=0; t<removedTriangle.length; t++) {
+			if (removedTriangle[t]) {
+				continue;
+			}
+			for (int k=0; k<3; k++) {
+				final int u = corners[t * 3 + k];
+				final int v = corners[t * 3 + (k + 1) % 3];
+				pushCollapse(u, v);
+				pushCollapse(v, u);
+			}
+		}
+	}
+
+	public int getTriangleCount() {
+		return triangles;
+	}
+
+	// Largest geometric error introduced so far, in model units (an estimate of the distance between
+	// the simplified surface and the original one)
+	public float getError() {
+		return (float) maxError;
+	}
+
+	// Collapses edges, cheapest first, until at most targetTriangles are left or no valid collapse
+	// remains. Returns the remaining triangles as indices into the original vertices.
+	public int[] simplify(int targetTriangles) {
+		while (triangles > targetTriangles && heapSize > 0) {
+			final int from = heapFrom[0];
+			final int to = heapTo[0];
+			final int fromVersion = heapVersion[0];
+			final int toVersion = heapVersion[1];
+			final float cost = heapCost[0];
+			popHeap();
+			if (removedPoint[from] || removedPoint[to] || version[from] != fromVersion || version[to] != toVersion) {
+				continue;
+			}
+			if (!canCollapse(from, to)) {
+				continue;
+			}
+			collapse(from, to);
+			if (cost > maxCost) {
+				maxCost = cost;
+				final double area = quadrics[to * Q + 10];
+				maxError = Math.max(maxError, Math.sqrt(cost / Math.max(area, 1e-12)));
+			}
+		}
+
+		final int[] out = new int[triangles * 3];
+		int n = 0;
+		for (int t=0; t<removedTriangle.length; t++) {
+			if (!removedTriangle[t]) {
+				System.arraycopy(indices, t * 3, out, n, 3);
+				n += 3;
+			}
+		}
+		return out;
+	}
+
+	//------------------------------------------
+	private void weld(int vertexCount) {
+		// Open addressing on the position bits; table holds point + 1, 0 = free
+		final int capacity = Integer.highestOneBit(Math.max(vertexCount, 1) * 2 - 1) << 1;
+		final int[] table = new int[capacity];
+		positions = new float[vertexCount * 3];
+		final int[] sizes = new int[vertexCount + 1];
+		for (int v=0; v<vertexCount; v++) {
+			final int o = v * FLOATS_PER_VERTEX;
+			final int x = Float.floatToIntBits(vertices[o]);
+			final int y = Float.floatToIntBits(vertices[o + 1]);
+			final int z = Float.floatToIntBits(vertices[o + 2]);
+			int slot = ((x * 73856093) ^ (y * 19349663) ^ (z * 83492791)) & (capacity - 1);
+			int point = -1;
+			while (table[slot] != 0) {
+				final int p = table[slot] - 1;
+				if (Float.floatToIntBits(positions[p * 3]) == x && Float.floatToIntBits(positions[p * 3 + 1]) == y
+						&& Float.floatToIntBits(positions[p * 3 + 2]) == z) {
+					point = p;
+					break;
+				}
+				slot = (slot + 1) & (capacity - 1);
+			}
+			if (point < 0) {
+				point = pointCount++;
+				table[slot] = point + 1;
+				System.arraycopy(vertices, o, positions, point * 3, 3);
+			}
+			pointOf[v] = point;
+			sizes[point + 1]++;
+		}
+		pointStart = new int[pointCount + 1];
+		for (int p=0; p<pointCount; p++) {
+			pointStart[p + 1] = pointStart[p] + sizes[p + 1];
+		}
+		pointVertices = new int[vertexCount];
+		final int[] fill = Arrays.copyOf(pointStart, pointCount);
+		for (int v=0; v<vertexCount; v++) {
+			pointVertices[fill[pointOf[v]]++] = v;
+		}
+	}
+
+	private void buildAdjacency() {
+		pointTriangleCount = new int[pointCount];
+		for (int t=0; t<removedTriangle.length; t++) {
+			if (!removedTriangle[t]) {
+				for (int k=0; k<3; k++) {
+					pointTriangleCount[corners[t * 3 + k]]++;
+				}
+			}
+		}
+		pointTriangles = new int[pointCount][];
+		for (int p=0; p<pointCount; p++) {
+			pointTriangles[p] = new int[Math.max(pointTriangleCount[p], 1)];
+			pointTriangleCount[p] = 0;
+		}
+		for (int t=0; t<removedTriangle.length; t++) {
+			if (!removedTriangle[t]) {
+				for (int k=0; k<3; k++) {
+					final int p = corners[t * 3 + k];
+					pointTriangles[p][pointTriangleCount[p]++] = t;
+				}
+			}
+		}
+	}
+
+	// An edge u -> v used by a single triangle is on a border: both ends are locked
+	private void lockBorders() {
+		for (int u=0; u<pointCount; u++) {
+			for (int i=0; i<pointTriangleCount[u]; i++) {
+				final int t = pointTriangles[u][i];
+				final int v = corners[t * 3 + (cornerOf(t, u) + 1) % 3];
+				// The opposite half-edge v -> u has to be in some triangle of v
+				boolean twin = false;
+				for (int j=0; j<pointTriangleCount[v] && !twin; j++) {
+					final int s = pointTriangles[v][j];
+					twin = corners[s * 3 + (cornerOf(s, v) + 1) % 3] == u;
+				}
+				if (!twin) {
+					locked[u] = true;
+					locked[v] = true;
+				}
+			}
+		}
+	}
+
+	private int cornerOf(int t, int p) {
+		return corners[t * 3] == p ? 0 : corners[t * 3 + 1] == p ? 1 : 2;
+	}
+
+	private boolean hasPoint(int t, int p) {
+		return corners[t * 3] == p || corners[t * 3 + 1] == p || corners[t * 3 + 2] == p;
+	}
+
+	// Vertex of point whose normal and texture coordinates are closest to those of vertex
+	private int closestVertex(int point, int vertex) {
+		final int o = vertex * FLOATS_PER_VERTEX;
+		int best = pointVertices[pointStart[point]];
+		float bestDistance = Float.MAX_VALUE;
+		for (int i=pointStart[point]; i<pointStart[point + 1]; i++) {
+			final int candidate = pointVertices[i] * FLOATS_PER_VERTEX;
+			float distance = 0f;
+			for (int c=3; c<FLOATS_PER_VERTEX; c++) {
+				final float d = vertices[candidate + c] - vertices[o + c];
+				distance += d * d;
+			}
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = pointVertices[i];
+			}
+		}
+		return best;
+	}
+
+	private void addTriangleQuadric(int t) {
+		final int a = corners[t * 3] * 3, b = corners[t * 3 + 1] * 3, c = corners[t * 3 + 2] * 3;
+		final double ux = positions[b] - positions[a], uy = positions[b + 1] - positions[a + 1], uz = positions[b + 2] - positions[a + 2];
+		final double vx = positions[c] - positions[a], vy = positions[c + 1] - positions[a + 1], vz = positions[c + 2] - positions[a + 2];
+		double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+		final double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if (length == 0) {
+			return;
+		}
+		final double area = length * 0.5;
+		nx /= length;
+		ny /= length;
+		nz /= length;
+		final double d = -(nx * positions[a] + ny * positions[a + 1] + nz * positions[a + 2]);
+		for (int k=0; k<3; k++) {
+			final int q = corners[t * 3 + k] * Q;
+			quadrics[q] += area * nx * nx;
+			quadrics[q + 1] += area * nx * ny;
+			quadrics[q + 2] += area * nx * nz;
+			quadrics[q + 3] += area * nx * d;
+			quadrics[q + 4] += area * ny * ny;
+			quadrics[q + 5] += area * ny * nz;
+			quadrics[q + 6] += area * ny * d;
+			quadrics[q + 7] += area * nz * nz;
+			quadrics[q + 8] += area * nz * d;
+			quadrics[q + 9] += area * d * d;
+			quadrics[q + 10] += area;
+		}
+	}
+
+	// Error of moving from onto the position of to, with the quadrics of both
+	private double cost(int from, int to) {
+		final double x = positions[to * 3], y = positions[to * 3 + 1], z = positions[to * 3 + 2];
+		final int a = from * Q, b = to * Q;
+		final double q0 = quadrics[a] + quadrics[b], q1 = quadrics[a + 1] + quadrics[b + 1];
+		final double q2 = quadrics[a + 2] + quadrics[b + 2], q3 = quadrics[a + 3] + quadrics[b + 3];
+		final double q4 = quadrics[a + 4] + quadrics[b + 4], q5 = quadrics[a + 5] + quadrics[b + 5];
+		final double q6 = quadrics[a + 6] + quadrics[b + 6], q7 = quadrics[a + 7] + quadrics[b + 7];
+		final double q8 = quadrics[a + 8] + quadrics[b + 8], q9 = quadrics[a + 9] + quadrics[b + 9];
+		final double e = q0 * x * x + 2 * q1 * x * y + 2 * q2 * x * z + 2 * q3 * x
+				+ q4 * y * y + 2 * q5 * y * z + 2 * q6 * y
+				+ q7 * z * z + 2 * q8 * z + q9;
+		return Math.max(e, 0.0);
+	}
+
+	private boolean canCollapse(int from, int to) {
+		// Link condition: the only vertices next to both ends are the ones opposite the edge
+		markStamp++;
+		boolean adjacent = false;
+		for (int i=0; i<pointTriangleCount[to]; i++) {
+			final int t = pointTriangles[to][i];
+			if (!removedTriangle[t]) {
+				for (int k=0; k<3; k++) {
+					mark[corners[t * 3 + k]] = markStamp;
+				}
+			}
+		}
+		int shared = 0;
+		int edgeTriangles = 0;
+		for (int i=0; i<pointTriangleCount[from]; i++) {
+			final int t = pointTriangles[from][i];
+			if (removedTriangle[t]) {
+				continue;
+			}
+			if (hasPoint(t, to)) {
+				adjacent = true;
+				edgeTriangles++;
+				continue;
+			}
+			for (int k=0; k<3; k++) {
+				final int w = corners[t * 3 + k];
+				if (w != from && mark[w] == markStamp) {
+					shared++;
+					mark[w] = 0;
+				}
+			}
+			if (flips(t, from, to)) {
+				return false;
+			}
+		}
+		// Opposite vertices of the edge triangles are seen once each among the other triangles
+		return adjacent && shared <= edgeTriangles;
+	}
+
+	// Whether moving from to the position of to turns triangle t over (or makes it degenerate)
+	private boolean flips(int t, int from, int to) {
+		final int k = cornerOf(t, from);
+		final int b = corners[t * 3 + (k + 1) % 3] * 3;
+		final int c = corners[t * 3 + (k + 2) % 3] * 3;
+		final int a0 = from * 3, a1 = to * 3;
+		final double ex = positions[c] - positions[b], ey = positions[c + 1] - positions[b + 1], ez = positions[c + 2] - positions[b + 2];
+		// Normal before and after: (b - a) x (c - b) with the old and new a
+		final double ux = positions[b] - positions[a0], uy = positions[b + 1] - positions[a0 + 1], uz = positions[b + 2] - positions[a0 + 2];
+		final double vx = positions[b] - positions[a1], vy = positions[b + 1] - positions[a1 + 1], vz = positions[b + 2] - positions[a1 + 2];
+		final double n0x = uy * ez - uz * ey, n0y = uz * ex - ux * ez, n0z = ux * ey - uy * ex;
+		final double n1x = vy * ez - vz * ey, n1y = vz * ex - vx * ez, n1z = vx * ey - vy * ex;
+		final double l0 = Math.sqrt(n0x * n0x + n0y * n0y + n0z * n0z);
+		final double l1 = Math.sqrt(n1x * n1x + n1y * n1y + n1z * n1z);
+		if (l1 == 0) {
+			return true;
+		}
+		return l0 > 0 && (n0x * n1x + n0y * n1y + n0z * n1z) < MIN_NORMAL_DOT * l0 * l1;
+	}
+
+	private void collapse(int from, int to) {
+		for (int i=0; i<pointTriangleCount[from]; i++) {
+			final int t = pointTriangles[from][i];
+			if (removedTriangle[t]) {
+				continue;
+			}
+			if (hasPoint(t, to)) {
+				removedTriangle[t] = true;
+				triangles--;
+			} else {
+				final int c = t * 3 + cornerOf(t, from);
+				corners[c] = to;
+				indices[c] = closestVertex(to, indices[c]);
+				addPointTriangle(to, t);
+			}
+		}
+		removedPoint[from] = true;
+		for (int q=0; q<Q; q++) {
+			quadrics[to * Q + q] += quadrics[from * Q + q];
+		}
+		version[to]++;
+		compactPointTriangles(to);
+
+		// The cost of every edge around to has changed
+		for (int i=0; i<pointTriangleCount[to]; i++) {
+			final int t = pointTriangles[to][i];
+			for (int k=0; k<3; k++) {
+				final int w = corners[t * 3 + k];
+				if (w != to) {
+					pushCollapse(w, to);
+					pushCollapse(to, w);
+				}
+			}
+		}
+	}
+
+	private void addPointTriangle(int p, int t) {
+		if (pointTriangleCount[p] == pointTriangles[p].length) {
+			pointTriangles[p] = Arrays.copyOf(pointTriangles[p], pointTriangleCount[p] * 2);
+		}
+		pointTriangles[p][pointTriangleCount[p]++] = t;
+	}
+
+	private void compactPointTriangles(int p) {
+		int n = 0;
+		for (int i=0; i<pointTriangleCount[p]; i++) {
+			final int t = pointTriangles[p][i];
+			if (!removedTriangle[t]) {
+				pointTriangles[p][n++] = t;
+			}
+		}
+		pointTriangleCount[p] = n;
+	}
+
+	//------------------------------------------
+	private void pushCollapse(int from, int to) {
+		if (locked[from]) {
+			return;
+		}
+		if (heapSize == heapCost.length) {
+			heapCost = Arrays.copyOf(heapCost, heapSize * 2);
+			heapFrom = Arrays.copyOf(heapFrom, heapSize * 2);
+			heapTo = Arrays.copyOf(heapTo, heapSize * 2);
+			heapVersion = Arrays.copyOf(heapVersion, heapSize * 4);
+		}
+		final float cost = (float) cost(from, to);
+		int i = heapSize++;
+		while (i > 0) {
+			final int parent = (i - 1) >> 1;
+			if (heapCost[parent] <= cost) {
+				break;
+			}
+			moveHeap(parent, i);
+			i = parent;
+		}
+		heapCost[i] = cost;
+		heapFrom[i] = from;
+		heapTo[i] = to;
+		heapVersion[i * 2] = version[from];
+		heapVersion[i * 2 + 1] = version[to];
+	}
+
+	private void popHeap() {
+		final int last = --heapSize;
+		final float cost = heapCost[last];
+		int i = 0;
+		while (true) {
+			int child = i * 2 + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && heapCost[child + 1] < heapCost[child]) {
+				child++;
+			}
+			if (heapCost[child] >= cost) {
+				break;
+			}
+			moveHeap(child, i);
+			i = child;
+		}
+		if (heapSize > 0) {
+			moveHeap(last, i);
+		}
+	}
+
+	private void moveHeap(int from, int to) {
+		heapCost[to] = heapCost[from];
+		heapFrom[to] = heapFrom[from];
+		heapTo[to] = heapTo[from];
+		heapVersion[to * 2] = heapVersion[from * 2];
+		heapVersion[to * 2 + 1] = heapVersion[from * 2 + 1];
+	}
+}
@@ -0,0 +1,188 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/* Compact form of the interleaved x, y, z, A, B, C, u, v vertices: 16 bytes per vertex instead of 32,
+*  all of it normalized 16-bit integers that OpenGL ES 2.0 reads natively.
+*
+*    bytes  0-5   position, unorm16 x3, quantized against the box of the mesh
+*    bytes  6-7   (padding, keeps the next attribute 4-byte aligned)
+*    bytes  8-11  normal, snorm16 x2, octahedral encoding
+*    bytes 12-15  uv, unorm16 x2, quantized against the uv range of the mesh
+*
+*  The shader turns them back with getPositionScale/Offset and getUVScale/Offset, and decodes the
+*  normal. Worst case errors: half a step of 1/65535 of the box (or uv range) per axis, and about
+*  0.005 degrees for normals.
+*/
+public final class PackedVertices {
+	public static final int STRIDE = 16;
+	public static final int POSITION_OFFSET = 0;
+	public static final int NORMAL_OFFSET = 8;
+	public static final int UV_OFFSET = 12;
+	private static final int FLOATS_PER_VERTEX = 8;
+	private static final int SHORTS_PER_VERTEX = STRIDE / 2;
+	private static final float UNORM16 = 65535f;
+	private static final float SNORM16 = 32767f;
+
+	private final ByteBuffer data;
+	private final int vertexCount;
+	private final float[] positionScale;
+	private final float[] positionOffset;
+	private final float[] uvScale;
+	private final float[] uvOffset;
+
+	private PackedVertices(ByteBuffer data, int vertexCount, float[] positionScale, float[] positionOffset,
+			float[] uvScale, float[] uvOffset) {
+		this.data = data;
+		this.vertexCount = vertexCount;
+		this.positionScale = positionScale;
+		this.positionOffset = positionOffset;
+		this.uvScale = uvScale;
+		this.uvOffset = uvOffset;
+	}
+
+	// vertices: interleaved x, y, z, A, B, C, u, v; read from 0 without moving its position
+	public static PackedVertices pack(FloatBuffer vertices, int vertexCount) {
+		final float[] source = new float[vertexCount * FLOATS_PER_VERTEX];
+		final FloatBuffer read = vertices.duplicate();
+		read.position(0);
+		read.get(source);
+
+		final float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+		final float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		for (int c=0; c<5; c++) {
+			// x, y, z, then u, v
+			final int component = c < 3 ? c : c + 3;
+			float low = min[c], high = max[c];
+			for (int i=component; i<source.length; i+=FLOATS_PER_VERTEX) {
+				final float value = source[i];
+				if (value < low) {
+					low = value;
+				}
+				if (value > high) {
+					high = value;
+				}
+			}
+			min[c] = low;
+			max[c] = high;
+		}
+		// A flat axis (or no vertices) still needs a scale that can be divided by
+		final float[] positionOffset = new float[3];
+		final float[] positionScale = new float[3];
+		final float[] uvOffset = new float[2];
+		final float[] uvScale = new float[2];
+		final float[] toUnorm = new float[5];
+		for (int c=0; c<5; c++) {
+			final float offset = vertexCount > 0 ? min[c] : 0f;
+			final float range = vertexCount > 0 && max[c] > min[c] ? max[c] - min[c] : 1f;
+			if (c < 3) {
+				positionOffset[c] = offset;
+				positionScale[c] = range;
+			} else {
+				uvOffset[c - 3] = offset;
+				uvScale[c - 3] = range;
+			}
+			toUnorm[c] = UNORM16 / range;
+		}
+
+		// Written as shorts, 8 per vertex, and copied to the direct buffer in one go
+		final short[] packed = new short[vertexCount * SHORTS_PER_VERTEX];
+		for (int v=0; v<vertexCount; v++) {
+			final int base = v * FLOATS_PER_VERTEX;
+			final int out = v * SHORTS_PER_VERTEX;
+			packed[out] = unorm(source[base], positionOffset[0], toUnorm[0]);
+			packed[out + 1] = unorm(source[base + 1], positionOffset[1], toUnorm[1]);
+			packed[out + 2] = unorm(source[base + 2], positionOffset[2], toUnorm[2]);
+			packNormal(packed, out + NORMAL_OFFSET / 2, source[base + 3], source[base + 4], source[base + 5]);
+			packed[out + UV_OFFSET / 2] = unorm(source[base + 6], uvOffset[0], toUnorm[3]);
+			packed[out + UV_OFFSET / 2 + 1] = unorm(source[base + 7], uvOffset[1], toUnorm[4]);
+		}
+		final ByteBuffer data = ByteBuffer.allocateDirect(vertexCount * STRIDE).order(ByteOrder.nativeOrder());
+		data.asShortBuffer().put(packed);
+		return new PackedVertices(data, vertexCount, positionScale, positionOffset, uvScale, uvOffset);
+	}
+
+	private static short unorm(float value, float offset, float toUnorm) {
+		final float t = (value - offset) * toUnorm;
+		return (short) (int) ((t < 0f ? 0f : t > UNORM16 ? UNORM16 : t) + 0.5f);
+	}
+
+	// Octahedral: the unit sphere folded onto the |x| + |y| <= 1 square
+	private static void packNormal(short[] packed, int at, float x, float y, float z) {
+		final float sum = Math.abs(x) + Math.abs(y) + Math.abs(z);
+		float px = 0f, py = 0f;
+		if (sum > 0f) {
+			final float scale = 1f / sum;
+			px = x * scale;
+			py = y * scale;
+			if (z < 0f) {
+				final float fx = (1f - Math.abs(py)) * (px >= 0f ? 1f : -1f);
+				final float fy = (1f - Math.abs(px)) * (py >= 0f ? 1f : -1f);
+				px = fx;
+				py = fy;
+			}
+		}
+		packed[at] = snorm(px);
+		packed[at + 1] = snorm(py);
+	}
+
+	private static short snorm(float value) {
+		final float t = (value < -1f ? -1f : value > 1f ? 1f : value) * SNORM16;
+		return (short) (int) (t + (t >= 0f ? 0.5f : -0.5f));
+	}
+
+	// Back to x, y, z, A, B, C, u, v (the normal unit length), as the shader does it
+	public void unpack(float[] out) {
+		for (int v=0; v<vertexCount; v++) {
+			final int in = v * STRIDE;
+			final int base = v * FLOATS_PER_VERTEX;
+			for (int c=0; c<3; c++) {
+				out[base + c] = (data.getShort(in + POSITION_OFFSET + c * 2) & 0xFFFF) / UNORM16 * positionScale[c] + positionOffset[c];
+			}
+			float nx = Math.max(-1f, data.getShort(in + NORMAL_OFFSET) / SNORM16);
+			float ny = Math.max(-1f, data.getShort(in + NORMAL_OFFSET + 2) / SNORM16);
+			final float nz = 1f - Math.abs(nx) - Math.abs(ny);
+			if (nz < 0f) {
+				final float fx = (1f - Math.abs(ny)) * (nx >= 0f ? 1f : -1f);
+				final float fy = (1f - Math.abs(nx)) * (ny >= 0f ? 1f : -1f);
+				nx = fx;
+				ny = fy;
+			}
+			final float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+			out[base + 3] = nx / length;
+			out[base + 4] = ny / length;
+			out[base + 5] = nz / length;
+			for (int c=0; c<2; c++) {
+				out[base + 6 + c] = (data.getShort(in + UV_OFFSET + c * 2) & 0xFFFF) / UNORM16 * uvScale[c] + uvOffset[c];
+			}
+		}
+	}
+
+	// STRIDE bytes per vertex, native order, positioned at 0
+	public ByteBuffer getData() {
+		return data;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	// Model coordinate of axis c = unorm * scale + offset (likewise for uvs)
+	public float getPositionScale(int c) {
+		return positionScale[c];
+	}
+
+	public float getPositionOffset(int c) {
+		return positionOffset[c];
+	}
+
+	public float getUVScale(int c) {
+		return uvScale[c];
+	}
+
+	public float getUVOffset(int c) {
+		return uvOffset[c];
+	}
+}
@@ -0,0 +1,66 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import com.japg.mastermoviles.opengl10.perf.FrameStats;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+
+/* What ModelObject needs to put its meshes on screen, so the same scene can be drawn by OpenGL
+*  (GLES20Backend) or on the CPU (SoftwareRasterizer).
+*
+*  Meshes use the interleaved layout produced by Resource3DSReader: 8 floats per vertex
+*  (x, y, z, A, B, C, u, v) or their 16-byte PackedVertices form, optionally indexed, and are lit
+*  with the two-light Phong model of specular_vertex_shader.glsl. Meshes and textures are referred
+*  to by int handles, 0 meaning none. Textures are named by the app's drawable resource ids, which
+*  each backend resolves on its own (see GLTextureSource and SoftwareRasterizer).
+*/
+public interface RenderBackend {
+
+	// (Re)creates the backend state for a new surface. Mesh handles created before are no longer
+	// valid; texture handles are (the backend recreates the textures if it has to).
+	void init();
+
+	void setViewport(int width, int height);
+
+	// Draw calls, vertices and state changes are added to stats from now on (null to stop counting)
+	void setFrameStats(FrameStats stats);
+
+	// Clears color and depth. Draw calls go between beginFrame and endFrame.
+	void beginFrame();
+
+	void endFrame();
+
+	// The backend may share one texture between equal resources; release every handle returned once
+	int loadTexture(int resourceId);
+
+	// argb: width*height pixels, top row first (same as Bitmap.getPixels)
+	int createTexture(int width, int height, int[] argb);
+
+	void releaseTexture(int texture);
+
+	// indices: ShortBuffer, IntBuffer, or null to draw the vertices as a plain triangle list.
+	// Buffers are read from position 0 and may be released by the caller once this returns.
+	int createMesh(FloatBuffer vertices, int vertexCount, Buffer indices, int indexCount);
+
+	// Same as createMesh, for meshes drawn with drawMeshInstances (which may need extra buffers,
+	// built while the vertices are at hand)
+	int createInstancedMesh(FloatBuffer vertices, int vertexCount, Buffer indices, int indexCount);
+
+	// Same as createMesh, with the vertices in the 16-byte layout of PackedVertices. Drawn with
+	// drawMesh and drawMeshRanges only, not with drawMeshInstances.
+	int createPackedMesh(PackedVertices vertices, Buffer indices, int indexCount);
+
+	// Matrices are column-major; mvMatrix transforms to eye space, where the lights are defined
+	void drawMesh(int mesh, int texture, float[] mvpMatrix, float[] mvMatrix, float r, float g, float b, float a);
+
+	// Draws only part of the mesh: rangeCount (first, count) pairs of elements (indices, or vertices
+	// when not indexed) in ranges, as written by MeshBounds.cull. One draw call per range.
+	void drawMeshRanges(int mesh, int[] ranges, int rangeCount, int texture, float[] mvpMatrix, float[] mvMatrix,
+			float r, float g, float b, float a);
+
+	// Draws instanceCount copies of a mesh from createInstancedMesh, copy i placed by the column-major
+	// model-view matrix at modelMatrices[i * 16]. Uniforms, texture and vertex state are set once,
+	// with as few draw calls as the GL version allows.
+	void drawMeshInstances(int mesh, int texture, float[] projectionMatrix, float[] modelMatrices, int instanceCount,
+			float r, float g, float b, float a);
+}
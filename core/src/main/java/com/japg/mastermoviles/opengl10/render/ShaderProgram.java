@@ -0,0 +1,58 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/* A linked program handed out by ProgramCache. Uniform and attribute locations are looked up in GL
+*  once per name and remembered, so every user of the program can ask for them freely. It also holds
+*  the last values GLState set on its uniforms, which GL keeps per program.
+*  Only valid in the EGL context that created it.
+*/
+public final class ShaderProgram {
+	private final Gl gl;
+	private final int id;
+	private final HashMap<String, Integer> uniforms = new HashMap<>();
+	private final HashMap<String, Integer> attributes = new HashMap<>();
+	// By location (drivers hand out small ones): the value, then 1 once it is known
+	private float[][] uniformValues = new float[0][];
+
+	ShaderProgram(Gl gl, int id) {
+		this.gl = gl;
+		this.id = id;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public int getUniformLocation(String name) {
+		Integer location = uniforms.get(name);
+		if (location == null) {
+			location = gl.glGetUniformLocation(id, name);
+			uniforms.put(name, location);
+		}
+		return location;
+	}
+
+	public int getAttribLocation(String name) {
+		Integer location = attributes.get(name);
+		if (location == null) {
+			location = gl.glGetAttribLocation(id, name);
+			attributes.put(name, location);
+		}
+		return location;
+	}
+
+	// Last value set on the uniform at location, of size floats, for GLState
+	float[] getUniformValue(int location, int size) {
+		if (location >= uniformValues.length) {
+			uniformValues = Arrays.copyOf(uniformValues, Math.max(location + 1, uniformValues.length * 2));
+		}
+		float[] value = uniformValues[location];
+		if (value == null) {
+			value = new float[size + 1];
+			uniformValues[location] = value;
+		}
+		return value;
+	}
+}
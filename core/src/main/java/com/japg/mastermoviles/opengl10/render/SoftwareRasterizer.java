@@ -0,0 +1,648 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import com.japg.mastermoviles.opengl10.math.Mat4;
+import com.japg.mastermoviles.opengl10.perf.FrameStats;
+import com.japg.mastermoviles.opengl10.texture.KtxFile;
+import com.japg.mastermoviles.opengl10.util.LoggerConfig;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+/* CPU implementation of RenderBackend, in plain Java so that scenes can be rendered (and compared
+*  with golden images) on any JVM.
+*
+*  It follows what the GLES20 path does: per-vertex lighting exactly as in specular_vertex_shader.glsl
+*  (texture sampled bilinearly at level 0, two attenuated point lights, Phong exponent 200), clipping
+*  against the view frustum, back-face culling (CCW front faces), GL_LESS depth test and perspective
+*  correct interpolation of the vertex color.
+*
+*  drawMesh shades the vertices in parallel and bins the resulting triangles into TILE_SIZE x TILE_SIZE
+*  tiles; endFrame then rasterizes the tiles in parallel on a ForkJoinPool. Every tile draws its
+*  triangles in submission order, so the image does not depend on the number of threads.
+*
+*  loadTexture decodes level 0 of the .ktx the KtxFile.Source has for the resource (GLTextureSource
+*  on Android); without a source, or a .ktx, the texture is left out as an incomplete one.
+*/
+public class SoftwareRasterizer implements RenderBackend {
+	private static final String TAG = "SoftwareRasterizer";
+	private static final Logger LOG = Logger.getLogger(TAG);
+	public static final int TILE_SIZE = 32;
+	private static final int FLOATS_PER_VERTEX = 8;
+	// Sub-pixel precision of the fixed-point edge functions
+	private static final int SUB_BITS = 4;
+	private static final int SUB = 1 << SUB_BITS;
+	// Shaded vertex: clip x, y, z, w and color r, g, b, a
+	private static final int SHADED_FLOATS = 8;
+	// Binned triangle, per vertex: window z, 1/w, r/w, g/w, b/w, a/w
+	private static final int TRI_FLOATS = 18;
+	// Binned triangle: fixed-point x, y of each vertex and the pixel bounding box
+	private static final int TRI_INTS = 10;
+	private static final int VERTEX_BATCH = 2048;
+	private static final int CLEAR_COLOR = 0xFF000000;
+
+	// Constants of specular_vertex_shader.glsl
+	private static final float AMBIENT = 0.15f;
+	private static final double SHININESS = 200.0;
+	private static final float[] LIGHTS = { 2f, 5f, 3f,  -4f, -5f, 3f };
+
+	private static class Texture {
+		final int width;
+		final int height;
+		final int[] argb;
+
+		Texture(int width, int height, int[] argb) {
+			this.width = width;
+			this.height = height;
+			this.argb = argb;
+		}
+	}
+
+	private final ForkJoinPool pool;
+	private final KtxFile.Source textureFiles;
+	private int width;
+	private int height;
+	private int tilesX;
+	private int tilesY;
+	private int[] colorBuffer = new int[0];
+	private float[] depthBuffer = new float[0];
+
+	// Handle h lives at index h - 1
+	private final ArrayList<float[]> meshVertices = new ArrayList<>();
+	private final ArrayList<int[]> meshIndices = new ArrayList<>();
+	private final ArrayList<Texture> textures = new ArrayList<>();
+
+	private float[] shaded = new float[0];
+	private float[] triFloats = new float[TRI_FLOATS * 1024];
+	private int[] triInts = new int[TRI_INTS * 1024];
+	private int numTriangles;
+	private int[][] bins = new int[0][];
+	private int[] binSizes = new int[0];
+	// Polygons produced while clipping one triangle (at most 9 vertices after 6 planes)
+	private final float[] clipA = new float[SHADED_FLOATS * 9];
+	private final float[] clipB = new float[SHADED_FLOATS * 9];
+	private final int[] setupFixed = new int[6];
+	private final float[] setupAttributes = new float[TRI_FLOATS];
+	// (first, count) of drawMesh, which draws the whole mesh as a single range
+	private final int[] fullRange = new int[2];
+	private final float[] drawColor = new float[4];
+	// Matrices of the instance being drawn by drawMeshInstances
+	private final float[] instanceMV = new float[16];
+	private final float[] instanceMVP = new float[16];
+	private FrameStats stats;
+
+	public SoftwareRasterizer() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public SoftwareRasterizer(int threads) {
+		this(threads, null);
+	}
+
+	// textureFiles: where loadTexture finds textures, null for none (only createTexture then)
+	public SoftwareRasterizer(int threads, KtxFile.Source textureFiles) {
+		pool = new ForkJoinPool(Math.max(1, threads));
+		this.textureFiles = textureFiles;
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	// Result of the last frame: ARGB, top row first (ready for Bitmap.setPixels)
+	public int[] getColorBuffer() {
+		return colorBuffer;
+	}
+
+	// Triangles that survived clipping and culling in the current frame
+	public int getTriangleCount() {
+		return numTriangles;
+	}
+
+	@Override
+	public void init() {
+		// Textures are plain arrays: they survive, only the meshes go
+		meshVertices.clear();
+		meshIndices.clear();
+	}
+
+	@Override
+	public void setViewport(int width, int height) {
+		this.width = width;
+		this.height = height;
+		tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+		colorBuffer = new int[width * height];
+		depthBuffer = new float[width * height];
+		bins = new int[tilesX * tilesY][];
+		binSizes = new int[tilesX * tilesY];
+	}
+
+	@Override
+	public void setFrameStats(FrameStats stats) {
+		this.stats = stats;
+	}
+
+	@Override
+	public void beginFrame() {
+		numTriangles = 0;
+		Arrays.fill(binSizes, 0);
+	}
+
+	@Override
+	public void endFrame() {
+		if (bins.length > 0) {
+			pool.invoke(new TileTask(0, bins.length));
+		}
+	}
+
+	@Override
+	public int loadTexture(int resourceId) {
+		final KtxFile ktx = textureFiles != null ? textureFiles.open(resourceId) : null;
+		final int[] argb = ktx != null ? new int[ktx.width * ktx.height] : null;
+		if (ktx == null || !ktx.decode(0, argb)) {
+			if (LoggerConfig.ON) {
+				LOG.warning("EL recurso con ID " + resourceId + " no se pudo decodificar.");
+			}
+			return 0;
+		}
+		return createTexture(ktx.width, ktx.height, argb);
+	}
+
+	@Override
+	public int createTexture(int width, int height, int[] argb) {
+		textures.add(new Texture(width, height, Arrays.copyOf(argb, width * height)));
+		return textures.size();
+	}
+
+	@Override
+	public void releaseTexture(int texture) {
+		textures.set(texture - 1, null);
+	}
+
+	@Override
+	public int createMesh(FloatBuffer vertices, int vertexCount, Buffer indices, int indexCount) {
+		final float[] data = new float[vertexCount * FLOATS_PER_VERTEX];
+		final FloatBuffer source = vertices.duplicate();
+		source.position(0);
+		source.get(data);
+
+		int[] triangles = null;
+		if (indices instanceof ShortBuffer) {
+			final ShortBuffer shorts = (ShortBuffer) indices;
+			triangles = new int[indexCount];
+			for (int i=0; i<indexCount; i++) {
+				triangles[i] = shorts.get(i) & 0xFFFF;
+			}
+		} else if (indices instanceof IntBuffer) {
+			final IntBuffer ints = (IntBuffer) indices;
+			triangles = new int[indexCount];
+			for (int i=0; i<indexCount; i++) {
+				triangles[i] = ints.get(i);
+			}
+		}
+		meshVertices.add(data);
+		meshIndices.add(triangles);
+		return meshVertices.size();
+	}
+
+	// Unpacked back to floats, as the shader would see them
+	@Override
+	public int createPackedMesh(PackedVertices vertices, Buffer indices, int indexCount) {
+		final float[] data = new float[vertices.getVertexCount() * FLOATS_PER_VERTEX];
+		vertices.unpack(data);
+		return createMesh(FloatBuffer.wrap(data), vertices.getVertexCount(), indices, indexCount);
+	}
+
+	// No extra buffers: instances are drawn one by one
+	@Override
+	public int createInstancedMesh(FloatBuffer vertices, int vertexCount, Buffer indices, int indexCount) {
+		return createMesh(vertices, vertexCount, indices, indexCount);
+	}
+
+	@Override
+	public void drawMesh(int mesh, int texture, float[] mvpMatrix, float[] mvMatrix, float r, float g, float b, float a) {
+		final int[] indices = meshIndices.get(mesh - 1);
+		fullRange[1] = indices != null ? indices.length : meshVertices.get(mesh - 1).length / FLOATS_PER_VERTEX;
+		drawMeshRanges(mesh, fullRange, 1, texture, mvpMatrix, mvMatrix, r, g, b, a);
+	}
+
+	@Override
+	public void drawMeshRanges(int mesh, int[] ranges, int rangeCount, int texture, float[] mvpMatrix, float[] mvMatrix,
+			float r, float g, float b, float a) {
+		if (width == 0) {
+			return;
+		}
+		final float[] vertices = meshVertices.get(mesh - 1);
+		final int[] indices = meshIndices.get(mesh - 1);
+		final int vertexCount = vertices.length / FLOATS_PER_VERTEX;
+		if (shaded.length < vertexCount * SHADED_FLOATS) {
+			shaded = new float[vertexCount * SHADED_FLOATS];
+		}
+		final float[] color = drawColor;
+		color[0] = r;
+		color[1] = g;
+		color[2] = b;
+		color[3] = a;
+		final Texture tex = texture > 0 ? textures.get(texture - 1) : null;
+		// The whole vertex array is shaded: indexed ranges may use any vertex
+		if (vertexCount > VERTEX_BATCH && pool.getParallelism() > 1) {
+			pool.invoke(new VertexTask(vertices, 0, vertexCount, mvpMatrix, mvMatrix, color, tex));
+		} else {
+			shadeVertices(vertices, 0, vertexCount, mvpMatrix, mvMatrix, color, tex);
+		}
+
+		for (int range=0; range<rangeCount; range++) {
+			final int first = ranges[range * 2];
+			final int count = ranges[range * 2 + 1];
+			if (stats != null) {
+				// No GL state here: only draws and the vertices sent to the vertex stage
+				stats.count(FrameStats.DRAW_CALLS, 1);
+				stats.count(FrameStats.VERTICES, count);
+			}
+			for (int i=first; i+2<first + count; i+=3) {
+				if (indices != null) {
+					binTriangle(indices[i], indices[i+1], indices[i+2]);
+				} else {
+					binTriangle(i, i+1, i+2);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void drawMeshInstances(int mesh, int texture, float[] projectionMatrix, float[] modelMatrices, int instanceCount,
+			float r, float g, float b, float a) {
+		for (int i=0; i<instanceCount; i++) {
+			Mat4.set(instanceMV, 0, modelMatrices, i * 16);
+			Mat4.multiply(instanceMVP, 0, projectionMatrix, 0, instanceMV, 0);
+			drawMesh(mesh, texture, instanceMVP, instanceMV, r, g, b, a);
+		}
+	}
+
+	//------------------------------------------
+	// Vertex stage: the specular vertex shader, writing clip position and color into shaded[]
+	private void shadeVertices(float[] v, int from, int to, float[] mvp, float[] mv, float[] color, Texture tex) {
+		final float[] texel = new float[4];
+		final float cr = color[0], cg = color[1], cb = color[2], ca = color[3];
+		for (int i=from; i<to; i++) {
+			final int s = i * FLOATS_PER_VERTEX;
+			final float x = v[s], y = v[s+1], z = v[s+2];
+			final float nx = v[s+3], ny = v[s+4], nz = v[s+5];
+			final int o = i * SHADED_FLOATS;
+
+			// gl_Position = u_MVPMatrix * a_Position
+			shaded[o]   = mvp[0] * x + mvp[4] * y + mvp[8]  * z + mvp[12];
+			shaded[o+1] = mvp[1] * x + mvp[5] * y + mvp[9]  * z + mvp[13];
+			shaded[o+2] = mvp[2] * x + mvp[6] * y + mvp[10] * z + mvp[14];
+			shaded[o+3] = mvp[3] * x + mvp[7] * y + mvp[11] * z + mvp[15];
+
+			// Position and normal in eye space
+			final float px = mv[0] * x + mv[4] * y + mv[8]  * z + mv[12];
+			final float py = mv[1] * x + mv[5] * y + mv[9]  * z + mv[13];
+			final float pz = mv[2] * x + mv[6] * y + mv[10] * z + mv[14];
+			final float Nx = mv[0] * nx + mv[4] * ny + mv[8]  * nz;
+			final float Ny = mv[1] * nx + mv[5] * ny + mv[9]  * nz;
+			final float Nz = mv[2] * nx + mv[6] * ny + mv[10] * nz;
+
+			sample(tex, v[s+6], v[s+7], texel);
+			final float dr = cr * texel[0], dg = cg * texel[1], db = cb * texel[2], da = ca * texel[3];
+
+			// V = normalize(P)
+			final float pl = (float) Math.sqrt(px * px + py * py + pz * pz);
+			final float Vx = pl > 0f ? px / pl : 0f, Vy = pl > 0f ? py / pl : 0f, Vz = pl > 0f ? pz / pl : 0f;
+
+			float r = cr * AMBIENT, g = cg * AMBIENT, b = cb * AMBIENT, a = ca * AMBIENT;
+			for (int l=0; l<LIGHTS.length; l+=3) {
+				float Lx = px - LIGHTS[l], Ly = py - LIGHTS[l+1], Lz = pz - LIGHTS[l+2];
+				final float d = (float) Math.sqrt(Lx * Lx + Ly * Ly + Lz * Lz);
+				if (d > 0f) {
+					Lx /= d;
+					Ly /= d;
+					Lz /= d;
+				}
+				// R = normalize(reflect(-L, N)) = normalize(2N(N.L) - L)
+				final float NdotL = Nx * Lx + Ny * Ly + Nz * Lz;
+				float Rx = 2f * NdotL * Nx - Lx, Ry = 2f * NdotL * Ny - Ly, Rz = 2f * NdotL * Nz - Lz;
+				final float rl = (float) Math.sqrt(Rx * Rx + Ry * Ry + Rz * Rz);
+				if (rl > 0f) {
+					Rx /= rl;
+					Ry /= rl;
+					Rz /= rl;
+				}
+				final float attenuation = 1f / (0.3f + 0.1f * d + 0.01f * d * d);
+				final float diffuse = Math.max(NdotL, 0f);
+				final float specular = (float) Math.pow(Math.max(Vx * Rx + Vy * Ry + Vz * Rz, 0f), SHININESS);
+				r += attenuation * (dr * diffuse + specular);
+				g += attenuation * (dg * diffuse + specular);
+				b += attenuation * (db * diffuse + specular);
+				a += attenuation * (da * diffuse + specular);
+			}
+			shaded[o+4] = r;
+			shaded[o+5] = g;
+			shaded[o+6] = b;
+			shaded[o+7] = a;
+		}
+	}
+
+	// texture2D from a vertex shader: level 0, GL_LINEAR, GL_REPEAT. Incomplete texture -> (0, 0, 0, 1).
+	private static void sample(Texture tex, float u, float v, float[] out) {
+		if (tex == null) {
+			out[0] = out[1] = out[2] = 0f;
+			out[3] = 1f;
+			return;
+		}
+		final float fx = u * tex.width - 0.5f;
+		final float fy = v * tex.height - 0.5f;
+		final float x0f = (float) Math.floor(fx), y0f = (float) Math.floor(fy);
+		final float ax = fx - x0f, ay = fy - y0f;
+		final int x0 = Math.floorMod((int) x0f, tex.width), x1 = (x0 + 1) % tex.width;
+		final int y0 = Math.floorMod((int) y0f, tex.height), y1 = (y0 + 1) % tex.height;
+		final int p00 = tex.argb[y0 * tex.width + x0], p10 = tex.argb[y0 * tex.width + x1];
+		final int p01 = tex.argb[y1 * tex.width + x0], p11 = tex.argb[y1 * tex.width + x1];
+		for (int c=0; c<4; c++) {
+			// r, g, b, a from the ARGB shifts 16, 8, 0, 24
+			final int shift = c == 3 ? 24 : 16 - c * 8;
+			final float top = ((p00 >>> shift) & 0xFF) * (1f - ax) + ((p10 >>> shift) & 0xFF) * ax;
+			final float bottom = ((p01 >>> shift) & 0xFF) * (1f - ax) + ((p11 >>> shift) & 0xFF) * ax;
+			out[c] = (top * (1f - ay) + bottom * ay) / 255f;
+		}
+	}
+
+	//------------------------------------------
+	// Clipping, culling and binning of one triangle of shaded[]
+	private void binTriangle(int i0, int i1, int i2) {
+		final int o0 = i0 * SHADED_FLOATS, o1 = i1 * SHADED_FLOATS, o2 = i2 * SHADED_FLOATS;
+		final int c0 = outcode(shaded, o0), c1 = outcode(shaded, o1), c2 = outcode(shaded, o2);
+		if ((c0 & c1 & c2) != 0) {
+			return;
+		}
+		if ((c0 | c1 | c2) == 0) {
+			setupTriangle(shaded, o0, o1, o2);
+			return;
+		}
+		System.arraycopy(shaded, o0, clipA, 0, SHADED_FLOATS);
+		System.arraycopy(shaded, o1, clipA, SHADED_FLOATS, SHADED_FLOATS);
+		System.arraycopy(shaded, o2, clipA, 2 * SHADED_FLOATS, SHADED_FLOATS);
+		float[] in = clipA, out = clipB;
+		int n = 3;
+		final int planes = c0 | c1 | c2;
+		for (int p=0; p<6 && n>=3; p++) {
+			if ((planes & (1 << p)) != 0) {
+				n = clipPolygon(in, n, out, p);
+				final float[] t = in;
+				in = out;
+				out = t;
+			}
+		}
+		for (int k=2; k<n; k++) {
+			setupTriangle(in, 0, (k - 1) * SHADED_FLOATS, k * SHADED_FLOATS);
+		}
+	}
+
+	// Bit p set when the vertex is outside plane p: -x, +x, -y, +y, -z, +z (clip space, |c| <= w)
+	private static int outcode(float[] s, int o) {
+		final float w = s[o+3];
+		int code = 0;
+		for (int axis=0; axis<3; axis++) {
+			final float c = s[o + axis];
+			if (c < -w) code |= 1 << (axis * 2);
+			if (c > w) code |= 1 << (axis * 2 + 1);
+		}
+		return code;
+	}
+
+	private static float planeDistance(float[] s, int o, int plane) {
+		final float c = s[o + (plane >> 1)];
+		return (plane & 1) == 0 ? s[o+3] + c : s[o+3] - c;
+	}
+
+	// Sutherland-Hodgman against one plane; returns the number of vertices written to out
+	private static int clipPolygon(float[] in, int n, float[] out, int plane) {
+		int m = 0;
+		for (int i=0; i<n; i++) {
+			final int a = i * SHADED_FLOATS, b = ((i + 1) % n) * SHADED_FLOATS;
+			final float da = planeDistance(in, a, plane), db = planeDistance(in, b, plane);
+			if (da >= 0f) {
+				System.arraycopy(in, a, out, m++ * SHADED_FLOATS, SHADED_FLOATS);
+			}
+			if ((da >= 0f) != (db >= 0f)) {
+				final float t = da / (da - db);
+				final int o = m++ * SHADED_FLOATS;
+				for (int k=0; k<SHADED_FLOATS; k++) {
+					out[o + k] = in[a + k] + (in[b + k] - in[a + k]) * t;
+				}
+			}
+		}
+		return m;
+	}
+
+	// Perspective divide, viewport transform, culling and binning of a triangle inside the frustum
+	private void setupTriangle(float[] s, int o0, int o1, int o2) {
+		final int[] fixed = setupFixed;
+		final float[] attributes = setupAttributes;
+		for (int k=0; k<3; k++) {
+			final int o = k == 0 ? o0 : k == 1 ? o1 : o2;
+			if (!(s[o+3] > 0f)) {
+				return;
+			}
+			final float invW = 1f / s[o+3];
+			fixed[k*2]   = Math.round((s[o]   * invW * 0.5f + 0.5f) * width * SUB);
+			fixed[k*2+1] = Math.round((s[o+1] * invW * 0.5f + 0.5f) * height * SUB);
+			attributes[k*6]   = s[o+2] * invW * 0.5f + 0.5f;
+			attributes[k*6+1] = invW;
+			attributes[k*6+2] = s[o+4] * invW;
+			attributes[k*6+3] = s[o+5] * invW;
+			attributes[k*6+4] = s[o+6] * invW;
+			attributes[k*6+5] = s[o+7] * invW;
+		}
+		final long x0 = fixed[0], y0 = fixed[1], x1 = fixed[2], y1 = fixed[3], x2 = fixed[4], y2 = fixed[5];
+		// Counter-clockwise (front facing, y up) triangles have positive area
+		final long area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+		if (area <= 0) {
+			return;
+		}
+		// Pixels whose centers may fall inside
+		final int minX = Math.max(0, (int) ((Math.min(x0, Math.min(x1, x2)) - SUB / 2 + SUB - 1) >> SUB_BITS));
+		final int minY = Math.max(0, (int) ((Math.min(y0, Math.min(y1, y2)) - SUB / 2 + SUB - 1) >> SUB_BITS));
+		final int maxX = Math.min(width - 1, (int) ((Math.max(x0, Math.max(x1, x2)) - SUB / 2) >> SUB_BITS));
+		final int maxY = Math.min(height - 1, (int) ((Math.max(y0, Math.max(y1, y2)) - SUB / 2) >> SUB_BITS));
+		if (minX > maxX || minY > maxY) {
+			return;
+		}
+
+		if ((numTriangles + 1) * TRI_INTS > triInts.length) {
+			triInts = Arrays.copyOf(triInts, triInts.length * 2);
+			triFloats = Arrays.copyOf(triFloats, triFloats.length * 2);
+		}
+		final int t = numTriangles++;
+		System.arraycopy(fixed, 0, triInts, t * TRI_INTS, 6);
+		triInts[t*TRI_INTS+6] = minX;
+		triInts[t*TRI_INTS+7] = minY;
+		triInts[t*TRI_INTS+8] = maxX;
+		triInts[t*TRI_INTS+9] = maxY;
+		System.arraycopy(attributes, 0, triFloats, t * TRI_FLOATS, TRI_FLOATS);
+
+		for (int ty=minY/TILE_SIZE; ty<=maxY/TILE_SIZE; ty++) {
+			for (int tx=minX/TILE_SIZE; tx<=maxX/TILE_SIZE; tx++) {
+				final int tile = ty * tilesX + tx;
+				int[] bin = bins[tile];
+				if (bin == null || binSizes[tile] == bin.length) {
+					bin = bins[tile] = bin == null ? new int[64] : Arrays.copyOf(bin, bin.length * 2);
+				}
+				bin[binSizes[tile]++] = t;
+			}
+		}
+	}
+
+	//------------------------------------------
+	// Pixel stage of one tile: clear, then every binned triangle in submission order
+	private void rasterizeTile(int tile) {
+		final int tx0 = (tile % tilesX) * TILE_SIZE, ty0 = (tile / tilesX) * TILE_SIZE;
+		final int tx1 = Math.min(tx0 + TILE_SIZE, width) - 1, ty1 = Math.min(ty0 + TILE_SIZE, height) - 1;
+		for (int y=ty0; y<=ty1; y++) {
+			// Row 0 of the color buffer is the top of the screen (GL window y = height - 1)
+			final int row = (height - 1 - y) * width;
+			Arrays.fill(colorBuffer, row + tx0, row + tx1 + 1, CLEAR_COLOR);
+			Arrays.fill(depthBuffer, row + tx0, row + tx1 + 1, 1f);
+		}
+
+		final int[] bin = bins[tile];
+		final int count = binSizes[tile];
+		for (int k=0; k<count; k++) {
+			final int t = bin[k];
+			final int ti = t * TRI_INTS, tf = t * TRI_FLOATS;
+			final int minX = Math.max(triInts[ti+6], tx0), minY = Math.max(triInts[ti+7], ty0);
+			final int maxX = Math.min(triInts[ti+8], tx1), maxY = Math.min(triInts[ti+9], ty1);
+			if (minX > maxX || minY > maxY) {
+				continue;
+			}
+			final long x0 = triInts[ti], y0 = triInts[ti+1];
+			final long x1 = triInts[ti+2], y1 = triInts[ti+3];
+			final long x2 = triInts[ti+4], y2 = triInts[ti+5];
+			final float invArea = 1f / ((x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0));
+
+			// Edge functions E(a, b, p) = (bx - ax)(py - ay) - (by - ay)(px - ax); ei weighs vertex i
+			final long px = ((long) minX << SUB_BITS) + SUB / 2, py = ((long) minY << SUB_BITS) + SUB / 2;
+			long e0Row = (x2 - x1) * (py - y1) - (y2 - y1) * (px - x1);
+			long e1Row = (x0 - x2) * (py - y2) - (y0 - y2) * (px - x2);
+			long e2Row = (x1 - x0) * (py - y0) - (y1 - y0) * (px - x0);
+			final long e0dx = -(y2 - y1) * SUB, e0dy = (x2 - x1) * SUB;
+			final long e1dx = -(y0 - y2) * SUB, e1dy = (x0 - x2) * SUB;
+			final long e2dx = -(y1 - y0) * SUB, e2dy = (x1 - x0) * SUB;
+			// Top-left fill rule: pixels exactly on an edge belong to left and top edges only
+			final long b0 = topLeft(x1, y1, x2, y2) ? 0 : -1;
+			final long b1 = topLeft(x2, y2, x0, y0) ? 0 : -1;
+			final long b2 = topLeft(x0, y0, x1, y1) ? 0 : -1;
+
+			final float z0 = triFloats[tf], z1 = triFloats[tf+6], z2 = triFloats[tf+12];
+			for (int y=minY; y<=maxY; y++) {
+				long e0 = e0Row, e1 = e1Row, e2 = e2Row;
+				final int row = (height - 1 - y) * width;
+				for (int x=minX; x<=maxX; x++) {
+					if (((e0 + b0) | (e1 + b1) | (e2 + b2)) >= 0) {
+						final float l0 = e0 * invArea, l1 = e1 * invArea, l2 = e2 * invArea;
+						final float z = l0 * z0 + l1 * z1 + l2 * z2;
+						final int idx = row + x;
+						if (z < depthBuffer[idx]) {
+							depthBuffer[idx] = z;
+							colorBuffer[idx] = shadePixel(tf, l0, l1, l2);
+						}
+					}
+					e0 += e0dx;
+					e1 += e1dx;
+					e2 += e2dx;
+				}
+				e0Row += e0dy;
+				e1Row += e1dy;
+				e2Row += e2dy;
+			}
+		}
+	}
+
+	// For counter-clockwise triangles with y up: left edges go down, top edges go right to left
+	private static boolean topLeft(long ax, long ay, long bx, long by) {
+		return by < ay || (by == ay && bx < ax);
+	}
+
+	// Perspective-correct interpolation of v_Color; gl_FragColor is clamped when written
+	private int shadePixel(int tf, float l0, float l1, float l2) {
+		final float w = 1f / (l0 * triFloats[tf+1] + l1 * triFloats[tf+7] + l2 * triFloats[tf+13]);
+		int argb = 0;
+		for (int c=0; c<4; c++) {
+			final float value = (l0 * triFloats[tf+2+c] + l1 * triFloats[tf+8+c] + l2 * triFloats[tf+14+c]) * w;
+			final int channel = Math.round(Math.min(Math.max(value, 0f), 1f) * 255f);
+			// r, g, b, a into the ARGB shifts 16, 8, 0, 24
+			argb |= channel << (c == 3 ? 24 : 16 - c * 8);
+		}
+		return argb;
+	}
+
+	//------------------------------------------
+	private class VertexTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final float[] vertices;
+		private final int from;
+		private final int to;
+		private final float[] mvp;
+		private final float[] mv;
+		private final float[] color;
+		private final Texture texture;
+
+		VertexTask(float[] vertices, int from, int to, float[] mvp, float[] mv, float[] color, Texture texture) {
+			this.vertices = vertices;
+			this.from = from;
+			this.to = to;
+			this.mvp = mvp;
+			this.mv = mv;
+			this.color = color;
+			this.texture = texture;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= VERTEX_BATCH) {
+				shadeVertices(vertices, from, to, mvp, mv, color, texture);
+				return;
+			}
+			final int mid = (from + to) >>> 1;
+			invokeAll(new VertexTask(vertices, from, mid, mvp, mv, color, texture),
+					new VertexTask(vertices, mid, to, mvp, mv, color, texture));
+		}
+	}
+
+	private class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+
+		TileTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				rasterizeTile(from);
+				return;
+			}
+			final int mid = (from + to) >>> 1;
+			invokeAll(new TileTask(from, mid), new TileTask(mid, to));
+		}
+	}
+}
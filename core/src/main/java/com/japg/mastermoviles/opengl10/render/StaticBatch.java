@@ -0,0 +1,180 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/* Static batching of the meshes of a model, which are all drawn with the same program and texture.
+*  Consecutive meshes (the parts of the batch) share one vertex buffer and one index buffer, so a frame
+*  sets vertex state and uniforms once per batch instead of once per mesh, and the visible ranges of
+*  neighbouring parts join into a single draw call.
+*
+*  A batch holds up to MAX_VERTICES vertices, so that merged indices fit in 16 bits; a bigger mesh is
+*  a batch of its own and keeps its buffers. Indices are rebased to the merged vertices. Level 0 of
+*  every part comes first, in part order, then the coarser levels (see MeshLods) of each part.
+*  getFirst() places the ranges of a part (its clusters, see MeshBounds, or one of its levels) in the
+*  merged buffers, so parts are still culled and given levels of detail one by one.
+*
+*  A StaticBatch only describes the layout: mergeVertices and mergeIndices build the buffers.
+*/
+public final class StaticBatch {
+	public static final int MAX_VERTICES = 0x10000;
+	private static final int FLOATS_PER_VERTEX = 8;
+
+	private final int firstPart;
+	private final int partCount;
+	private final int vertexCount;
+	private final int indexCount;
+	private final int level0Count;
+	// Per part: first vertex, elements of level 0 and of every level, and the first element of each
+	// level (MeshLods.MAX_LEVELS per part) in the merged buffers
+	private final int[] vertexFirst;
+	private final int[] partLevel0;
+	private final int[] partIndices;
+	private final int[] levelFirst;
+
+	private StaticBatch(int firstPart, int partCount, int[] vertexCounts, int[] indexCounts, MeshLods[] lods) {
+		this.firstPart = firstPart;
+		this.partCount = partCount;
+		vertexFirst = new int[partCount];
+		partLevel0 = new int[partCount];
+		partIndices = new int[partCount];
+		levelFirst = new int[partCount * MeshLods.MAX_LEVELS];
+
+		int vertices = 0;
+		int level0 = 0;
+		for (int p=0; p<partCount; p++) {
+			final int mesh = firstPart + p;
+			vertexFirst[p] = vertices;
+			vertices += vertexCounts[mesh];
+			// Not indexed: elements are vertices
+			partIndices[p] = indexCounts != null ? indexCounts[mesh] : vertexCounts[mesh];
+			partLevel0[p] = lods != null ? lods[mesh].getCount(0) : partIndices[p];
+			levelFirst[p * MeshLods.MAX_LEVELS] = level0;
+			level0 += partLevel0[p];
+		}
+		int coarser = level0;
+		for (int p=0; p<partCount; p++) {
+			final MeshLods partLods = lods != null ? lods[firstPart + p] : null;
+			for (int l=1; partLods != null && l<partLods.getLevelCount(); l++) {
+				levelFirst[p * MeshLods.MAX_LEVELS + l] = coarser + partLods.getFirst(l) - partLevel0[p];
+			}
+			coarser += partIndices[p] - partLevel0[p];
+		}
+		vertexCount = vertices;
+		indexCount = indexCounts != null ? coarser : 0;
+		level0Count = level0;
+	}
+
+	// Splits meshes 0 .. meshCount into batches of consecutive meshes. indexCounts: null when not
+	// indexed (elements are then vertices); lods: null when there are none.
+	public static StaticBatch[] plan(int[] vertexCounts, int[] indexCounts, MeshLods[] lods, int meshCount) {
+		StaticBatch[] batches = new StaticBatch[meshCount];
+		int count = 0;
+		int first = 0;
+		while (first < meshCount) {
+			int end = first + 1;
+			int vertices = vertexCounts[first];
+			while (end < meshCount && vertices + vertexCounts[end] <= MAX_VERTICES) {
+				vertices += vertexCounts[end++];
+			}
+			batches[count++] = new StaticBatch(first, end - first, vertexCounts, indexCounts, lods);
+			first = end;
+		}
+		final StaticBatch[] result = new StaticBatch[count];
+		System.arraycopy(batches, 0, result, 0, count);
+		return result;
+	}
+
+	// A batch per mesh: nothing is merged, so every batch keeps the buffers of its mesh (e.g. read-only
+	// views of a mapped file)
+	public static StaticBatch[] perMesh(int[] vertexCounts, int[] indexCounts, MeshLods[] lods, int meshCount) {
+		final StaticBatch[] batches = new StaticBatch[meshCount];
+		for (int i=0; i<meshCount; i++) {
+			batches[i] = new StaticBatch(i, 1, vertexCounts, indexCounts, lods);
+		}
+		return batches;
+	}
+
+	//------------------------------------------
+	// meshes: the vertices of every mesh (interleaved x, y, z, A, B, C, u, v), read from 0. A batch of
+	// one part returns its buffer as it is.
+	public FloatBuffer mergeVertices(FloatBuffer[] meshes) {
+		if (partCount == 1) {
+			return meshes[firstPart];
+		}
+		final FloatBuffer merged = ByteBuffer.allocateDirect(vertexCount * FLOATS_PER_VERTEX * 4)
+				.order(ByteOrder.nativeOrder()).asFloatBuffer();
+		for (int p=0; p<partCount; p++) {
+			final FloatBuffer part = meshes[firstPart + p].duplicate();
+			part.position(0);
+			part.limit(getPartVertices(p) * FLOATS_PER_VERTEX);
+			merged.put(part);
+		}
+		merged.position(0);
+		return merged;
+	}
+
+	// meshes: the indices of every mesh (ShortBuffer or IntBuffer, every level), read from 0. Merged
+	// indices are 16-bit; a batch of one part returns its buffer as it is.
+	public Buffer mergeIndices(Buffer[] meshes) {
+		if (partCount == 1) {
+			return meshes[firstPart];
+		}
+		final short[] merged = new short[indexCount];
+		int coarser = level0Count;
+		for (int p=0; p<partCount; p++) {
+			final Buffer part = meshes[firstPart + p];
+			final int base = vertexFirst[p];
+			int to = levelFirst[p * MeshLods.MAX_LEVELS];
+			for (int i=0; i<partIndices[p]; i++) {
+				if (i == partLevel0[p]) {
+					to = coarser;
+				}
+				final int index = part instanceof IntBuffer ? ((IntBuffer) part).get(i) : ((ShortBuffer) part).get(i) & 0xFFFF;
+				merged[to++] = (short) (index + base);
+			}
+			coarser += partIndices[p] - partLevel0[p];
+		}
+		final ShortBuffer indices = ByteBuffer.allocateDirect(indexCount * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+		indices.put(merged).position(0);
+		return indices;
+	}
+
+	private int getPartVertices(int p) {
+		return (p + 1 < partCount ? vertexFirst[p + 1] : vertexCount) - vertexFirst[p];
+	}
+
+	//------------------------------------------
+	// Parts are meshes firstPart .. firstPart + partCount of the plan
+	public int getFirstPart() {
+		return firstPart;
+	}
+
+	public int getPartCount() {
+		return partCount;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	// 0 when not indexed
+	public int getIndexCount() {
+		return indexCount;
+	}
+
+	// Elements of level 0 of every part, which come first: the whole batch at full detail
+	public int getLevel0Count() {
+		return level0Count;
+	}
+
+	// First element of a level of a mesh of the batch (firstPart <= mesh < firstPart + partCount) in
+	// the merged buffers; the ranges of its level 0 (see MeshBounds.cull) start there too
+	public int getFirst(int mesh, int level) {
+		return levelFirst[(mesh - firstPart) * MeshLods.MAX_LEVELS + level];
+	}
+}
@@ -0,0 +1,233 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/* Textures shared by resource id and sampler, with reference counting and a memory budget.
+*
+*  acquire() hands out a handle (> 0) per reference; equal (resource, sampler) pairs share one texture.
+*  Textures nobody references stay resident while they fit in the budget, and are evicted least
+*  recently released first when something new needs the room. Referenced textures are never evicted,
+*  so the budget can be exceeded while they are in use.
+*
+*  Handles outlive the GL context: after invalidate() the names are forgotten and every referenced
+*  texture is created again on its next resolve(). The actual GL work goes through Source, which is
+*  what allows running this class without a GL context.
+*  Not thread safe: meant to be used from the GL thread.
+*/
+public class TextureCache {
+	// Sampler presets, part of the cache key
+	public static final int TRILINEAR = 0;	// mipmapped, GL_LINEAR_MIPMAP_LINEAR / GL_LINEAR
+	public static final int BILINEAR = 1;	// no mipmaps, GL_LINEAR
+	public static final int NEAREST = 2;	// no mipmaps, GL_NEAREST
+	public static final long DEFAULT_BUDGET_BYTES = 64L * 1024 * 1024;
+
+	public interface Source {
+		// Creates the texture in the current context and writes its size in bytes to bytes[0].
+		// Returns the texture name, 0 if it could not be created.
+		int create(int resourceId, int sampler, long[] bytes);
+
+		void delete(int name);
+	}
+
+	private static final class Entry {
+		final int handle;
+		final int resourceId;
+		final int sampler;
+		int name;
+		long bytes;
+		int refCount;
+
+		Entry(int handle, int resourceId, int sampler) {
+			this.handle = handle;
+			this.resourceId = resourceId;
+			this.sampler = sampler;
+		}
+	}
+
+	private final Source source;
+	private final long budgetBytes;
+	// Entry with handle h lives at index h - 1; null slots are free
+	private Entry[] entries = new Entry[16];
+	private final HashMap<Long, Entry> byKey = new HashMap<>();
+	// Unreferenced resident textures, least recently released first
+	private final LinkedHashMap<Long, Entry> unreferenced = new LinkedHashMap<>();
+	private final long[] createdBytes = new long[1];
+	private long residentBytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public TextureCache(Source source) {
+		this(source, DEFAULT_BUDGET_BYTES);
+	}
+
+	public TextureCache(Source source, long budgetBytes) {
+		this.source = source;
+		this.budgetBytes = budgetBytes;
+	}
+
+	// One more reference to (resourceId, sampler); 0 if the texture could not be created
+	public int acquire(int resourceId, int sampler) {
+		final long key = key(resourceId, sampler);
+		Entry entry = byKey.get(key);
+		if (entry != null && entry.name != 0) {
+			hits++;
+		} else {
+			misses++;
+			if (entry == null) {
+				entry = new Entry(freeHandle(), resourceId, sampler);
+			}
+			if (!create(entry)) {
+				return 0;
+			}
+			entries[entry.handle - 1] = entry;
+			byKey.put(key, entry);
+		}
+		if (entry.refCount++ == 0) {
+			unreferenced.remove(key);
+		}
+		trim();
+		return entry.handle;
+	}
+
+	// Takes in a texture created outside the cache (from pixels rather than a resource), with one
+	// reference. It is deleted as soon as it is released, and cannot come back after invalidate().
+	public int add(int name, long bytes) {
+		final Entry entry = new Entry(freeHandle(), 0, 0);
+		entry.name = name;
+		entry.bytes = bytes;
+		entry.refCount = 1;
+		entries[entry.handle - 1] = entry;
+		residentBytes += bytes;
+		trim();
+		return entry.handle;
+	}
+
+	// Drops one reference; the texture stays resident (and evictable) while it fits in the budget
+	public void release(int handle) {
+		final Entry entry = entry(handle);
+		if (entry == null || entry.refCount == 0) {
+			throw new IllegalStateException("Texture handle not acquired: " + handle);
+		}
+		if (--entry.refCount == 0) {
+			if (entry.name != 0 && entry.resourceId != 0) {
+				unreferenced.put(key(entry.resourceId, entry.sampler), entry);
+				trim();
+			} else {
+				if (entry.name != 0) {
+					source.delete(entry.name);
+					residentBytes -= entry.bytes;
+				}
+				remove(entry);
+			}
+		}
+	}
+
+	// Texture name to bind for a handle acquired before, creating it again if the context was lost.
+	// 0 for an unknown handle or when it cannot be created.
+	public int resolve(int handle) {
+		final Entry entry = entry(handle);
+		if (entry == null) {
+			return 0;
+		}
+		if (entry.name == 0 && entry.refCount > 0 && entry.resourceId != 0) {
+			misses++;
+			if (create(entry)) {
+				trim();
+			}
+		}
+		return entry.name;
+	}
+
+	// The GL context (and every texture in it) is gone: forget the names without deleting them.
+	// Unreferenced textures are dropped, referenced ones come back on their next resolve().
+	public void invalidate() {
+		for (int i=0; i<entries.length; i++) {
+			final Entry entry = entries[i];
+			if (entry != null) {
+				entry.name = 0;
+				entry.bytes = 0;
+				if (entry.refCount == 0) {
+					remove(entry);
+				}
+			}
+		}
+		unreferenced.clear();
+		residentBytes = 0;
+	}
+
+	public long getBudgetBytes() {
+		return budgetBytes;
+	}
+
+	public long getResidentBytes() {
+		return residentBytes;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	//------------------------------------------
+	private boolean create(Entry entry) {
+		createdBytes[0] = 0;
+		final int name = source.create(entry.resourceId, entry.sampler, createdBytes);
+		if (name == 0) {
+			return false;
+		}
+		entry.name = name;
+		entry.bytes = createdBytes[0];
+		residentBytes += entry.bytes;
+		return true;
+	}
+
+	// Evicts unreferenced textures, oldest release first, until the resident set fits the budget
+	private void trim() {
+		final Iterator<Entry> it = unreferenced.values().iterator();
+		while (residentBytes > budgetBytes && it.hasNext()) {
+			final Entry entry = it.next();
+			it.remove();
+			source.delete(entry.name);
+			residentBytes -= entry.bytes;
+			evictions++;
+			remove(entry);
+		}
+	}
+
+	private void remove(Entry entry) {
+		entries[entry.handle - 1] = null;
+		if (entry.resourceId != 0) {
+			byKey.remove(key(entry.resourceId, entry.sampler));
+		}
+	}
+
+	private Entry entry(int handle) {
+		return handle > 0 && handle <= entries.length ? entries[handle - 1] : null;
+	}
+
+	private int freeHandle() {
+		for (int i=0; i<entries.length; i++) {
+			if (entries[i] == null) {
+				return i + 1;
+			}
+		}
+		final int handle = entries.length + 1;
+		entries = Arrays.copyOf(entries, entries.length * 2);
+		return handle;
+	}
+
+	private static long key(int resourceId, int sampler) {
+		return ((long) resourceId << 32) | (sampler & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,279 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import java.util.Arrays;
+
+/* Triangle and vertex order for the GPU caches.
+*
+*  optimize() reorders the triangles of a range of an index list for the post-transform vertex cache,
+*  with Forsyth's linear-speed algorithm: triangles are emitted greedily by the score of their
+*  vertices, which favours vertices that are still in a modelled LRU cache of CACHE_SIZE entries and
+*  vertices with few triangles left. Ranges are optimized on their own, so the triangles never leave
+*  the cluster (see MeshBounds) or the level of detail (see MeshLods) they belong to.
+*
+*  fetchOrder() then numbers the vertices in the order the triangles first use them, so that vertex
+*  fetches walk the vertex buffer forwards. acmr() measures the result with a FIFO cache.
+*
+*  One instance per mesh: the scratch arrays are sized to its vertices and reused between ranges.
+*/
+public final class VertexCacheOptimizer {
+	public static final int CACHE_SIZE = 32;
+	// Cache of the acmr() reports, a common size for hardware FIFO post-transform caches
+	public static final int FIFO_SIZE = 16;
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRIANGLE_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+	// Scores by cache position and by triangles left, for the small values that make up most lookups
+	private static final float[] CACHE_SCORES = new float[CACHE_SIZE];
+	private static final float[] VALENCE_SCORES = new float[64];
+
+	static {
+		for (int p=0; p<CACHE_SIZE; p++) {
+			CACHE_SCORES[p] = p < 3 ? LAST_TRIANGLE_SCORE
+					: (float) Math.pow(1.0 - (p - 3) / (double) (CACHE_SIZE - 3), CACHE_DECAY_POWER);
+		}
+		for (int v=1; v<VALENCE_SCORES.length; v++) {
+			VALENCE_SCORES[v] = VALENCE_BOOST_SCALE * (float) Math.pow(v, -VALENCE_BOOST_POWER);
+		}
+	}
+
+	// Mesh vertex -> vertex of the range being optimized (-1 outside it)
+	private final int[] local;
+	private int[] meshVertex = new int[0];
+	// Per vertex of the range: triangles left, start of its triangle list, cache position, score
+	private int[] valence = new int[0];
+	private int[] adjacencyStart = new int[0];
+	private int[] cachePosition = new int[0];
+	private float[] vertexScore = new float[0];
+	private int[] adjacency = new int[0];
+	// Per triangle of the range: corners (range vertices), score, emitted
+	private int[] corners = new int[0];
+	private float[] triangleScore = new float[0];
+	private boolean[] emitted = new boolean[0];
+	private int[] output = new int[0];
+	// Modelled cache, with room for the three vertices pushed in front of it
+	private final int[] cache = new int[CACHE_SIZE + 3];
+	private final int[] nextCache = new int[CACHE_SIZE + 3];
+
+	public VertexCacheOptimizer(int vertexCount) {
+		local = new int[vertexCount];
+		Arrays.fill(local, -1);
+	}
+
+	// Reorders the triangles of indices[first .. first + count) in place; count is a multiple of 3
+	public void optimize(int[] indices, int first, int count) {
+		final int triangles = count / 3;
+		if (triangles < 2) {
+			return;
+		}
+		final int vertices = mapRange(indices, first, count);
+		buildAdjacency(triangles, vertices);
+
+		for (int v=0; v<vertices; v++) {
+			vertexScore[v] = score(-1, valence[v]);
+		}
+		for (int t=0; t<triangles; t++) {
+			triangleScore[t] = vertexScore[corners[t * 3]] + vertexScore[corners[t * 3 + 1]] + vertexScore[corners[t * 3 + 2]];
+		}
+
+		int cached = 0;
+		int best = -1;
+		float bestScore = -1f;
+		for (int t=0; t<triangles; t++) {
+			if (triangleScore[t] > bestScore) {
+				bestScore = triangleScore[t];
+				best = t;
+			}
+		}
+		int scan = 0;
+		for (int emittedCount=0; emittedCount<triangles; emittedCount++) {
+			if (best < 0) {
+				// Nothing left around the cache: the next triangle not emitted yet
+				while (emitted[scan]) {
+					scan++;
+				}
+				best = scan;
+			}
+			emitted[best] = true;
+			for (int k=0; k<3; k++) {
+				output[emittedCount * 3 + k] = corners[best * 3 + k];
+			}
+
+			// The triangle's vertices go to the front of the cache, the rest follow in order
+			int size = 0;
+			for (int k=0; k<3; k++) {
+				final int v = corners[best * 3 + k];
+				// Degenerate triangles repeat a vertex
+				if (size == 0 || (nextCache[0] != v && (size == 1 || nextCache[1] != v))) {
+					nextCache[size++] = v;
+					removeTriangle(v, best);
+				}
+			}
+			for (int c=0; c<cached; c++) {
+				final int v = cache[c];
+				if (v != corners[best * 3] && v != corners[best * 3 + 1] && v != corners[best * 3 + 2]) {
+					nextCache[size++] = v;
+				}
+			}
+			// Rescore what is in the cache and what just fell out of it
+			for (int c=0; c<size; c++) {
+				final int v = nextCache[c];
+				cachePosition[v] = c < CACHE_SIZE ? c : -1;
+				cache[c] = v;
+				vertexScore[v] = score(cachePosition[v], valence[v]);
+			}
+			cached = Math.min(size, CACHE_SIZE);
+
+			best = -1;
+			bestScore = -1f;
+			for (int c=0; c<size; c++) {
+				final int v = cache[c];
+				for (int a=adjacencyStart[v]; a<adjacencyStart[v] + valence[v]; a++) {
+					final int t = adjacency[a];
+					final float score = vertexScore[corners[t * 3]] + vertexScore[corners[t * 3 + 1]] + vertexScore[corners[t * 3 + 2]];
+					triangleScore[t] = score;
+					if (score > bestScore) {
+						bestScore = score;
+						best = t;
+					}
+				}
+			}
+		}
+
+		// Back to mesh vertices, and the map cleared for the next range
+		for (int i=0; i<count; i++) {
+			indices[first + i] = meshVertex[output[i]];
+		}
+		for (int v=0; v<vertices; v++) {
+			local[meshVertex[v]] = -1;
+		}
+	}
+
+	// Numbers the vertices of the range, fills corners and returns the number of vertices
+	private int mapRange(int[] indices, int first, int count) {
+		final int triangles = count / 3;
+		if (corners.length < count) {
+			corners = new int[count];
+			output = new int[count];
+			triangleScore = new float[triangles];
+			emitted = new boolean[triangles];
+		}
+		Arrays.fill(emitted, 0, triangles, false);
+		if (meshVertex.length < count) {
+			meshVertex = new int[count];
+		}
+		int vertices = 0;
+		for (int i=0; i<count; i++) {
+			final int v = indices[first + i];
+			if (local[v] < 0) {
+				local[v] = vertices;
+				meshVertex[vertices++] = v;
+			}
+			corners[i] = local[v];
+		}
+		return vertices;
+	}
+
+	// Triangles of each vertex, as consecutive runs of adjacency; valence counts the ones not emitted
+	private void buildAdjacency(int triangles, int vertices) {
+		if (valence.length < vertices) {
+			valence = new int[vertices];
+			adjacencyStart = new int[vertices];
+			cachePosition = new int[vertices];
+			vertexScore = new float[vertices];
+		}
+		if (adjacency.length < triangles * 3) {
+			adjacency = new int[triangles * 3];
+		}
+		Arrays.fill(valence, 0, vertices, 0);
+		Arrays.fill(cachePosition, 0, vertices, -1);
+		for (int i=0; i<triangles * 3; i++) {
+			valence[corners[i]]++;
+		}
+		int start = 0;
+		for (int v=0; v<vertices; v++) {
+			adjacencyStart[v] = start;
+			start += valence[v];
+			valence[v] = 0;
+		}
+		for (int t=0; t<triangles; t++) {
+			for (int k=0; k<3; k++) {
+				final int v = corners[t * 3 + k];
+				adjacency[adjacencyStart[v] + valence[v]++] = t;
+			}
+		}
+	}
+
+	// Takes an emitted triangle out of the live part of the vertex's list (every time it is there)
+	private void removeTriangle(int v, int triangle) {
+		final int start = adjacencyStart[v];
+		int a = start;
+		while (a < start + valence[v]) {
+			if (adjacency[a] == triangle) {
+				final int last = start + valence[v] - 1;
+				adjacency[a] = adjacency[last];
+				adjacency[last] = triangle;
+				valence[v]--;
+			} else {
+				a++;
+			}
+		}
+	}
+
+	private static float score(int cachePosition, int valence) {
+		if (valence == 0) {
+			// No triangles left: nothing to gain from it
+			return -1f;
+		}
+		final float cacheScore = cachePosition >= 0 ? CACHE_SCORES[cachePosition] : 0f;
+		final float valenceScore = valence < VALENCE_SCORES.length ? VALENCE_SCORES[valence]
+				: VALENCE_BOOST_SCALE * (float) Math.pow(valence, -VALENCE_BOOST_POWER);
+		return cacheScore + valenceScore;
+	}
+
+	//------------------------------------------
+	// New number of each vertex (remap[old] = new) in the order indices[0 .. indexCount) first use
+	// them; vertices no index uses go last, in their old order
+	public static int[] fetchOrder(int[] indices, int indexCount, int vertexCount) {
+		final int[] remap = new int[vertexCount];
+		Arrays.fill(remap, -1);
+		int next = 0;
+		for (int i=0; i<indexCount; i++) {
+			if (remap[indices[i]] < 0) {
+				remap[indices[i]] = next++;
+			}
+		}
+		for (int v=0; v<vertexCount; v++) {
+			if (remap[v] < 0) {
+				remap[v] = next++;
+			}
+		}
+		return remap;
+	}
+
+	// Average cache miss ratio of indices[first .. first + count): vertices transformed per triangle
+	// with a FIFO post-transform cache of cacheSize entries (0.5 is the best a regular grid can do,
+	// 3 means no reuse at all)
+	public static float acmr(int[] indices, int first, int count, int cacheSize) {
+		if (count < 3) {
+			return 0f;
+		}
+		final int[] fifo = new int[cacheSize];
+		Arrays.fill(fifo, -1);
+		int head = 0;
+		int misses = 0;
+		for (int i=first; i<first + count; i++) {
+			final int v = indices[i];
+			boolean hit = false;
+			for (int c=0; c<cacheSize && !hit; c++) {
+				hit = fifo[c] == v;
+			}
+			if (!hit) {
+				fifo[head] = v;
+				head = (head + 1) % cacheSize;
+				misses++;
+			}
+		}
+		return misses / (float) (count / 3);
+	}
+}
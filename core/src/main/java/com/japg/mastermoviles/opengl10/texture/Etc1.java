@@ -0,0 +1,284 @@
+package com.japg.mastermoviles.opengl10.texture;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.RecursiveAction;
+
+/* ETC1 block compression (OES_compressed_ETC1_RGB8_texture): every 4x4 block of RGB texels in 8 bytes.
+*  ETC1 data is also valid GL_COMPRESSED_RGB8_ETC2, which every ES 3.0 device supports.
+*
+*  The encoder tries both block orientations, differential and individual base colors and the 8
+*  modifier tables, keeping the combination with the least squared RGB error. It is meant for offline
+*  conversion (see TextureConverter), not for the render thread. The decoder is used to unpack the
+*  texture on devices without ETC support.
+*/
+public final class Etc1 {
+	public static final int GL_ETC1_RGB8_OES = 0x8D64;
+	public static final int GL_COMPRESSED_RGB8_ETC2 = 0x9274;
+	public static final int BLOCK_BYTES = 8;
+
+	// Intensity modifier tables: small and large magnitude of each codeword
+	private static final int[][] MODIFIERS = {
+		{ 2, 8 }, { 5, 17 }, { 9, 29 }, { 13, 42 }, { 18, 60 }, { 24, 80 }, { 33, 106 }, { 47, 183 }
+	};
+	// Pixel index (msb, lsb) -> modifier: 0 = +small, 1 = +large, 2 = -small, 3 = -large
+	private static final int[] SIGN = { 1, 1, -1, -1 };
+	private static final int[] MAGNITUDE = { 0, 1, 0, 1 };
+
+	private Etc1() {
+	}
+
+	public static int blocksWide(int width) {
+		return (width + 3) / 4;
+	}
+
+	public static int encodedSize(int width, int height) {
+		return blocksWide(width) * blocksWide(height) * BLOCK_BYTES;
+	}
+
+	// argb: width*height texels, top row first. Alpha is ignored. Edge blocks are padded by clamping.
+	public static byte[] encode(int[] argb, int width, int height) {
+		final byte[] out = new byte[encodedSize(width, height)];
+		new EncodeTask(argb, width, height, out, 0, blocksWide(height)).invoke();
+		return out;
+	}
+
+	// Rows of blocks are independent: split them in halves down to ROWS_PER_TASK
+	private static class EncodeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final int ROWS_PER_TASK = 8;
+		private final int[] argb;
+		private final int width;
+		private final int height;
+		private final byte[] out;
+		private final int fromRow;
+		private final int toRow;
+
+		EncodeTask(int[] argb, int width, int height, byte[] out, int fromRow, int toRow) {
+			this.argb = argb;
+			this.width = width;
+			this.height = height;
+			this.out = out;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+		}
+
+		@Override
+		protected void compute() {
+			if (toRow - fromRow > ROWS_PER_TASK) {
+				final int mid = (fromRow + toRow) >>> 1;
+				invokeAll(new EncodeTask(argb, width, height, out, fromRow, mid),
+						new EncodeTask(argb, width, height, out, mid, toRow));
+				return;
+			}
+			final int[] block = new int[16];
+			final int bw = blocksWide(width);
+			for (int by=fromRow; by<toRow; by++) {
+				for (int bx=0; bx<bw; bx++) {
+					for (int y=0; y<4; y++) {
+						final int sy = Math.min(by * 4 + y, height - 1);
+						for (int x=0; x<4; x++) {
+							block[y * 4 + x] = argb[sy * width + Math.min(bx * 4 + x, width - 1)];
+						}
+					}
+					final long bits = encodeBlock(block);
+					final int o = (by * bw + bx) * BLOCK_BYTES;
+					for (int i=0; i<BLOCK_BYTES; i++) {
+						out[o + i] = (byte) (bits >>> (56 - 8 * i));
+					}
+				}
+			}
+		}
+	}
+
+	// Writes width*height opaque ARGB texels decoded from data (read from its position, not consumed)
+	public static void decode(ByteBuffer data, int width, int height, int[] argb) {
+		final int bw = blocksWide(width);
+		final int bh = blocksWide(height);
+		final int base = data.position();
+		final int[] block = new int[16];
+		for (int by=0; by<bh; by++) {
+			for (int bx=0; bx<bw; bx++) {
+				long bits = 0;
+				final int o = base + (by * bw + bx) * BLOCK_BYTES;
+				for (int i=0; i<BLOCK_BYTES; i++) {
+					bits = (bits << 8) | (data.get(o + i) & 0xFF);
+				}
+				decodeBlock(bits, block);
+				for (int y=0; y<4 && by * 4 + y < height; y++) {
+					for (int x=0; x<4 && bx * 4 + x < width; x++) {
+						argb[(by * 4 + y) * width + bx * 4 + x] = block[y * 4 + x];
+					}
+				}
+			}
+		}
+	}
+
+	//------------------------------------------
+	// block: 16 texels, row by row. Returns the 64 bits of the block, first byte in the top bits.
+	static long encodeBlock(int[] block) {
+		long best = 0;
+		long bestError = Long.MAX_VALUE;
+		final int[] base = new int[6];
+		for (int flip=0; flip<2; flip++) {
+			final float[] avg = new float[6];
+			for (int i=0; i<16; i++) {
+				final int s = subblock(i, flip) * 3;
+				final int p = block[i];
+				avg[s] += (p >> 16) & 0xFF;
+				avg[s + 1] += (p >> 8) & 0xFF;
+				avg[s + 2] += p & 0xFF;
+			}
+			for (int c=0; c<6; c++) {
+				avg[c] /= 8f;
+			}
+
+			// Differential: 5-bit first color and a 3-bit signed delta, when the averages are close enough
+			boolean differential = true;
+			final int[] q = new int[6];
+			for (int c=0; c<6; c++) {
+				q[c] = Math.round(avg[c] * 31f / 255f);
+			}
+			for (int c=0; c<3; c++) {
+				final int d = q[c + 3] - q[c];
+				if (d < -4 || d > 3) {
+					differential = false;
+				}
+			}
+			if (differential) {
+				for (int c=0; c<6; c++) {
+					base[c] = (q[c] << 3) | (q[c] >> 2);
+				}
+				final long candidate = encodeWithBases(block, flip, base, q, true);
+				final long error = blockError(block, candidate);
+				if (error < bestError) {
+					bestError = error;
+					best = candidate;
+				}
+			}
+			// Individual: two 4-bit colors
+			for (int c=0; c<6; c++) {
+				q[c] = Math.round(avg[c] * 15f / 255f);
+				base[c] = q[c] * 17;
+			}
+			final long candidate = encodeWithBases(block, flip, base, q, false);
+			final long error = blockError(block, candidate);
+			if (error < bestError) {
+				bestError = error;
+				best = candidate;
+			}
+		}
+		return best;
+	}
+
+	private static long encodeWithBases(int[] block, int flip, int[] base, int[] q, boolean differential) {
+		long bits;
+		if (differential) {
+			bits = ((long) q[0] << 59) | ((long) ((q[3] - q[0]) & 7) << 56)
+					| ((long) q[1] << 51) | ((long) ((q[4] - q[1]) & 7) << 48)
+					| ((long) q[2] << 43) | ((long) ((q[5] - q[2]) & 7) << 40)
+					| (1L << 33);
+		} else {
+			bits = ((long) q[0] << 60) | ((long) q[3] << 56)
+					| ((long) q[1] << 52) | ((long) q[4] << 48)
+					| ((long) q[2] << 44) | ((long) q[5] << 40);
+		}
+		bits |= (long) flip << 32;
+
+		for (int sub=0; sub<2; sub++) {
+			int bestTable = 0;
+			long bestError = Long.MAX_VALUE;
+			int bestIndices = 0;
+			for (int t=0; t<8; t++) {
+				long error = 0;
+				int indices = 0;
+				for (int i=0; i<16; i++) {
+					if (subblock(i, flip) != sub) {
+						continue;
+					}
+					int bestIndex = 0;
+					long bestPixel = Long.MAX_VALUE;
+					for (int m=0; m<4; m++) {
+						final int mod = SIGN[m] * MODIFIERS[t][MAGNITUDE[m]];
+						final long e = texelError(block[i], base[sub * 3] + mod, base[sub * 3 + 1] + mod, base[sub * 3 + 2] + mod);
+						if (e < bestPixel) {
+							bestPixel = e;
+							bestIndex = m;
+						}
+					}
+					error += bestPixel;
+					indices |= bestIndex << (2 * i);
+				}
+				if (error < bestError) {
+					bestError = error;
+					bestTable = t;
+					bestIndices = indices;
+				}
+			}
+			bits |= (long) bestTable << (sub == 0 ? 37 : 34);
+			for (int i=0; i<16; i++) {
+				if (subblock(i, flip) == sub) {
+					final int m = (bestIndices >> (2 * i)) & 3;
+					// Pixels are numbered down the columns: j = x * 4 + y
+					final int j = (i & 3) * 4 + (i >> 2);
+					bits |= (long) (m >> 1) << (16 + j);
+					bits |= (long) (m & 1) << j;
+				}
+			}
+		}
+		return bits;
+	}
+
+	static void decodeBlock(long bits, int[] block) {
+		final boolean differential = (bits & (1L << 33)) != 0;
+		final int flip = (int) (bits >>> 32) & 1;
+		final int[] base = new int[6];
+		for (int c=0; c<3; c++) {
+			if (differential) {
+				final int b1 = (int) (bits >>> (59 - 8 * c)) & 31;
+				final int d = ((int) (bits >>> (56 - 8 * c)) & 7) << 29 >> 29;
+				final int b2 = (b1 + d) & 31;
+				base[c] = (b1 << 3) | (b1 >> 2);
+				base[c + 3] = (b2 << 3) | (b2 >> 2);
+			} else {
+				base[c] = ((int) (bits >>> (60 - 8 * c)) & 15) * 17;
+				base[c + 3] = ((int) (bits >>> (56 - 8 * c)) & 15) * 17;
+			}
+		}
+		final int table1 = (int) (bits >>> 37) & 7;
+		final int table2 = (int) (bits >>> 34) & 7;
+		for (int i=0; i<16; i++) {
+			final int sub = subblock(i, flip);
+			final int j = (i & 3) * 4 + (i >> 2);
+			final int m = (int) (((bits >>> (16 + j)) & 1) << 1 | ((bits >>> j) & 1));
+			final int mod = SIGN[m] * MODIFIERS[sub == 0 ? table1 : table2][MAGNITUDE[m]];
+			block[i] = 0xFF000000 | clamp(base[sub * 3] + mod) << 16 | clamp(base[sub * 3 + 1] + mod) << 8 | clamp(base[sub * 3 + 2] + mod);
+		}
+	}
+
+	// i: texel in row order. flip 0: two 2x4 halves side by side; flip 1: two 4x2 halves stacked.
+	private static int subblock(int i, int flip) {
+		return flip == 0 ? (i & 3) >> 1 : i >> 3;
+	}
+
+	private static long blockError(int[] block, long bits) {
+		final int[] decoded = new int[16];
+		decodeBlock(bits, decoded);
+		long error = 0;
+		for (int i=0; i<16; i++) {
+			final int d = decoded[i];
+			error += texelError(block[i], (d >> 16) & 0xFF, (d >> 8) & 0xFF, d & 0xFF);
+		}
+		return error;
+	}
+
+	private static long texelError(int p, int r, int g, int b) {
+		final int dr = ((p >> 16) & 0xFF) - clamp(r);
+		final int dg = ((p >> 8) & 0xFF) - clamp(g);
+		final int db = (p & 0xFF) - clamp(b);
+		return dr * dr + dg * dg + db * db;
+	}
+
+	private static int clamp(int v) {
+		return v < 0 ? 0 : v > 255 ? 255 : v;
+	}
+}
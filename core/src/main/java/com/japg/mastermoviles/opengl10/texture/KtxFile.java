@@ -0,0 +1,169 @@
+package com.japg.mastermoviles.opengl10.texture;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/* 2D texture with its mip chain in a KTX 1.1 container (https://registry.khronos.org/KTX/specs/1.0/ktxspec.v1.html).
+*  Only plain 2D textures are handled: no arrays, cube maps or 3D textures.
+*
+*  read() does not copy the texel data: every level is a slice of the buffer passed in, which can be
+*  a memory-mapped file. write() always produces little-endian files.
+*/
+public final class KtxFile {
+	private static final byte[] IDENTIFIER = {
+		(byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+	};
+	private static final int ENDIANNESS = 0x04030201;
+	private static final int HEADER_BYTES = IDENTIFIER.length + 13 * 4;
+
+	// Where the texture of a drawable resource is found when it is needed outside GL, e.g. by
+	// SoftwareRasterizer: the .ktx that TextureConverter made of it
+	public interface Source {
+		// null when the resource has no .ktx
+		KtxFile open(int resourceId);
+	}
+
+	// Same meaning as the glTexImage2D / glCompressedTexImage2D arguments; glType and glFormat are 0
+	// for compressed textures
+	public final int glType;
+	public final int glTypeSize;
+	public final int glFormat;
+	public final int glInternalFormat;
+	public final int glBaseInternalFormat;
+	public final int width;
+	public final int height;
+	private final ByteBuffer[] levels;
+
+	public KtxFile(int glType, int glTypeSize, int glFormat, int glInternalFormat, int glBaseInternalFormat,
+			int width, int height, ByteBuffer[] levels) {
+		this.glType = glType;
+		this.glTypeSize = glTypeSize;
+		this.glFormat = glFormat;
+		this.glInternalFormat = glInternalFormat;
+		this.glBaseInternalFormat = glBaseInternalFormat;
+		this.width = width;
+		this.height = height;
+		this.levels = levels;
+	}
+
+	public boolean isCompressed() {
+		return glType == 0;
+	}
+
+	public int getLevelCount() {
+		return levels.length;
+	}
+
+	public int getLevelWidth(int level) {
+		return Math.max(1, width >> level);
+	}
+
+	public int getLevelHeight(int level) {
+		return Math.max(1, height >> level);
+	}
+
+	// Data of a level, positioned at 0; shares its content with the file buffer
+	public ByteBuffer getLevel(int level) {
+		return levels[level].duplicate().order(levels[level].order());
+	}
+
+	// Writes the texels of a level to argb (width*height of the level, top row first), for sampling on
+	// the CPU. Understands ETC1 and the 16-bit formats of PixelPacker; false for anything else.
+	public boolean decode(int level, int[] argb) {
+		final int w = getLevelWidth(level);
+		final int h = getLevelHeight(level);
+		final ByteBuffer data = getLevel(level);
+		if (glInternalFormat == Etc1.GL_ETC1_RGB8_OES) {
+			Etc1.decode(data, w, h, argb);
+		} else if (glType == PixelPacker.GL_UNSIGNED_SHORT_5_6_5) {
+			PixelPacker.unpackRgb565(data, w * h, argb);
+		} else if (glType == PixelPacker.GL_UNSIGNED_SHORT_4_4_4_4) {
+			PixelPacker.unpackRgba4444(data, w * h, argb);
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	// Bytes of every level together, i.e. what the texture takes once uploaded
+	public long getDataSize() {
+		long size = 0;
+		for (ByteBuffer level : levels) {
+			size += level.remaining();
+		}
+		return size;
+	}
+
+	//------------------------------------------
+	public static KtxFile read(ByteBuffer in) {
+		final ByteBuffer file = in.duplicate();
+		for (int i=0; i<IDENTIFIER.length; i++) {
+			if (file.remaining() < HEADER_BYTES || file.get() != IDENTIFIER[i]) {
+				throw new IllegalArgumentException("Not a KTX 1.1 file");
+			}
+		}
+		file.order(ByteOrder.LITTLE_ENDIAN);
+		if (file.getInt() != ENDIANNESS) {
+			file.order(ByteOrder.BIG_ENDIAN);
+		}
+		final int glType = file.getInt();
+		final int glTypeSize = file.getInt();
+		final int glFormat = file.getInt();
+		final int glInternalFormat = file.getInt();
+		final int glBaseInternalFormat = file.getInt();
+		final int width = file.getInt();
+		final int height = file.getInt();
+		final int depth = file.getInt();
+		final int arrayElements = file.getInt();
+		final int faces = file.getInt();
+		final int levelCount = Math.max(1, file.getInt());
+		final int keyValueBytes = file.getInt();
+		if (depth > 1 || arrayElements > 0 || faces != 1 || width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Only 2D textures are supported");
+		}
+		if (file.order() != ByteOrder.nativeOrder() && glTypeSize > 1) {
+			// The texels would have to be swapped before uploading
+			throw new IllegalArgumentException("KTX endianness does not match this machine");
+		}
+		file.position(file.position() + keyValueBytes);
+
+		final ByteBuffer[] levels = new ByteBuffer[levelCount];
+		for (int level=0; level<levelCount; level++) {
+			final int size = file.getInt();
+			if (size < 0 || size > file.remaining()) {
+				throw new IllegalArgumentException("Truncated KTX level " + level);
+			}
+			final ByteBuffer data = file.slice().order(file.order());
+			data.limit(size);
+			levels[level] = data;
+			// Levels are padded to 4 bytes
+			file.position(file.position() + ((size + 3) & ~3));
+		}
+		return new KtxFile(glType, glTypeSize, glFormat, glInternalFormat, glBaseInternalFormat, width, height, levels);
+	}
+
+	public void write(OutputStream output) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(IDENTIFIER);
+		header.putInt(ENDIANNESS);
+		header.putInt(glType).putInt(glTypeSize).putInt(glFormat).putInt(glInternalFormat).putInt(glBaseInternalFormat);
+		header.putInt(width).putInt(height).putInt(0).putInt(0).putInt(1).putInt(levels.length).putInt(0);
+
+		final DataOutputStream out = new DataOutputStream(output);
+		out.write(header.array());
+		final byte[] padding = new byte[3];
+		for (int level=0; level<levels.length; level++) {
+			final ByteBuffer data = getLevel(level);
+			final int size = data.remaining();
+			out.writeInt(Integer.reverseBytes(size));
+			final byte[] bytes = new byte[size];
+			data.get(bytes);
+			out.write(bytes);
+			out.write(padding, 0, ((size + 3) & ~3) - size);
+		}
+		out.flush();
+	}
+}
@@ -0,0 +1,50 @@
+package com.japg.mastermoviles.opengl10.texture;
+
+import java.nio.ByteBuffer;
+
+/* 16-bit texel packing for GL_UNSIGNED_SHORT_5_6_5 (opaque) and GL_UNSIGNED_SHORT_4_4_4_4 (with alpha),
+*  the fallbacks when a compressed format is not supported. Each texel takes half of ARGB_8888.
+*  Texels are written in the byte order of the output buffer, which has to be the native one for GL.
+*  The unpack methods turn them back into ARGB_8888, each channel widened by repeating its top bits.
+*/
+public final class PixelPacker {
+	public static final int GL_UNSIGNED_SHORT_5_6_5 = 0x8363;
+	public static final int GL_UNSIGNED_SHORT_4_4_4_4 = 0x8033;
+	public static final int GL_RGB = 0x1907;
+	public static final int GL_RGBA = 0x1908;
+
+	private PixelPacker() {
+	}
+
+	// Writes count texels of argb, from its start, at the position of out (which advances)
+	public static void packRgb565(int[] argb, int count, ByteBuffer out) {
+		for (int i=0; i<count; i++) {
+			final int p = argb[i];
+			out.putShort((short) (((p >> 8) & 0xF800) | ((p >> 5) & 0x07E0) | ((p >> 3) & 0x001F)));
+		}
+	}
+
+	public static void packRgba4444(int[] argb, int count, ByteBuffer out) {
+		for (int i=0; i<count; i++) {
+			final int p = argb[i];
+			out.putShort((short) (((p >> 8) & 0xF000) | ((p >> 4) & 0x0F00) | (p & 0x00F0) | ((p >>> 28) & 0x000F)));
+		}
+	}
+
+	// Reads count texels at the position of in (which advances) into argb, from its start
+	public static void unpackRgb565(ByteBuffer in, int count, int[] argb) {
+		for (int i=0; i<count; i++) {
+			final int t = in.getShort() & 0xFFFF;
+			final int r = t >> 11, g = (t >> 5) & 0x3F, b = t & 0x1F;
+			argb[i] = 0xFF000000 | ((r << 3 | r >> 2) << 16) | ((g << 2 | g >> 4) << 8) | (b << 3 | b >> 2);
+		}
+	}
+
+	public static void unpackRgba4444(ByteBuffer in, int count, int[] argb) {
+		for (int i=0; i<count; i++) {
+			final int t = in.getShort() & 0xFFFF;
+			// Each 4-bit channel times 17 spans 0..255
+			argb[i] = ((t & 0xF) * 17) << 24 | ((t >> 12) * 17) << 16 | (((t >> 8) & 0xF) * 17) << 8 | ((t >> 4) & 0xF) * 17;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.japg.mastermoviles.opengl10.texture;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/* Offline image -> .ktx converter (see KtxFile). Runs on the JVM, outside Android:
+*
+*    ./gradlew :core:convertTextures [--args="input_dir output_dir"]
+*
+*  By default reads app/src/main/res/drawable-v24/*.png and writes app/src/main/assets/textures,
+*  where the app picks them up instead of decoding the PNGs. The whole mip chain is computed here
+*  (2x2 box filter). Opaque images are stored as ETC1 (4 bits per texel); images with any
+*  translucent texel as RGBA4444, since ETC1 has no alpha.
+*/
+public class TextureConverter {
+	public static final String EXTENSION = ".ktx";
+
+	public static void main(String[] args) throws IOException {
+		File inputDir = new File(args.length > 0 ? args[0] : "app/src/main/res/drawable-v24");
+		File outputDir = new File(args.length > 1 ? args[1] : "app/src/main/assets/textures");
+
+		File[] images = inputDir.listFiles((dir, name) -> name.endsWith(".png") || name.endsWith(".jpg"));
+		if (images == null) {
+			throw new IOException("No such directory: " + inputDir);
+		}
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			throw new IOException("Could not create directory: " + outputDir);
+		}
+		Arrays.sort(images);
+
+		for (File image : images) {
+			final long start = System.nanoTime();
+			final BufferedImage source = ImageIO.read(image);
+			if (source == null) {
+				throw new IOException("Unsupported image: " + image);
+			}
+			final int width = source.getWidth();
+			final int height = source.getHeight();
+			final KtxFile ktx = convert(source.getRGB(0, 0, width, height, null, 0, width), width, height);
+
+			final String name = image.getName();
+			final File output = new File(outputDir, name.substring(0, name.lastIndexOf('.')) + EXTENSION);
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+				ktx.write(out);
+			}
+			System.out.printf("%-20s %5dx%-5d %s %2d levels %10d -> %10d bytes  %7.1f ms%n", name, width, height,
+					ktx.isCompressed() ? "ETC1    " : "RGBA4444", ktx.getLevelCount(),
+					(long) width * height * 4 * 4 / 3, output.length(), (System.nanoTime() - start) / 1e6);
+		}
+	}
+
+	// argb: width*height texels, top row first (as BufferedImage.getRGB and Bitmap.getPixels give them)
+	public static KtxFile convert(int[] argb, int width, int height) {
+		boolean opaque = true;
+		for (int p : argb) {
+			if (p >>> 24 != 0xFF) {
+				opaque = false;
+				break;
+			}
+		}
+
+		final int levelCount = 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+		final ByteBuffer[] levels = new ByteBuffer[levelCount];
+		int[] level = argb;
+		int w = width;
+		int h = height;
+		for (int l=0; l<levelCount; l++) {
+			if (opaque) {
+				levels[l] = ByteBuffer.wrap(Etc1.encode(level, w, h));
+			} else {
+				levels[l] = ByteBuffer.allocate(w * h * 2).order(ByteOrder.LITTLE_ENDIAN);
+				PixelPacker.packRgba4444(level, w * h, levels[l]);
+				levels[l].flip();
+			}
+			if (l + 1 < levelCount) {
+				final int nw = Math.max(1, w / 2);
+				final int nh = Math.max(1, h / 2);
+				level = downsample(level, w, h, nw, nh);
+				w = nw;
+				h = nh;
+			}
+		}
+		if (opaque) {
+			return new KtxFile(0, 1, 0, Etc1.GL_ETC1_RGB8_OES, PixelPacker.GL_RGB, width, height, levels);
+		}
+		return new KtxFile(PixelPacker.GL_UNSIGNED_SHORT_4_4_4_4, 2, PixelPacker.GL_RGBA, PixelPacker.GL_RGBA,
+				PixelPacker.GL_RGBA, width, height, levels);
+	}
+
+	// Next mip level: average of (up to) 2x2 texels per channel, rounded
+	static int[] downsample(int[] argb, int width, int height, int newWidth, int newHeight) {
+		final int[] out = new int[newWidth * newHeight];
+		for (int y=0; y<newHeight; y++) {
+			final int y0 = Math.min(y * 2, height - 1);
+			final int y1 = Math.min(y * 2 + 1, height - 1);
+			for (int x=0; x<newWidth; x++) {
+				final int x0 = Math.min(x * 2, width - 1);
+				final int x1 = Math.min(x * 2 + 1, width - 1);
+				final int a = argb[y0 * width + x0];
+				final int b = argb[y0 * width + x1];
+				final int c = argb[y1 * width + x0];
+				final int d = argb[y1 * width + x1];
+				int texel = 0;
+				for (int shift=0; shift<32; shift+=8) {
+					final int sum = ((a >>> shift) & 0xFF) + ((b >>> shift) & 0xFF) + ((c >>> shift) & 0xFF) + ((d >>> shift) & 0xFF);
+					texel |= ((sum + 2) >> 2) << shift;
+				}
+				out[y * newWidth + x] = texel;
+			}
+		}
+		return out;
+	}
+}
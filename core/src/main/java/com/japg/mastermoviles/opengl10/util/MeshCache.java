@@ -0,0 +1,193 @@
+package com.japg.mastermoviles.opengl10.util;
+
+import com.japg.mastermoviles.opengl10.render.MeshLods;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/* Formato binario de mallas pre-calculadas (.m3d), pensado para mapearse en memoria
+*  y pasarse tal cual a glBufferData. Todo en little-endian:
+*    cabecera:  magic "M3D1" | versión | stride (bytes por vértice) | flags | número de mallas
+*    por malla: nº vértices | nº índices | bytes por índice (0, 2 ó 4) | offset vértices | offset índices |
+*               nº niveles de detalle | MeshLods.MAX_LEVELS x (primer índice | nº índices | error (float))
+*    datos:     vértices intercalados (x, y, z, A, B, C, u, v) e índices, alineados a 4 bytes
+*  Los índices incluyen todos los niveles de detalle, el 0 primero (ver MeshLods); sin niveles (0) la
+*  malla se dibuja entera. Los niveles que no existen se dejan a cero.
+*/
+public class MeshCache {
+	public static final String EXTENSION = ".m3d";
+
+	private static final int MAGIC        = 0x3144334D;	// "M3D1"
+	private static final int VERSION      = 2;
+	private static final int FLAG_INDEXED = 1;
+	private static final int STRIDE       = MeshIndexer.FLOATS_PER_VERTEX * 4;
+	private static final int HEADER_SIZE  = 5 * 4;
+	private static final int LEVEL_SIZE   = 3 * 4;
+	private static final int ENTRY_SIZE   = 6 * 4 + MeshLods.MAX_LEVELS * LEVEL_SIZE;
+
+	private static int align4(int offset) {
+		return (offset + 3) & ~3;
+	}
+
+	private static int indexSize(Buffer indices) {
+		return indices instanceof IntBuffer ? 4 : 2;
+	}
+
+	// Escribe la salida de un Resource3DSReader (antes de batchMeshes y releaseBuffers), con sus
+	// niveles de detalle si los tiene
+	public static void write(Resource3DSReader reader, File file) throws IOException {
+		if (reader.batches != null) {
+			throw new IllegalStateException("Las mallas ya están agrupadas en lotes");
+		}
+		final int numMeshes = reader.numMeshes;
+		final boolean indexed = reader.isIndexed();
+		final MeshLods[] lods = indexed ? reader.lods : null;
+
+		int offset = HEADER_SIZE + numMeshes * ENTRY_SIZE;
+		final int[] vertexOffsets = new int[numMeshes];
+		final int[] indexOffsets = new int[numMeshes];
+		for (int i = 0; i < numMeshes; i++) {
+			vertexOffsets[i] = offset;
+			offset += reader.numVertices[i] * STRIDE;
+			if (indexed) {
+				indexOffsets[i] = offset;
+				offset = align4(offset + reader.numIndices[i] * indexSize(reader.indexBuffer[i]));
+			}
+		}
+
+		final ByteBuffer out = ByteBuffer.allocate(offset).order(ByteOrder.LITTLE_ENDIAN);
+		out.putInt(MAGIC).putInt(VERSION).putInt(STRIDE).putInt(indexed ? FLAG_INDEXED : 0).putInt(numMeshes);
+		for (int i = 0; i < numMeshes; i++) {
+			out.putInt(reader.numVertices[i]);
+			out.putInt(indexed ? reader.numIndices[i] : 0);
+			out.putInt(indexed ? indexSize(reader.indexBuffer[i]) : 0);
+			out.putInt(vertexOffsets[i]);
+			out.putInt(indexOffsets[i]);
+			final int levels = lods != null ? lods[i].getLevelCount() : 0;
+			out.putInt(levels);
+			for (int l=0; l<MeshLods.MAX_LEVELS; l++) {
+				out.putInt(l < levels ? lods[i].getFirst(l) : 0);
+				out.putInt(l < levels ? lods[i].getCount(l) : 0);
+				out.putFloat(l < levels ? lods[i].getError(l) : 0f);
+			}
+		}
+		for (int i = 0; i < numMeshes; i++) {
+			out.position(vertexOffsets[i]);
+			final FloatBuffer vertices = reader.dataBuffer[i].duplicate();
+			vertices.position(0);
+			out.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().put(vertices);
+			if (indexed) {
+				out.position(indexOffsets[i]);
+				final Buffer indices = reader.indexBuffer[i];
+				if (indices instanceof IntBuffer) {
+					final IntBuffer source = ((IntBuffer) indices).duplicate();
+					source.position(0);
+					out.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(source);
+				} else {
+					final ShortBuffer source = ((ShortBuffer) indices).duplicate();
+					source.position(0);
+					out.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(source);
+				}
+			}
+		}
+		out.position(0);
+
+		FileOutputStream stream = new FileOutputStream(file);
+		try {
+			FileChannel channel = stream.getChannel();
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+		} finally {
+			stream.close();
+		}
+	}
+
+	// Mapea un fichero .m3d completo en memoria (sólo lectura)
+	public static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return map(raf.getChannel(), 0, raf.length());
+		} finally {
+			// El mapeo sigue siendo válido tras cerrar el canal
+			raf.close();
+		}
+	}
+
+	// Mapea un rango de un canal, p.ej. un asset sin comprimir abierto con openFd()
+	public static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+	// Rellena la salida del lector con vistas sobre el buffer mapeado, sin copiar datos
+	static void read(ByteBuffer mapped, Resource3DSReader reader) {
+		final ByteBuffer in = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		if (in.remaining() < HEADER_SIZE || in.getInt(0) != MAGIC) {
+			throw new RuntimeException("No es un fichero de mallas " + EXTENSION);
+		}
+		if (in.getInt(4) != VERSION || in.getInt(8) != STRIDE) {
+			throw new RuntimeException("Versión o stride no soportados: " + in.getInt(4) + "/" + in.getInt(8));
+		}
+		if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+			throw new RuntimeException("El formato " + EXTENSION + " requiere una plataforma little-endian");
+		}
+		final boolean indexed = (in.getInt(12) & FLAG_INDEXED) != 0;
+		final int numMeshes = in.getInt(16);
+
+		reader.indexed = indexed;
+		reader.numMeshes = numMeshes;
+		reader.dataBuffer = new FloatBuffer[numMeshes];
+		reader.numVertices = new int[numMeshes];
+		reader.indexBuffer = indexed ? new Buffer[numMeshes] : null;
+		reader.numIndices = indexed ? new int[numMeshes] : null;
+		reader.lods = indexed && numMeshes > 0 && in.getInt(HEADER_SIZE + 20) > 0 ? new MeshLods[numMeshes] : null;
+		final int[] first = new int[MeshLods.MAX_LEVELS];
+		final int[] count = new int[MeshLods.MAX_LEVELS];
+		final float[] error = new float[MeshLods.MAX_LEVELS];
+
+		for (int i = 0; i < numMeshes; i++) {
+			final int entry = HEADER_SIZE + i * ENTRY_SIZE;
+			final int vertexCount = in.getInt(entry);
+			final int indexCount = in.getInt(entry + 4);
+			final int bytesPerIndex = in.getInt(entry + 8);
+
+			reader.numVertices[i] = vertexCount;
+			reader.dataBuffer[i] = region(in, in.getInt(entry + 12), vertexCount * STRIDE).asFloatBuffer();
+			if (indexed) {
+				final ByteBuffer indices = region(in, in.getInt(entry + 16), indexCount * bytesPerIndex);
+				reader.numIndices[i] = indexCount;
+				reader.indexBuffer[i] = bytesPerIndex == 4 ? indices.asIntBuffer() : indices.asShortBuffer();
+			}
+			if (reader.lods != null) {
+				// Una malla sin niveles es un único nivel con todos sus índices
+				final int levels = Math.max(1, in.getInt(entry + 20));
+				if (levels > MeshLods.MAX_LEVELS) {
+					throw new RuntimeException("Número de niveles de detalle no soportado: " + levels);
+				}
+				for (int l=0; l<levels; l++) {
+					final int level = entry + 24 + l * LEVEL_SIZE;
+					first[l] = in.getInt(level);
+					count[l] = in.getInt(entry + 20) > 0 ? in.getInt(level + 4) : indexCount;
+					error[l] = in.getFloat(level + 8);
+				}
+				reader.lods[i] = MeshLods.of(levels, first, count, error, reader.indexBuffer[i], indexCount);
+			}
+		}
+	}
+
+	private static ByteBuffer region(ByteBuffer in, int offset, int length) {
+		final ByteBuffer region = in.duplicate();
+		region.position(offset);
+		region.limit(offset + length);
+		return region.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
@@ -0,0 +1,86 @@
+package com.japg.mastermoviles.opengl10.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* Conversor offline .3ds -> .m3d (ver MeshCache). Se ejecuta en la JVM, fuera de Android:
+*
+*    ./gradlew :core:convertMeshes [--args="--indexed --flat directorio_entrada directorio_salida"]
+*
+*  Por defecto lee app/src/main/res/raw/*.3ds y escribe en app/src/main/assets/meshes.
+*/
+public class MeshCacheConverter {
+
+	public static void main(String[] args) throws IOException {
+		boolean indexed = false;
+		boolean flat = false;
+		List<String> paths = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.equals("--indexed")) {
+				indexed = true;
+			} else if (arg.equals("--flat")) {
+				flat = true;
+			} else {
+				paths.add(arg);
+			}
+		}
+		File inputDir = new File(paths.size() > 0 ? paths.get(0) : "app/src/main/res/raw");
+		File outputDir = new File(paths.size() > 1 ? paths.get(1) : "app/src/main/assets/meshes");
+
+		File[] models = inputDir.listFiles((dir, name) -> name.endsWith(".3ds"));
+		if (models == null) {
+			throw new IOException("No existe el directorio: " + inputDir);
+		}
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			throw new IOException("No se pudo crear el directorio: " + outputDir);
+		}
+		Arrays.sort(models);
+
+		for (File model : models) {
+			final long start = System.nanoTime();
+			Resource3DSReader reader = new Resource3DSReader(indexed);
+			reader.setVerbose(false);
+			reader.setSmoothNormals(!flat);
+			reader.read3DSFromBuffer(readFile(model));
+			// Deja los triángulos ordenados por clusters (ver MeshBounds); al mapear el .m3d no se pueden reordenar
+			reader.computeBounds();
+			// Los niveles de detalle (sólo indexado) van en el fichero: la simplificación no se repite al cargarlo
+			reader.generateLods();
+			// Y dentro de cada cluster o nivel, en el orden de la caché de vértices (ver VertexCacheOptimizer)
+			reader.optimizeVertexCache();
+
+			String name = model.getName();
+			File output = new File(outputDir, name.substring(0, name.length() - 4) + MeshCache.EXTENSION);
+			MeshCache.write(reader, output);
+
+			System.out.printf("%-24s %3d malla(s) %2d nivel(es) %10d -> %10d bytes  %6.1f ms%n", name, reader.numMeshes,
+					levels(reader), model.length(), output.length(), (System.nanoTime() - start) / 1e6);
+		}
+	}
+
+	// Niveles de detalle de la malla que más tiene
+	private static int levels(Resource3DSReader reader) {
+		int levels = 1;
+		for (int i=0; reader.lods != null && i<reader.numMeshes; i++) {
+			levels = Math.max(levels, reader.lods[i].getLevelCount());
+		}
+		return levels;
+	}
+
+	private static ByteBuffer readFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+			return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			raf.close();
+		}
+	}
+}
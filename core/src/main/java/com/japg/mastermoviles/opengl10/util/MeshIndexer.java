@@ -0,0 +1,76 @@
+package com.japg.mastermoviles.opengl10.util;
+
+import java.util.Arrays;
+
+/* Convierte una malla de triángulos expandida (3 vértices de 8 floats por cara)
+*  en una malla indexada: vértices únicos (x, y, z, A, B, C, u, v) + índices.
+*  Dos vértices se fusionan sólo si sus 8 floats son idénticos bit a bit.
+*/
+public class MeshIndexer {
+	public static final int FLOATS_PER_VERTEX = 8;
+
+	// [Salida] Vértices únicos e índices de la última malla procesada
+	public float[] vertices;
+	public int[] indices;
+	public int numVertices;
+	public int numIndices;
+
+	// Tabla hash (direccionamiento abierto) con índice de vértice + 1, 0 = libre
+	private int[] table;
+
+	public int index(float[] data, int vertexCount) {
+		int capacity = Integer.highestOneBit(Math.max(vertexCount, 1) * 2 - 1) << 1;
+		if (table == null || table.length < capacity) {
+			table = new int[capacity];
+		} else {
+			Arrays.fill(table, 0, capacity, 0);
+		}
+		if (vertices == null || vertices.length < vertexCount * FLOATS_PER_VERTEX) {
+			vertices = new float[vertexCount * FLOATS_PER_VERTEX];
+		}
+		if (indices == null || indices.length < vertexCount) {
+			indices = new int[vertexCount];
+		}
+
+		final int mask = capacity - 1;
+		numVertices = 0;
+		for (int v = 0; v < vertexCount; v++) {
+			final int src = v * FLOATS_PER_VERTEX;
+			int slot = hash(data, src) & mask;
+			int found = -1;
+			while (table[slot] != 0) {
+				final int candidate = table[slot] - 1;
+				if (equal(data, src, vertices, candidate * FLOATS_PER_VERTEX)) {
+					found = candidate;
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+			if (found < 0) {
+				found = numVertices++;
+				System.arraycopy(data, src, vertices, found * FLOATS_PER_VERTEX, FLOATS_PER_VERTEX);
+				table[slot] = found + 1;
+			}
+			indices[v] = found;
+		}
+		numIndices = vertexCount;
+		return numVertices;
+	}
+
+	private static int hash(float[] data, int offset) {
+		int h = 0;
+		for (int i = 0; i < FLOATS_PER_VERTEX; i++) {
+			h = h * 31 + Float.floatToIntBits(data[offset + i]);
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean equal(float[] a, int offsetA, float[] b, int offsetB) {
+		for (int i = 0; i < FLOATS_PER_VERTEX; i++) {
+			if (Float.floatToIntBits(a[offsetA + i]) != Float.floatToIntBits(b[offsetB + i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
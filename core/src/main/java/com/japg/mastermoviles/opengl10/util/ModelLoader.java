@@ -0,0 +1,215 @@
+package com.japg.mastermoviles.opengl10.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/* Carga de modelos en segundo plano: el parseo del 3DS (o el mapeo del .m3d), el cálculo
+*  de normales y de volúmenes envolventes, la simplificación en niveles de detalle, el orden
+*  de los triángulos para la caché de vértices y la agrupación de las mallas en lotes se hacen
+*  en un pool de hilos propio y se devuelve un Future con el lector. Opcionalmente también se empaquetan ahí los vértices
+*  (ver setPackVertices).
+*  La subida a la GPU la hace después el hilo de OpenGL (ver ModelObject.uploadMeshes), al que
+*  se puede avisar cuando termina cada carga (ver setOnLoaded).
+*
+*  Con un directorio de caché (ver setCacheDir) cada recurso se procesa una sola vez: la primera
+*  carga guarda sus mallas en un .m3d, con los niveles de detalle y el orden para la caché de
+*  vértices, y las siguientes (p.ej. al perder el contexto EGL, o en el siguiente arranque) sólo lo
+*  mapean y agrupan las mallas en lotes.
+*/
+public class ModelLoader {
+	private static final Logger LOG = Logger.getLogger("ModelLoader");
+
+	// De dónde salen los 3DS de los recursos (en Android, Resources::openRawResource)
+	public interface RawResources {
+		InputStream open(int resourceId) throws IOException;
+	}
+
+	private final ExecutorService executor;
+	private volatile boolean packVertices;
+	private volatile File cacheDir;
+	private volatile Runnable onLoaded;
+
+	public ModelLoader() {
+		this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+	}
+
+	public ModelLoader(int threads) {
+		final AtomicInteger count = new AtomicInteger();
+		final ThreadFactory factory = runnable -> {
+			Thread thread = new Thread(runnable, "ModelLoader-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		};
+		executor = Executors.newFixedThreadPool(threads, factory);
+	}
+
+	// Las cargas pedidas a partir de ahora dejan los vértices empaquetados a 16 bytes (ver
+	// Resource3DSReader.packVertices): la mitad de memoria, pero sin floats para instanciar
+	public void setPackVertices(boolean packVertices) {
+		this.packVertices = packVertices;
+	}
+
+	// Las cargas de recursos pedidas a partir de ahora guardan y reutilizan su .m3d en dir (null: sin
+	// caché). El nombre sólo depende del id del recurso, así que el directorio tiene que ser propio de
+	// cada versión de los recursos (p.ej. de cada instalación de la app)
+	public void setCacheDir(File dir) {
+		this.cacheDir = dir;
+	}
+
+	// Las cargas pedidas a partir de ahora llaman a onLoaded (en el hilo de carga, null: a ninguno) al
+	// terminar, bien o con error, cuando su Future ya está hecho: p.ej. para pedir el frame que las sube
+	// a la GPU en vez de dibujar frames mientras se parsean
+	public void setOnLoaded(Runnable onLoaded) {
+		this.onLoaded = onLoaded;
+	}
+
+	public Future<Resource3DSReader> load(final RawResources resources, final int resourceId, final boolean indexed) {
+		final boolean pack = packVertices;
+		final File dir = cacheDir;
+		return submit(() -> read(resources, resourceId, indexed, pack, dir));
+	}
+
+	// Los .m3d no se empaquetan (ver read(File))
+	public Future<Resource3DSReader> load(final File meshFile) {
+		return submit(() -> read(meshFile));
+	}
+
+	// FutureTask.done() se llama después de fijar el resultado: quien reciba el aviso ya lo puede leer
+	private Future<Resource3DSReader> submit(Callable<Resource3DSReader> load) {
+		final Runnable listener = onLoaded;
+		final FutureTask<Resource3DSReader> task = new FutureTask<Resource3DSReader>(load) {
+			@Override
+			protected void done() {
+				if (listener != null) {
+					listener.run();
+				}
+			}
+		};
+		executor.execute(task);
+		return task;
+	}
+
+	public static Resource3DSReader read(RawResources resources, int resourceId, boolean indexed) {
+		return read(resources, resourceId, indexed, false);
+	}
+
+	public static Resource3DSReader read(RawResources resources, int resourceId, boolean indexed, boolean packVertices) {
+		Resource3DSReader reader = new Resource3DSReader(indexed);
+		try {
+			reader.read3DSFromStream(resources.open(resourceId));
+		} catch (IOException nfe) {
+			throw new RuntimeException("Recurso no encontrado: " + resourceId, nfe);
+		}
+		reader.computeBounds();
+		reader.generateLods();
+		reader.optimizeVertexCache();
+		reader.batchMeshes();
+		if (packVertices) {
+			reader.packVertices();
+		}
+		return reader;
+	}
+
+	// Como read(resources, resourceId, indexed, packVertices), pero a través del .m3d del recurso en
+	// cacheDir (null: sin caché): si existe sólo se mapea, y si no se escribe antes de agrupar las mallas.
+	// El resultado es el mismo en los dos casos
+	public static Resource3DSReader read(RawResources resources, int resourceId, boolean indexed, boolean packVertices, File cacheDir) {
+		if (cacheDir == null) {
+			return read(resources, resourceId, indexed, packVertices);
+		}
+		final File cache = new File(cacheDir, resourceId + (indexed ? "-indexed" : "") + MeshCache.EXTENSION);
+		Resource3DSReader reader = null;
+		if (cache.isFile()) {
+			try {
+				reader = new Resource3DSReader(indexed);
+				reader.readMeshCache(cache);
+				reader.computeBounds();
+			} catch (RuntimeException e) {
+				// De otra versión del formato, o cortado: se vuelve a generar
+				LOG.warning("[C] No se pudo usar " + cache + ": " + e.getMessage());
+				reader = null;
+			}
+		}
+		if (reader == null) {
+			reader = new Resource3DSReader(indexed);
+			try {
+				reader.read3DSFromStream(resources.open(resourceId));
+			} catch (IOException nfe) {
+				throw new RuntimeException("Recurso no encontrado: " + resourceId, nfe);
+			}
+			reader.computeBounds();
+			reader.generateLods();
+			reader.optimizeVertexCache();
+			writeCache(reader, cache);
+		}
+		// Mismos lotes con o sin caché: las vistas del .m3d se copian al juntarlas o empaquetarlas
+		reader.batchMeshes(true);
+		if (packVertices) {
+			reader.packVertices();
+		}
+		return reader;
+	}
+
+	// Escribe el .m3d en un temporal y lo renombra, así nadie mapea un fichero a medias. Sin caché
+	// la carga sigue adelante
+	private static void writeCache(Resource3DSReader reader, File cache) {
+		File temporary = null;
+		try {
+			if (!cache.getParentFile().isDirectory() && !cache.getParentFile().mkdirs()) {
+				throw new IOException("No se pudo crear el directorio: " + cache.getParentFile());
+			}
+			temporary = File.createTempFile(cache.getName(), ".tmp", cache.getParentFile());
+			MeshCache.write(reader, temporary);
+			if (!temporary.renameTo(cache)) {
+				throw new IOException("No se pudo renombrar " + temporary + " a " + cache.getName());
+			}
+		} catch (IOException e) {
+			LOG.warning("[C] No se pudo guardar " + cache + ": " + e.getMessage());
+			if (temporary != null) {
+				temporary.delete();
+			}
+		}
+	}
+
+	// Los buffers del .m3d son vistas de solo lectura del fichero mapeado, que se suben a la GPU sin
+	// copiarlos. Por eso aquí sólo se calculan los volúmenes envolventes y un lote por malla: el
+	// empaquetado y la fusión de mallas crearían copias. Los niveles de detalle y el orden para la caché
+	// de vértices ya los guarda MeshCacheConverter, así que la simplificación no se repite al cargar.
+	public static Resource3DSReader read(File meshFile) {
+		Resource3DSReader reader = new Resource3DSReader();
+		reader.readMeshCache(meshFile);
+		reader.computeBounds();
+		reader.batchMeshes();
+		return reader;
+	}
+
+	// Resultado de una carga ya terminada; los errores del hilo de carga se relanzan aquí
+	public static Resource3DSReader get(Future<Resource3DSReader> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException("No se pudo cargar el modelo", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Carga del modelo interrumpida", e);
+		}
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
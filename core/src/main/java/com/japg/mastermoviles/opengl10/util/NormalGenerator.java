@@ -0,0 +1,128 @@
+package com.japg.mastermoviles.opengl10.util;
+
+/* Normales por vértice teniendo en cuenta los grupos de suavizado del 3DS.
+*
+*  Para cada esquina de cada cara se promedian las normales (ponderadas por área) de las caras
+*  que comparten esa posición y al menos un bit de grupo de suavizado con ella. Las caras sin
+*  grupo (0) se quedan con su normal plana.
+*
+*  Las posiciones repetidas (el 3DS duplica vértices en las costuras de uv's) se sueldan antes,
+*  y las caras adyacentes a cada posición se guardan en formato CSR (offsets + lista), de modo
+*  que el coste es lineal en el número de caras.
+*/
+public class NormalGenerator {
+
+	// Devuelve 9 floats por cara: la normal (A, B, C) de cada una de sus tres esquinas
+	public static float[] smoothNormals(float[] vertices, int numVer, int[] faces, int numPol, int[] smooth) {
+		final float[] normals = new float[numPol*9];
+		final float[] faceNormals = faceNormals(vertices, faces, numPol);
+		final int[] position = weldPositions(vertices, numVer);
+
+		// Caras adyacentes a cada posición soldada (CSR)
+		final int[] start = new int[numVer + 1];
+		for (int i=0; i<numPol*3; i++) {
+			start[position[faces[i]] + 1]++;
+		}
+		for (int p=0; p<numVer; p++) {
+			start[p + 1] += start[p];
+		}
+		final int[] adjacent = new int[numPol*3];
+		final int[] fill = new int[numVer];
+		for (int i=0; i<numPol*3; i++) {
+			final int p = position[faces[i]];
+			adjacent[start[p] + fill[p]++] = i / 3;
+		}
+
+		final float[] N = new float[3];
+		for (int f=0; f<numPol; f++) {
+			final int groups = smooth[f];
+			for (int j=0; j<3; j++) {
+				N[0] = faceNormals[f*3];
+				N[1] = faceNormals[f*3+1];
+				N[2] = faceNormals[f*3+2];
+				if (groups != 0) {
+					N[0] = N[1] = N[2] = 0.0f;
+					final int p = position[faces[f*3+j]];
+					for (int k=start[p]; k<start[p+1]; k++) {
+						final int g = adjacent[k];
+						if ((smooth[g] & groups) != 0) {
+							N[0] += faceNormals[g*3];
+							N[1] += faceNormals[g*3+1];
+							N[2] += faceNormals[g*3+2];
+						}
+					}
+					// Caras opuestas que se anulan: nos quedamos con la normal plana
+					if (N[0] == 0.0f && N[1] == 0.0f && N[2] == 0.0f) {
+						N[0] = faceNormals[f*3];
+						N[1] = faceNormals[f*3+1];
+						N[2] = faceNormals[f*3+2];
+					}
+				}
+				normalize(N);
+				normals[f*9+j*3]   = N[0];
+				normals[f*9+j*3+1] = N[1];
+				normals[f*9+j*3+2] = N[2];
+			}
+		}
+		return normals;
+	}
+
+	// Normal de cada cara sin normalizar (su módulo es el doble del área): N = (v2-v0) x (v1-v0)
+	private static float[] faceNormals(float[] vertices, int[] faces, int numPol) {
+		final float[] normals = new float[numPol*3];
+		for (int f=0; f<numPol; f++) {
+			final int a = faces[f*3]*3;
+			final int b = faces[f*3+1]*3;
+			final int c = faces[f*3+2]*3;
+			final float vax = vertices[c]   - vertices[a];
+			final float vay = vertices[c+1] - vertices[a+1];
+			final float vaz = vertices[c+2] - vertices[a+2];
+			final float vbx = vertices[b]   - vertices[a];
+			final float vby = vertices[b+1] - vertices[a+1];
+			final float vbz = vertices[b+2] - vertices[a+2];
+			normals[f*3]   = vay * vbz - vaz * vby;
+			normals[f*3+1] = vaz * vbx - vax * vbz;
+			normals[f*3+2] = vax * vby - vay * vbx;
+		}
+		return normals;
+	}
+
+	// Asigna a cada vértice el índice del primer vértice con la misma posición (tabla hash abierta)
+	private static int[] weldPositions(float[] vertices, int numVer) {
+		final int[] position = new int[numVer];
+		final int capacity = Integer.highestOneBit(Math.max(numVer, 1) * 2 - 1) << 1;
+		final int mask = capacity - 1;
+		final int[] table = new int[capacity];
+
+		for (int v=0; v<numVer; v++) {
+			final float x = vertices[v*3], y = vertices[v*3+1], z = vertices[v*3+2];
+			// + 0.0f hace que -0.0 y 0.0 caigan en la misma posición
+			int h = Float.floatToIntBits(x + 0.0f);
+			h = h * 31 + Float.floatToIntBits(y + 0.0f);
+			h = h * 31 + Float.floatToIntBits(z + 0.0f);
+			int slot = (h ^ (h >>> 16)) & mask;
+			position[v] = v;
+			while (table[slot] != 0) {
+				final int w = table[slot] - 1;
+				if (vertices[w*3] == x && vertices[w*3+1] == y && vertices[w*3+2] == z) {
+					position[v] = w;
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+			if (position[v] == v) {
+				table[slot] = v + 1;
+			}
+		}
+		return position;
+	}
+
+	private static void normalize(float[] N) {
+		double m = Math.sqrt(N[0]*N[0] + N[1]*N[1]+ N[2]*N[2]);
+		if (m>0) {
+			N[0] /= m;
+			N[1] /= m;
+			N[2] /= m;
+		}
+	}
+}
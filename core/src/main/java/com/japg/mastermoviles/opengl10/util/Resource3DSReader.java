@@ -0,0 +1,815 @@
+package com.japg.mastermoviles.opengl10.util;
+
+/* Copyright (C) 2014 Juan Antonio Puchol García
+ * Depto. Ciencia de la Computación e Inteligencia Artificial
+ * Universidad de Alicante
+ *
+ * Máster Universitario en Desarrollo de Software para Dispositivos Móviles
+ */
+
+import com.japg.mastermoviles.opengl10.render.MeshBounds;
+import com.japg.mastermoviles.opengl10.render.MeshLods;
+import com.japg.mastermoviles.opengl10.render.PackedVertices;
+import com.japg.mastermoviles.opengl10.render.StaticBatch;
+import com.japg.mastermoviles.opengl10.render.VertexCacheOptimizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+/* Versión 3.5 de Resource3DSReader
+*  Changelog:
+*    Cambios desde la versión 3.4:
+*       Sin dependencias de Android (módulo core, JVM puro): se lee desde un InputStream
+*       o un ByteBuffer, y los mensajes van a java.util.logging (logcat en Android).
+*    Cambios desde la versión 3.3:
+*       Normales por vértice según los grupos de suavizado (ver NormalGenerator).
+*       Las mallas sin grupos, o con setSmoothNormals(false), mantienen la normal plana.
+*    Cambios desde la versión 3.2:
+*       Decodificación en dos fases: primero se indexan los offsets de los chunks
+*       de cada malla (sólo cabeceras, sobre el buffer en memoria) y después cada
+*       malla se decodifica y expande de forma independiente, con sus propios
+*       vectores temporales, en paralelo sobre un ForkJoinPool. La salida es
+*       idéntica bit a bit a la decodificación en serie.
+*    Cambios desde la versión 3.1:
+*       Carga de mallas pre-calculadas en formato binario (.m3d, ver MeshCache)
+*       mapeando el fichero en memoria, sin parseo ni cálculo de normales.
+*    Cambios desde la versión 3.0:
+*       Modo indexado opcional: vértices únicos (posición, normal, uv) más un
+*       buffer de índices (short, o int si la malla supera 65536 vértices).
+*    Cambios desde la versión 2.5:
+*       Lectura en una sola pasada: el recurso se carga entero en un ByteBuffer
+*       (little-endian) y las listas de vértices, caras y uv's se decodifican en
+*       bloque a través de vistas tipadas. Ya no hay pasada previa de análisis.
+*    Cambios desde la versión 2.0:
+*    	Lee grupos de suavizado
+*    Cambios desde la versión 1.5:
+*       Lee múltiples mallas del recurso 3DS
+*    Cambios desde la versión 1.0:
+*       Se añade el cálculo de la normal y las coordenadas de texturas
+*       Cada vértice tiene 8 floats (x, y, z, A, B, C, u, v)
+*/
+
+public class Resource3DSReader {
+	private static final String TAG = "Resource3DSReader";
+	private static final Logger LOG = Logger.getLogger(TAG);
+
+	// Constantes
+	private static final int BYTES_PER_FLOAT = 4;
+	private static final int BYTES_PER_SHORT = 2;
+	private static final int BYTES_PER_INT   = 4;
+	private static final int MAX_SHORT_INDEX = 0xFFFF;
+	private static final int TRIMESH_SIZE    = 8*3;
+	private static final int CHUNK_HEADER    = BYTES_PER_SHORT + BYTES_PER_INT;
+
+	// Capacidad inicial de los vectores por malla (crecen según llegan los chunks)
+	private static final int INITIAL_MESHES  = 8;
+
+	// Identificadores de los trozos (chunks) del archivo que vamos a leer
+	// Descripción del formato en: http://es.wikipedia.org/wiki/.3ds
+	private static final int CHUNK_MAIN		= 0x4d4d;
+	private static final int CHUNK_OBJMESH	= 0x3d3d;
+	private static final int CHUNK_OBJBLOCK	= 0x4000;
+	private static final int CHUNK_TRIMESH	= 0x4100;
+	private static final int CHUNK_VERTLIST	= 0x4110;
+	private static final int CHUNK_FACELIST	= 0x4120;
+	private static final int CHUNK_MAPLIST	= 0x4140;
+	private static final int CHUNK_SMOOLIST	= 0x4150;
+
+	int[] numVer;
+	int[] numPol;
+	int[] numUv;
+
+	// Offset (en el buffer) de los datos de cada lista por malla, -1 si no existe
+	int[] vertOffset;
+	int[] faceOffset;
+	int[] uvOffset;
+	int[] smoothOffset;
+
+	// [Salida] Vectores (JNI) con la mallas de triángulos resultante, y su número de vértices. Tras
+	// batchMeshes, éstos, los índices, los vértices empaquetados y numMeshes son por lote
+	public FloatBuffer[]	dataBuffer;
+	public int[]			numVertices;
+
+	// [Salida, modo indexado] Índices (ShortBuffer o IntBuffer) y su número por malla
+	public Buffer[]			indexBuffer;
+	public int[]			numIndices;
+
+	// [Salida] Volúmenes envolventes de cada malla (ver computeBounds); se conservan tras releaseBuffers
+	public MeshBounds[]		bounds;
+
+	// [Salida, modo indexado] Niveles de detalle de cada malla (ver generateLods), null si no se han generado
+	public MeshLods[]		lods;
+
+	// [Salida] Vértices empaquetados a 16 bytes de cada malla (ver packVertices), null si no se han empaquetado
+	public PackedVertices[]	packedVertices;
+
+	// [Salida] Lotes de mallas (ver batchMeshes), null si no se han agrupado. bounds y lods siguen
+	// siendo de las mallas originales, las partes de cada lote
+	public StaticBatch[]	batches;
+
+	// Número de mallas
+	public int numMeshes;
+
+	boolean indexed;
+	private boolean verbose = LoggerConfig.ON;
+	private boolean smoothNormals = true;
+
+	// Decodificación en paralelo: pool propio (null = pool compartido) o en serie
+	private boolean parallel = true;
+	private ForkJoinPool pool;
+	private static ForkJoinPool sharedPool;
+
+	// Vectores temporales de una malla; cada tarea tiene los suyos
+	static class MeshScratch {
+		float[] vertexBuffer;
+		int[]	polBuffer;
+		float[]	uvBuffer;
+		int[]	smoothBuffer;
+		float[]	meshBuffer;
+		MeshIndexer indexer;
+	}
+
+	// Decodifica las mallas [from, to) dividiendo el rango entre los hilos del pool
+	private class MeshTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final ByteBuffer in;
+		private final int from;
+		private final int to;
+
+		MeshTask(ByteBuffer in, int from, int to) {
+			this.in = in;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				decodeMesh(in, from);
+			} else {
+				final int mid = (from + to) >>> 1;
+				invokeAll(new MeshTask(in, from, mid), new MeshTask(in, mid, to));
+			}
+		}
+	}
+
+	public Resource3DSReader() {
+		this(false);
+	}
+
+	public Resource3DSReader(boolean indexed) {
+		this.indexed = indexed;
+		numMeshes = -1;
+	}
+
+	public boolean isIndexed() {
+		return indexed;
+	}
+
+	// Permite desactivar las trazas (p.ej. al ejecutarse fuera de Android)
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	// Normales suavizadas según los grupos de suavizado (true) o una normal plana por cara (false)
+	public void setSmoothNormals(boolean smoothNormals) {
+		this.smoothNormals = smoothNormals;
+	}
+
+	// Activa o desactiva la decodificación en paralelo de las mallas
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	// Usa un pool concreto para decodificar las mallas (p.ej. para limitar el número de hilos)
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+		this.parallel = true;
+	}
+
+	private static synchronized ForkJoinPool sharedPool() {
+		if (sharedPool == null) {
+			sharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		}
+		return sharedPool;
+	}
+
+	private static void vector_cross(float[] N, float[] va, float[] vb) {
+		N[0] = va[1] * vb[2] - va[2] * vb[1];
+		N[1] = va[2] * vb[0] - va[0] * vb[2];
+		N[2] = va[0] * vb[1] - va[1] * vb[0];
+	}
+
+	private static void vector_normalize(float[] N) {
+		double m = Math.sqrt(N[0]*N[0] + N[1]*N[1]+ N[2]*N[2]);
+		if (m>0) {
+			N[0] /= m;
+			N[1] /= m;
+			N[2] /= m;
+		}
+	}
+
+	// Hace sitio para una malla más en los vectores por malla
+	private void growMeshes(int nM) {
+		if (nM < numVer.length) {
+			return;
+		}
+		final int capacity = numVer.length * 2;
+		numVer       = Arrays.copyOf(numVer, capacity);
+		numPol       = Arrays.copyOf(numPol, capacity);
+		numUv        = Arrays.copyOf(numUv, capacity);
+		vertOffset   = Arrays.copyOf(vertOffset, capacity);
+		faceOffset   = Arrays.copyOf(faceOffset, capacity);
+		uvOffset     = Arrays.copyOf(uvOffset, capacity);
+		smoothOffset = Arrays.copyOf(smoothOffset, capacity);
+	}
+
+	// Vista little-endian de length bytes a partir de offset, sin mover el buffer original. scanChunks ya
+	// ha comprobado con checkRegion que cada lista cabe en el fichero
+	private static ByteBuffer region(ByteBuffer in, int offset, int length) {
+		final ByteBuffer region = in.duplicate();
+		region.position(offset);
+		region.limit(offset + length);
+		return region.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	// Lanza IOException si los length bytes de la lista del chunk chunkId no caben en el fichero
+	private static void checkRegion(ByteBuffer in, int chunkId, int offset, int length) throws IOException {
+		if (offset >= 0 && (long) offset + length > in.limit()) {
+			throw new IOException(String.format("Fichero 3DS corrupto: el chunk 0x%04x necesita %d bytes desde %d "
+					+ "y el fichero acaba en %d", chunkId, length, offset, in.limit()));
+		}
+	}
+
+	// Número de elementos de una lista; el chunk tiene que estar dentro de un CHUNK_OBJBLOCK
+	private int readCount(ByteBuffer in, int chunkId) throws IOException {
+		checkMesh(chunkId);
+		if (in.remaining() < BYTES_PER_SHORT) {
+			throw new IOException(String.format("Fichero 3DS corrupto: el chunk 0x%04x está cortado", chunkId));
+		}
+		return in.getShort() & 0xFFFF;
+	}
+
+	private void checkMesh(int chunkId) throws IOException {
+		if (numMeshes < 0) {
+			throw new IOException(String.format("Fichero 3DS corrupto: chunk 0x%04x antes de cualquier "
+					+ "CHUNK_OBJBLOCK", chunkId));
+		}
+	}
+
+	private static void skip(ByteBuffer in, int bytes) {
+		in.position(in.position() + Math.max(0, Math.min(bytes, in.remaining())));
+	}
+
+	private static String readName(ByteBuffer in) {
+		StringBuilder name = new StringBuilder();
+		int l_byte;
+		int i = 0;
+		do {
+			l_byte = in.hasRemaining() ? in.get() & 0xFF : 0;
+			if (l_byte>0) {
+				name.append((char) l_byte);
+			}
+			i++;
+		} while(l_byte != 0 && i<20);
+		return name.toString();
+	}
+
+	private static ByteBuffer readStream(InputStream inputStream) throws IOException {
+		try {
+			byte[] data = new byte[Math.max(inputStream.available(), 8192)];
+			int size = 0;
+			int n;
+			while ((n = inputStream.read(data, size, data.length - size)) != -1) {
+				size += n;
+				if (size == data.length) {
+					data = Arrays.copyOf(data, data.length * 2);
+				}
+			}
+			return ByteBuffer.wrap(data, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	// Fase 1: offsets de los chunks de cada malla y vectores de salida; devuelve el total de polígonos
+	// (las fases tienen visibilidad de paquete para poder medirlas por separado, ver los benchmarks)
+	int scanChunks(ByteBuffer in) throws IOException {
+		resetMeshes();
+		final int totalPol = indexChunks(in);
+		numMeshes++;
+		checkLists(in);
+		allocateOutputs();
+		return totalPol;
+	}
+
+	// Comprueba que las listas de cada malla caben en el fichero con sus números definitivos (la de
+	// grupos de suavizado depende de numPol, que puede llegar después)
+	private void checkLists(ByteBuffer in) throws IOException {
+		for (int i=0; i<numMeshes; i++) {
+			checkRegion(in, CHUNK_VERTLIST, vertOffset[i], numVer[i]*3*BYTES_PER_FLOAT);
+			checkRegion(in, CHUNK_FACELIST, faceOffset[i], numPol[i]*4*BYTES_PER_SHORT);
+			checkRegion(in, CHUNK_MAPLIST, uvOffset[i], numUv[i]*2*BYTES_PER_FLOAT);
+			checkRegion(in, CHUNK_SMOOLIST, smoothOffset[i], numPol[i]*BYTES_PER_INT);
+		}
+	}
+
+	private void resetMeshes() {
+		numMeshes = -1;
+		numVer = new int[INITIAL_MESHES];
+		numPol = new int[INITIAL_MESHES];
+		numUv  = new int[INITIAL_MESHES];
+		vertOffset   = new int[INITIAL_MESHES];
+		faceOffset   = new int[INITIAL_MESHES];
+		uvOffset     = new int[INITIAL_MESHES];
+		smoothOffset = new int[INITIAL_MESHES];
+	}
+
+	// Recorre las cabeceras de los chunks y anota dónde empiezan los datos de cada malla
+	private int indexChunks(ByteBuffer in) throws IOException {
+		int 	l_chunk_id;
+		int 	l_chunk_length;
+		int		n;
+		int		totalPol = 0;
+		String name;
+
+		// Bucle para leer los trozos (chunks) mientras quede una cabecera completa
+		while (in.remaining() >= CHUNK_HEADER) {
+
+			// Lee la cabecera, id y longitud
+			l_chunk_id = in.getShort() & 0xFFFF;
+			l_chunk_length = in.getInt();
+			switch (l_chunk_id)
+		    {
+		    	case CHUNK_MAIN:
+
+				case CHUNK_TRIMESH:
+
+				case CHUNK_OBJMESH:
+					break;
+
+				case CHUNK_OBJBLOCK:
+		        	name = readName(in);
+		            numMeshes++;
+		            growMeshes(numMeshes);
+		            numVer[numMeshes] = 0;
+		            numPol[numMeshes] = 0;
+		            numUv[numMeshes]  = 0;
+		            vertOffset[numMeshes]   = -1;
+		            faceOffset[numMeshes]   = -1;
+		            uvOffset[numMeshes]     = -1;
+		            smoothOffset[numMeshes] = -1;
+		            if (verbose) {
+		        		LOG.warning("[R] CHUNK_OBJBLOCK [" + numMeshes + "]: " + name);
+					}
+		            break;
+
+				case CHUNK_VERTLIST:
+		        	n = readCount(in, l_chunk_id);
+		        	numVer[numMeshes] = n;
+		        	vertOffset[numMeshes] = in.position();
+		        	skip(in, n*3*BYTES_PER_FLOAT);
+		            break;
+
+		        case CHUNK_FACELIST:
+		        	// Cada cara son 4 shorts: (a, b, c, flags); le siguen sus sub-chunks
+		        	n = readCount(in, l_chunk_id);
+		        	numPol[numMeshes] = n;
+		        	faceOffset[numMeshes] = in.position();
+		        	totalPol += n;
+		        	skip(in, n*4*BYTES_PER_SHORT);
+		            break;
+
+		        case CHUNK_MAPLIST:
+		        	n = readCount(in, l_chunk_id);
+		        	numUv[numMeshes] = n;
+		        	uvOffset[numMeshes] = in.position();
+		        	if (verbose) {
+						LOG.warning("[R] Número de uv's: " + n);
+					}
+		        	skip(in, n*2*BYTES_PER_FLOAT);
+		            break;
+
+		        case CHUNK_SMOOLIST:
+		        	checkMesh(l_chunk_id);
+		        	if (verbose) {
+						LOG.warning("[R] Leyendo smoothgroup... ");
+		        	}
+		        	smoothOffset[numMeshes] = in.position();
+		        	skip(in, numPol[numMeshes]*BYTES_PER_INT);
+		        	break;
+		        default:
+		        	skip(in, l_chunk_length-CHUNK_HEADER);
+		        	break;
+		    }
+		}
+		return totalPol;
+	}
+
+	// Lee en bloque las listas de la malla nM y la expande; sólo usa sus propios vectores temporales
+	private void decodeMesh(ByteBuffer in, int nM) {
+		expandVertices(nM, readLists(in, nM));
+	}
+
+	// Listas de vértices, caras, uv's y grupos de suavizado de la malla nM
+	MeshScratch readLists(ByteBuffer in, int nM) {
+		final MeshScratch s = new MeshScratch();
+		final int nV = numVer[nM];
+		final int nP = numPol[nM];
+		final int nU = numUv[nM];
+		int i;
+
+		s.vertexBuffer = new float[nV*3];
+		if (vertOffset[nM] >= 0) {
+			region(in, vertOffset[nM], nV*3*BYTES_PER_FLOAT).asFloatBuffer().get(s.vertexBuffer);
+		}
+
+		s.polBuffer = new int[nP*3];
+		if (faceOffset[nM] >= 0) {
+			final short[] faces = new short[nP*4];
+			region(in, faceOffset[nM], nP*4*BYTES_PER_SHORT).asShortBuffer().get(faces);
+			for (i=0; i<nP; i++) {
+				s.polBuffer[i*3]   = faces[i*4]   & 0xFFFF;
+				s.polBuffer[i*3+1] = faces[i*4+1] & 0xFFFF;
+				s.polBuffer[i*3+2] = faces[i*4+2] & 0xFFFF;
+			}
+		}
+
+		s.uvBuffer = new float[nU*2];
+		if (uvOffset[nM] >= 0) {
+			region(in, uvOffset[nM], nU*2*BYTES_PER_FLOAT).asFloatBuffer().get(s.uvBuffer);
+			for (i=0; i<nU; i++) {
+				s.uvBuffer[i*2+1] = 1.0f - s.uvBuffer[i*2+1];
+			}
+		}
+
+		if (smoothOffset[nM] >= 0) {
+			s.smoothBuffer = new int[nP];
+			region(in, smoothOffset[nM], nP*BYTES_PER_INT).asIntBuffer().get(s.smoothBuffer);
+		}
+		return s;
+	}
+
+	void expandVertices(int nM, MeshScratch s) {
+		int i, j, pos;
+
+		float[]	va = new float[3];
+		float[] vb = new float[3];
+		float[] N  = new float[3];
+
+		final float[] vertexBuffer = s.vertexBuffer;
+		final int[] polBuffer = s.polBuffer;
+		final float[] uvBuffer = s.uvBuffer;
+
+		final int size = numPol[nM] * TRIMESH_SIZE;
+		final float[] mesh = s.meshBuffer = new float[size];
+
+		// Normales por esquina si la malla trae grupos de suavizado
+		final float[] smoothN = smoothNormals && s.smoothBuffer != null
+				? NormalGenerator.smoothNormals(vertexBuffer, numVer[nM], polBuffer, numPol[nM], s.smoothBuffer)
+				: null;
+
+		// Crea la malla de triángulos
+		for (i=0; i<numPol[nM]; i++) {
+
+			// Para cada vértice
+			for(j=0;j<3;j++) {
+				pos = polBuffer[i*3+j];
+
+				// Añadimos (x, y, z)
+				mesh[i*24+j*8]   = vertexBuffer[pos*3];
+				mesh[i*24+j*8+1] = vertexBuffer[pos*3+1];
+				mesh[i*24+j*8+2] = vertexBuffer[pos*3+2];
+
+				// Añadimos las coordenadas de textura (u,v)
+				if (numUv[nM]>0) {
+					mesh[24*i+j*8+6] = uvBuffer[pos*2];
+					mesh[24*i+j*8+7] = uvBuffer[pos*2+1];
+				} else {
+					mesh[24*i+j*8+6] = 0.0f;
+					mesh[24*i+j*8+7] = 0.0f;
+				}
+			}
+			if (smoothN != null) {
+				for(j=0;j<3;j++) {
+					mesh[i*24+j*8+3] = smoothN[i*9+j*3];
+					mesh[i*24+j*8+4] = smoothN[i*9+j*3+1];
+					mesh[i*24+j*8+5] = smoothN[i*9+j*3+2];
+				}
+				continue;
+			}
+			// Para cada triángulo se calcula la normal N = va x vb
+			for (j=0; j<3; j++) {
+				va[j] = mesh[i*24+8*2+j] - mesh[i*24+j];
+				vb[j] = mesh[i*24+8+j]   - mesh[i*24+j];
+			}
+			vector_cross(N, va, vb);
+			vector_normalize(N);
+
+			// Añadimos las normal N(A, B, C)
+			for(j=0;j<3;j++) {
+				mesh[i*24+j*8+3] = N[0];
+				mesh[i*24+j*8+4] = N[1];
+				mesh[i*24+j*8+5] = N[2];
+			}
+
+		}
+
+		if (indexed) {
+			indexVertices(nM, s, numPol[nM]*3);
+			return;
+		}
+
+		// Crea un buffer en JNI (Java Native Interface) y lo copia en bloque
+		dataBuffer[nM] = ByteBuffer
+					.allocateDirect(size * BYTES_PER_FLOAT)
+					.order(ByteOrder.nativeOrder())
+					.asFloatBuffer();
+		dataBuffer[nM].put(mesh, 0, size).position(0);
+		numVertices[nM] = numPol[nM]*3;
+	}
+
+	// Fusiona los vértices repetidos de la malla expandida y genera los índices
+	private void indexVertices(int nM, MeshScratch s, int vertexCount) {
+		final MeshIndexer indexer = s.indexer = new MeshIndexer();
+		final int unique = indexer.index(s.meshBuffer, vertexCount);
+
+		dataBuffer[nM] = ByteBuffer
+					.allocateDirect(unique * MeshIndexer.FLOATS_PER_VERTEX * BYTES_PER_FLOAT)
+					.order(ByteOrder.nativeOrder())
+					.asFloatBuffer();
+		dataBuffer[nM].put(indexer.vertices, 0, unique * MeshIndexer.FLOATS_PER_VERTEX).position(0);
+		numVertices[nM] = unique;
+		numIndices[nM] = vertexCount;
+
+		final int indexBytes;
+		if (unique <= MAX_SHORT_INDEX + 1) {
+			ShortBuffer indices = ByteBuffer
+					.allocateDirect(vertexCount * BYTES_PER_SHORT)
+					.order(ByteOrder.nativeOrder())
+					.asShortBuffer();
+			for (int i=0; i<vertexCount; i++) {
+				indices.put(i, (short) indexer.indices[i]);
+			}
+			indexBuffer[nM] = indices;
+			indexBytes = vertexCount * BYTES_PER_SHORT;
+		} else {
+			IntBuffer indices = ByteBuffer
+					.allocateDirect(vertexCount * BYTES_PER_INT)
+					.order(ByteOrder.nativeOrder())
+					.asIntBuffer();
+			indices.put(indexer.indices, 0, vertexCount).position(0);
+			indexBuffer[nM] = indices;
+			indexBytes = vertexCount * BYTES_PER_INT;
+		}
+
+		if (verbose) {
+			final int stride = MeshIndexer.FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+			LOG.warning("[I] Malla " + nM + ": " + vertexCount + " -> " + unique + " vértices, "
+					+ (vertexCount * stride) + " -> " + (unique * stride + indexBytes) + " bytes ("
+					+ (unique * stride) + " vértices + " + indexBytes + " índices)");
+		}
+	}
+
+	private void logIndexedTotals(int totalPol) {
+		final int stride = MeshIndexer.FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+		long before = (long) totalPol * 3 * stride;
+		long after = 0;
+		int unique = 0;
+		for (int i=0; i<numMeshes; i++) {
+			unique += numVertices[i];
+			after += (long) numVertices[i] * stride;
+			after += (long) numIndices[i] * (indexBuffer[i] instanceof IntBuffer ? BYTES_PER_INT : BYTES_PER_SHORT);
+		}
+		LOG.warning("[I] Total: " + (totalPol * 3) + " -> " + unique + " vértices, "
+				+ before + " -> " + after + " bytes");
+	}
+
+	// Calcula la caja, la esfera y la jerarquía de clusters de cada malla. Si los buffers de salida se
+	// pueden escribir, reordena sus triángulos para que cada cluster sea un rango contiguo. Con niveles
+	// de detalle (un .m3d que los trae) sólo cuenta el nivel 0
+	public void computeBounds() {
+		bounds = new MeshBounds[numMeshes];
+		for (int i=0; i<numMeshes; i++) {
+			final int level0 = !indexed ? 0 : lods != null ? lods[i].getCount(0) : numIndices[i];
+			bounds[i] = MeshBounds.build(dataBuffer[i], numVertices[i], indexed ? indexBuffer[i] : null, level0);
+		}
+	}
+
+	// Simplifica cada malla indexada en varios niveles de detalle. Los índices de todos los niveles
+	// pasan a indexBuffer (el nivel 0 primero) y numIndices cuenta todos; llamar después de computeBounds
+	public void generateLods() {
+		if (!indexed) {
+			return;
+		}
+		lods = new MeshLods[numMeshes];
+		for (int i=0; i<numMeshes; i++) {
+			lods[i] = MeshLods.generate(dataBuffer[i], numVertices[i], indexBuffer[i], numIndices[i]);
+			indexBuffer[i] = lods[i].getIndices();
+			numIndices[i] = lods[i].getIndexCount();
+		}
+	}
+
+	// Reordena los triángulos de cada malla indexada para la caché de vértices post-transformación (ver
+	// VertexCacheOptimizer), cluster a cluster en el nivel 0 y nivel a nivel en los demás, y después los
+	// vértices por orden de primer uso. Llamar después de computeBounds y generateLods. Los buffers de
+	// solo lectura (.m3d mapeado) se quedan como están: MeshCacheConverter ya los guarda optimizados
+	public void optimizeVertexCache() {
+		if (!indexed) {
+			return;
+		}
+		for (int i=0; i<numMeshes; i++) {
+			final Buffer indices = indexBuffer[i];
+			if (indices.isReadOnly()) {
+				continue;
+			}
+			final int[] list = new int[numIndices[i]];
+			for (int k=0; k<list.length; k++) {
+				list[k] = indices instanceof IntBuffer ? ((IntBuffer) indices).get(k) : ((ShortBuffer) indices).get(k) & 0xFFFF;
+			}
+			final int level0 = lods != null ? lods[i].getCount(0) : numIndices[i];
+			final float before = VertexCacheOptimizer.acmr(list, 0, level0, VertexCacheOptimizer.FIFO_SIZE);
+
+			// Los triángulos no salen de su cluster (nivel 0) ni de su nivel
+			final VertexCacheOptimizer optimizer = new VertexCacheOptimizer(numVertices[i]);
+			if (bounds != null) {
+				final int[] ranges = new int[bounds[i].getMaxRanges()];
+				final int clusters = bounds[i].getClusterRanges(ranges);
+				for (int c=0; c<clusters; c++) {
+					optimizer.optimize(list, ranges[c * 2], ranges[c * 2 + 1]);
+				}
+			} else {
+				optimizer.optimize(list, 0, level0);
+			}
+			for (int l=1; lods != null && l<lods[i].getLevelCount(); l++) {
+				optimizer.optimize(list, lods[i].getFirst(l), lods[i].getCount(l));
+			}
+
+			if (!dataBuffer[i].isReadOnly()) {
+				final int[] remap = VertexCacheOptimizer.fetchOrder(list, list.length, numVertices[i]);
+				for (int k=0; k<list.length; k++) {
+					list[k] = remap[list[k]];
+				}
+				final int floats = MeshIndexer.FLOATS_PER_VERTEX;
+				final float[] vertices = new float[numVertices[i] * floats];
+				final float[] reordered = new float[vertices.length];
+				dataBuffer[i].position(0);
+				dataBuffer[i].get(vertices);
+				for (int v=0; v<numVertices[i]; v++) {
+					System.arraycopy(vertices, v * floats, reordered, remap[v] * floats, floats);
+				}
+				dataBuffer[i].position(0);
+				dataBuffer[i].put(reordered).position(0);
+			}
+			for (int k=0; k<list.length; k++) {
+				if (indices instanceof IntBuffer) {
+					((IntBuffer) indices).put(k, list[k]);
+				} else {
+					((ShortBuffer) indices).put(k, (short) list[k]);
+				}
+			}
+			if (verbose) {
+				LOG.warning(String.format("[V] Malla %d: ACMR %.3f -> %.3f (FIFO de %d)", i, before,
+						VertexCacheOptimizer.acmr(list, 0, level0, VertexCacheOptimizer.FIFO_SIZE), VertexCacheOptimizer.FIFO_SIZE));
+			}
+		}
+	}
+
+	// Junta las mallas consecutivas en lotes de hasta 65536 vértices (ver StaticBatch), que se dibujan
+	// con un solo juego de buffers; las mallas mayores forman un lote ellas solas y no se copian.
+	// Llamar después de computeBounds, generateLods y optimizeVertexCache, y antes de packVertices.
+	// Con buffers de solo lectura (.m3d mapeado) cada malla es su propio lote, así no se copia nada
+	public void batchMeshes() {
+		batchMeshes(numMeshes == 0 || !dataBuffer[0].isReadOnly());
+	}
+
+	// merge: lotes de varias mallas, copiando sus buffers aunque sean de solo lectura (p.ej. un .m3d
+	// que se va a empaquetar de todas formas), o un lote por malla
+	public void batchMeshes(boolean merge) {
+		final int[] indexCounts = indexed ? numIndices : null;
+		batches = merge ? StaticBatch.plan(numVertices, indexCounts, lods, numMeshes)
+				: StaticBatch.perMesh(numVertices, indexCounts, lods, numMeshes);
+		final FloatBuffer[] batchData = new FloatBuffer[batches.length];
+		final int[] batchVertices = new int[batches.length];
+		final Buffer[] batchIndices = indexed ? new Buffer[batches.length] : null;
+		final int[] batchIndexCount = indexed ? new int[batches.length] : null;
+		for (int b=0; b<batches.length; b++) {
+			batchData[b] = batches[b].mergeVertices(dataBuffer);
+			batchVertices[b] = batches[b].getVertexCount();
+			if (indexed) {
+				batchIndices[b] = batches[b].mergeIndices(indexBuffer);
+				batchIndexCount[b] = batches[b].getIndexCount();
+			}
+		}
+		if (verbose) {
+			LOG.warning("[B] " + numMeshes + " malla(s) en " + batches.length + " lote(s): " + numMeshes + " -> "
+					+ batches.length + " llamadas de dibujo con todo visible.");
+		}
+		dataBuffer = batchData;
+		numVertices = batchVertices;
+		indexBuffer = batchIndices;
+		numIndices = batchIndexCount;
+		numMeshes = batches.length;
+	}
+
+	// Empaqueta los vértices de cada malla en 16 bytes (posición, normal y uv como enteros normalizados de
+	// 16 bits, ver PackedVertices) y libera los de floats, que ocupan el doble; llamar al final, después de
+	// computeBounds y generateLods, que trabajan sobre los floats
+	public void packVertices() {
+		packedVertices = new PackedVertices[numMeshes];
+		for (int i=0; i<numMeshes; i++) {
+			packedVertices[i] = PackedVertices.pack(dataBuffer[i], numVertices[i]);
+			dataBuffer[i] = null;
+		}
+	}
+
+	// Libera los buffers de salida (p.ej. una vez copiados a la GPU); se conservan los contadores
+	public void releaseBuffers() {
+		if (dataBuffer != null) {
+			Arrays.fill(dataBuffer, null);
+		}
+		if (packedVertices != null) {
+			Arrays.fill(packedVertices, null);
+		}
+		if (indexBuffer != null) {
+			Arrays.fill(indexBuffer, null);
+		}
+	}
+
+	// Carga un fichero .m3d generado por MeshCacheConverter; los buffers de salida son vistas del mapeo
+	// y los niveles de detalle, si los hay, rangos de sus índices
+	public int readMeshCache(File file) {
+		try {
+			MeshCache.read(MeshCache.map(file), this);
+		} catch (IOException e) {
+			throw new RuntimeException("No se pudo abrir el fichero: " + file, e);
+		}
+		if (verbose) {
+			LOG.warning("[M] Fichero " + file.getName() + " mapeado, con " + numMeshes + " malla(s).");
+		}
+		return numMeshes;
+	}
+
+	private void allocateOutputs() {
+		dataBuffer = new FloatBuffer[numMeshes];
+		numVertices = new int[numMeshes];
+		if (indexed) {
+			numIndices = new int[numMeshes];
+			indexBuffer = new Buffer[numMeshes];
+		}
+	}
+
+	// Lee el 3DS entero del stream (y lo cierra)
+	public int read3DSFromStream(InputStream inputStream) {
+		final ByteBuffer buffer;
+		try {
+			buffer = readStream(inputStream);
+		} catch (IOException e) {
+			throw new RuntimeException("No se pudo leer el 3DS", e);
+		}
+		return read3DSFromBuffer(buffer);
+	}
+
+	public int read3DSFromBuffer(ByteBuffer buffer) {
+		final ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+		if (verbose) {
+			LOG.warning("[R] Leyendo 3DS...");
+		}
+
+		final int totalPol;
+		try {
+			totalPol = scanChunks(in);
+		} catch (IOException e) {
+			throw new RuntimeException("No se pudo leer el 3DS", e);
+		}
+
+		// Cada malla escribe sólo en su posición de los vectores de salida
+		if (parallel && numMeshes > 1) {
+			(pool != null ? pool : sharedPool()).invoke(new MeshTask(in, 0, numMeshes));
+		} else {
+			for (int i=0; i<numMeshes; i++) {
+				decodeMesh(in, i);
+			}
+		}
+
+		if (verbose) {
+			LOG.warning("[R] Recurso 3DS leído correctamente, con " + numMeshes + " malla(s) y " + totalPol + " polígonos.");
+			if (indexed) {
+				logIndexedTotals(totalPol);
+			}
+		}
+		return numMeshes;
+	}
+}
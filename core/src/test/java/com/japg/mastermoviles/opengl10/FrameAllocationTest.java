@@ -0,0 +1,125 @@
+package com.japg.mastermoviles.opengl10;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.japg.mastermoviles.opengl10.input.TouchChannel;
+import com.japg.mastermoviles.opengl10.math.Mat4;
+import com.japg.mastermoviles.opengl10.perf.FrameStats;
+import com.japg.mastermoviles.opengl10.render.DrawQueue;
+import com.japg.mastermoviles.opengl10.render.FrameScheduler;
+import com.japg.mastermoviles.opengl10.render.RecordingGl;
+import com.japg.mastermoviles.opengl10.util.ModelLoader;
+import com.japg.mastermoviles.opengl10.util.TestModels;
+
+import org.junit.Test;
+
+import java.io.FileInputStream;
+import java.lang.management.ManagementFactory;
+
+// Once the models are resident, a frame of OpenGLRenderer allocates nothing: touch, easing, matrices,
+// culling, levels of detail and draws all write into arrays that already exist
+public class FrameAllocationTest {
+	private static final int HEAD = 1;
+	private static final int CAR = 2;
+	private static final int TEXTURE = 1;
+	// Enough for the JIT to compile the frame path before it is measured
+	private static final int WARMUP_FRAMES = 20_000;
+	private static final int FRAMES = 5_000;
+	private static final long PERIOD = 16_666_667L;
+
+	private static final ModelLoader.RawResources RESOURCES =
+			resourceId -> new FileInputStream(TestModels.file(resourceId == HEAD ? "cabeza_mario_6.3ds" : "t90a.3ds"));
+
+	private final float[] projectionMatrix = new float[16];
+	private final FrameStats frameStats = new FrameStats(64);
+	private final TouchChannel touch = new TouchChannel();
+	private final FrameScheduler scheduler = new FrameScheduler(() -> { });
+	private DrawQueue drawQueue;
+	private ModelObject head;
+	private ModelObject car;
+	private long now;
+
+	@Test
+	public void framesAllocateNothing() {
+		final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		assumeTrue("Allocation counters not available", threads instanceof com.sun.management.ThreadMXBean);
+		final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		assumeTrue(allocations.isThreadAllocatedMemorySupported());
+		allocations.setThreadAllocatedMemoryEnabled(true);
+
+		final RecordingGl gl = new RecordingGl();
+		drawQueue = new DrawQueue(gl.newBackend());
+		drawQueue.init();
+		drawQueue.setFrameStats(frameStats);
+		drawQueue.setViewport(540, 960);
+		Mat4.perspective(projectionMatrix, 0, 45f, 540f / 960f, 0.01f, 1000f);
+		head = newModel(HEAD);
+		car = newModel(CAR);
+		assertTrue(head.isLoaded() && car.isLoaded());
+
+		gl.setRecording(false);
+		for (int f=0; f<WARMUP_FRAMES; f++) {
+			drawFrame(f);
+		}
+		final long thread = Thread.currentThread().getId();
+		final long before = allocations.getThreadAllocatedBytes(thread);
+		for (int f=0; f<FRAMES; f++) {
+			drawFrame(f);
+		}
+		final long bytes = allocations.getThreadAllocatedBytes(thread) - before;
+		assertEquals("Bytes allocated by " + FRAMES + " frames", 0, bytes);
+		// The frames did draw, with culling and levels of detail at work
+		assertTrue(head.getDrawCalls() > 0);
+		assertEquals(WARMUP_FRAMES + FRAMES, frameStats.getFrameCount());
+	}
+
+	//------------------------------------------
+	private ModelObject newModel(int resourceId) {
+		final ModelObject model = new ModelObject(RESOURCES, resourceId, TEXTURE, 0, 0, -5, true);
+		model.setViewportHeight(960);
+		model.loadTexture(drawQueue);
+		return model;
+	}
+
+	// OpenGLRenderer.onDrawFrame with a touch stream: drags all around, and a pinch that takes the models
+	// from 5 to 65 units away and back, through their levels of detail
+	private void drawFrame(int frame) {
+		final float angle = frame * 0.01f;
+		touch.move((float) Math.sin(angle), (float) Math.cos(angle * 0.7f));
+		touch.pinch(0f, 0f, 1f + 1.5f * (1f - (float) Math.cos(angle * 0.3f)), 0f);
+
+		now += PERIOD;
+		final float deltaSeconds = scheduler.beginFrame(now);
+		frameStats.beginFrame();
+		frameStats.beginPhase(FrameStats.UPDATE);
+		if (touch.poll()) {
+			if (touch.hasDrag()) {
+				head.setdst(-touch.getDragY() * 180f, touch.getDragX() * 180f);
+				car.setdst(-touch.getDragY() * 180f, touch.getDragX() * 180f);
+			}
+			head.zoom(-touch.getPinchChange() * 20f);
+			car.zoom(-touch.getPinchChange() * 20f);
+		}
+		head.updatePosition(deltaSeconds);
+		car.updatePosition(deltaSeconds);
+		frameStats.endPhase(FrameStats.UPDATE);
+
+		frameStats.beginPhase(FrameStats.MATRICES);
+		head.updateMatrices(projectionMatrix);
+		car.updateMatrices(projectionMatrix);
+		frameStats.endPhase(FrameStats.MATRICES);
+
+		frameStats.beginPhase(FrameStats.DRAW);
+		drawQueue.beginFrame();
+		head.drawObject();
+		car.drawObject();
+		drawQueue.endFrame();
+		frameStats.endPhase(FrameStats.DRAW);
+		frameStats.count(FrameStats.CLUSTERS_DRAWN, head.getDrawnClusters() + car.getDrawnClusters());
+		frameStats.count(FrameStats.CLUSTERS_CULLED, head.getCulledClusters() + car.getCulledClusters());
+		frameStats.endFrame();
+		scheduler.endFrame(scheduler.isMoving(head.getRemainingRotation()) || scheduler.isMoving(car.getRemainingRotation()));
+	}
+}
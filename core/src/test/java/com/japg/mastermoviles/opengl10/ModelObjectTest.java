@@ -0,0 +1,253 @@
+package com.japg.mastermoviles.opengl10;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.japg.mastermoviles.opengl10.math.Mat4;
+import com.japg.mastermoviles.opengl10.render.FrameScheduler;
+import com.japg.mastermoviles.opengl10.render.GLES20Backend;
+import com.japg.mastermoviles.opengl10.render.RecordingGl;
+import com.japg.mastermoviles.opengl10.util.ModelLoader;
+import com.japg.mastermoviles.opengl10.util.TestModels;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The first frames of OpenGLRenderer on a GL that only records: models arrive within the per-frame
+// upload budget, and once they are resident frames send no vertex data at all
+public class ModelObjectTest {
+	private static final int HEAD = 1;
+	private static final int CAR = 2;
+	private static final int TEXTURE = 1;
+	// As OpenGLRenderer
+	private static final int UPLOAD_BUDGET_BYTES = 512 * 1024;
+	private static final long TIMEOUT_NANOS = 60_000_000_000L;
+
+	private static final ModelLoader.RawResources RESOURCES =
+			resourceId -> new FileInputStream(TestModels.file(resourceId == HEAD ? "cabeza_mario_6.3ds" : "t90a.3ds"));
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	// Resources opened by the models of the test
+	private final AtomicInteger opened = new AtomicInteger();
+	private final ModelLoader.RawResources counted = resourceId -> {
+		opened.incrementAndGet();
+		return RESOURCES.open(resourceId);
+	};
+	private final float[] projectionMatrix = new float[16];
+	private RecordingGl gl;
+	private GLES20Backend backend;
+	private ModelLoader loader;
+
+	@Before
+	public void setUp() {
+		gl = new RecordingGl();
+		backend = gl.newBackend();
+		backend.init();
+		backend.setViewport(540, 960);
+		Mat4.perspective(projectionMatrix, 0, 45f, 540f / 960f, 0.01f, 1000f);
+		loader = new ModelLoader(2);
+		loader.setPackVertices(true);
+	}
+
+	@After
+	public void tearDown() {
+		loader.shutdown();
+	}
+
+	@Test
+	public void firstFrameStaysWithinTheUploadBudget() throws InterruptedException {
+		final ModelObject head = newModel(HEAD);
+		final ModelObject car = newModel(CAR);
+		final long start = System.nanoTime();
+		int frames = 0;
+		int uploadFrames = 0;
+		while (!head.isLoaded() || !car.isLoaded()) {
+			assertTrue("Models not loaded in time", System.nanoTime() - start < TIMEOUT_NANOS);
+			gl.reset();
+			final int uploaded = drawFrame(head, car);
+			frames++;
+			assertEquals(uploaded, gl.bufferBytes());
+			final List<Integer> sizes = gl.bufferSizes();
+			if (sizes.isEmpty()) {
+				// Still parsing on the loader threads
+				Thread.sleep(1);
+				continue;
+			}
+			uploadFrames++;
+			// Only the last mesh of the frame (vertices and indices) may go over the budget
+			long beforeLast = 0;
+			for (int i=0; i<sizes.size() - 2; i++) {
+				beforeLast += sizes.get(i);
+			}
+			assertTrue("Frame " + frames + " uploaded " + uploaded + " bytes", beforeLast < UPLOAD_BUDGET_BYTES);
+		}
+		// The car alone is about 1 MB of vertices: more than one frame of budget
+		assertTrue(uploadFrames > 1);
+
+		// The first complete frame, and all of the later ones, only draw
+		for (int f=0; f<10; f++) {
+			gl.reset();
+			assertEquals(0, drawFrame(head, car));
+			assertEquals(0, gl.count("glBufferData"));
+			assertTrue(gl.count("glDrawElements") > 0);
+		}
+	}
+
+	// Without a loader the model is read right away and uploaded whole by loadTexture
+	@Test
+	public void synchronousModelsAreResidentBeforeTheFirstFrame() {
+		final ModelObject head = new ModelObject(RESOURCES, HEAD, TEXTURE, 0, 0, -5, true);
+		assertFalse(head.isLoaded());
+		head.loadTexture(backend);
+		assertTrue(head.isLoaded());
+		assertEquals(2, gl.count("glBufferData"));
+		gl.reset();
+		backend.beginFrame();
+		head.drawObject(projectionMatrix);
+		backend.endFrame();
+		assertEquals(0, gl.count("glBufferData"));
+		assertEquals(head.getDrawCalls(), gl.count("glDrawElements"));
+	}
+
+	// A new context loses the buffers: a model without a loader uploads its client-side copies again,
+	// without reading the resource on this (the GL) thread
+	@Test
+	public void newSurfaceUploadsTheModelAgain() {
+		final ModelObject head = new ModelObject(counted, HEAD, TEXTURE, 0, 0, -5, true);
+		head.loadTexture(backend);
+		final long bytes = gl.bufferBytes();
+		gl.reset();
+		backend.init();
+		head.loadTexture(backend);
+		assertTrue(head.isLoaded());
+		assertEquals(bytes, gl.bufferBytes());
+		assertEquals(1, opened.get());
+	}
+
+	// With a cache dir the first load leaves the processed model in a .m3d, and a new context only maps
+	// it on the loader: the resource is not read again, and the same buffers reach GL
+	@Test
+	public void newSurfaceMapsTheCachedModel() throws InterruptedException {
+		final File cacheDir = folder.getRoot();
+		loader.setCacheDir(cacheDir);
+		final ModelObject car = new ModelObject(counted, loader, CAR, TEXTURE, 0, 0, -5, true);
+		car.setViewportHeight(960);
+		car.loadTexture(backend);
+		final List<Integer> sizes = new ArrayList<>(uploadAll(car));
+		final int drawCalls = car.getDrawCalls();
+		assertEquals(1, opened.get());
+		assertEquals(1, cacheDir.listFiles().length);
+
+		backend.init();
+		car.loadTexture(backend);
+		assertFalse(car.isLoaded());
+		assertEquals(sizes, uploadAll(car));
+		assertEquals(drawCalls, car.getDrawCalls());
+		assertEquals(1, opened.get());
+	}
+
+	// While the models are parsed no frame asks for the next one; the loader asks for a frame when each
+	// one is done, and the frames that follow keep asking only until every mesh is uploaded
+	@Test
+	public void framesAreRequestedOnlyToUpload() throws InterruptedException {
+		final CountDownLatch parse = new CountDownLatch(1);
+		final AtomicInteger requests = new AtomicInteger();
+		final FrameScheduler scheduler = new FrameScheduler(requests::incrementAndGet);
+		loader.setOnLoaded(scheduler::requestFrame);
+		final ModelLoader.RawResources held = resourceId -> {
+			try {
+				parse.await();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			return RESOURCES.open(resourceId);
+		};
+		final ModelObject head = newModel(held, HEAD);
+		final ModelObject car = newModel(held, CAR);
+		for (int f=0; f<10; f++) {
+			assertEquals(0, drawFrame(scheduler, head, car));
+		}
+		assertEquals(0, requests.get());
+
+		parse.countDown();
+		final long start = System.nanoTime();
+		while (requests.get() < 2) {
+			assertTrue("Models not loaded in time", System.nanoTime() - start < TIMEOUT_NANOS);
+			Thread.sleep(1);
+		}
+		// As GLSurfaceView in RENDERMODE_WHEN_DIRTY (without coalescing requests): a frame per request,
+		// until the last upload asks for none
+		int frames = 0;
+		while (frames < requests.get()) {
+			drawFrame(scheduler, head, car);
+			frames++;
+		}
+		assertTrue(head.isLoaded());
+		assertTrue(car.isLoaded());
+		// The car alone takes more than one frame of budget
+		assertTrue(frames > 2);
+		assertTrue(scheduler.isIdle());
+	}
+
+	//------------------------------------------
+	// Frames until the model is resident; returns the size of every buffer uploaded, in order
+	private List<Integer> uploadAll(ModelObject model) throws InterruptedException {
+		final long start = System.nanoTime();
+		gl.reset();
+		while (!model.isLoaded()) {
+			assertTrue("Model not loaded in time", System.nanoTime() - start < TIMEOUT_NANOS);
+			if (model.uploadMeshes(UPLOAD_BUDGET_BYTES) == 0) {
+				Thread.sleep(1);
+			}
+		}
+		backend.beginFrame();
+		model.drawObject(projectionMatrix);
+		backend.endFrame();
+		return gl.bufferSizes();
+	}
+
+	private ModelObject newModel(int resourceId) {
+		return newModel(RESOURCES, resourceId);
+	}
+
+	private ModelObject newModel(ModelLoader.RawResources resources, int resourceId) {
+		final ModelObject model = new ModelObject(resources, loader, resourceId, TEXTURE, 0, 0, -5, true);
+		model.setViewportHeight(960);
+		model.loadTexture(backend);
+		return model;
+	}
+
+	// What OpenGLRenderer.onDrawFrame does with its models; returns the bytes uploaded
+	private int drawFrame(ModelObject head, ModelObject car) {
+		int budget = UPLOAD_BUDGET_BYTES;
+		budget -= head.uploadMeshes(budget);
+		final int uploaded = UPLOAD_BUDGET_BYTES - budget + car.uploadMeshes(budget);
+		backend.beginFrame();
+		head.drawObject(projectionMatrix);
+		car.drawObject(projectionMatrix);
+		backend.endFrame();
+		return uploaded;
+	}
+
+	// The same, ending as OpenGLRenderer.onDrawFrame does (nothing moves here)
+	private int drawFrame(FrameScheduler scheduler, ModelObject head, ModelObject car) {
+		scheduler.beginFrame(System.nanoTime());
+		final int uploaded = drawFrame(head, car);
+		scheduler.endFrame(head.isUploading() || car.isUploading());
+		return uploaded;
+	}
+}
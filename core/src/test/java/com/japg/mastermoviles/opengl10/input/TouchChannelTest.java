@@ -0,0 +1,120 @@
+package com.japg.mastermoviles.opengl10.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+// What a poll() sees is what the events since the previous one add up to, also while the writer races it
+public class TouchChannelTest {
+	private static final int EVENTS = 2_000_000;
+	// Pinch distances stay small integers, so every float on the way is exact
+	private static final int DISTANCES = 997;
+
+	private TouchChannel channel;
+
+	@Before
+	public void setUp() {
+		channel = new TouchChannel();
+	}
+
+	@Test
+	public void nothingWrittenNothingPolled() {
+		assertFalse(channel.poll());
+		assertFalse(channel.hasPress());
+		assertFalse(channel.hasDrag());
+		assertEquals(0f, channel.getPinchChange(), 0f);
+	}
+
+	// Drags overwrite each other; a press counts only when no drag came after it
+	@Test
+	public void eventsAreCoalesced() {
+		channel.move(0.1f, 0.2f);
+		channel.move(0.3f, 0.4f);
+		channel.press(0.5f, 0.6f);
+		assertTrue(channel.poll());
+		assertTrue(channel.hasDrag());
+		assertEquals(0.3f, channel.getDragX(), 0f);
+		assertEquals(0.4f, channel.getDragY(), 0f);
+		assertTrue(channel.hasPress());
+		assertEquals(0.5f, channel.getPressX(), 0f);
+		assertEquals(0.6f, channel.getPressY(), 0f);
+
+		assertFalse(channel.poll());
+		assertFalse(channel.hasDrag());
+		assertFalse(channel.hasPress());
+
+		channel.press(0.1f, 0.1f);
+		channel.move(0.2f, 0.2f);
+		assertTrue(channel.poll());
+		assertTrue(channel.hasDrag());
+		assertFalse(channel.hasPress());
+	}
+
+	// The first sample of a pinch is its baseline; the changes in between add up
+	@Test
+	public void pinchChangesAddUp() {
+		channel.pinch(0f, 0f, 1f, 0f);
+		assertTrue(channel.poll());
+		assertEquals(0f, channel.getPinchChange(), 0f);
+		channel.pinch(0f, 0f, 1.5f, 0f);
+		channel.pinch(0f, 0f, 2f, 0f);
+		channel.pinch(0f, 0f, 1.75f, 0f);
+		assertTrue(channel.poll());
+		assertEquals(0.75f, channel.getPinchChange(), 1e-6f);
+		channel.pinch(0f, 0f, 1f, 0f);
+		assertTrue(channel.poll());
+		assertEquals(-0.75f, channel.getPinchChange(), 1e-6f);
+
+		// A drag with one finger ends the pinch: the next one starts from its own baseline
+		channel.move(0f, 0f);
+		channel.pinch(0f, 0f, 3f, 0f);
+		assertTrue(channel.poll());
+		assertEquals(0f, channel.getPinchChange(), 0f);
+	}
+
+	// A writer thread pinches EVENTS times (first finger at (i, i)) while this one polls as fast as it
+	// can: no snapshot is torn, drags never go back, the last one is seen, and the pinch changes polled
+	// add up to exactly the last distance minus the first
+	@Test
+	public void readerNeverSeesHalfAnEvent() throws InterruptedException {
+		channel.pinch(0f, 0f, 0f, distance(0));
+		assertTrue(channel.poll());
+		final Thread writer = new Thread(() -> {
+			for (int i=1; i<=EVENTS; i++) {
+				channel.pinch(i, i, i, i + distance(i));
+			}
+		});
+		writer.start();
+
+		long polls = 0;
+		float last = 0f;
+		double pinchChange = 0.0;
+		boolean writing = true;
+		while (writing) {
+			// The last poll comes after the writer is done
+			writing = writer.isAlive();
+			if (!channel.poll()) {
+				continue;
+			}
+			polls++;
+			assertTrue(channel.hasDrag());
+			final float x = channel.getDragX();
+			assertEquals("Torn snapshot", x, channel.getDragY(), 0f);
+			assertTrue("Drag went back from " + last + " to " + x, x > last);
+			last = x;
+			pinchChange += channel.getPinchChange();
+		}
+		writer.join();
+		assertTrue(polls > 0);
+		assertEquals(EVENTS, last, 0f);
+		assertEquals(distance(EVENTS) - distance(0), pinchChange, 0.0);
+		assertFalse(channel.poll());
+	}
+
+	private static int distance(int event) {
+		return 1 + event % DISTANCES;
+	}
+}
@@ -0,0 +1,61 @@
+package com.japg.mastermoviles.opengl10.math;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+// Planes from projection * modelMatrix: tests in model space give what clip space would
+public class FrustumTest {
+	private final float[] projection = new float[16];
+	private final float[] model = new float[16];
+	private final float[] clip = new float[16];
+	private final Frustum frustum = new Frustum();
+
+	@Before
+	public void setUp() {
+		Mat4.perspective(projection, 0, 45f, 1f, 1f, 100f);
+		place(0f, 0f, 0f);
+	}
+
+	@Test
+	public void spheresAreClassified() {
+		assertEquals(Frustum.INSIDE, frustum.testSphere(0f, 0f, -5f, 1f));
+		// Behind the eye, beyond the far plane, across the near one
+		assertEquals(Frustum.OUTSIDE, frustum.testSphere(0f, 0f, 5f, 1f));
+		assertEquals(Frustum.OUTSIDE, frustum.testSphere(0f, 0f, -102f, 1f));
+		assertEquals(Frustum.INTERSECTING, frustum.testSphere(0f, 0f, -1f, 0.5f));
+		// tan(22.5 degrees) * 10 = 4.14 units to the side at 10 units away
+		assertEquals(Frustum.INTERSECTING, frustum.testSphere(4.14f, 0f, -10f, 0.5f));
+		assertEquals(Frustum.OUTSIDE, frustum.testSphere(5f, 0f, -10f, 0.5f));
+		assertEquals(Frustum.OUTSIDE, frustum.testSphere(0f, -5f, -10f, 0.5f));
+	}
+
+	@Test
+	public void boxesAreClassified() {
+		assertEquals(Frustum.INSIDE, frustum.testBox(-1f, -1f, -6f, 1f, 1f, -4f));
+		assertEquals(Frustum.INTERSECTING, frustum.testBox(3f, -1f, -11f, 6f, 1f, -9f));
+		assertEquals(Frustum.OUTSIDE, frustum.testBox(5f, -1f, -11f, 6f, 1f, -9f));
+		assertEquals(Frustum.OUTSIDE, frustum.testBox(new float[] { 0f, 0f, 0f, -1f, -1f, 1f, 1f, 1f, 3f }, 3));
+	}
+
+	// The model matrix moves the planes, not the bounds
+	@Test
+	public void planesAreInModelSpace() {
+		place(0f, 0f, -5f);
+		assertEquals(Frustum.INSIDE, frustum.testSphere(0f, 0f, 0f, 1f));
+		place(20f, 0f, -5f);
+		assertEquals(Frustum.OUTSIDE, frustum.testSphere(0f, 0f, 0f, 1f));
+		assertEquals(Frustum.INSIDE, frustum.testSphere(-20f, 0f, 0f, 1f));
+	}
+
+	//------------------------------------------
+	private void place(float x, float y, float z) {
+		Mat4.setIdentity(model, 0);
+		model[12] = x;
+		model[13] = y;
+		model[14] = z;
+		Mat4.multiply(clip, 0, projection, 0, model, 0);
+		frustum.set(clip, 0);
+	}
+}
@@ -0,0 +1,108 @@
+package com.japg.mastermoviles.opengl10.math;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+// The easing depends on elapsed time only: the same second looks the same at any frame rate
+public class OrientationTest {
+	private static final float TURN = 90f;
+
+	@Test
+	public void easingIsFrameRateIndependent() {
+		final float at30 = remainingAfterOneSecond(30);
+		final float at60 = remainingAfterOneSecond(60);
+		final float at144 = remainingAfterOneSecond(144);
+		assertEquals(at60, at30, 0.01f);
+		assertEquals(at60, at144, 0.01f);
+		// 94% of the rotation left after each 1/60 s
+		assertEquals(TURN * Math.pow(1 - Orientation.DEFAULT_RESPONSE, 60), at60, 0.01f);
+	}
+
+	@Test
+	public void oneReferenceStepCoversTheResponse() {
+		final Orientation orientation = new Orientation(0f, 0f);
+		orientation.setTarget(0f, TURN);
+		orientation.update(1f / 60f);
+		assertEquals(TURN * (1f - Orientation.DEFAULT_RESPONSE), orientation.getRemainingAngle(), 1e-3f);
+	}
+
+	@Test
+	public void sameStepsGiveTheSameOrientation() {
+		final float[] a = new float[4];
+		final float[] b = new float[4];
+		ease(30f, -45f, 0.017f, 0.016f, 0.05f, 0.001f).get(a, 0);
+		ease(30f, -45f, 0.017f, 0.016f, 0.05f, 0.001f).get(b, 0);
+		assertArrayEquals(a, b, 0f);
+	}
+
+	// A long pause moves as far as MAX_STEP, and nothing or garbage does not move at all
+	@Test
+	public void stepsAreClamped() {
+		assertEquals(ease(0f, TURN, 0.25f).getRemainingAngle(), ease(0f, TURN, 10f).getRemainingAngle(), 0f);
+		assertEquals(TURN, ease(0f, TURN, 0f, -1f, Float.NaN).getRemainingAngle(), 1e-3f);
+	}
+
+	@Test
+	public void easingSettlesOnTheTarget() {
+		final Orientation orientation = new Orientation(0f, 0f);
+		orientation.setTarget(20f, TURN);
+		assertFalse(orientation.isSettled());
+		for (int f=0; f<60 * 10; f++) {
+			orientation.update(1f / 60f);
+		}
+		assertTrue(orientation.isSettled());
+		assertEquals(0f, orientation.getRemainingAngle(), 0f);
+		final float[] eased = new float[16];
+		final float[] set = new float[16];
+		orientation.writeMatrix(eased, 0, 0f, 0f, 0f);
+		new Orientation(20f, TURN).writeMatrix(set, 0, 0f, 0f, 0f);
+		assertArrayEquals(set, eased, 0f);
+	}
+
+	// Exact where acos of the dot product would round a hundredth of a degree to 0
+	@Test
+	public void smallRemainingAnglesAreExact() {
+		final Orientation orientation = new Orientation(0f, 0f);
+		orientation.setTarget(0f, 0.01f);
+		assertEquals(0.01f, orientation.getRemainingAngle(), 1e-4f);
+	}
+
+	// Yaw then pitch: R = Ry * Rx, placed by the translation
+	@Test
+	public void matrixAppliesYawAfterPitch() {
+		final float[] m = new float[16];
+		new Orientation(90f, 90f).writeMatrix(m, 0, 1f, 2f, -5f);
+		// +X turns to -Z around Y; +Y, pitched to +Z, turns to +X
+		assertArrayEquals(new float[] { 0f, 0f, -1f }, new float[] { m[0], m[1], m[2] }, 1e-6f);
+		assertArrayEquals(new float[] { 1f, 0f, 0f }, new float[] { m[4], m[5], m[6] }, 1e-6f);
+		assertArrayEquals(new float[] { 1f, 2f, -5f, 1f }, new float[] { m[12], m[13], m[14], m[15] }, 0f);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void responseMustBeAFraction() {
+		new Orientation(0f, 0f, 0f);
+	}
+
+	//------------------------------------------
+	private static float remainingAfterOneSecond(int fps) {
+		final Orientation orientation = new Orientation(0f, 0f);
+		orientation.setTarget(0f, TURN);
+		for (int f=0; f<fps; f++) {
+			orientation.update(1f / fps);
+		}
+		return orientation.getRemainingAngle();
+	}
+
+	private static Orientation ease(float pitch, float yaw, float... steps) {
+		final Orientation orientation = new Orientation(0f, 0f);
+		orientation.setTarget(pitch, yaw);
+		for (float step : steps) {
+			orientation.update(step);
+		}
+		return orientation;
+	}
+}
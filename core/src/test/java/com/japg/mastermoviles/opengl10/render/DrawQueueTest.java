@@ -0,0 +1,161 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.japg.mastermoviles.opengl10.util.Resource3DSReader;
+import com.japg.mastermoviles.opengl10.util.TestModels;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Draws reach the backend grouped by program variant, then texture, then mesh
+public class DrawQueueTest {
+	private static final float[] MATRIX = { 1f, 0f, 0f, 0f, 0f, 1f, 0f, 0f, 0f, 0f, 1f, 0f, 0f, 0f, -5f, 1f };
+	private static final float[] MATRICES = new float[4 * 16];
+
+	private static Resource3DSReader head;
+
+	private RecordingGl gl;
+	// "mesh/texture" of every draw that reached the backend, instanced ones with an "i" in front
+	private final List<String> draws = new ArrayList<>();
+	private final List<Integer> rangeCounts = new ArrayList<>();
+	private DrawQueue queue;
+	private int plain;
+	private int plain2;
+	private int packed;
+	private int instanced;
+
+	@BeforeClass
+	public static void readModel() {
+		head = TestModels.read("cabeza_mario_6.3ds", true);
+		for (int c=0; c<4; c++) {
+			System.arraycopy(MATRIX, 0, MATRICES, c * 16, 16);
+		}
+	}
+
+	@AfterClass
+	public static void releaseModel() {
+		head = null;
+	}
+
+	@Before
+	public void setUp() {
+		gl = new RecordingGl();
+		final GLState state = new GLState(gl);
+		queue = new DrawQueue(new GLES20Backend(state, gl.new Programs(), gl.new Textures(state), TextureCache.DEFAULT_BUDGET_BYTES) {
+			@Override
+			public void drawMeshRanges(int mesh, int[] ranges, int rangeCount, int texture, float[] mvpMatrix, float[] mvMatrix,
+					float r, float g, float b, float a) {
+				draws.add(mesh + "/" + texture);
+				rangeCounts.add(rangeCount);
+				super.drawMeshRanges(mesh, ranges, rangeCount, texture, mvpMatrix, mvMatrix, r, g, b, a);
+			}
+
+			@Override
+			public void drawMeshInstances(int mesh, int texture, float[] projectionMatrix, float[] modelMatrices, int instanceCount,
+					float r, float g, float b, float a) {
+				draws.add("i" + mesh + "/" + texture);
+				super.drawMeshInstances(mesh, texture, projectionMatrix, modelMatrices, instanceCount, r, g, b, a);
+			}
+		});
+		queue.init();
+		plain = queue.createMesh(head.dataBuffer[0], head.numVertices[0], head.indexBuffer[0], head.numIndices[0]);
+		plain2 = queue.createMesh(head.dataBuffer[0], head.numVertices[0], head.indexBuffer[0], head.numIndices[0]);
+		packed = queue.createPackedMesh(PackedVertices.pack(head.dataBuffer[0], head.numVertices[0]), head.indexBuffer[0],
+				head.numIndices[0]);
+		instanced = queue.createInstancedMesh(head.dataBuffer[0], head.numVertices[0], head.indexBuffer[0], head.numIndices[0]);
+	}
+
+	// Plain, packed, instanced draws of plain meshes, then of instanced meshes
+	@Test
+	public void drawsAreSortedByProgramTextureMesh() {
+		final int t1 = queue.loadTexture(1);
+		final int t2 = queue.loadTexture(2);
+		queue.beginFrame();
+		queue.drawMeshInstances(instanced, t1, MATRIX, MATRICES, 4, 1f, 1f, 1f, 1f);
+		queue.drawMesh(packed, t2, MATRIX, MATRIX, 1f, 1f, 1f, 1f);
+		queue.drawMeshInstances(plain, t1, MATRIX, MATRICES, 4, 1f, 1f, 1f, 1f);
+		queue.drawMesh(plain2, t2, MATRIX, MATRIX, 1f, 1f, 1f, 1f);
+		queue.drawMesh(plain2, t1, MATRIX, MATRIX, 1f, 1f, 1f, 1f);
+		queue.drawMesh(packed, t1, MATRIX, MATRIX, 1f, 1f, 1f, 1f);
+		queue.drawMesh(plain, t2, MATRIX, MATRIX, 1f, 1f, 1f, 1f);
+		queue.drawMesh(plain, t1, MATRIX, MATRIX, 1f, 1f, 1f, 1f);
+		assertEquals(8, queue.size());
+		assertTrue(draws.isEmpty());
+		queue.endFrame();
+		assertEquals(Arrays.asList(plain + "/" + t1, plain2 + "/" + t1, plain + "/" + t2, plain2 + "/" + t2,
+				packed + "/" + t1, packed + "/" + t2, "i" + plain + "/" + t1, "i" + instanced + "/" + t1), draws);
+		assertEquals(0, queue.size());
+	}
+
+	// Same key: submission order
+	@Test
+	public void equalDrawsKeepTheirOrder() {
+		final int t1 = queue.loadTexture(1);
+		final int[] ranges = { 0, 3, 6, 3 };
+		queue.beginFrame();
+		queue.drawMeshRanges(plain, ranges, 1, t1, MATRIX, MATRIX, 1f, 0f, 0f, 1f);
+		queue.drawMeshRanges(plain, ranges, 2, t1, MATRIX, MATRIX, 0f, 1f, 0f, 1f);
+		queue.drawMesh(plain, t1, MATRIX, MATRIX, 0f, 0f, 1f, 1f);
+		queue.endFrame();
+		assertEquals(Arrays.asList(1, 2, 1), rangeCounts);
+		assertEquals(1 + 2 + 1, gl.count("glDrawElements"));
+	}
+
+	// Interleaved variants switch programs once per variant after sorting
+	@Test
+	public void sortingSavesProgramSwitches() {
+		final int t1 = queue.loadTexture(1);
+		for (int f=0; f<2; f++) {
+			gl.reset();
+			queue.beginFrame();
+			for (int i=0; i<5; i++) {
+				queue.drawMesh(plain, t1, MATRIX, MATRIX, 1f, 1f, 1f, 1f);
+				queue.drawMesh(packed, t1, MATRIX, MATRIX, 1f, 1f, 1f, 1f);
+				queue.drawMeshInstances(instanced, t1, MATRIX, MATRICES, 4, 1f, 1f, 1f, 1f);
+			}
+			queue.endFrame();
+		}
+		// Plain, packed, then the one instancing program of the context
+		assertEquals(3, gl.count("glUseProgram"));
+
+		// The same draws straight to the backend switch on every draw
+		gl.reset();
+		final RenderBackend backend = queue.getBackend();
+		backend.beginFrame();
+		for (int i=0; i<5; i++) {
+			backend.drawMesh(plain, t1, MATRIX, MATRIX, 1f, 1f, 1f, 1f);
+			backend.drawMesh(packed, t1, MATRIX, MATRIX, 1f, 1f, 1f, 1f);
+			backend.drawMeshInstances(instanced, t1, MATRIX, MATRICES, 4, 1f, 1f, 1f, 1f);
+		}
+		backend.endFrame();
+		assertEquals(15, gl.count("glUseProgram"));
+	}
+
+	// A new context drops the held draws and forgets which handles were packed
+	@Test
+	public void initForgetsMeshes() {
+		queue.beginFrame();
+		queue.drawMesh(plain, 0, MATRIX, MATRIX, 1f, 1f, 1f, 1f);
+		queue.init();
+		assertEquals(0, queue.size());
+		// The first handle of the new context is plain again, although the old one was packed
+		final int again = queue.createMesh(head.dataBuffer[0], head.numVertices[0], head.indexBuffer[0], head.numIndices[0]);
+		final int second = queue.createMesh(head.dataBuffer[0], head.numVertices[0], head.indexBuffer[0], head.numIndices[0]);
+		final int third = queue.createMesh(head.dataBuffer[0], head.numVertices[0], head.indexBuffer[0], head.numIndices[0]);
+		assertEquals(packed, third);
+		queue.beginFrame();
+		queue.drawMesh(third, 0, MATRIX, MATRIX, 1f, 1f, 1f, 1f);
+		queue.drawMesh(again, 0, MATRIX, MATRIX, 1f, 1f, 1f, 1f);
+		queue.drawMesh(second, 0, MATRIX, MATRIX, 1f, 1f, 1f, 1f);
+		queue.endFrame();
+		assertEquals(Arrays.asList(again + "/0", second + "/0", third + "/0"), draws);
+	}
+}
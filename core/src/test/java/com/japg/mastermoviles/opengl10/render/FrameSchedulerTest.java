@@ -0,0 +1,116 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.japg.mastermoviles.opengl10.math.Orientation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+// RENDERMODE_WHEN_DIRTY without a surface: a vsync loop that draws only when a frame was requested
+public class FrameSchedulerTest {
+	private static final long PERIOD = 16_666_667L;
+	private static final int VSYNCS = 600;
+
+	private int requests;
+	private FrameScheduler scheduler;
+	private long now;
+
+	@Before
+	public void setUp() {
+		requests = 0;
+		scheduler = new FrameScheduler(() -> requests++);
+		now = 1_000_000_000L;
+	}
+
+	// A model easing towards a new target keeps frames coming until it is within epsilon, then none
+	@Test
+	public void easingConvergesAndStops() {
+		final Orientation model = new Orientation(0f, 0f);
+		model.setTarget(0f, 90f);
+		final int frames = run(model);
+		assertTrue(frames > 1 && frames < VSYNCS);
+		assertFalse(scheduler.isMoving(model.getRemainingAngle()));
+		assertTrue(scheduler.isIdle());
+		assertEquals(frames, scheduler.getFramesRendered());
+		assertEquals(VSYNCS - frames, scheduler.getFramesSkipped(now));
+
+		// Another target: frames again, and again they stop
+		model.addTargetYaw(20f);
+		scheduler.requestFrame();
+		final int more = run(model);
+		assertTrue(more > 1 && more < VSYNCS);
+		assertTrue(scheduler.isIdle());
+	}
+
+	// Nothing to do: the first frame is the last one
+	@Test
+	public void settledSceneDrawsOneFrame() {
+		assertEquals(1, run(new Orientation(0f, 0f)));
+		assertEquals(0, requests);
+	}
+
+	// After an idle stretch the animation advances by one refresh interval, not by the whole gap;
+	// while busy it advances by the real time, and a missed vsync is counted as skipped
+	@Test
+	public void deltaFollowsTheState() {
+		assertEquals(0f, scheduler.beginFrame(now), 0f);
+		scheduler.endFrame(false);
+		now += 100 * PERIOD;
+		assertEquals(PERIOD / 1e9f, scheduler.beginFrame(now), 1e-6f);
+		assertEquals(99, scheduler.getFramesSkipped(now));
+		scheduler.endFrame(true);
+		assertEquals(1, requests);
+		now += 2 * PERIOD;
+		assertEquals(2 * PERIOD / 1e9f, scheduler.beginFrame(now), 1e-6f);
+		assertEquals(100, scheduler.getFramesSkipped(now));
+		// The idle stretch so far counts too
+		assertEquals(103, scheduler.getFramesSkipped(now + 4 * PERIOD));
+	}
+
+	@Test
+	public void refreshRateSetsTheInterval() {
+		scheduler.setRefreshRate(120f);
+		scheduler.beginFrame(now);
+		scheduler.endFrame(false);
+		assertEquals(119, scheduler.getFramesSkipped(now + 1_000_000_000L));
+	}
+
+	@Test
+	public void epsilonDecidesMoving() {
+		final FrameScheduler coarse = new FrameScheduler(() -> { }, 1f);
+		assertFalse(coarse.isMoving(0.5f));
+		assertTrue(coarse.isMoving(1.5f));
+		assertFalse(scheduler.isMoving(0f));
+		assertTrue(scheduler.isMoving(FrameScheduler.DEFAULT_EPSILON_DEGREES * 2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeEpsilonIsRejected() {
+		new FrameScheduler(() -> { }, -1f);
+	}
+
+	//------------------------------------------
+	// VSYNCS refresh intervals of one model, with a first frame as if requested; returns the frames drawn
+	private int run(Orientation model) {
+		boolean requested = true;
+		int frames = 0;
+		float previous = Float.MAX_VALUE;
+		for (int v=0; v<VSYNCS; v++, now+=PERIOD) {
+			if (!requested) {
+				continue;
+			}
+			final int before = requests;
+			model.update(scheduler.beginFrame(now));
+			frames++;
+			final float remaining = model.getRemainingAngle();
+			assertTrue(remaining <= previous);
+			previous = remaining;
+			scheduler.endFrame(scheduler.isMoving(remaining));
+			requested = requests > before;
+		}
+		return frames;
+	}
+}
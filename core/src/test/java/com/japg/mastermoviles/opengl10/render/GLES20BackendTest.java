@@ -0,0 +1,183 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.japg.mastermoviles.opengl10.util.ModelLoader;
+import com.japg.mastermoviles.opengl10.util.Resource3DSReader;
+import com.japg.mastermoviles.opengl10.util.TestModels;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.FileInputStream;
+import java.nio.Buffer;
+import java.nio.IntBuffer;
+
+// Vertex data reaches GL once, when the meshes are created: frames only bind buffers and draw
+public class GLES20BackendTest {
+	private static final int FRAMES = 100;
+	private static final float[] MATRIX = { 1f, 0f, 0f, 0f, 0f, 1f, 0f, 0f, 0f, 0f, 1f, 0f, 0f, 0f, -5f, 1f };
+
+	private static Resource3DSReader head;
+
+	@BeforeClass
+	public static void readModel() {
+		head = TestModels.read("cabeza_mario_6.3ds", true);
+	}
+
+	@AfterClass
+	public static void releaseModel() {
+		head = null;
+	}
+
+	@Test
+	public void meshesAreUploadedOnce() {
+		final RecordingGl gl = new RecordingGl();
+		final GLES20Backend backend = gl.newBackend();
+		backend.init();
+		gl.reset();
+		final int[] meshes = new int[head.numMeshes];
+		long bytes = 0;
+		for (int i=0; i<head.numMeshes; i++) {
+			meshes[i] = backend.createMesh(head.dataBuffer[i], head.numVertices[i], head.indexBuffer[i], head.numIndices[i]);
+			bytes += head.numVertices[i] * 32L + head.numIndices[i] * indexBytes(head.indexBuffer[i]);
+		}
+		// A vertex and an index buffer per mesh, with all of their data
+		assertEquals(2 * head.numMeshes, gl.count("glBufferData"));
+		assertEquals(bytes, gl.bufferBytes());
+
+		final int texture = backend.loadTexture(1);
+		drawFrame(backend, meshes, texture);
+		gl.reset();
+		for (int f=0; f<FRAMES; f++) {
+			drawFrame(backend, meshes, texture);
+		}
+		assertEquals(0, gl.count("glBufferData"));
+		assertEquals(0, gl.bufferBytes());
+		assertEquals(FRAMES * head.numMeshes, gl.count("glDrawElements"));
+		assertEquals(0, gl.count("glTexImage2D"));
+	}
+
+	@Test
+	public void packedMeshesAreUploadedOnce() {
+		final RecordingGl gl = new RecordingGl();
+		final GLES20Backend backend = gl.newBackend();
+		backend.init();
+		gl.reset();
+		final int[] meshes = new int[head.numMeshes];
+		long bytes = 0;
+		for (int i=0; i<head.numMeshes; i++) {
+			final PackedVertices packed = PackedVertices.pack(head.dataBuffer[i], head.numVertices[i]);
+			meshes[i] = backend.createPackedMesh(packed, head.indexBuffer[i], head.numIndices[i]);
+			bytes += head.numVertices[i] * (long) PackedVertices.STRIDE + head.numIndices[i] * indexBytes(head.indexBuffer[i]);
+		}
+		assertEquals(bytes, gl.bufferBytes());
+
+		drawFrame(backend, meshes, 0);
+		gl.reset();
+		for (int f=0; f<FRAMES; f++) {
+			drawFrame(backend, meshes, 0);
+		}
+		assertEquals(0, gl.bufferBytes());
+		assertEquals(FRAMES * head.numMeshes, gl.count("glDrawElements"));
+	}
+
+	// ES 3.0 instancing streams the model matrices every draw, and nothing else
+	@Test
+	public void instancedDrawsStreamOnlyMatrices() {
+		final RecordingGl gl = new RecordingGl(RecordingGl.ES3);
+		final GLES20Backend backend = gl.newBackend();
+		backend.init();
+		final int mesh = backend.createInstancedMesh(head.dataBuffer[0], head.numVertices[0], head.indexBuffer[0], head.numIndices[0]);
+		final int copies = 10;
+		final float[] matrices = new float[copies * 16];
+		for (int c=0; c<copies; c++) {
+			System.arraycopy(MATRIX, 0, matrices, c * 16, 16);
+		}
+		gl.reset();
+		for (int f=0; f<FRAMES; f++) {
+			backend.beginFrame();
+			backend.drawMeshInstances(mesh, 0, MATRIX, matrices, copies, 1f, 1f, 1f, 1f);
+			backend.endFrame();
+		}
+		assertEquals(FRAMES, gl.count("glDrawElementsInstanced"));
+		assertEquals(FRAMES, gl.count("glBufferData"));
+		assertEquals(FRAMES * copies * 16L * 4, gl.bufferBytes());
+	}
+
+	// A new context forgets the old buffers: meshes are created, and uploaded, again
+	@Test
+	public void newContextStartsOver() {
+		final RecordingGl gl = new RecordingGl();
+		final GLES20Backend backend = gl.newBackend();
+		backend.init();
+		final int first = backend.createMesh(head.dataBuffer[0], head.numVertices[0], head.indexBuffer[0], head.numIndices[0]);
+		backend.init();
+		gl.reset();
+		final int again = backend.createMesh(head.dataBuffer[0], head.numVertices[0], head.indexBuffer[0], head.numIndices[0]);
+		assertEquals(first, again);
+		assertEquals(2, gl.count("glBufferData"));
+		assertTrue(gl.count("glBindBuffer") > 0);
+	}
+
+	// An ES 2.0 context without OES_element_index_uint never gets a GL_UNSIGNED_INT draw: the batches
+	// with int indices are uploaded a vertex per index and drawn with glDrawArrays
+	@Test
+	public void intIndicesNeedTheExtension() {
+		for (boolean pack : new boolean[] { false, true }) {
+			final Resource3DSReader torus = ModelLoader.read(resourceId -> new FileInputStream(TestModels.file("torus.3ds")), 1, true, pack);
+			int wide = 0;
+			for (int i=0; i<torus.numMeshes; i++) {
+				wide += torus.indexBuffer[i] instanceof IntBuffer ? 1 : 0;
+			}
+			assertTrue(wide > 0);
+
+			final RecordingGl withExtension = new RecordingGl();
+			drawFrame(withExtension, torus, pack);
+			assertEquals(wide, withExtension.countElements(Gl.GL_UNSIGNED_INT));
+
+			final RecordingGl gl = new RecordingGl(RecordingGl.ES2, "GL_OES_vertex_array_object");
+			final long bytes = drawFrame(gl, torus, pack);
+			assertEquals(0, gl.countElements(Gl.GL_UNSIGNED_INT));
+			assertEquals(torus.numMeshes - wide, gl.countElements(Gl.GL_UNSIGNED_SHORT));
+			assertEquals(wide, gl.count("glDrawArrays"));
+			long expected = 0;
+			for (int i=0; i<torus.numMeshes; i++) {
+				final int stride = pack ? PackedVertices.STRIDE : 32;
+				expected += torus.indexBuffer[i] instanceof IntBuffer ? (long) torus.numIndices[i] * stride
+						: torus.numVertices[i] * (long) stride + torus.numIndices[i] * 2L;
+			}
+			assertEquals(expected, bytes);
+		}
+	}
+
+	//------------------------------------------
+	// Uploads every batch of the model and draws them once; returns the bytes uploaded
+	private static long drawFrame(RecordingGl gl, Resource3DSReader model, boolean packed) {
+		final GLES20Backend backend = gl.newBackend();
+		backend.init();
+		final int[] meshes = new int[model.numMeshes];
+		for (int i=0; i<model.numMeshes; i++) {
+			meshes[i] = packed ? backend.createPackedMesh(model.packedVertices[i], model.indexBuffer[i], model.numIndices[i])
+					: backend.createMesh(model.dataBuffer[i], model.numVertices[i], model.indexBuffer[i], model.numIndices[i]);
+		}
+		final long bytes = gl.bufferBytes();
+		gl.reset();
+		drawFrame(backend, meshes, 0);
+		return bytes;
+	}
+
+	private static void drawFrame(GLES20Backend backend, int[] meshes, int texture) {
+		backend.beginFrame();
+		for (int mesh : meshes) {
+			backend.drawMesh(mesh, texture, MATRIX, MATRIX, 1f, 1f, 1f, 1f);
+		}
+		backend.endFrame();
+	}
+
+	private static int indexBytes(Buffer indices) {
+		return indices instanceof IntBuffer ? 4 : 2;
+	}
+}
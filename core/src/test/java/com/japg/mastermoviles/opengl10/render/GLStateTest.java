@@ -0,0 +1,202 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_ARRAY_BUFFER;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_CULL_FACE;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_DEPTH_TEST;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_ELEMENT_ARRAY_BUFFER;
+import static com.japg.mastermoviles.opengl10.render.Gl.GL_FLOAT;
+import static org.junit.Assert.assertEquals;
+
+import com.japg.mastermoviles.opengl10.perf.FrameStats;
+
+import org.junit.Before;
+import org.junit.Test;
+
+// Every call that would leave GL as it is must not reach it, and every other one must
+public class GLStateTest {
+	private static final int GL_POLYGON_OFFSET_FILL = 0x8037;
+
+	private RecordingGl gl;
+	private GLState state;
+	private ShaderProgram a;
+	private ShaderProgram b;
+
+	@Before
+	public void setUp() {
+		gl = new RecordingGl();
+		state = new GLState(gl);
+		a = new ShaderProgram(gl, 1);
+		b = new ShaderProgram(gl, 2);
+	}
+
+	@Test
+	public void programIsSetOnce() {
+		state.useProgram(a);
+		state.useProgram(a);
+		state.useProgram(b);
+		state.useProgram(b);
+		assertEquals(2, gl.count("glUseProgram"));
+		assertEquals(2, state.getIssuedCount());
+		assertEquals(2, state.getSkippedCount());
+	}
+
+	@Test
+	public void texturesAreTrackedPerUnit() {
+		state.activeTexture(0);
+		state.bindTexture(5);
+		state.activeTexture(1);
+		state.bindTexture(5);
+		state.bindTexture(5);
+		state.activeTexture(0);
+		state.bindTexture(5);
+		assertEquals(3, gl.count("glActiveTexture"));
+		assertEquals(2, gl.count("glBindTexture"));
+	}
+
+	// GL unbinds a deleted texture and may hand its name out again
+	@Test
+	public void deletedTextureIsBoundAgain() {
+		state.bindTexture(7);
+		state.textureDeleted(7);
+		state.bindTexture(7);
+		assertEquals(2, gl.count("glBindTexture"));
+	}
+
+	@Test
+	public void buffersAreTrackedPerTarget() {
+		state.bindBuffer(GL_ARRAY_BUFFER, 3);
+		state.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, 3);
+		state.bindBuffer(GL_ARRAY_BUFFER, 3);
+		state.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, 4);
+		assertEquals(3, gl.count("glBindBuffer"));
+	}
+
+	@Test
+	public void capabilitiesAreSetOnce() {
+		state.enable(GL_DEPTH_TEST);
+		state.enable(GL_DEPTH_TEST);
+		state.disable(GL_CULL_FACE);
+		state.disable(GL_CULL_FACE);
+		state.enable(GL_CULL_FACE);
+		assertEquals(2, gl.count("glEnable"));
+		assertEquals(1, gl.count("glDisable"));
+		// Not tracked: always issued
+		state.enable(GL_POLYGON_OFFSET_FILL);
+		state.enable(GL_POLYGON_OFFSET_FILL);
+		assertEquals(4, gl.count("glEnable"));
+		state.lineWidth(2f);
+		state.lineWidth(2f);
+		assertEquals(1, gl.count("glLineWidth"));
+	}
+
+	@Test
+	public void attributeArraysChangeOnlyWhereTheyDiffer() {
+		state.setVertexAttribArrays(GLState.arrayBit(0) | GLState.arrayBit(1) | GLState.arrayBit(2));
+		assertEquals(3, gl.count("glEnableVertexAttribArray"));
+		state.setVertexAttribArrays(GLState.arrayBit(0) | GLState.arrayBit(1) | GLState.arrayBit(3));
+		assertEquals(4, gl.count("glEnableVertexAttribArray"));
+		assertEquals(1, gl.count("glDisableVertexAttribArray"));
+		state.setVertexAttribArrays(GLState.arrayBit(0) | GLState.arrayBit(1) | GLState.arrayBit(3));
+		assertEquals(5, gl.calls().size());
+		assertEquals(0, GLState.arrayBit(-1));
+	}
+
+	// A pointer reads from the buffer bound when it was set: another buffer means another pointer
+	@Test
+	public void pointersFollowTheBoundBuffer() {
+		state.bindBuffer(GL_ARRAY_BUFFER, 1);
+		state.vertexAttribPointer(0, 3, GL_FLOAT, false, 32, 0);
+		state.vertexAttribPointer(0, 3, GL_FLOAT, false, 32, 0);
+		assertEquals(1, gl.count("glVertexAttribPointer"));
+		state.vertexAttribPointer(0, 3, GL_FLOAT, true, 32, 0);
+		assertEquals(2, gl.count("glVertexAttribPointer"));
+		state.bindBuffer(GL_ARRAY_BUFFER, 2);
+		state.vertexAttribPointer(0, 3, GL_FLOAT, true, 32, 0);
+		assertEquals(3, gl.count("glVertexAttribPointer"));
+		// Not in the program
+		state.vertexAttribPointer(-1, 3, GL_FLOAT, false, 32, 0);
+		assertEquals(3, gl.count("glVertexAttribPointer"));
+
+		// New locations start at divisor 0
+		state.vertexAttribDivisor(0, 0);
+		state.vertexAttribDivisor(0, 1);
+		state.vertexAttribDivisor(0, 1);
+		assertEquals(1, gl.count("glVertexAttribDivisor"));
+	}
+
+	// GL keeps uniform values per program, and so does the copy
+	@Test
+	public void uniformsAreTrackedPerProgram() {
+		final float[] m = new float[32];
+		m[0] = 1f;
+		state.useProgram(a);
+		state.uniform4f(0, 1f, 1f, 1f, 1f);
+		state.uniform1i(1, 0);
+		state.uniformMatrix4fv(2, m, 0);
+		state.useProgram(b);
+		state.uniform4f(0, 1f, 1f, 1f, 1f);
+		state.useProgram(a);
+		state.uniform4f(0, 1f, 1f, 1f, 1f);
+		state.uniform1i(1, 0);
+		state.uniformMatrix4fv(2, m, 0);
+		assertEquals(2, gl.count("glUniform4f"));
+		assertEquals(1, gl.count("glUniform1i"));
+		assertEquals(1, gl.count("glUniformMatrix4fv"));
+
+		// Any element that differs sends the matrix again
+		m[15] = 1f;
+		state.uniformMatrix4fv(2, m, 0);
+		assertEquals(2, gl.count("glUniformMatrix4fv"));
+		state.uniform3f(3, 1f, 2f, 3f);
+		state.uniform3f(3, 1f, 2f, 3f);
+		assertEquals(1, gl.count("glUniform3f"));
+		// Not in the program
+		state.uniform4f(-1, 0f, 0f, 0f, 0f);
+		assertEquals(2, gl.count("glUniform4f"));
+	}
+
+	// Matrix arrays are always sent, and leave the single matrix of that location unknown
+	@Test
+	public void matrixArraysAreAlwaysIssued() {
+		final float[] m = new float[32];
+		state.useProgram(a);
+		state.uniformMatrix4fv(0, m, 0);
+		state.uniformMatrix4fv(0, 2, m, 0);
+		state.uniformMatrix4fv(0, 2, m, 0);
+		state.uniformMatrix4fv(0, m, 0);
+		assertEquals(4, gl.count("glUniformMatrix4fv"));
+	}
+
+	@Test
+	public void invalidateForgetsEverything() {
+		state.useProgram(a);
+		state.bindTexture(1);
+		state.bindBuffer(GL_ARRAY_BUFFER, 1);
+		state.enable(GL_DEPTH_TEST);
+		state.lineWidth(2f);
+		final int issued = gl.calls().size();
+		state.invalidate();
+		state.useProgram(a);
+		state.bindTexture(1);
+		state.bindBuffer(GL_ARRAY_BUFFER, 1);
+		state.enable(GL_DEPTH_TEST);
+		state.lineWidth(2f);
+		assertEquals(2 * issued, gl.calls().size());
+	}
+
+	@Test
+	public void callsAreCountedInTheFrameStats() {
+		final FrameStats stats = new FrameStats(4);
+		state.setFrameStats(stats);
+		stats.beginFrame();
+		state.useProgram(a);
+		state.useProgram(a);
+		state.enable(GL_DEPTH_TEST);
+		state.enable(GL_DEPTH_TEST);
+		state.enable(GL_DEPTH_TEST);
+		stats.endFrame();
+		final FrameStats.Snapshot snapshot = stats.snapshot();
+		assertEquals(2, snapshot.counterMax(FrameStats.STATE_CHANGES));
+		assertEquals(3, snapshot.counterMax(FrameStats.REDUNDANT_CALLS));
+	}
+}
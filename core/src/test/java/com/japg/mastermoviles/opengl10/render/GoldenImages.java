@@ -0,0 +1,62 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+/* Rendered images against the PNGs in src/test/resources/golden. Run the tests with -Pgolden.update
+*  (system property golden.update=true) to write the current images there instead, after checking
+*  that the change in them is the intended one.
+*
+*  Math.pow and friends may differ in the last bit between JVMs, which can move a channel by one step
+*  or flip a pixel on a triangle edge, so a few of those are allowed.
+*/
+final class GoldenImages {
+	// Largest step per channel, and share of the pixels allowed to go beyond it
+	private static final int CHANNEL_TOLERANCE = 2;
+	private static final double PIXEL_TOLERANCE = 0.001;
+
+	private GoldenImages() {
+	}
+
+	// argb: width*height pixels, top row first (SoftwareRasterizer.getColorBuffer)
+	static void assertMatches(String name, int[] argb, int width, int height) throws IOException {
+		if (Boolean.getBoolean("golden.update")) {
+			final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			image.setRGB(0, 0, width, height, argb, 0, width);
+			final File file = new File("src/test/resources/golden", name + ".png");
+			file.getParentFile().mkdirs();
+			ImageIO.write(image, "png", file);
+			return;
+		}
+
+		final BufferedImage golden;
+		try (InputStream in = GoldenImages.class.getResourceAsStream("/golden/" + name + ".png")) {
+			assertNotNull("No golden image " + name + ".png", in);
+			golden = ImageIO.read(in);
+		}
+		assertTrue(name + ": golden image is " + golden.getWidth() + "x" + golden.getHeight(),
+				golden.getWidth() == width && golden.getHeight() == height);
+		final int[] expected = golden.getRGB(0, 0, width, height, null, 0, width);
+		int different = 0;
+		int worst = 0;
+		for (int i=0; i<argb.length; i++) {
+			int diff = 0;
+			for (int shift=0; shift<32; shift+=8) {
+				diff = Math.max(diff, Math.abs(((argb[i] >>> shift) & 0xFF) - ((expected[i] >>> shift) & 0xFF)));
+			}
+			worst = Math.max(worst, diff);
+			if (diff > CHANNEL_TOLERANCE) {
+				different++;
+			}
+		}
+		assertTrue(name + ": " + different + " pixels differ from the golden image (worst channel step " + worst + ")",
+				different <= argb.length * PIXEL_TOLERANCE);
+	}
+}
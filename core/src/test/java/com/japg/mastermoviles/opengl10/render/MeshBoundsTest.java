@@ -0,0 +1,169 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.japg.mastermoviles.opengl10.math.Frustum;
+import com.japg.mastermoviles.opengl10.math.Mat4;
+import com.japg.mastermoviles.opengl10.util.Resource3DSReader;
+import com.japg.mastermoviles.opengl10.util.TestModels;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+// Culling without a GPU: whatever cull() drops has nothing on screen, and close views drop clusters
+public class MeshBoundsTest {
+	private static Resource3DSReader head;
+	private static MeshBounds bounds;
+
+	private final float[] projection = new float[16];
+	private final float[] clip = new float[16];
+	private final Frustum frustum = new Frustum();
+
+	@BeforeClass
+	public static void readModel() {
+		head = TestModels.read("cabeza_mario_6.3ds", true);
+		// Reorders the triangles of the head by cluster
+		bounds = MeshBounds.build(head.dataBuffer[0], head.numVertices[0], head.indexBuffer[0], head.numIndices[0]);
+	}
+
+	@AfterClass
+	public static void releaseModel() {
+		head = null;
+		bounds = null;
+	}
+
+	@Test
+	public void volumesContainEveryVertex() {
+		assertEquals(head.numIndices[0] / 3, bounds.getTriangleCount());
+		assertTrue(bounds.getClusterCount() > 2);
+		final float[] box = new float[6];
+		final float[] center = new float[3];
+		bounds.getBox(box, 0);
+		bounds.getCenter(center, 0);
+		final FloatBuffer vertices = head.dataBuffer[0];
+		for (int v=0; v<head.numVertices[0]; v++) {
+			final float x = vertices.get(v * 8), y = vertices.get(v * 8 + 1), z = vertices.get(v * 8 + 2);
+			assertTrue(x >= box[0] && y >= box[1] && z >= box[2] && x <= box[3] && y <= box[4] && z <= box[5]);
+			final float dx = x - center[0], dy = y - center[1], dz = z - center[2];
+			assertTrue((float) Math.sqrt(dx * dx + dy * dy + dz * dz) <= bounds.getRadius() * 1.0001f);
+		}
+	}
+
+	// Clusters are contiguous ranges that cover the mesh once, in buffer order
+	@Test
+	public void clustersTileTheIndices() {
+		final int[] ranges = new int[bounds.getMaxRanges()];
+		final int clusters = bounds.getClusterRanges(ranges);
+		assertEquals(bounds.getClusterCount(), clusters);
+		int next = 0;
+		for (int c=0; c<clusters; c++) {
+			assertEquals(next, ranges[c * 2]);
+			assertTrue(ranges[c * 2 + 1] <= MeshBounds.TRIANGLES_PER_CLUSTER * 3);
+			next += ranges[c * 2 + 1];
+		}
+		assertEquals(head.numIndices[0], next);
+	}
+
+	@Test
+	public void wholeViewsDrawOneRange() {
+		view(0f, 0f, -5f);
+		final int[] ranges = new int[bounds.getMaxRanges()];
+		assertTrue(bounds.isVisible(frustum));
+		assertEquals(1, bounds.cull(frustum, ranges));
+		assertArrayEquals(new int[] { 0, head.numIndices[0] }, new int[] { ranges[0], ranges[1] });
+		assertEquals(0, bounds.getCulledClusters());
+
+		view(50f, 0f, -5f);
+		assertFalse(bounds.isVisible(frustum));
+		assertEquals(0, bounds.cull(frustum, ranges));
+		assertEquals(bounds.getClusterCount(), bounds.getCulledClusters());
+	}
+
+	// Sideways and close up, part of the head is off screen: those clusters go, and no triangle with a
+	// vertex on screen goes with them
+	@Test
+	public void culledTrianglesAreOffScreen() {
+		final int[] ranges = new int[bounds.getMaxRanges()];
+		int partial = 0;
+		for (float x=-1.5f; x<=1.5f; x+=0.25f) {
+			for (float z=-3f; z<=-0.5f; z+=0.5f) {
+				view(x, 0.3f, z);
+				final int count = bounds.cull(frustum, ranges);
+				final boolean[] drawn = new boolean[bounds.getTriangleCount()];
+				for (int r=0; r<count; r++) {
+					for (int i=ranges[r * 2]; i<ranges[r * 2] + ranges[r * 2 + 1]; i+=3) {
+						drawn[i / 3] = true;
+					}
+				}
+				for (int t=0; t<drawn.length; t++) {
+					assertTrue("Triangle " + t + " dropped at " + x + ", " + z, drawn[t] || !onScreen(t));
+				}
+				if (bounds.getCulledClusters() > 0 && count > 0) {
+					partial++;
+				}
+			}
+		}
+		assertTrue(partial > 0);
+	}
+
+	// A read-only copy of the reordered mesh (a mapped .m3d) is split into the same clusters
+	@Test
+	public void readOnlyBuffersGiveTheSameClusters() {
+		final FloatBuffer vertices = ByteBuffer.allocateDirect(head.numVertices[0] * 32).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		vertices.put(head.dataBuffer[0].duplicate()).flip();
+		final Buffer indices = head.indexBuffer[0];
+		final Buffer readOnly = indices instanceof IntBuffer ? ((IntBuffer) indices).asReadOnlyBuffer()
+				: ((ShortBuffer) indices).asReadOnlyBuffer();
+		final MeshBounds mapped = MeshBounds.build(vertices.asReadOnlyBuffer(), head.numVertices[0], readOnly, head.numIndices[0]);
+		final int[] expected = new int[bounds.getMaxRanges()];
+		final int[] actual = new int[mapped.getMaxRanges()];
+		assertEquals(bounds.getClusterRanges(expected), mapped.getClusterRanges(actual));
+		assertArrayEquals(expected, actual);
+	}
+
+	//------------------------------------------
+	// Head at (x, y, z) in front of the renderer's camera
+	private void view(float x, float y, float z) {
+		Mat4.perspective(projection, 0, 45f, 540f / 960f, 0.01f, 1000f);
+		final float[] model = new float[16];
+		Mat4.setIdentity(model, 0);
+		model[12] = x;
+		model[13] = y;
+		model[14] = z;
+		Mat4.multiply(clip, 0, projection, 0, model, 0);
+		frustum.set(clip, 0);
+	}
+
+	private boolean onScreen(int triangle) {
+		final float[] v = new float[4];
+		final float[] c = new float[4];
+		for (int k=0; k<3; k++) {
+			final int index = index(triangle * 3 + k);
+			v[0] = head.dataBuffer[0].get(index * 8);
+			v[1] = head.dataBuffer[0].get(index * 8 + 1);
+			v[2] = head.dataBuffer[0].get(index * 8 + 2);
+			v[3] = 1f;
+			Mat4.multiplyVec4(c, 0, clip, 0, v, 0);
+			if (Math.abs(c[0]) <= c[3] && Math.abs(c[1]) <= c[3] && Math.abs(c[2]) <= c[3]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int index(int i) {
+		final Buffer indices = head.indexBuffer[0];
+		return indices instanceof IntBuffer ? ((IntBuffer) indices).get(i) : ((ShortBuffer) indices).get(i) & 0xFFFF;
+	}
+}
@@ -0,0 +1,106 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.japg.mastermoviles.opengl10.util.Resource3DSReader;
+import com.japg.mastermoviles.opengl10.util.TestModels;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+// Levels of detail as ModelObject picks them on a 1080 pixel high viewport with the renderer's 45
+// degree projection, zooming out to 64 units and back
+public class MeshLodsTest {
+	private static final float VIEWPORT_HEIGHT = 1080f;
+	// projection[5] of Mat4.perspective with a 45 degree fovy
+	private static final float PROJECTION_SCALE = (float) (1.0 / Math.tan(Math.toRadians(22.5)));
+
+	private static MeshLods lods;
+	private static int indexCount;
+
+	@BeforeClass
+	public static void generate() {
+		final Resource3DSReader head = TestModels.read("cabeza_mario_6.3ds", true);
+		indexCount = head.numIndices[0];
+		lods = MeshLods.generate(head.dataBuffer[0], head.numVertices[0], head.indexBuffer[0], head.numIndices[0]);
+	}
+
+	@AfterClass
+	public static void release() {
+		lods = null;
+	}
+
+	// Level 0 is the mesh as it was, and every later level has fewer triangles and a larger error
+	@Test
+	public void levelsFollowEachOther() {
+		assertTrue(lods.getLevelCount() > 1);
+		assertEquals(0, lods.getFirst(0));
+		assertEquals(indexCount, lods.getCount(0));
+		assertEquals(0f, lods.getError(0), 0f);
+		int total = lods.getCount(0);
+		for (int l=1; l<lods.getLevelCount(); l++) {
+			assertEquals(lods.getFirst(l - 1) + lods.getCount(l - 1), lods.getFirst(l));
+			assertTrue(lods.getCount(l) < lods.getCount(l - 1));
+			assertEquals(0, lods.getCount(l) % 3);
+			assertTrue(lods.getError(l) > lods.getError(l - 1));
+			total += lods.getCount(l);
+		}
+		assertEquals(total, lods.getIndexCount());
+		assertEquals(total, lods.getIndices().remaining());
+	}
+
+	@Test
+	public void zoomSweepDrawsFewerTrianglesFurtherAway() {
+		int level = 0;
+		int previous = Integer.MAX_VALUE;
+		final int[] out = new int[13];
+		for (int step=0; step<=12; step++) {
+			level = lods.select(level, pixelsPerUnit(distance(step)));
+			out[step] = lods.getCount(level);
+			assertTrue("Finer level at " + distance(step), out[step] <= previous);
+			previous = out[step];
+		}
+		// Full detail up close, at most half of it at 64 units
+		assertEquals(indexCount, out[0]);
+		assertTrue(out[12] * 2 <= out[0]);
+		for (int step=11; step>=0; step--) {
+			level = lods.select(level, pixelsPerUnit(distance(step)));
+			assertTrue("Coarser level at " + distance(step), lods.getCount(level) >= previous);
+			// Hysteresis: on the way back a level is kept at least as long as it was taken
+			assertTrue(lods.getCount(level) <= out[step]);
+			previous = lods.getCount(level);
+		}
+		assertEquals(0, level);
+	}
+
+	// A distance right at a threshold keeps whichever level was drawn last frame
+	@Test
+	public void thresholdDoesNotFlicker() {
+		final float atThreshold = MeshLods.PIXEL_ERROR / lods.getError(1);
+		assertEquals(0, lods.select(0, atThreshold));
+		assertEquals(1, lods.select(1, atThreshold));
+		for (int f=0; f<10; f++) {
+			assertEquals(1, lods.select(lods.select(1, atThreshold), atThreshold));
+		}
+	}
+
+	// Meshes too small to be worth simplifying keep level 0 only
+	@Test
+	public void smallMeshesHaveOneLevel() {
+		final Resource3DSReader cube = TestModels.read("cubo.3ds", true);
+		final MeshLods cubeLods = MeshLods.generate(cube.dataBuffer[0], cube.numVertices[0], cube.indexBuffer[0], cube.numIndices[0]);
+		assertEquals(1, cubeLods.getLevelCount());
+		assertEquals(0, cubeLods.select(0, 0.001f));
+	}
+
+	//------------------------------------------
+	private static float distance(int step) {
+		return (float) Math.pow(2, step / 2.0);
+	}
+
+	private static float pixelsPerUnit(float distance) {
+		return VIEWPORT_HEIGHT * 0.5f * PROJECTION_SCALE / distance;
+	}
+}
@@ -0,0 +1,90 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.japg.mastermoviles.opengl10.util.Resource3DSReader;
+import com.japg.mastermoviles.opengl10.util.TestModels;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+// Packed vertices against the floats they come from: the documented worst cases hold on the app's models
+public class PackedVerticesTest {
+	private static final int FLOATS_PER_VERTEX = 8;
+	// Half a step of 1/65535 of the range, plus float rounding
+	private static final double QUANTUM_ERROR = 0.5 / 65535 + 1e-6;
+	private static final double NORMAL_DEGREES = 0.01;
+
+	@Test
+	public void errorsStayWithinBounds() {
+		for (String model : new String[] { "esfera2.3ds", "cabeza_mario_6.3ds", "tierra.3ds", "t90a.3ds" }) {
+			final Resource3DSReader reader = TestModels.read(model, true);
+			for (int i=0; i<reader.numMeshes; i++) {
+				checkErrors(model + " mesh " + i, reader.dataBuffer[i], reader.numVertices[i]);
+			}
+		}
+	}
+
+	// Half the bytes, and the ranges of the mesh as scale and offset
+	@Test
+	public void layoutIsSixteenBytes() {
+		final Resource3DSReader head = TestModels.read("cabeza_mario_6.3ds", true);
+		final PackedVertices packed = PackedVertices.pack(head.dataBuffer[0], head.numVertices[0]);
+		assertEquals(head.numVertices[0], packed.getVertexCount());
+		assertEquals(head.numVertices[0] * PackedVertices.STRIDE, packed.getData().capacity());
+		assertEquals(head.dataBuffer[0].capacity() * 4, packed.getData().capacity() * 2);
+		final float[] box = SoftwareRasterizerTest.box(head);
+		for (int c=0; c<3; c++) {
+			assertEquals(box[c], packed.getPositionOffset(c), 0f);
+			assertEquals(box[3 + c] - box[c], packed.getPositionScale(c), 1e-6f * box[3 + c]);
+		}
+		// Not moved by pack
+		assertEquals(0, head.dataBuffer[0].position());
+	}
+
+	// A flat axis, an axis-aligned normal on each side of the octahedron fold, and no vertices at all
+	@Test
+	public void degenerateInputsArePacked() {
+		final float[] vertices = {
+			0f, 1f, 2f,  0f, 0f, 1f,   0.5f, 0.5f,
+			1f, 1f, 2f,  0f, 0f, -1f,  0.5f, 0.5f,
+			1f, 1f, 2f,  -1f, 0f, 0f,  0.5f, 0.5f,
+			1f, 1f, 2f,  0f, -1f, 0f,  0.5f, 0.5f,
+		};
+		checkErrors("flat", FloatBuffer.wrap(vertices), 4);
+		final PackedVertices none = PackedVertices.pack(FloatBuffer.wrap(new float[0]), 0);
+		assertEquals(0, none.getData().capacity());
+		assertEquals(1f, none.getPositionScale(0), 0f);
+	}
+
+	//------------------------------------------
+	private static void checkErrors(String what, FloatBuffer vertices, int vertexCount) {
+		final PackedVertices packed = PackedVertices.pack(vertices, vertexCount);
+		final float[] unpacked = new float[vertexCount * FLOATS_PER_VERTEX];
+		packed.unpack(unpacked);
+		for (int v=0; v<vertexCount; v++) {
+			final int base = v * FLOATS_PER_VERTEX;
+			for (int c=0; c<3; c++) {
+				final double error = Math.abs(unpacked[base + c] - vertices.get(base + c)) / packed.getPositionScale(c);
+				assertTrue(what + " vertex " + v + " axis " + c + ": " + error, error <= QUANTUM_ERROR);
+			}
+			for (int c=0; c<2; c++) {
+				final double error = Math.abs(unpacked[base + 6 + c] - vertices.get(base + 6 + c)) / packed.getUVScale(c);
+				assertTrue(what + " vertex " + v + " uv " + c + ": " + error, error <= QUANTUM_ERROR);
+			}
+			final double degrees = angle(vertices.get(base + 3), vertices.get(base + 4), vertices.get(base + 5),
+					unpacked[base + 3], unpacked[base + 4], unpacked[base + 5]);
+			assertTrue(what + " vertex " + v + " normal: " + degrees, degrees <= NORMAL_DEGREES);
+		}
+	}
+
+	// Degrees between two vectors (atan2 keeps small angles exact, where acos does not)
+	private static double angle(double ax, double ay, double az, double bx, double by, double bz) {
+		final double cx = ay * bz - az * by;
+		final double cy = az * bx - ax * bz;
+		final double cz = ax * by - ay * bx;
+		return Math.toDegrees(Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), ax * bx + ay * by + az * bz));
+	}
+}
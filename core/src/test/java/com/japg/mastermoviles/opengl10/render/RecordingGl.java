@@ -0,0 +1,368 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/* Gl that draws nothing and records every call: how many of each there were, in which order, and the
+*  bytes handed to glBufferData. Names are handed out from 1 up, every uniform and attribute exists
+*  (attributes at locations 0, 1, 2... in order of lookup per program) and the context reports
+*  the GL_VERSION and GL_EXTENSIONS it was built with. Public for the tests of the models that draw through it.
+*/
+public final class RecordingGl implements Gl {
+	static final String ES2 = "OpenGL ES 2.0";
+	static final String ES3 = "OpenGL ES 3.0";
+	static final String EXTENSIONS = "GL_OES_element_index_uint GL_OES_vertex_array_object";
+
+	private final String version;
+	private final String extensions;
+	private final Map<String, Integer> counts = new HashMap<>();
+	private final Map<Integer, Integer> elementTypes = new HashMap<>();
+	private final List<String> calls = new ArrayList<>();
+	private final List<Integer> bufferSizes = new ArrayList<>();
+	private final Map<String, Integer> uniformLocations = new HashMap<>();
+	private final Map<String, Integer> attribLocations = new HashMap<>();
+	private final Map<Integer, Integer> attribCounts = new HashMap<>();
+	private long bufferBytes;
+	private int nextName = 1;
+	private boolean recording = true;
+
+	public RecordingGl() {
+		this(ES2);
+	}
+
+	RecordingGl(String version) {
+		this(version, EXTENSIONS);
+	}
+
+	RecordingGl(String version, String extensions) {
+		this.version = version;
+		this.extensions = extensions;
+	}
+
+	// A backend on this GL, with every program and texture faked (see Programs and Textures)
+	public GLES20Backend newBackend() {
+		final GLState state = new GLState(this);
+		return new GLES20Backend(state, new Programs(), new Textures(state), TextureCache.DEFAULT_BUDGET_BYTES);
+	}
+
+	//------------------------------------------
+	// Calls of that name since the last reset()
+	public int count(String call) {
+		final Integer count = counts.get(call);
+		return count != null ? count : 0;
+	}
+
+	// glDrawElements with indices of that type (GL_UNSIGNED_SHORT or GL_UNSIGNED_INT) since the last reset()
+	public int countElements(int type) {
+		final Integer count = elementTypes.get(type);
+		return count != null ? count : 0;
+	}
+
+	// Every call since the last reset(), in order
+	List<String> calls() {
+		return calls;
+	}
+
+	// Bytes handed to glBufferData since the last reset()
+	public long bufferBytes() {
+		return bufferBytes;
+	}
+
+	// Size of every glBufferData since the last reset(), in order
+	public List<Integer> bufferSizes() {
+		return bufferSizes;
+	}
+
+	// Off, calls leave no trace and cost no allocations (for tests that count them)
+	public void setRecording(boolean recording) {
+		this.recording = recording;
+	}
+
+	public void reset() {
+		counts.clear();
+		elementTypes.clear();
+		calls.clear();
+		bufferSizes.clear();
+		bufferBytes = 0;
+	}
+
+	void record(String call) {
+		if (!recording) {
+			return;
+		}
+		final Integer count = counts.get(call);
+		counts.put(call, count != null ? count + 1 : 1);
+		calls.add(call);
+	}
+
+	private int genName() {
+		return nextName++;
+	}
+
+	//------------------------------------------
+	// Linked programs with consecutive names, one per variant
+	final class Programs implements GLES20Backend.Programs {
+		private final Map<String, ShaderProgram> programs = new HashMap<>();
+
+		@Override
+		public ShaderProgram get(boolean vertexTextures, String... defines) {
+			final String key = vertexTextures + "/" + String.join("/", defines);
+			ShaderProgram program = programs.get(key);
+			if (program == null) {
+				record("glLinkProgram");
+				program = new ShaderProgram(RecordingGl.this, genName());
+				programs.put(key, program);
+			}
+			return program;
+		}
+
+		@Override
+		public void invalidate() {
+			programs.clear();
+		}
+	}
+
+	// 64x64 RGBA textures for every resource id under 1000, bound through the backend's state
+	final class Textures implements TextureCache.Source {
+		static final long BYTES = 64 * 64 * 4;
+
+		private final GLState state;
+
+		Textures(GLState state) {
+			this.state = state;
+		}
+
+		@Override
+		public int create(int resourceId, int sampler, long[] bytes) {
+			if (resourceId >= 1000) {
+				return 0;
+			}
+			final int[] name = new int[1];
+			glGenTextures(1, name, 0);
+			state.bindTexture(name[0]);
+			glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, 64, 64, 0, GL_RGBA, GL_UNSIGNED_BYTE, null);
+			bytes[0] = BYTES;
+			return name[0];
+		}
+
+		@Override
+		public void delete(int name) {
+			record("glDeleteTextures");
+			state.textureDeleted(name);
+		}
+	}
+
+	//------------------------------------------
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		record("glClearColor");
+	}
+
+	@Override
+	public void glClear(int mask) {
+		record("glClear");
+	}
+
+	@Override
+	public void glViewport(int x, int y, int width, int height) {
+		record("glViewport");
+	}
+
+	@Override
+	public void glEnable(int cap) {
+		record("glEnable");
+	}
+
+	@Override
+	public void glDisable(int cap) {
+		record("glDisable");
+	}
+
+	@Override
+	public void glLineWidth(float width) {
+		record("glLineWidth");
+	}
+
+	@Override
+	public void glGetIntegerv(int pname, int[] params, int offset) {
+		record("glGetIntegerv");
+		switch (pname) {
+			case GL_MAX_VERTEX_TEXTURE_IMAGE_UNITS:
+				params[offset] = 16;
+				break;
+			case GL_MAX_VERTEX_UNIFORM_VECTORS:
+				params[offset] = 256;
+				break;
+			default:
+				params[offset] = 0;
+		}
+	}
+
+	@Override
+	public String glGetString(int name) {
+		record("glGetString");
+		return name == GL_VERSION ? version : name == GL_EXTENSIONS ? extensions : "";
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+		record("glUseProgram");
+	}
+
+	@Override
+	public int glGetUniformLocation(int program, String name) {
+		record("glGetUniformLocation");
+		final String key = program + "/" + name;
+		Integer location = uniformLocations.get(key);
+		if (location == null) {
+			location = uniformLocations.size();
+			uniformLocations.put(key, location);
+		}
+		return location;
+	}
+
+	@Override
+	public int glGetAttribLocation(int program, String name) {
+		record("glGetAttribLocation");
+		final String key = program + "/" + name;
+		Integer location = attribLocations.get(key);
+		if (location == null) {
+			final Integer used = attribCounts.get(program);
+			location = used != null ? used : 0;
+			// A matrix attribute takes a location per column
+			attribCounts.put(program, location + (name.endsWith("Matrix") ? 4 : 1));
+			attribLocations.put(key, location);
+		}
+		return location;
+	}
+
+	@Override
+	public void glUniform1i(int location, int x) {
+		record("glUniform1i");
+	}
+
+	@Override
+	public void glUniform3f(int location, float x, float y, float z) {
+		record("glUniform3f");
+	}
+
+	@Override
+	public void glUniform4f(int location, float x, float y, float z, float w) {
+		record("glUniform4f");
+	}
+
+	@Override
+	public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+		record("glUniformMatrix4fv");
+	}
+
+	@Override
+	public void glGenTextures(int n, int[] textures, int offset) {
+		record("glGenTextures");
+		for (int i=0; i<n; i++) {
+			textures[offset + i] = genName();
+		}
+	}
+
+	@Override
+	public void glActiveTexture(int texture) {
+		record("glActiveTexture");
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture) {
+		record("glBindTexture");
+	}
+
+	@Override
+	public void glTexParameteri(int target, int pname, int param) {
+		record("glTexParameteri");
+	}
+
+	@Override
+	public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type,
+			Buffer pixels) {
+		record("glTexImage2D");
+	}
+
+	@Override
+	public void glGenerateMipmap(int target) {
+		record("glGenerateMipmap");
+	}
+
+	@Override
+	public void glGenBuffers(int n, int[] buffers, int offset) {
+		record("glGenBuffers");
+		for (int i=0; i<n; i++) {
+			buffers[offset + i] = genName();
+		}
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		record("glBindBuffer");
+	}
+
+	@Override
+	public void glBufferData(int target, int size, Buffer data, int usage) {
+		record("glBufferData");
+		if (!recording) {
+			return;
+		}
+		bufferSizes.add(size);
+		bufferBytes += size;
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+		record("glEnableVertexAttribArray");
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+		record("glDisableVertexAttribArray");
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+		record("glVertexAttribPointer");
+	}
+
+	@Override
+	public void glVertexAttrib1f(int index, float x) {
+		record("glVertexAttrib1f");
+	}
+
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+		record("glDrawArrays");
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, int offset) {
+		record("glDrawElements");
+		if (!recording) {
+			return;
+		}
+		final Integer draws = elementTypes.get(type);
+		elementTypes.put(type, draws != null ? draws + 1 : 1);
+	}
+
+	@Override
+	public void glVertexAttribDivisor(int index, int divisor) {
+		record("glVertexAttribDivisor");
+	}
+
+	@Override
+	public void glDrawArraysInstanced(int mode, int first, int count, int instanceCount) {
+		record("glDrawArraysInstanced");
+	}
+
+	@Override
+	public void glDrawElementsInstanced(int mode, int count, int type, int offset, int instanceCount) {
+		record("glDrawElementsInstanced");
+	}
+}
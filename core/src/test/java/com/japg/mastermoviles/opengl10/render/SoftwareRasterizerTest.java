@@ -0,0 +1,276 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.japg.mastermoviles.opengl10.math.Mat4;
+import com.japg.mastermoviles.opengl10.math.Quat;
+import com.japg.mastermoviles.opengl10.texture.KtxFile;
+import com.japg.mastermoviles.opengl10.texture.TextureConverter;
+import com.japg.mastermoviles.opengl10.util.Resource3DSReader;
+import com.japg.mastermoviles.opengl10.util.TestModels;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+public class SoftwareRasterizerTest {
+	private static final int MONO_TEX = 1;
+	private static final int CARA = 2;
+
+	// Textures as the app would have them: the .ktx TextureConverter makes of each drawable, converted
+	// once (ETC1 encoding is slow)
+	private static final Map<Integer, KtxFile> CONVERTED = new HashMap<>();
+	private static final KtxFile.Source TEXTURES = resourceId -> {
+		final String name = resourceId == MONO_TEX ? "mono_tex.png" : resourceId == CARA ? "cara_2.png" : null;
+		if (name == null) {
+			return null;
+		}
+		synchronized (CONVERTED) {
+			KtxFile ktx = CONVERTED.get(resourceId);
+			if (ktx == null) {
+				try {
+					final BufferedImage image = ImageIO.read(TestModels.drawable(name));
+					final int w = image.getWidth();
+					final int h = image.getHeight();
+					ktx = TextureConverter.convert(image.getRGB(0, 0, w, h, null, 0, w), w, h);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				CONVERTED.put(resourceId, ktx);
+			}
+			return ktx;
+		}
+	};
+
+	private static Resource3DSReader sphere;
+	private static Resource3DSReader head;
+	private static Resource3DSReader headIndexed;
+
+	@BeforeClass
+	public static void readModels() {
+		sphere = TestModels.read("esfera.3ds", false);
+		head = TestModels.read("cabeza_mario_6.3ds", false);
+		headIndexed = TestModels.read("cabeza_mario_6.3ds", true);
+	}
+
+	@AfterClass
+	public static void releaseModels() {
+		sphere = head = headIndexed = null;
+	}
+
+	@Test
+	public void sphereMatchesGolden() throws IOException {
+		final SoftwareRasterizer rasterizer = new SoftwareRasterizer(4, TEXTURES);
+		try {
+			render(rasterizer, sphere, MONO_TEX, 128, 128, 30f);
+			GoldenImages.assertMatches("esfera_mono_tex", rasterizer.getColorBuffer(), 128, 128);
+		} finally {
+			rasterizer.shutdown();
+		}
+	}
+
+	@Test
+	public void headMatchesGolden() throws IOException {
+		final SoftwareRasterizer rasterizer = new SoftwareRasterizer(4, TEXTURES);
+		try {
+			render(rasterizer, head, CARA, 160, 200, -40f);
+			GoldenImages.assertMatches("cabeza_mario_6_cara", rasterizer.getColorBuffer(), 160, 200);
+		} finally {
+			rasterizer.shutdown();
+		}
+	}
+
+	// Tiles are drawn in submission order whatever thread takes them
+	@Test
+	public void imageDoesNotDependOnThreads() {
+		final SoftwareRasterizer one = new SoftwareRasterizer(1, TEXTURES);
+		final SoftwareRasterizer four = new SoftwareRasterizer(4, TEXTURES);
+		try {
+			render(one, head, CARA, 160, 200, -40f);
+			render(four, head, CARA, 160, 200, -40f);
+			assertArrayEquals(one.getColorBuffer(), four.getColorBuffer());
+			assertEquals(one.getTriangleCount(), four.getTriangleCount());
+		} finally {
+			one.shutdown();
+			four.shutdown();
+		}
+	}
+
+	// Deduplicated vertices with an index buffer describe the very same triangles
+	@Test
+	public void indexedMatchesPlain() {
+		final SoftwareRasterizer plain = new SoftwareRasterizer(2, TEXTURES);
+		final SoftwareRasterizer indexed = new SoftwareRasterizer(2, TEXTURES);
+		try {
+			render(plain, head, CARA, 160, 200, -40f);
+			render(indexed, headIndexed, CARA, 160, 200, -40f);
+			assertArrayEquals(plain.getColorBuffer(), indexed.getColorBuffer());
+		} finally {
+			plain.shutdown();
+			indexed.shutdown();
+		}
+	}
+
+	// Level 0 of the .ktx, decoded: the same texels as createTexture with the decoded pixels
+	@Test
+	public void loadTextureDecodesKtx() {
+		final SoftwareRasterizer fromKtx = new SoftwareRasterizer(2, TEXTURES);
+		final SoftwareRasterizer fromPixels = new SoftwareRasterizer(2);
+		try {
+			final KtxFile ktx = TEXTURES.open(MONO_TEX);
+			final int[] argb = new int[ktx.width * ktx.height];
+			assertTrue(ktx.decode(0, argb));
+			render(fromKtx, sphere, MONO_TEX, 128, 128, 30f);
+			fromPixels.init();
+			fromPixels.setViewport(128, 128);
+			final int texture = fromPixels.createTexture(ktx.width, ktx.height, argb);
+			draw(fromPixels, sphere, texture, 128, 128, 30f);
+			assertArrayEquals(fromKtx.getColorBuffer(), fromPixels.getColorBuffer());
+		} finally {
+			fromKtx.shutdown();
+			fromPixels.shutdown();
+		}
+	}
+
+	// No .ktx: no texture, drawn as GL draws with an incomplete one
+	@Test
+	public void missingTextureIsZero() {
+		final SoftwareRasterizer rasterizer = new SoftwareRasterizer(1, TEXTURES);
+		final SoftwareRasterizer noFiles = new SoftwareRasterizer(1);
+		try {
+			assertEquals(0, rasterizer.loadTexture(99));
+			assertEquals(0, noFiles.loadTexture(MONO_TEX));
+			assertNotEquals(0, rasterizer.loadTexture(MONO_TEX));
+		} finally {
+			rasterizer.shutdown();
+			noFiles.shutdown();
+		}
+	}
+
+	// Triangles that cross the near plane are clipped, not dropped: the front of the sphere is cut
+	// away, leaving a ring around a hole where the back faces (culled) would show.
+	// Eye 3 radii from the centre, near plane 2.2 radii from the eye: the sphere covers 27 pixels
+	// around the centre of the 64x64 viewport, the hole 21 of them.
+	@Test
+	public void nearPlaneClipsTriangles() {
+		final SoftwareRasterizer whole = new SoftwareRasterizer(2, TEXTURES);
+		final SoftwareRasterizer cut = new SoftwareRasterizer(2, TEXTURES);
+		try {
+			final float[] box = box(sphere);
+			final float radius = (box[3] - box[0]) * 0.5f;
+			drawSphere(whole, box, radius, 0.01f);
+			drawSphere(cut, box, radius, 2.2f * radius);
+			final int[] ring = cut.getColorBuffer();
+			assertTrue(cut.getTriangleCount() > 0);
+			assertNotEquals(0xFF000000, whole.getColorBuffer()[32 * 64 + 32]);
+			assertEquals(0xFF000000, ring[32 * 64 + 32]);
+			// The ring is drawn as without the cut
+			final int edge = 32 * 64 + 32 + 24;
+			assertNotEquals(0xFF000000, ring[edge]);
+			assertEquals(whole.getColorBuffer()[edge], ring[edge]);
+		} finally {
+			whole.shutdown();
+			cut.shutdown();
+		}
+	}
+
+	private static void drawSphere(SoftwareRasterizer rasterizer, float[] box, float radius, float near) {
+		rasterizer.init();
+		rasterizer.setViewport(64, 64);
+		final int texture = rasterizer.loadTexture(MONO_TEX);
+		final float[] projection = new float[16];
+		final float[] mv = new float[16];
+		final float[] mvp = new float[16];
+		Mat4.perspective(projection, 0, 45f, 1f, near, 100f * radius);
+		Mat4.composeTRS(mv, 0, -(box[0] + box[3]) * 0.5f, -(box[1] + box[4]) * 0.5f,
+				-(box[2] + box[5]) * 0.5f - 3f * radius, new float[] { 0f, 0f, 0f, 1f }, 0, 1f, 1f, 1f);
+		Mat4.multiply(mvp, 0, projection, 0, mv, 0);
+		final int[] meshes = new int[sphere.numMeshes];
+		for (int i=0; i<sphere.numMeshes; i++) {
+			meshes[i] = upload(rasterizer, sphere, i);
+		}
+		rasterizer.beginFrame();
+		for (int mesh : meshes) {
+			rasterizer.drawMesh(mesh, texture, mvp, mv, 1f, 1f, 1f, 1f);
+		}
+		rasterizer.endFrame();
+	}
+
+	//------------------------------------------
+	// The model centered in front of the eye, turned yawDegrees about y, filling most of the viewport
+	static void render(SoftwareRasterizer rasterizer, Resource3DSReader model, int textureResource, int width, int height,
+			float yawDegrees) {
+		rasterizer.init();
+		rasterizer.setViewport(width, height);
+		final int texture = rasterizer.loadTexture(textureResource);
+		assertNotEquals(0, texture);
+		draw(rasterizer, model, texture, width, height, yawDegrees);
+	}
+
+	static void draw(SoftwareRasterizer rasterizer, Resource3DSReader model, int texture, int width, int height,
+			float yawDegrees) {
+		final float[] box = box(model);
+		float radius = 0f;
+		for (int c=0; c<3; c++) {
+			radius = Math.max(radius, (box[3 + c] - box[c]) * 0.5f);
+		}
+		final float[] projection = new float[16];
+		final float[] rotation = new float[4];
+		final float[] centered = new float[16];
+		final float[] turned = new float[16];
+		final float[] mv = new float[16];
+		final float[] mvp = new float[16];
+		Mat4.perspective(projection, 0, 45f, (float) width / height, 0.01f, 1000f);
+		Mat4.composeTRS(centered, 0, -(box[0] + box[3]) * 0.5f, -(box[1] + box[4]) * 0.5f, -(box[2] + box[5]) * 0.5f,
+				new float[] { 0f, 0f, 0f, 1f }, 0, 1f, 1f, 1f);
+		Quat.setAxisAngle(rotation, 0, yawDegrees, 0f, 1f, 0f);
+		Mat4.composeTRS(turned, 0, 0f, 0f, -3f * radius, rotation, 0, 1f, 1f, 1f);
+		Mat4.multiply(mv, 0, turned, 0, centered, 0);
+		Mat4.multiply(mvp, 0, projection, 0, mv, 0);
+
+		final int[] meshes = new int[model.numMeshes];
+		for (int i=0; i<model.numMeshes; i++) {
+			meshes[i] = upload(rasterizer, model, i);
+		}
+		rasterizer.beginFrame();
+		for (int mesh : meshes) {
+			rasterizer.drawMesh(mesh, texture, mvp, mv, 1f, 1f, 1f, 1f);
+		}
+		rasterizer.endFrame();
+	}
+
+	private static int upload(RenderBackend backend, Resource3DSReader model, int i) {
+		if (model.isIndexed()) {
+			return backend.createMesh(model.dataBuffer[i], model.numVertices[i], model.indexBuffer[i], model.numIndices[i]);
+		}
+		return backend.createMesh(model.dataBuffer[i], model.numVertices[i], null, 0);
+	}
+
+	// min x, y, z, max x, y, z of every vertex
+	static float[] box(Resource3DSReader model) {
+		final float[] box = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		for (int i=0; i<model.numMeshes; i++) {
+			final FloatBuffer vertices = model.dataBuffer[i];
+			for (int v=0; v<model.numVertices[i]; v++) {
+				for (int c=0; c<3; c++) {
+					final float value = vertices.get(v * 8 + c);
+					box[c] = Math.min(box[c], value);
+					box[3 + c] = Math.max(box[3 + c], value);
+				}
+			}
+		}
+		return box;
+	}
+}
@@ -0,0 +1,169 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.japg.mastermoviles.opengl10.math.Frustum;
+import com.japg.mastermoviles.opengl10.math.Mat4;
+import com.japg.mastermoviles.opengl10.util.Resource3DSReader;
+import com.japg.mastermoviles.opengl10.util.TestModels;
+
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Batches draw the same triangles as their meshes, in fewer draw calls
+public class StaticBatchTest {
+	@Test
+	public void planKeepsBatchesUnderSixteenBits() {
+		final int[] vertices = { 30000, 30000, 10000, 70000, 5, 5 };
+		final StaticBatch[] batches = StaticBatch.plan(vertices, null, null, vertices.length);
+		assertEquals(4, batches.length);
+		assertParts(batches[0], 0, 2);
+		assertParts(batches[1], 2, 1);
+		// Too big to share: a batch of its own
+		assertParts(batches[2], 3, 1);
+		assertParts(batches[3], 4, 2);
+		for (StaticBatch batch : batches) {
+			assertTrue(batch.getPartCount() == 1 || batch.getVertexCount() <= StaticBatch.MAX_VERTICES);
+		}
+		assertEquals(6, StaticBatch.perMesh(vertices, null, null, vertices.length).length);
+	}
+
+	// Every level of every part, found through getFirst, has the triangles the part had
+	@Test
+	public void mergedBuffersKeepEveryLevel() {
+		final Resource3DSReader parts = load("t90a.3ds");
+		final Resource3DSReader batched = load("t90a.3ds");
+		batched.batchMeshes();
+		assertEquals(parts.numMeshes, batched.bounds.length);
+		assertTrue(batched.numMeshes < parts.numMeshes);
+		for (int b=0; b<batched.numMeshes; b++) {
+			final StaticBatch batch = batched.batches[b];
+			assertTrue(batched.indexBuffer[b] instanceof ShortBuffer);
+			int level0 = 0;
+			for (int p=batch.getFirstPart(); p<batch.getFirstPart() + batch.getPartCount(); p++) {
+				final MeshLods lods = parts.lods[p];
+				for (int l=0; l<lods.getLevelCount(); l++) {
+					assertEquals("part " + p + " level " + l,
+							triangles(parts.dataBuffer[p], parts.indexBuffer[p], lods.getFirst(l), lods.getCount(l)),
+							triangles(batched.dataBuffer[b], batched.indexBuffer[b], batch.getFirst(p, l), lods.getCount(l)));
+				}
+				level0 += lods.getCount(0);
+			}
+			// Level 0 of all the parts comes first
+			assertEquals(level0, batch.getLevel0Count());
+		}
+	}
+
+	// One part: the mesh buffers as they were
+	@Test
+	public void singlePartsAreNotCopied() {
+		final Resource3DSReader head = load("cabeza_mario_6.3ds");
+		final FloatBuffer vertices = head.dataBuffer[0];
+		final Buffer indices = head.indexBuffer[0];
+		head.batchMeshes();
+		assertEquals(1, head.numMeshes);
+		assertSame(vertices, head.dataBuffer[0]);
+		assertSame(indices, head.indexBuffer[0]);
+	}
+
+	// Whole model in view: a draw call per batch instead of one per mesh. Close up, with parts of it
+	// culled: never more draw calls than the meshes on their own.
+	@Test
+	public void batchesSaveDrawCalls() {
+		final Resource3DSReader model = load("t90a.3ds");
+		model.batchMeshes();
+		final float[] box = box(model);
+		float radius = 0f;
+		for (int c=0; c<3; c++) {
+			radius = Math.max(radius, (box[3 + c] - box[c]) * 0.5f);
+		}
+		final int[] whole = drawCalls(model, box, 0f, 3f * radius);
+		assertTrue(whole[0] >= model.bounds.length);
+		assertEquals(model.numMeshes, whole[1]);
+		final int[] close = drawCalls(model, box, 0.5f * radius, 1.2f * radius);
+		assertTrue(close[1] <= close[0]);
+	}
+
+	//------------------------------------------
+	private static Resource3DSReader load(String model) {
+		final Resource3DSReader reader = TestModels.read(model, true);
+		reader.computeBounds();
+		reader.generateLods();
+		reader.optimizeVertexCache();
+		return reader;
+	}
+
+	private static void assertParts(StaticBatch batch, int first, int count) {
+		assertEquals(first, batch.getFirstPart());
+		assertEquals(count, batch.getPartCount());
+	}
+
+	// The vertex data of each corner, triangle after triangle
+	private static List<String> triangles(FloatBuffer vertices, Buffer indices, int first, int count) {
+		final List<String> corners = new ArrayList<>(count);
+		for (int i=first; i<first + count; i++) {
+			final int v = indices instanceof IntBuffer ? ((IntBuffer) indices).get(i) : ((ShortBuffer) indices).get(i) & 0xFFFF;
+			final StringBuilder sb = new StringBuilder();
+			for (int c=0; c<8; c++) {
+				sb.append(vertices.get(v * 8 + c)).append(',');
+			}
+			corners.add(sb.toString());
+		}
+		return corners;
+	}
+
+	private static float[] box(Resource3DSReader model) {
+		final float[] box = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		final float[] part = new float[6];
+		for (MeshBounds bounds : model.bounds) {
+			bounds.getBox(part, 0);
+			for (int c=0; c<3; c++) {
+				box[c] = Math.min(box[c], part[c]);
+				box[3 + c] = Math.max(box[3 + c], part[3 + c]);
+			}
+		}
+		return box;
+	}
+
+	// { draw calls per mesh, batched } of level 0, with the model centered at distance and moved
+	// sideways by shift (45 degree projection, square viewport)
+	private static int[] drawCalls(Resource3DSReader model, float[] box, float shift, float distance) {
+		final float[] projection = new float[16];
+		final float[] modelMatrix = new float[16];
+		final float[] mvp = new float[16];
+		Mat4.perspective(projection, 0, 45f, 1f, 0.01f, 1000f);
+		Mat4.composeTRS(modelMatrix, 0, shift - (box[0] + box[3]) * 0.5f, -(box[1] + box[4]) * 0.5f,
+				-distance - (box[2] + box[5]) * 0.5f, new float[] { 0f, 0f, 0f, 1f }, 0, 1f, 1f, 1f);
+		Mat4.multiply(mvp, 0, projection, 0, modelMatrix, 0);
+		final Frustum frustum = new Frustum();
+		frustum.set(mvp, 0);
+
+		int perMesh = 0;
+		int batched = 0;
+		for (StaticBatch batch : model.batches) {
+			int lastEnd = -1;
+			for (int p=batch.getFirstPart(); p<batch.getFirstPart() + batch.getPartCount(); p++) {
+				final int[] ranges = new int[model.bounds[p].getMaxRanges()];
+				final int count = model.bounds[p].cull(frustum, ranges);
+				perMesh += count;
+				// Ranges that touch the previous one of the batch join it (see ModelObject.drawObject)
+				for (int r=0; r<count; r++) {
+					final int first = batch.getFirst(p, 0) + ranges[r * 2];
+					if (first != lastEnd) {
+						batched++;
+					}
+					lastEnd = first + ranges[r * 2 + 1];
+				}
+			}
+		}
+		return new int[] { perMesh, batched };
+	}
+}
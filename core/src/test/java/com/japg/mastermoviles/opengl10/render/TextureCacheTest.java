@@ -0,0 +1,138 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+// Sharing, reference counting and eviction, on textures that RecordingGl only pretends to create
+public class TextureCacheTest {
+	private static final long BYTES = RecordingGl.Textures.BYTES;
+	// Broken resource (see RecordingGl.Textures)
+	private static final int MISSING = 1000;
+
+	private RecordingGl gl;
+	private TextureCache cache;
+
+	@Before
+	public void setUp() {
+		gl = new RecordingGl();
+		cache = new TextureCache(gl.new Textures(new GLState(gl)), 2 * BYTES);
+	}
+
+	@Test
+	public void equalKeysShareATexture() {
+		final int a = cache.acquire(1, TextureCache.TRILINEAR);
+		final int b = cache.acquire(1, TextureCache.TRILINEAR);
+		final int nearest = cache.acquire(1, TextureCache.NEAREST);
+		assertEquals(a, b);
+		assertNotEquals(a, nearest);
+		assertEquals(2, gl.count("glTexImage2D"));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(2 * BYTES, cache.getResidentBytes());
+	}
+
+	// Released textures go least recently released first, once something new needs their room
+	@Test
+	public void evictionFollowsReleaseOrder() {
+		final int t1 = cache.acquire(1, TextureCache.TRILINEAR);
+		final int t2 = cache.acquire(2, TextureCache.TRILINEAR);
+		cache.release(t2);
+		cache.release(t1);
+		assertEquals(2 * BYTES, cache.getResidentBytes());
+		assertEquals(0, cache.getEvictions());
+
+		cache.acquire(3, TextureCache.TRILINEAR);
+		assertEquals(1, cache.getEvictions());
+		assertEquals(1, gl.count("glDeleteTextures"));
+		assertEquals(2 * BYTES, cache.getResidentBytes());
+
+		// 1 was released last and is still resident: a hit. 2 was evicted: created again.
+		gl.reset();
+		assertEquals(t1, cache.acquire(1, TextureCache.TRILINEAR));
+		assertEquals(0, gl.count("glTexImage2D"));
+		cache.acquire(2, TextureCache.TRILINEAR);
+		assertEquals(1, gl.count("glTexImage2D"));
+	}
+
+	// Referenced textures are never evicted, even over the budget
+	@Test
+	public void referencedTexturesOutgrowTheBudget() {
+		final int[] handles = new int[4];
+		for (int i=0; i<handles.length; i++) {
+			handles[i] = cache.acquire(i + 1, TextureCache.TRILINEAR);
+		}
+		assertEquals(4 * BYTES, cache.getResidentBytes());
+		assertEquals(0, cache.getEvictions());
+		// Back under the budget as they are released
+		cache.release(handles[0]);
+		cache.release(handles[1]);
+		assertEquals(2, cache.getEvictions());
+		assertEquals(2 * BYTES, cache.getResidentBytes());
+	}
+
+	@Test
+	public void texturesThatFitStayResident() {
+		final int t1 = cache.acquire(1, TextureCache.TRILINEAR);
+		cache.release(t1);
+		assertEquals(BYTES, cache.getResidentBytes());
+		assertEquals(t1, cache.acquire(1, TextureCache.TRILINEAR));
+		assertEquals(1, gl.count("glTexImage2D"));
+		assertEquals(0, gl.count("glDeleteTextures"));
+	}
+
+	// A new context forgets every name: referenced textures are created again when resolved
+	@Test
+	public void invalidateRecreatesReferencedTextures() {
+		final int kept = cache.acquire(1, TextureCache.TRILINEAR);
+		final int dropped = cache.acquire(2, TextureCache.TRILINEAR);
+		cache.release(dropped);
+		final int oldName = cache.resolve(kept);
+		cache.invalidate();
+		assertEquals(0, cache.getResidentBytes());
+		assertEquals(0, gl.count("glDeleteTextures"));
+		assertEquals(0, cache.resolve(dropped));
+
+		gl.reset();
+		final int newName = cache.resolve(kept);
+		assertTrue(newName != 0 && newName != oldName);
+		assertEquals(1, gl.count("glTexImage2D"));
+		assertEquals(BYTES, cache.getResidentBytes());
+		assertEquals(newName, cache.resolve(kept));
+		assertEquals(1, gl.count("glTexImage2D"));
+	}
+
+	// Textures made outside the cache go as soon as they are released, and do not come back
+	@Test
+	public void addedTexturesAreDeletedOnRelease() {
+		final int handle = cache.add(77, 1234);
+		assertEquals(77, cache.resolve(handle));
+		assertEquals(1234, cache.getResidentBytes());
+		cache.release(handle);
+		assertEquals(1, gl.count("glDeleteTextures"));
+		assertEquals(0, cache.getResidentBytes());
+
+		final int lost = cache.add(78, 1234);
+		cache.invalidate();
+		assertEquals(0, cache.resolve(lost));
+	}
+
+	@Test
+	public void failedTexturesAreNotCached() {
+		assertEquals(0, cache.acquire(MISSING, TextureCache.TRILINEAR));
+		assertEquals(0, cache.acquire(MISSING, TextureCache.TRILINEAR));
+		assertEquals(2, cache.getMisses());
+		assertEquals(0, cache.getResidentBytes());
+		assertEquals(0, cache.resolve(1));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void releasingTwiceFails() {
+		final int handle = cache.acquire(1, TextureCache.TRILINEAR);
+		cache.release(handle);
+		cache.release(handle);
+	}
+}
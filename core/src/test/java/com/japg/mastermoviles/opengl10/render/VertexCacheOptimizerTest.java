@@ -0,0 +1,170 @@
+package com.japg.mastermoviles.opengl10.render;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.japg.mastermoviles.opengl10.util.Resource3DSReader;
+import com.japg.mastermoviles.opengl10.util.TestModels;
+
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// ACMR goes down, and the triangles stay the same ones, with their winding, in their cluster or level
+public class VertexCacheOptimizerTest {
+	private static final int GRID = 64;
+
+	@Test
+	public void acmrCountsTransformedVertices() {
+		// Three separate triangles: nothing is reused
+		assertEquals(3f, VertexCacheOptimizer.acmr(new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8 }, 0, 9, 16), 0f);
+		// Two triangles sharing an edge: four vertices for two triangles
+		assertEquals(2f, VertexCacheOptimizer.acmr(new int[] { 0, 1, 2, 2, 1, 3 }, 0, 6, 16), 0f);
+		// Nothing: no misses
+		assertEquals(0f, VertexCacheOptimizer.acmr(new int[0], 0, 0, 16), 0f);
+	}
+
+	// Row by row, a 64 quad wide grid only reuses the vertices of the last row or so; optimized, it
+	// gets close to the 0.5 a regular grid allows
+	@Test
+	public void gridGetsCloseToTheBound() {
+		final int[] indices = grid();
+		final float before = VertexCacheOptimizer.acmr(indices, 0, indices.length, VertexCacheOptimizer.FIFO_SIZE);
+		final List<String> triangles = triangles(indices, 0, indices.length, null);
+		new VertexCacheOptimizer((GRID + 1) * (GRID + 1)).optimize(indices, 0, indices.length);
+		final float after = VertexCacheOptimizer.acmr(indices, 0, indices.length, VertexCacheOptimizer.FIFO_SIZE);
+		assertTrue("ACMR " + before, before > 0.95f);
+		assertTrue("ACMR " + after, after < 0.75f);
+		assertEquals(triangles, triangles(indices, 0, indices.length, null));
+	}
+
+	// The loader pass on real models: every cluster and level keeps its triangles, and level 0 is
+	// not drawn with more vertex shader runs. Only the head shares vertices between its triangles
+	// (the others are faceted, ACMR close to 3), and there the pass more than halves them.
+	@Test
+	public void loaderPassKeepsTrianglesInPlace() {
+		for (String model : new String[] { "tierra.3ds", "cabeza_mario_6.3ds", "t90a.3ds" }) {
+			final Resource3DSReader before = load(model, false);
+			final Resource3DSReader after = load(model, true);
+			double missesBefore = 0;
+			double missesAfter = 0;
+			for (int m=0; m<before.numMeshes; m++) {
+				final int[] clustersBefore = new int[before.bounds[m].getMaxRanges()];
+				final int[] clustersAfter = new int[after.bounds[m].getMaxRanges()];
+				final int clusters = before.bounds[m].getClusterRanges(clustersBefore);
+				after.bounds[m].getClusterRanges(clustersAfter);
+				assertArrayEquals(clustersBefore, clustersAfter);
+				for (int c=0; c<clusters; c++) {
+					assertRangeKept(model, before, after, m, clustersBefore[c * 2], clustersBefore[c * 2 + 1]);
+				}
+				for (int l=1; l<before.lods[m].getLevelCount(); l++) {
+					assertRangeKept(model, before, after, m, before.lods[m].getFirst(l), before.lods[m].getCount(l));
+				}
+				final int level0 = before.lods[m].getCount(0);
+				missesBefore += VertexCacheOptimizer.acmr(list(before, m), 0, level0, VertexCacheOptimizer.FIFO_SIZE) * level0;
+				missesAfter += VertexCacheOptimizer.acmr(list(after, m), 0, level0, VertexCacheOptimizer.FIFO_SIZE) * level0;
+				assertFirstUseOrder(model, after, m);
+			}
+			assertTrue(model + ": " + missesBefore + " -> " + missesAfter, missesAfter <= missesBefore);
+			if (model.startsWith("cabeza")) {
+				assertTrue(model + ": " + missesBefore + " -> " + missesAfter, missesAfter < missesBefore * 0.5);
+			}
+		}
+	}
+
+	// New numbers follow first use; vertices nobody uses go last, in their old order
+	@Test
+	public void fetchOrderFollowsFirstUse() {
+		final int[] remap = VertexCacheOptimizer.fetchOrder(new int[] { 4, 2, 4, 0, 2, 5 }, 6, 7);
+		assertArrayEquals(new int[] { 2, 4, 1, 5, 0, 3, 6 }, remap);
+	}
+
+	//------------------------------------------
+	// Two triangles per quad, row by row
+	private static int[] grid() {
+		final int[] indices = new int[GRID * GRID * 6];
+		int k = 0;
+		for (int y=0; y<GRID; y++) {
+			for (int x=0; x<GRID; x++) {
+				final int v = y * (GRID + 1) + x;
+				indices[k++] = v;
+				indices[k++] = v + GRID + 1;
+				indices[k++] = v + 1;
+				indices[k++] = v + 1;
+				indices[k++] = v + GRID + 1;
+				indices[k++] = v + GRID + 2;
+			}
+		}
+		return indices;
+	}
+
+	private static Resource3DSReader load(String model, boolean optimize) {
+		final Resource3DSReader reader = TestModels.read(model, true);
+		reader.computeBounds();
+		reader.generateLods();
+		if (optimize) {
+			reader.optimizeVertexCache();
+		}
+		return reader;
+	}
+
+	private static void assertRangeKept(String model, Resource3DSReader before, Resource3DSReader after, int m, int first, int count) {
+		assertEquals(model + " mesh " + m + " at " + first, triangles(list(before, m), first, count, before.dataBuffer[m]),
+				triangles(list(after, m), first, count, after.dataBuffer[m]));
+	}
+
+	// Vertices are numbered by first use: no index is ever past the next new one
+	private static void assertFirstUseOrder(String model, Resource3DSReader reader, int m) {
+		final int[] list = list(reader, m);
+		int next = 0;
+		for (int index : list) {
+			assertTrue(model + " mesh " + m, index <= next);
+			if (index == next) {
+				next++;
+			}
+		}
+	}
+
+	private static int[] list(Resource3DSReader reader, int m) {
+		final Buffer indices = reader.indexBuffer[m];
+		final int[] list = new int[reader.numIndices[m]];
+		for (int k=0; k<list.length; k++) {
+			list[k] = indices instanceof IntBuffer ? ((IntBuffer) indices).get(k) : ((ShortBuffer) indices).get(k) & 0xFFFF;
+		}
+		return list;
+	}
+
+	// Sorted triangles of a range, each starting at its smallest corner so that the winding is kept.
+	// Corners are the vertex data when there is some (the pass renumbers vertices), else the indices.
+	private static List<String> triangles(int[] indices, int first, int count, FloatBuffer vertices) {
+		final List<String> triangles = new ArrayList<>();
+		final String[] corners = new String[3];
+		for (int t=first; t<first + count; t+=3) {
+			int smallest = 0;
+			for (int k=0; k<3; k++) {
+				corners[k] = vertices != null ? vertex(vertices, indices[t + k]) : Integer.toString(indices[t + k]);
+				if (corners[k].compareTo(corners[smallest]) < 0) {
+					smallest = k;
+				}
+			}
+			triangles.add(corners[smallest] + "|" + corners[(smallest + 1) % 3] + "|" + corners[(smallest + 2) % 3]);
+		}
+		Collections.sort(triangles);
+		return triangles;
+	}
+
+	private static String vertex(FloatBuffer vertices, int v) {
+		final StringBuilder sb = new StringBuilder();
+		for (int c=0; c<8; c++) {
+			sb.append(vertices.get(v * 8 + c)).append(',');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,141 @@
+package com.japg.mastermoviles.opengl10.texture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// The container as the KTX 1.1 spec lays it out, byte for byte, and read back without copies
+public class KtxFileTest {
+	private static final byte[] IDENTIFIER = {
+		(byte) 0xAB, 0x4B, 0x54, 0x58, 0x20, 0x31, 0x31, (byte) 0xBB, 0x0D, 0x0A, 0x1A, 0x0A
+	};
+
+	// ETC1 8x4 with its 4x2, 2x1 and 1x1 levels: one block per 4x4 texels or less
+	@Test
+	public void etc1IsWrittenByteForByte() throws IOException {
+		final KtxFile ktx = new KtxFile(0, 1, 0, Etc1.GL_ETC1_RGB8_OES, PixelPacker.GL_RGB, 8, 4,
+				new ByteBuffer[] { bytes(16, 1), bytes(8, 2), bytes(8, 3), bytes(8, 4) });
+		final ByteBuffer expected = ByteBuffer.allocate(64 + 4 * 4 + 40).order(ByteOrder.LITTLE_ENDIAN);
+		expected.put(IDENTIFIER);
+		// endianness, glType, glTypeSize, glFormat, glInternalFormat, glBaseInternalFormat
+		expected.put(new byte[] { 0x01, 0x02, 0x03, 0x04, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0x64, (byte) 0x8D, 0, 0, 0x07, 0x19, 0, 0 });
+		// width, height, depth, array elements, faces, levels, key/value bytes
+		expected.put(new byte[] { 8, 0, 0, 0, 4, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 0, 4, 0, 0, 0, 0, 0, 0, 0 });
+		expected.putInt(16).put(bytes(16, 1));
+		expected.putInt(8).put(bytes(8, 2));
+		expected.putInt(8).put(bytes(8, 3));
+		expected.putInt(8).put(bytes(8, 4));
+		assertArrayEquals(expected.array(), write(ktx));
+	}
+
+	// Levels are padded to 4 bytes, and the padding is not part of the level read back
+	@Test
+	public void levelsArePadded() throws IOException {
+		final KtxFile ktx = new KtxFile(PixelPacker.GL_UNSIGNED_SHORT_5_6_5, 2, PixelPacker.GL_RGB, PixelPacker.GL_RGB,
+				PixelPacker.GL_RGB, 3, 1, new ByteBuffer[] { bytes(6, 9), bytes(2, 7) });
+		final byte[] file = write(ktx);
+		assertEquals(64 + 4 + 8 + 4 + 4, file.length);
+		assertArrayEquals(new byte[] { 6, 0, 0, 0, 9, 10, 11, 12, 13, 14, 0, 0, 2, 0, 0, 0, 7, 8, 0, 0 },
+				Arrays.copyOfRange(file, 64, file.length));
+
+		final KtxFile read = KtxFile.read(ByteBuffer.wrap(file));
+		assertEquals(2, read.getLevelCount());
+		assertEquals(6, read.getLevel(0).remaining());
+		assertEquals(2, read.getLevel(1).remaining());
+		assertEquals(8, read.getDataSize());
+		assertEquals(1, read.getLevelWidth(1));
+		assertEquals(1, read.getLevelHeight(1));
+	}
+
+	// Every field comes back, and the levels are views of the buffer read
+	@Test
+	public void readSharesTheBuffer() throws IOException {
+		final KtxFile ktx = new KtxFile(PixelPacker.GL_UNSIGNED_SHORT_4_4_4_4, 2, PixelPacker.GL_RGBA, PixelPacker.GL_RGBA,
+				PixelPacker.GL_RGBA, 2, 2, new ByteBuffer[] { bytes(8, 1), bytes(2, 5) });
+		final ByteBuffer file = ByteBuffer.wrap(write(ktx));
+		final KtxFile read = KtxFile.read(file);
+		assertEquals(ktx.glType, read.glType);
+		assertEquals(ktx.glTypeSize, read.glTypeSize);
+		assertEquals(ktx.glFormat, read.glFormat);
+		assertEquals(ktx.glInternalFormat, read.glInternalFormat);
+		assertEquals(ktx.glBaseInternalFormat, read.glBaseInternalFormat);
+		assertEquals(2, read.width);
+		assertEquals(2, read.height);
+		assertFalse(read.isCompressed());
+		assertEquals(bytes(8, 1), read.getLevel(0));
+
+		file.put(64 + 4, (byte) 99);
+		assertEquals(99, read.getLevel(0).get(0));
+	}
+
+	// Files from a big-endian writer are fine when their texels are bytes
+	@Test
+	public void bigEndianCompressedFilesAreRead() {
+		final ByteBuffer file = header(ByteOrder.BIG_ENDIAN, 0, 1, 1, 1);
+		file.putInt(8).put(bytes(8, 3)).flip();
+		final KtxFile read = KtxFile.read(file);
+		assertEquals(Etc1.GL_ETC1_RGB8_OES, read.glInternalFormat);
+		assertEquals(bytes(8, 3), read.getLevel(0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void bigEndianShortsAreRejected() {
+		final ByteBuffer file = header(ByteOrder.BIG_ENDIAN, PixelPacker.GL_UNSIGNED_SHORT_5_6_5, 2, 1, 1);
+		file.putInt(2).put(bytes(4, 0)).flip();
+		KtxFile.read(file);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void cubeMapsAreRejected() {
+		final ByteBuffer file = header(ByteOrder.LITTLE_ENDIAN, 0, 1, 6, 1);
+		file.putInt(8).put(bytes(8, 0)).flip();
+		KtxFile.read(file);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void truncatedLevelsAreRejected() {
+		final ByteBuffer file = header(ByteOrder.LITTLE_ENDIAN, 0, 1, 1, 1);
+		file.putInt(16).put(bytes(8, 0)).flip();
+		KtxFile.read(file);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void otherFilesAreRejected() {
+		KtxFile.read(ByteBuffer.wrap(new byte[128]));
+	}
+
+	//------------------------------------------
+	// count bytes first, first + 1...
+	private static ByteBuffer bytes(int count, int first) {
+		final ByteBuffer buffer = ByteBuffer.allocate(count);
+		for (int i=0; i<count; i++) {
+			buffer.put((byte) (first + i));
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static byte[] write(KtxFile ktx) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ktx.write(out);
+		return out.toByteArray();
+	}
+
+	// 4x4 texture header in the given byte order, with room for one level of up to 16 bytes
+	private static ByteBuffer header(ByteOrder order, int glType, int glTypeSize, int faces, int levels) {
+		final ByteBuffer file = ByteBuffer.allocate(64 + 4 + 16).order(order);
+		file.put(IDENTIFIER);
+		file.putInt(0x04030201);
+		file.putInt(glType).putInt(glTypeSize).putInt(0).putInt(Etc1.GL_ETC1_RGB8_OES).putInt(PixelPacker.GL_RGB);
+		file.putInt(4).putInt(4).putInt(0).putInt(0).putInt(faces).putInt(levels).putInt(0);
+		return file;
+	}
+}
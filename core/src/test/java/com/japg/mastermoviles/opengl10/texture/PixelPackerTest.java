@@ -0,0 +1,103 @@
+package com.japg.mastermoviles.opengl10.texture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// The fallback formats byte for byte, and ETC1 blocks decoded as the spec says
+public class PixelPackerTest {
+	@Test
+	public void rgb565IsPackedByteForByte() {
+		final int[] argb = { 0xFFFF0000, 0xFF00FF00, 0xFF0000FF, 0x00123456 };
+		final ByteBuffer out = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		PixelPacker.packRgb565(argb, argb.length, out);
+		// Alpha is dropped; 0x12, 0x34, 0x56 keep their top 5, 6 and 5 bits: 0x11AA
+		assertArrayEquals(new byte[] { 0x00, (byte) 0xF8, (byte) 0xE0, 0x07, 0x1F, 0x00, (byte) 0xAA, 0x11 }, out.array());
+	}
+
+	@Test
+	public void rgba4444IsPackedByteForByte() {
+		final int[] argb = { 0x80FF8040, 0x0F000000 };
+		final ByteBuffer out = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN);
+		PixelPacker.packRgba4444(argb, argb.length, out);
+		// R, G, B, A from the top nibble down, in the order of the buffer
+		assertArrayEquals(new byte[] { (byte) 0xF8, 0x48, 0x00, 0x00 }, out.array());
+	}
+
+	// Unpacking repeats the top bits, so every 16-bit texel packs back to itself
+	@Test
+	public void everyTexelRoundTrips() {
+		final ByteBuffer packed = ByteBuffer.allocate(0x10000 * 2).order(ByteOrder.nativeOrder());
+		for (int t=0; t<0x10000; t++) {
+			packed.putShort((short) t);
+		}
+		final int[] argb = new int[0x10000];
+		final ByteBuffer again = ByteBuffer.allocate(packed.capacity()).order(ByteOrder.nativeOrder());
+
+		packed.flip();
+		PixelPacker.unpackRgb565(packed, argb.length, argb);
+		PixelPacker.packRgb565(argb, argb.length, again);
+		assertArrayEquals(packed.array(), again.array());
+
+		packed.flip();
+		again.clear();
+		PixelPacker.unpackRgba4444(packed, argb.length, argb);
+		PixelPacker.packRgba4444(argb, argb.length, again);
+		assertArrayEquals(packed.array(), again.array());
+	}
+
+	@Test
+	public void channelsAreWidened() {
+		final int[] argb = new int[2];
+		PixelPacker.unpackRgb565(shorts(0xF800, 0x001F), 2, argb);
+		assertArrayEquals(new int[] { 0xFFFF0000, 0xFF0000FF }, argb);
+		PixelPacker.unpackRgba4444(shorts(0xF848, 0x000F), 2, argb);
+		assertArrayEquals(new int[] { 0x88FF8844, 0xFF000000 }, argb);
+	}
+
+	// Individual mode, no flip: left half around 0x88 with table 0 (2, 8), right half with table 7 (47, 183)
+	@Test
+	public void etc1BlocksDecodeAsSpecified() {
+		final int[] argb = new int[16];
+		Etc1.decode(ByteBuffer.wrap(new byte[] { (byte) 0x88, (byte) 0x88, (byte) 0x88, 0x1C, 0, 0, 0, 0 }), 4, 4, argb);
+		for (int i=0; i<16; i++) {
+			assertEquals(i % 4 < 2 ? 0xFF8A8A8A : 0xFFB7B7B7, argb[i]);
+		}
+		// Every pixel index msb set: minus the small modifier
+		Etc1.decode(ByteBuffer.wrap(new byte[] { (byte) 0x88, (byte) 0x88, (byte) 0x88, 0x1C, -1, -1, 0, 0 }), 4, 4, argb);
+		for (int i=0; i<16; i++) {
+			assertEquals(i % 4 < 2 ? 0xFF868686 : 0xFF595959, argb[i]);
+		}
+	}
+
+	// A flat color comes back within 8 levels per channel: 5-bit base colors plus one modifier for all three
+	@Test
+	public void etc1EncodesFlatColors() {
+		final int[] argb = new int[8 * 4];
+		Arrays.fill(argb, 0xFF4080C0);
+		final byte[] encoded = Etc1.encode(argb, 8, 4);
+		assertEquals(Etc1.encodedSize(8, 4), encoded.length);
+		final int[] decoded = new int[argb.length];
+		Etc1.decode(ByteBuffer.wrap(encoded), 8, 4, decoded);
+		for (int p : decoded) {
+			assertTrue(Integer.toHexString(p), Math.abs((p >> 16 & 0xFF) - 0x40) <= 8 && Math.abs((p >> 8 & 0xFF) - 0x80) <= 8
+					&& Math.abs((p & 0xFF) - 0xC0) <= 8);
+		}
+	}
+
+	//------------------------------------------
+	private static ByteBuffer shorts(int... values) {
+		final ByteBuffer buffer = ByteBuffer.allocate(values.length * 2).order(ByteOrder.nativeOrder());
+		for (int v : values) {
+			buffer.putShort((short) v);
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
@@ -0,0 +1,201 @@
+package com.japg.mastermoviles.opengl10.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.japg.mastermoviles.opengl10.render.MeshLods;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+// Un .m3d devuelve exactamente lo que escribió el lector, como vistas del fichero mapeado
+public class MeshCacheTest {
+	private static final int HEADER_SIZE = 5 * 4;
+	private static final int ENTRY_SIZE = (6 + 3 * MeshLods.MAX_LEVELS) * 4;
+	private static final int STRIDE = 32;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void indexedModelsRoundTrip() throws IOException {
+		roundTrip("t90a.3ds", true);
+		roundTrip("cabeza_mario_6.3ds", true);
+	}
+
+	@Test
+	public void triangleSoupRoundTrips() throws IOException {
+		final Resource3DSReader mapped = roundTrip("tierra.3ds", false);
+		assertFalse(mapped.isIndexed());
+		assertNull(mapped.indexBuffer);
+		assertNull(mapped.numIndices);
+	}
+
+	// Los niveles de detalle vuelven como rangos de los índices mapeados, con su error
+	@Test
+	public void detailLevelsRoundTrip() throws IOException {
+		final Resource3DSReader source = TestModels.read("t90a.3ds", true);
+		source.computeBounds();
+		source.generateLods();
+		final Resource3DSReader mapped = new Resource3DSReader();
+		mapped.setVerbose(false);
+		mapped.readMeshCache(write(source, "t90a"));
+		boolean simplified = false;
+		for (int i=0; i<source.numMeshes; i++) {
+			final MeshLods expected = source.lods[i];
+			final MeshLods actual = mapped.lods[i];
+			assertEquals(expected.getLevelCount(), actual.getLevelCount());
+			for (int l=0; l<expected.getLevelCount(); l++) {
+				assertEquals(expected.getFirst(l), actual.getFirst(l));
+				assertEquals(expected.getCount(l), actual.getCount(l));
+				assertEquals(Float.floatToRawIntBits(expected.getError(l)), Float.floatToRawIntBits(actual.getError(l)));
+			}
+			assertEquals(expected.getIndexCount(), actual.getIndexCount());
+			assertTrue(actual.getIndices() == mapped.indexBuffer[i]);
+			simplified |= actual.getLevelCount() > 1;
+		}
+		assertTrue(simplified);
+	}
+
+	@Test
+	public void modelsWithoutLevelsHaveNone() throws IOException {
+		final Resource3DSReader mapped = new Resource3DSReader();
+		mapped.readMeshCache(write(TestModels.read("t90a.3ds", true), "t90a"));
+		assertNull(mapped.lods);
+	}
+
+	// Cabecera, tabla de mallas y datos alineados a 4 bytes, en little-endian
+	@Test
+	public void layoutIsAsDocumented() throws IOException {
+		final Resource3DSReader source = TestModels.read("t90a.3ds", true);
+		source.generateLods();
+		final File file = write(source, "t90a");
+		final ByteBuffer in = MeshCache.map(file).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals('M' | '3' << 8 | 'D' << 16 | '1' << 24, in.getInt(0));
+		assertEquals(2, in.getInt(4));
+		assertEquals(STRIDE, in.getInt(8));
+		assertEquals(1, in.getInt(12));
+		assertEquals(source.numMeshes, in.getInt(16));
+
+		int offset = HEADER_SIZE + source.numMeshes * ENTRY_SIZE;
+		for (int i=0; i<source.numMeshes; i++) {
+			final int entry = HEADER_SIZE + i * ENTRY_SIZE;
+			final int indexSize = source.indexBuffer[i] instanceof IntBuffer ? 4 : 2;
+			assertEquals(source.numVertices[i], in.getInt(entry));
+			assertEquals(source.numIndices[i], in.getInt(entry + 4));
+			assertEquals(indexSize, in.getInt(entry + 8));
+			assertEquals(offset, in.getInt(entry + 12));
+			offset += source.numVertices[i] * STRIDE;
+			assertEquals(offset, in.getInt(entry + 16));
+			offset = (offset + source.numIndices[i] * indexSize + 3) & ~3;
+			final MeshLods lods = source.lods[i];
+			assertEquals(lods.getLevelCount(), in.getInt(entry + 20));
+			for (int l=0; l<MeshLods.MAX_LEVELS; l++) {
+				final int level = entry + 24 + l * 12;
+				assertEquals(l < lods.getLevelCount() ? lods.getFirst(l) : 0, in.getInt(level));
+				assertEquals(l < lods.getLevelCount() ? lods.getCount(l) : 0, in.getInt(level + 4));
+				assertEquals(l < lods.getLevelCount() ? lods.getError(l) : 0f, in.getFloat(level + 8), 0f);
+			}
+		}
+		assertEquals(offset, file.length());
+	}
+
+	@Test
+	public void otherFilesAreRejected() throws IOException {
+		final ByteBuffer valid = MeshCache.map(write(TestModels.read("cubo.3ds", true), "cubo"));
+		assertRejected(copy(valid, 0, 0x3344334D));
+		// Versión
+		assertRejected(copy(valid, 4, 1));
+		// Más niveles de detalle de los que caben en la tabla
+		assertRejected(copy(valid, HEADER_SIZE + 20, MeshLods.MAX_LEVELS + 1));
+		// Stride
+		assertRejected(copy(valid, 8, 24));
+		// Más corto que la cabecera
+		assertRejected(ByteBuffer.allocate(HEADER_SIZE - 1));
+
+		final File model = TestModels.file("cubo.3ds");
+		try {
+			new Resource3DSReader().readMeshCache(model);
+			fail("Se aceptó un 3DS como " + MeshCache.EXTENSION);
+		} catch (RuntimeException e) {
+			// Esperado
+		}
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void missingFileIsReported() {
+		new Resource3DSReader().readMeshCache(new File(folder.getRoot(), "no_existe" + MeshCache.EXTENSION));
+	}
+
+	//------------------------------------------
+	// Escribe el modelo, lo vuelve a cargar y compara cada float e índice bit a bit
+	private Resource3DSReader roundTrip(String name, boolean indexed) throws IOException {
+		final Resource3DSReader source = TestModels.read(name, indexed);
+		final File file = write(source, name.substring(0, name.length() - 4));
+		final Resource3DSReader mapped = new Resource3DSReader();
+		mapped.setVerbose(false);
+		assertEquals(source.numMeshes, mapped.readMeshCache(file));
+		assertEquals(indexed, mapped.isIndexed());
+		for (int i=0; i<source.numMeshes; i++) {
+			assertEquals(source.numVertices[i], mapped.numVertices[i]);
+			final FloatBuffer expected = source.dataBuffer[i];
+			final FloatBuffer actual = mapped.dataBuffer[i];
+			// Vistas directas y de sólo lectura sobre el fichero: nada se ha copiado
+			assertTrue(actual.isDirect());
+			assertTrue(actual.isReadOnly());
+			assertEquals(source.numVertices[i] * STRIDE / 4, actual.capacity());
+			for (int f=0; f<actual.capacity(); f++) {
+				assertEquals(Float.floatToRawIntBits(expected.get(f)), Float.floatToRawIntBits(actual.get(f)));
+			}
+			if (indexed) {
+				assertEquals(source.numIndices[i], mapped.numIndices[i]);
+				assertEquals(source.indexBuffer[i] instanceof IntBuffer, mapped.indexBuffer[i] instanceof IntBuffer);
+				assertTrue(mapped.indexBuffer[i].isReadOnly());
+				for (int n=0; n<source.numIndices[i]; n++) {
+					assertEquals(index(source.indexBuffer[i], n), index(mapped.indexBuffer[i], n));
+				}
+			}
+		}
+		return mapped;
+	}
+
+	private File write(Resource3DSReader reader, String name) throws IOException {
+		final File file = folder.newFile(name + MeshCache.EXTENSION);
+		MeshCache.write(reader, file);
+		return file;
+	}
+
+	private static int index(Buffer indices, int n) {
+		return indices instanceof IntBuffer ? ((IntBuffer) indices).get(n) : ((ShortBuffer) indices).get(n) & 0xFFFF;
+	}
+
+	// Copia del fichero con un entero cambiado
+	private static ByteBuffer copy(ByteBuffer file, int offset, int value) {
+		final ByteBuffer copy = ByteBuffer.allocate(file.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+		copy.put(file.duplicate()).putInt(offset, value);
+		copy.clear();
+		return copy;
+	}
+
+	private static void assertRejected(ByteBuffer file) {
+		try {
+			MeshCache.read(file, new Resource3DSReader());
+			fail("Se aceptó un fichero que no es " + MeshCache.EXTENSION);
+		} catch (RuntimeException e) {
+			// Esperado
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.japg.mastermoviles.opengl10.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.japg.mastermoviles.opengl10.render.StaticBatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+// Los .m3d mapeados llegan a la GPU sin copias: un lote por malla sobre las vistas del fichero, con
+// los niveles de detalle que se guardaron en él
+public class ModelLoaderTest {
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void mappedMeshesAreNotCopied() throws IOException {
+		final Resource3DSReader source = TestModels.read("t90a.3ds", true);
+		// Como MeshCacheConverter
+		source.computeBounds();
+		source.generateLods();
+		source.optimizeVertexCache();
+		final File file = folder.newFile("t90a" + MeshCache.EXTENSION);
+		MeshCache.write(source, file);
+
+		final Resource3DSReader mapped = ModelLoader.read(file);
+		assertEquals(source.numMeshes, mapped.numMeshes);
+		assertEquals(mapped.numMeshes, mapped.batches.length);
+		assertNull(mapped.packedVertices);
+		for (int i=0; i<mapped.numMeshes; i++) {
+			final StaticBatch batch = mapped.batches[i];
+			assertEquals(i, batch.getFirstPart());
+			assertEquals(1, batch.getPartCount());
+			assertEquals(source.lods[i].getCount(0), batch.getLevel0Count());
+			assertEquals(source.lods[i].getLevelCount(), mapped.lods[i].getLevelCount());
+			for (int l=0; l<mapped.lods[i].getLevelCount(); l++) {
+				assertEquals(source.lods[i].getFirst(l), batch.getFirst(i, l));
+			}
+			// Los clusters son los del nivel 0, como al convertir
+			assertEquals(source.bounds[i].getClusterCount(), mapped.bounds[i].getClusterCount());
+			assertEquals(source.bounds[i].getTriangleCount(), mapped.bounds[i].getTriangleCount());
+			assertTrue(mapped.dataBuffer[i].isReadOnly());
+			assertTrue(mapped.indexBuffer[i].isReadOnly());
+			assertNotNull(mapped.bounds[i]);
+		}
+	}
+
+	// Un .m3d de la caché que no se puede usar (p.ej. de otra versión del formato) se vuelve a generar
+	@Test
+	public void staleCacheIsRebuilt() throws IOException {
+		final File cache = new File(folder.getRoot(), "1-indexed" + MeshCache.EXTENSION);
+		final FileOutputStream stream = new FileOutputStream(cache);
+		try {
+			stream.write(new byte[] { 'M', '3', 'D', '1', 1, 0, 0, 0 });
+		} finally {
+			stream.close();
+		}
+		final ModelLoader.RawResources resources = resourceId -> new FileInputStream(TestModels.file("t90a.3ds"));
+		final Resource3DSReader rebuilt = ModelLoader.read(resources, 1, true, false, folder.getRoot());
+		assertTrue(cache.length() > 8);
+		final Resource3DSReader mapped = ModelLoader.read(resources, 1, true, false, folder.getRoot());
+		assertEquals(rebuilt.numMeshes, mapped.numMeshes);
+		for (int i=0; i<mapped.numMeshes; i++) {
+			assertEquals(rebuilt.numVertices[i], mapped.numVertices[i]);
+			assertEquals(rebuilt.numIndices[i], mapped.numIndices[i]);
+		}
+		assertEquals(1, folder.getRoot().listFiles().length);
+	}
+
+	// Los 3DS sí pasan por todo: niveles de detalle y mallas juntas en lotes
+	@Test
+	public void resourcesAreBatched() {
+		final Resource3DSReader reader = ModelLoader.read(resourceId -> new FileInputStream(TestModels.file("t90a.3ds")), 1, true);
+		assertEquals(5, reader.bounds.length);
+		assertEquals(2, reader.numMeshes);
+		assertEquals(5, reader.lods.length);
+		assertEquals(5, reader.batches[0].getPartCount() + reader.batches[1].getPartCount());
+	}
+}
@@ -0,0 +1,130 @@
+package com.japg.mastermoviles.opengl10.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+// Decodificar las mallas en paralelo da exactamente la misma salida que hacerlo en serie, y un fichero
+// cortado o con listas fuera de una malla se rechaza con una IOException que nombra el chunk
+public class Resource3DSReaderTest {
+	private static final int[] THREADS = { 1, 2, 4, 8 };
+
+	@Test
+	public void parallelOutputIsBitIdentical() throws IOException {
+		for (String model : new String[] { "t90a.3ds", "batmobile.3ds" }) {
+			for (boolean indexed : new boolean[] { false, true }) {
+				final Resource3DSReader serial = read(model, indexed, null);
+				assertTrue(serial.numMeshes > 1);
+				for (int threads : THREADS) {
+					final ForkJoinPool pool = new ForkJoinPool(threads);
+					try {
+						assertSameOutput(model + "/" + threads, serial, read(model, indexed, pool));
+					} finally {
+						pool.shutdown();
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void truncatedFileNamesTheChunk() throws IOException {
+		final byte[] data = readFile("t90a.3ds");
+		final Resource3DSReader whole = new Resource3DSReader();
+		whole.setVerbose(false);
+		whole.scanChunks(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN));
+		// Cortado a mitad de la lista de vértices de la primera malla, de la de caras y justo antes de
+		// acabar la de uv's de la última
+		final int last = whole.numMeshes - 1;
+		final int[][] cuts = {
+				{ whole.vertOffset[0] + 5, 0x4110 },
+				{ whole.faceOffset[0] + 8, 0x4120 },
+				{ whole.uvOffset[last] + whole.numUv[last] * 8 - 1, 0x4140 } };
+		for (int[] cut : cuts) {
+			final IOException e = readCorrupt(ByteBuffer.wrap(data, 0, cut[0]).slice());
+			assertTrue(e.getMessage(), e.getMessage().contains(String.format("chunk 0x%04x", cut[1])));
+		}
+	}
+
+	@Test
+	public void listBeforeObjectBlockIsRejected() {
+		// CHUNK_MAIN con un CHUNK_VERTLIST de un vértice y ningún CHUNK_OBJBLOCK
+		final ByteBuffer in = ByteBuffer.allocate(6 + 6 + 2 + 12).order(ByteOrder.LITTLE_ENDIAN);
+		in.putShort((short) 0x4d4d).putInt(in.capacity());
+		in.putShort((short) 0x4110).putInt(6 + 2 + 12).putShort((short) 1);
+		in.putFloat(1f).putFloat(2f).putFloat(3f);
+		in.flip();
+		final IOException e = readCorrupt(in);
+		assertTrue(e.getMessage(), e.getMessage().contains("chunk 0x4110"));
+	}
+
+	//------------------------------------------
+	private static IOException readCorrupt(ByteBuffer in) {
+		final Resource3DSReader reader = new Resource3DSReader(true);
+		reader.setVerbose(false);
+		try {
+			reader.read3DSFromBuffer(in);
+		} catch (RuntimeException e) {
+			assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IOException);
+			return (IOException) e.getCause();
+		}
+		fail("Se ha leído un fichero corrupto");
+		return null;
+	}
+
+	private static byte[] readFile(String model) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(TestModels.file(model), "r");
+		try {
+			final byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+			return data;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static Resource3DSReader read(String model, boolean indexed, ForkJoinPool pool) throws IOException {
+		final Resource3DSReader reader = new Resource3DSReader(indexed);
+		reader.setVerbose(false);
+		if (pool != null) {
+			reader.setPool(pool);
+		} else {
+			reader.setParallel(false);
+		}
+		reader.read3DSFromStream(new FileInputStream(TestModels.file(model)));
+		return reader;
+	}
+
+	private static void assertSameOutput(String name, Resource3DSReader expected, Resource3DSReader actual) {
+		assertEquals(name, expected.numMeshes, actual.numMeshes);
+		for (int i=0; i<expected.numMeshes; i++) {
+			assertEquals(name, expected.numVertices[i], actual.numVertices[i]);
+			for (int f=0; f<expected.numVertices[i] * 8; f++) {
+				assertEquals(name + " malla " + i, Float.floatToRawIntBits(expected.dataBuffer[i].get(f)),
+						Float.floatToRawIntBits(actual.dataBuffer[i].get(f)));
+			}
+			if (expected.isIndexed()) {
+				assertEquals(name, expected.numIndices[i], actual.numIndices[i]);
+				for (int n=0; n<expected.numIndices[i]; n++) {
+					assertEquals(name + " malla " + i, index(expected.indexBuffer[i], n), index(actual.indexBuffer[i], n));
+				}
+			}
+		}
+	}
+
+	private static int index(Buffer indices, int n) {
+		return indices instanceof IntBuffer ? ((IntBuffer) indices).get(n) : ((ShortBuffer) indices).get(n) & 0xFFFF;
+	}
+}
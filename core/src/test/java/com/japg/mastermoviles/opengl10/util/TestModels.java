@@ -0,0 +1,34 @@
+package com.japg.mastermoviles.opengl10.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+
+/* Los modelos de los recursos de la app, para los tests: los mismos ficheros y la misma propiedad
+*  models.dir que los benchmarks.
+*/
+public final class TestModels {
+	private TestModels() {
+	}
+
+	public static File file(String name) {
+		return new File(System.getProperty("models.dir", "../app/src/main/res/raw"), name);
+	}
+
+	// Los drawables están junto a los recursos raw
+	public static File drawable(String name) {
+		return new File(file("").getAbsoluteFile().getParentFile(), "drawable-v24/" + name);
+	}
+
+	// Leído y expandido, sin ninguna de las pasadas posteriores del cargador
+	public static Resource3DSReader read(String name, boolean indexed) {
+		final Resource3DSReader reader = new Resource3DSReader(indexed);
+		reader.setVerbose(false);
+		try {
+			reader.read3DSFromStream(new FileInputStream(file(name)));
+		} catch (FileNotFoundException e) {
+			throw new IllegalArgumentException("No existe el modelo: " + name, e);
+		}
+		return reader;
+	}
+}